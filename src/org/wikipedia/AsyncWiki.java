@@ -0,0 +1,380 @@
+/**
+ *  @(#)AsyncWiki.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Asynchronous versions of the read methods of a {@link Wiki}. Every method
+ *  returns immediately with a <tt>CompletableFuture</tt> that completes with
+ *  the result of the corresponding <tt>Wiki</tt> method, or exceptionally
+ *  with whatever it threw (usually an <tt>IOException</tt>).
+ *
+ *  <p>
+ *  Calls are queued, not parked on threads: at most {@link
+ *  #getMaxConcurrentRequests()} of them run against the wiki at any time and
+ *  the rest wait in the queue without occupying a thread. Thousands of calls
+ *  spread over many wikis therefore need only as many threads as the sum of
+ *  the per wiki limits. The underlying transport is still the blocking
+ *  {@link WikiTransport}, so each running call does hold one thread.
+ *
+ *  <pre>
+ *  AsyncWiki enWiki = new AsyncWiki(new Wiki("en.wikipedia.org"));
+ *  CompletableFuture&lt;String&gt; text = enWiki.getPageText("Main Page");
+ *  CompletableFuture&lt;Wiki.Revision[]&gt; contribs = enWiki.contribs("MER-C");
+ *  text.thenAcceptBoth(contribs, (t, c) -&gt; ...);
+ *  </pre>
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+public class AsyncWiki
+{
+    /**
+     *  A call to a blocking Wiki method.
+     *  @param <T> the type of the result
+     */
+    @FunctionalInterface
+    public interface WikiCall<T>
+    {
+        /**
+         *  Performs the call.
+         *  @param wiki the wiki to call
+         *  @return the result
+         *  @throws Exception if the call fails
+         */
+        T call(Wiki wiki) throws Exception;
+    }
+
+    // shared by all instances, threads are created on demand and die when
+    // idle, so the number of threads follows the number of running calls
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable ->
+    {
+        Thread thread = new Thread(runnable, "Wiki.java async");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Wiki wiki;
+    private final RequestQueue queue;
+
+    /**
+     *  Creates an asynchronous facade for the given wiki that runs up to four
+     *  calls at a time on a shared pool of daemon threads.
+     *  @param wiki the wiki to wrap
+     */
+    public AsyncWiki(Wiki wiki)
+    {
+        this(wiki, DEFAULT_EXECUTOR, 4);
+    }
+
+    /**
+     *  Creates an asynchronous facade for the given wiki.
+     *  @param wiki the wiki to wrap
+     *  @param executor runs the calls, must not run them on the calling
+     *  thread
+     *  @param maxconcurrent the maximum number of calls running against this
+     *  wiki at the same time
+     *  @throws IllegalArgumentException if maxconcurrent &lt; 1
+     */
+    public AsyncWiki(Wiki wiki, Executor executor, int maxconcurrent)
+    {
+        this.wiki = Objects.requireNonNull(wiki);
+        queue = new RequestQueue(executor, maxconcurrent);
+    }
+
+    /**
+     *  Returns the wrapped wiki.
+     *  @return (see above)
+     */
+    public Wiki getWiki()
+    {
+        return wiki;
+    }
+
+    /**
+     *  Returns the maximum number of calls that run against the wiki at the
+     *  same time.
+     *  @return (see above)
+     */
+    public int getMaxConcurrentRequests()
+    {
+        return queue.getLimit();
+    }
+
+    /**
+     *  Queues an arbitrary call to the wrapped wiki, e.g.
+     *  <tt>submit(wiki -&gt; wiki.getImageHistory("File:Example.png"))</tt>.
+     *  @param <T> the type of the result
+     *  @param call the call to make
+     *  @return a future for the result of the call
+     */
+    public <T> CompletableFuture<T> submit(WikiCall<T> call)
+    {
+        return queue.submit(() -> call.call(wiki));
+    }
+
+    // PAGE METHODS
+
+    /**
+     *  Asynchronous version of {@link Wiki#getPageText(java.lang.String)}.
+     *  @param title a page
+     *  @return a future for the text of that page
+     */
+    public CompletableFuture<String> getPageText(String title)
+    {
+        return submit(w -> w.getPageText(title));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getPageText(java.lang.String[])}.
+     *  @param titles a list of titles
+     *  @return a future for the texts of those pages
+     */
+    public CompletableFuture<String[]> getPageText(String[] titles)
+    {
+        return submit(w -> w.getPageText(titles));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getPageInfo(java.lang.String)}.
+     *  @param title a page
+     *  @return a future for the page info
+     */
+    public CompletableFuture<Map> getPageInfo(String title)
+    {
+        return submit(w -> w.getPageInfo(title));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getPageInfo(java.lang.String[])}.
+     *  @param titles a list of titles
+     *  @return a future for the page info
+     */
+    public CompletableFuture<Map[]> getPageInfo(String[] titles)
+    {
+        return submit(w -> w.getPageInfo(titles));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#exists(java.lang.String)}.
+     *  @param title a title
+     *  @return a future for whether the page exists
+     */
+    public CompletableFuture<Boolean> exists(String title)
+    {
+        return submit(w -> w.exists(title));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#exists(java.lang.String[])}.
+     *  @param titles a list of titles
+     *  @return a future for whether the pages exist
+     */
+    public CompletableFuture<boolean[]> exists(String[] titles)
+    {
+        return submit(w -> w.exists(titles));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getLinksOnPage(java.lang.String)}.
+     *  @param title a page
+     *  @return a future for the links on that page
+     */
+    public CompletableFuture<String[]> getLinksOnPage(String title)
+    {
+        return submit(w -> w.getLinksOnPage(title));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getTemplates(java.lang.String,
+     *  int...)}.
+     *  @param title a page
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return a future for the templates used on that page
+     */
+    public CompletableFuture<String[]> getTemplates(String title, int... ns)
+    {
+        return submit(w -> w.getTemplates(title, ns));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getPageHistory(java.lang.String)}.
+     *  @param title a page
+     *  @return a future for the revisions of that page
+     */
+    public CompletableFuture<Wiki.Revision[]> getPageHistory(String title)
+    {
+        return submit(w -> w.getPageHistory(title));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getRevision(long)}.
+     *  @param oldid a revision id
+     *  @return a future for the revision
+     */
+    public CompletableFuture<Wiki.Revision> getRevision(long oldid)
+    {
+        return submit(w -> w.getRevision(oldid));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getRevisionTexts(long[])}.
+     *  @param revids a list of oldids
+     *  @return a future for the texts of those revisions
+     */
+    public CompletableFuture<String[]> getRevisionTexts(long[] revids)
+    {
+        return submit(w -> w.getRevisionTexts(revids));
+    }
+
+    // USER METHODS
+
+    /**
+     *  Asynchronous version of {@link Wiki#contribs(java.lang.String,
+     *  int...)}.
+     *  @param user the user or IP to get contributions for
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return a future for the contributions of the user
+     */
+    public CompletableFuture<Wiki.Revision[]> contribs(String user, int... ns)
+    {
+        return submit(w -> w.contribs(user, ns));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#contribs(java.lang.String,
+     *  java.lang.String, java.util.Calendar, java.util.Calendar, int...)}.
+     *  @param user the user to get contributions for
+     *  @param prefix a prefix of usernames, overrides <tt>user</tt>
+     *  @param end fetch edits no older than this date
+     *  @param start fetch edits no newer than this date
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return a future for the contributions
+     */
+    public CompletableFuture<Wiki.Revision[]> contribs(String user, String prefix, Calendar end, Calendar start, int... ns)
+    {
+        return submit(w -> w.contribs(user, prefix, end, start, ns));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getLogEntries(java.util.Calendar,
+     *  java.util.Calendar, int, java.lang.String, java.lang.String,
+     *  org.wikipedia.Wiki.User, java.lang.String, int)}.
+     *  @param start what timestamp to start, null to not specify one
+     *  @param end what timestamp to end, null to not specify one
+     *  @param amount the amount of log entries to get
+     *  @param log what log to get (e.g. DELETION_LOG)
+     *  @param action what action to get, "" to not specify one
+     *  @param user the user performing the action, null to not specify one
+     *  @param target the target of the action, "" to not specify one
+     *  @param namespace filters by namespace, ALL_NAMESPACES to not specify one
+     *  @return a future for the log entries
+     */
+    public CompletableFuture<Wiki.LogEntry[]> getLogEntries(Calendar start, Calendar end, int amount, String log,
+        String action, Wiki.User user, String target, int namespace)
+    {
+        return submit(w -> w.getLogEntries(start, end, amount, log, action, user, target, namespace));
+    }
+
+    // LISTS
+
+    /**
+     *  Asynchronous version of {@link Wiki#search(java.lang.String, int...)}.
+     *  @param search a search string
+     *  @param ns the namespaces to search, empty = main namespace
+     *  @return a future for the search results
+     */
+    public CompletableFuture<String[][]> search(String search, int... ns)
+    {
+        return submit(w -> w.search(search, ns));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#linksearch(java.lang.String)}.
+     *  @param pattern the pattern (String) to search for (e.g. example.com,
+     *  *.example.com)
+     *  @return a future for the pages and links
+     */
+    public CompletableFuture<List[]> linksearch(String pattern)
+    {
+        return submit(w -> w.linksearch(pattern));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#linksearch(java.lang.String,
+     *  java.lang.String, int...)}.
+     *  @param pattern the pattern (String) to search for
+     *  @param protocol a protocol to restrict the search to
+     *  @param ns the namespaces to search in, empty = all namespaces
+     *  @return a future for the pages and links
+     */
+    public CompletableFuture<List[]> linksearch(String pattern, String protocol, int... ns)
+    {
+        return submit(w -> w.linksearch(pattern, protocol, ns));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#whatLinksHere(java.lang.String,
+     *  int...)}.
+     *  @param title the title of the page
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return a future for the pages linking to that page
+     */
+    public CompletableFuture<String[]> whatLinksHere(String title, int... ns)
+    {
+        return submit(w -> w.whatLinksHere(title, ns));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#getCategoryMembers(java.lang.String,
+     *  int...)}.
+     *  @param name the name of the category (with or without namespace)
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return a future for the members of the category
+     */
+    public CompletableFuture<String[]> getCategoryMembers(String name, int... ns)
+    {
+        return submit(w -> w.getCategoryMembers(name, ns));
+    }
+
+    /**
+     *  Asynchronous version of {@link Wiki#recentChanges(int)}.
+     *  @param amount the number of recent changes to get
+     *  @return a future for the recent changes
+     */
+    public CompletableFuture<Wiki.Revision[]> recentChanges(int amount)
+    {
+        return submit(w -> w.recentChanges(amount));
+    }
+
+    /**
+     *  Returns a string representation of this object.
+     *  @return (see above)
+     */
+    @Override
+    public String toString()
+    {
+        return "AsyncWiki[wiki=" + wiki.getDomain() + ",maxconcurrent=" + queue.getLimit() + ",queued=" + queue.size() + "]";
+    }
+}
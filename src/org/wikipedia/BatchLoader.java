@@ -0,0 +1,182 @@
+/**
+ *  @(#)BatchLoader.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Collects single-key lookups made by different threads within a short
+ *  window and makes them as one multi-key lookup, e.g. many
+ *  <tt>getPageText(title)</tt> calls become one request for up to 50 titles.
+ *
+ *  <p>
+ *  There is no background thread: the first thread to ask opens a batch,
+ *  waits until the window has passed or the batch is full, then makes the
+ *  lookup for everyone in it. Everyone else just waits for their result.
+ *  Results are mutable, so threads that ask for the same key never share
+ *  one: duplicates are looked up again in a second lookup of the batch.
+ *
+ *  @param <K> the type of the keys
+ *  @param <V> the type of the results
+ *  @author MER-C
+ *  @since 0.32
+ */
+final class BatchLoader<K, V>
+{
+    private final Loader<K, V> loader;
+    private Batch<K, V> open = null; // guarded by this
+
+    /**
+     *  Looks up many keys at once.
+     *  @param <K> the type of the keys
+     *  @param <V> the type of the results
+     */
+    @FunctionalInterface
+    interface Loader<K, V>
+    {
+        /**
+         *  Looks up the given keys.
+         *  @param keys the keys, without duplicates
+         *  @return the results, keys that are absent get null
+         *  @throws IOException if a network error occurs
+         */
+        Map<K, V> load(List<K> keys) throws IOException;
+    }
+
+    /**
+     *  Creates a new batch loader.
+     *  @param loader makes the multi-key lookups
+     */
+    BatchLoader(Loader<K, V> loader)
+    {
+        this.loader = loader;
+    }
+
+    /**
+     *  Looks up a single key as part of a batch.
+     *  @param key the key to look up
+     *  @param window how long the first key of a batch waits for others in
+     *  milliseconds
+     *  @param maxbatch the maximum number of keys in a batch
+     *  @return the result for that key, may be null
+     *  @throws IOException if the lookup of the batch failed
+     */
+    V load(K key, long window, int maxbatch) throws IOException
+    {
+        Batch<K, V> batch;
+        CompletableFuture<V> result;
+        boolean first;
+        synchronized (this)
+        {
+            first = open == null;
+            if (first)
+                open = new Batch<>();
+            batch = open;
+            result = new CompletableFuture<>();
+            batch.results.computeIfAbsent(key, k -> new ArrayList<>()).add(result);
+            if (batch.results.size() >= maxbatch)
+            {
+                open = null;
+                batch.full.countDown();
+            }
+        }
+        if (first)
+        {
+            boolean interrupted = false;
+            try
+            {
+                batch.full.await(window, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ex)
+            {
+                // the others are counting on us, make the lookup anyway
+                interrupted = true;
+            }
+            synchronized (this)
+            {
+                if (open == batch)
+                    open = null;
+            }
+            batch.run(loader);
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        try
+        {
+            return result.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a batched request");
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw (Error)cause;
+        }
+    }
+
+    /**
+     *  The keys collected for one lookup.
+     *  @param <K> the type of the keys
+     *  @param <V> the type of the results
+     */
+    private static final class Batch<K, V>
+    {
+        // only modified while open, under the lock of the BatchLoader
+        private final Map<K, List<CompletableFuture<V>>> results = new LinkedHashMap<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+
+        private void run(Loader<K, V> loader)
+        {
+            // lookup n serves the n-th thread to ask for each key
+            for (int n = 0; ; n++)
+            {
+                List<K> keys = new ArrayList<>();
+                for (Map.Entry<K, List<CompletableFuture<V>>> entry : results.entrySet())
+                    if (entry.getValue().size() > n)
+                        keys.add(entry.getKey());
+                if (keys.isEmpty())
+                    return;
+                try
+                {
+                    Map<K, V> values = loader.load(keys);
+                    for (K key : keys)
+                        results.get(key).get(n).complete(values.get(key));
+                }
+                catch (IOException | RuntimeException | Error ex)
+                {
+                    for (List<CompletableFuture<V>> waiting : results.values())
+                        for (int i = n; i < waiting.size(); i++)
+                            waiting.get(i).completeExceptionally(ex);
+                    return;
+                }
+            }
+        }
+    }
+}
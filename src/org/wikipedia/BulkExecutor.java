@@ -0,0 +1,214 @@
+/**
+ *  @(#)BulkExecutor.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Runs large numbers of blocking calls against one or more wikis, e.g. a
+ *  linksearch on every Wikimedia wiki or the contributions of a thousand
+ *  users. Each call gets its own virtual thread when running on Java 21 or
+ *  later; older JVMs fall back to a fixed pool of daemon threads. Either
+ *  way no more than a given number of calls run against any one host at the
+ *  same time, the rest wait in a queue without occupying a thread.
+ *
+ *  <pre>
+ *  try (BulkExecutor bulk = new BulkExecutor())
+ *  {
+ *      List&lt;CompletableFuture&lt;Wiki.Revision[]&gt;&gt; contribs = new ArrayList&lt;&gt;();
+ *      for (String user : users)
+ *          contribs.add(bulk.submit(enWiki, wiki -&gt; wiki.contribs(user)));
+ *      for (CompletableFuture&lt;Wiki.Revision[]&gt; future : contribs)
+ *          process(BulkExecutor.await(future));
+ *  }
+ *  </pre>
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+public class BulkExecutor implements AutoCloseable
+{
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final int perhost;
+    private final ConcurrentHashMap<String, RequestQueue> hosts = new ConcurrentHashMap<>();
+    private int outstanding = 0;
+    private boolean closed = false;
+
+    /**
+     *  Creates a new executor that runs up to four calls per host at a time
+     *  and, where virtual threads are unavailable, up to 32 calls in total.
+     */
+    public BulkExecutor()
+    {
+        this(4, 32);
+    }
+
+    /**
+     *  Creates a new executor.
+     *  @param perhost the maximum number of calls running against a single
+     *  host at the same time
+     *  @param maxthreads the size of the thread pool used where virtual
+     *  threads are unavailable. Ignored on Java 21 and later.
+     *  @throws IllegalArgumentException if either limit is less than 1
+     */
+    public BulkExecutor(int perhost, int maxthreads)
+    {
+        if (perhost < 1 || maxthreads < 1)
+            throw new IllegalArgumentException("Must allow at least one concurrent request.");
+        this.perhost = perhost;
+        ExecutorService temp = newVirtualThreadExecutor();
+        virtual = temp != null;
+        if (temp == null)
+            temp = Executors.newFixedThreadPool(maxthreads, runnable ->
+            {
+                Thread thread = new Thread(runnable, "Wiki.java bulk");
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor = temp;
+    }
+
+    /**
+     *  Looks up <tt>Executors.newVirtualThreadPerTaskExecutor()</tt>
+     *  reflectively, so that this class still compiles and runs on Java 8.
+     *  @return a virtual thread per task executor, or null if this JVM
+     *  doesn't have them
+     */
+    private static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     *  Returns whether calls run on virtual threads.
+     *  @return (see above)
+     */
+    public boolean isUsingVirtualThreads()
+    {
+        return virtual;
+    }
+
+    /**
+     *  Returns the maximum number of calls running against a single host at
+     *  the same time.
+     *  @return (see above)
+     */
+    public int getMaxRequestsPerHost()
+    {
+        return perhost;
+    }
+
+    /**
+     *  Queues a call to the given wiki. The call counts against the limit
+     *  for the wiki's domain.
+     *  @param <T> the type of the result
+     *  @param wiki the wiki to call
+     *  @param call the call to make
+     *  @return a future for the result of the call, completed exceptionally
+     *  with whatever the call throws
+     *  @throws RejectedExecutionException if this executor has been closed
+     */
+    public <T> CompletableFuture<T> submit(Wiki wiki, AsyncWiki.WikiCall<T> call)
+    {
+        synchronized (this)
+        {
+            if (closed)
+                throw new RejectedExecutionException("BulkExecutor has been closed.");
+            outstanding++;
+        }
+        RequestQueue queue = hosts.computeIfAbsent(wiki.getDomain(), host -> new RequestQueue(executor, perhost));
+        CompletableFuture<T> future = queue.submit(() -> call.call(wiki));
+        future.whenComplete((result, ex) -> finished());
+        return future;
+    }
+
+    private synchronized void finished()
+    {
+        if (--outstanding == 0)
+            notifyAll();
+    }
+
+    /**
+     *  Waits for a call submitted to this executor and returns its result.
+     *  Network errors are rethrown as they were thrown by the call.
+     *  @param <T> the type of the result
+     *  @param future a future returned by {@link #submit(Wiki,
+     *  AsyncWiki.WikiCall)}
+     *  @return the result of the call
+     *  @throws IOException if the call threw one
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request");
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     *  Stops accepting new calls and waits for those already submitted,
+     *  including queued ones, to finish.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            try
+            {
+                while (outstanding > 0)
+                    wait();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        executor.shutdown();
+    }
+}
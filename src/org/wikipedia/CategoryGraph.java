@@ -0,0 +1,380 @@
+/**
+ *  @(#)CategoryGraph.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.*;
+
+/**
+ *  A persistent copy of (part of) the category graph of a wiki. Categories
+ *  are crawled the first time they are needed and kept, with the time they
+ *  were crawled, in a compressed file; recursive lookups are then answered
+ *  from memory. {@link #refresh()} brings the stored categories up to date
+ *  cheaply: the sizes of all of them are checked in batches, and only those
+ *  whose size changed are fetched again, starting from the time they were
+ *  last crawled (<tt>cmsort=timestamp&amp;cmstart=</tt>). A category is only
+ *  fetched in full when members were removed from it.
+ *
+ *  <pre>
+ *  CategoryGraph graph = new CategoryGraph(enWiki, Paths.get("categories.gz"));
+ *  graph.refresh();
+ *  String[] users = graph.getCategoryMembers("Wikipedia sockpuppets", 2, Wiki.USER_NAMESPACE);
+ *  graph.save();
+ *  </pre>
+ *
+ *  <p>
+ *  Members that are added and removed between two refreshes so that the
+ *  size of the category stays the same go unnoticed until the size of that
+ *  category changes. All methods are synchronized.
+ *
+ *  @see Wiki#getCategoryMembers(java.lang.String, int, boolean, int...)
+ *  @author MER-C
+ *  @since 0.32
+ */
+public class CategoryGraph
+{
+    private static final int MAGIC = 0x574a4347; // "WJCG"
+    private static final int VERSION = 1;
+    // members added this long before a crawl started are fetched again on
+    // the next refresh, to allow for clock skew and replication lag
+    private static final long MARGIN = 600;
+
+    private final Wiki wiki;
+    private final Path file;
+
+    // category -> members, in the order the API returned them
+    private final Map<String, Node> categories = new HashMap<>();
+    // member -> the stored categories it is in
+    private final Map<String, Set<String>> parents = new HashMap<>();
+
+    /**
+     *  A crawled category.
+     */
+    private static final class Node
+    {
+        private long crawled;
+        private final LinkedHashSet<String> members = new LinkedHashSet<>();
+    }
+
+    /**
+     *  Opens the category graph stored in the given file. If the file
+     *  doesn't exist, the graph starts empty and the file is created by
+     *  {@link #save()}.
+     *  @param wiki the wiki the categories are from
+     *  @param file where the graph is stored
+     *  @throws IOException if the file exists but cannot be read
+     */
+    public CategoryGraph(Wiki wiki, Path file) throws IOException
+    {
+        this.wiki = wiki;
+        this.file = file;
+        if (Files.exists(file))
+            load();
+    }
+
+    /**
+     *  Gets the members of a category and of its subcategories down to the
+     *  given depth. Categories that haven't been crawled yet are crawled,
+     *  those of one level all at once; everything else is answered from the
+     *  stored graph. Like {@link Wiki#getCategoryMembers(java.lang.String,
+     *  int, boolean, int...)}, each category is visited only once and a page
+     *  in several of the visited categories is returned once per category.
+     *
+     *  @param name the name of the category (with or without namespace
+     *  attached)
+     *  @param maxdepth depth of recursion for subcategories
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return the titles of the members, in the order the categories were
+     *  visited
+     *  @throws IOException if a network error occurs
+     */
+    public synchronized String[] getCategoryMembers(String name, int maxdepth, int... ns) throws IOException
+    {
+        Set<Integer> namespaces = new HashSet<>();
+        for (int namespace : ns)
+            namespaces.add(namespace);
+        String root = key(name);
+        Set<String> visited = new HashSet<>();
+        visited.add(root);
+        List<String> level = Collections.singletonList(root);
+        List<String> members = new ArrayList<>();
+        for (int depth = 0; !level.isEmpty(); depth++)
+        {
+            List<String> missing = new ArrayList<>();
+            for (String category : level)
+                if (!categories.containsKey(category))
+                    missing.add(category);
+            crawl(missing);
+
+            List<String> next = new ArrayList<>();
+            for (String category : level)
+            {
+                for (String member : categories.get(category).members)
+                {
+                    int namespace = wiki.namespace(member);
+                    if (depth < maxdepth && namespace == Wiki.CATEGORY_NAMESPACE && visited.add(member))
+                        next.add(member);
+                    if (namespaces.isEmpty() || namespaces.contains(namespace))
+                        members.add(member);
+                }
+            }
+            level = next;
+        }
+        return members.toArray(new String[members.size()]);
+    }
+
+    /**
+     *  Returns the stored categories the given page is in.
+     *  @param title the title of a page
+     *  @return (see above), in no particular order
+     */
+    public synchronized String[] getCategories(String title)
+    {
+        Set<String> ret = parents.getOrDefault(title, Collections.emptySet());
+        return ret.toArray(new String[ret.size()]);
+    }
+
+    /**
+     *  Returns when the given category was last crawled.
+     *  @param name the name of the category (with or without namespace
+     *  attached)
+     *  @return the time in seconds since the epoch, or -1 if the category
+     *  is not stored
+     *  @throws IOException if a network error occurs
+     */
+    public synchronized long getLastCrawled(String name) throws IOException
+    {
+        Node node = categories.get(key(name));
+        return node == null ? -1 : node.crawled;
+    }
+
+    /**
+     *  Returns the number of stored categories.
+     *  @return (see above)
+     */
+    public synchronized int size()
+    {
+        return categories.size();
+    }
+
+    /**
+     *  Brings all stored categories up to date. Their sizes are fetched in
+     *  batches; categories whose size changed get the members added since
+     *  they were last crawled and, if that doesn't account for the change,
+     *  are crawled again in full.
+     *  @throws IOException if a network error occurs
+     */
+    public synchronized void refresh() throws IOException
+    {
+        // current sizes, as many categories per request as the server allows
+        String[] titles = categories.keySet().toArray(new String[categories.size()]);
+        Map<String, Integer> sizes = new HashMap<>(2 * titles.length);
+        for (String chunk : wiki.constructTitleString(titles))
+        {
+            List<Map.Entry<String, Integer>> page = new ArrayList<>();
+            // xml form: <page ns="14" title="Category:Foo"><categoryinfo size="3" ... /></page>
+            wiki.fetchItems(wiki.query + "prop=categoryinfo&titles=" + chunk, "pages", null,
+                item -> new AbstractMap.SimpleImmutableEntry<>(item.get("title"),
+                item.has("size") ? Integer.parseInt(item.get("size")) : 0), page, "CategoryGraph.refresh");
+            for (Map.Entry<String, Integer> entry : page)
+                sizes.put(entry.getKey(), entry.getValue());
+        }
+
+        List<String> changed = new ArrayList<>();
+        for (String category : titles)
+        {
+            Integer size = sizes.get(category);
+            if (size != null && size != categories.get(category).members.size())
+                changed.add(category);
+        }
+        if (changed.isEmpty())
+            return;
+
+        // additions since the last crawl
+        List<String> incomplete = new ArrayList<>();
+        try (BulkExecutor bulk = new BulkExecutor())
+        {
+            List<CompletableFuture<List<String>>> futures = new ArrayList<>(changed.size());
+            long now = System.currentTimeMillis() / 1000;
+            for (String category : changed)
+            {
+                long since = categories.get(category).crawled;
+                futures.add(bulk.submit(wiki, w -> w.getCategoryMembersLevel(category, true, since)));
+            }
+            for (int i = 0; i < changed.size(); i++)
+            {
+                String category = changed.get(i);
+                Node node = categories.get(category);
+                for (String member : BulkExecutor.await(futures.get(i)))
+                    if (node.members.add(member))
+                        parents.computeIfAbsent(member, key -> new HashSet<>()).add(category);
+                node.crawled = now - MARGIN;
+                if (node.members.size() != sizes.get(category))
+                    incomplete.add(category);
+            }
+        }
+        // members were removed too
+        crawl(incomplete);
+    }
+
+    /**
+     *  Writes the graph to its file. Titles are stored once in a table,
+     *  members as indices into it, and the whole is compressed.
+     *  @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException
+    {
+        Map<String, Integer> index = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        for (Map.Entry<String, Node> entry : categories.entrySet())
+        {
+            index.computeIfAbsent(entry.getKey(), key -> { table.add(key); return table.size() - 1; });
+            for (String member : entry.getValue().members)
+                index.computeIfAbsent(member, key -> { table.add(key); return table.size() - 1; });
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, "categories", ".tmp");
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(temp)))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(table.size());
+                for (String title : table)
+                    out.writeUTF(title);
+                out.writeInt(categories.size());
+                for (Map.Entry<String, Node> entry : categories.entrySet())
+                {
+                    Node node = entry.getValue();
+                    out.writeInt(index.get(entry.getKey()));
+                    out.writeLong(node.crawled);
+                    out.writeInt(node.members.size());
+                    for (String member : node.members)
+                        out.writeInt(index.get(member));
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+    }
+
+    /**
+     *  Reads the graph from its file.
+     *  @throws IOException if the file cannot be read or is not a category
+     *  graph
+     */
+    private void load() throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new GZIPInputStream(Files.newInputStream(file)))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a category graph");
+            String[] table = new String[in.readInt()];
+            for (int i = 0; i < table.length; i++)
+                table[i] = in.readUTF();
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                String category = table[in.readInt()];
+                Node node = new Node();
+                node.crawled = in.readLong();
+                for (int j = in.readInt(); j > 0; j--)
+                    node.members.add(table[in.readInt()]);
+                put(category, node);
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException ex)
+        {
+            throw new IOException(file + " is corrupt", ex);
+        }
+    }
+
+    /**
+     *  Fetches the given categories in full, all at once, replacing what is
+     *  stored for them.
+     *  @param names the categories
+     *  @throws IOException if a network error occurs
+     */
+    private void crawl(List<String> names) throws IOException
+    {
+        if (names.isEmpty())
+            return;
+        long now = System.currentTimeMillis() / 1000;
+        try (BulkExecutor bulk = new BulkExecutor())
+        {
+            List<CompletableFuture<List<String>>> futures = new ArrayList<>(names.size());
+            for (String category : names)
+                futures.add(bulk.submit(wiki, w -> w.getCategoryMembersLevel(category, false, -1)));
+            for (int i = 0; i < names.size(); i++)
+            {
+                Node node = new Node();
+                node.crawled = now - MARGIN;
+                node.members.addAll(BulkExecutor.await(futures.get(i)));
+                put(names.get(i), node);
+            }
+        }
+    }
+
+    /**
+     *  Stores a category, keeping the reverse index in step.
+     *  @param category the category
+     *  @param node its members
+     */
+    private void put(String category, Node node)
+    {
+        Node old = categories.put(category, node);
+        if (old != null)
+            for (String member : old.members)
+            {
+                Set<String> set = parents.get(member);
+                set.remove(category);
+                if (set.isEmpty())
+                    parents.remove(member);
+            }
+        for (String member : node.members)
+            parents.computeIfAbsent(member, key -> new HashSet<>()).add(category);
+    }
+
+    /**
+     *  Returns the title a category is stored under, i.e. as the wiki
+     *  returns it.
+     *  @param name the name of the category (with or without namespace
+     *  attached)
+     *  @return (see above)
+     *  @throws IOException if a network error occurs
+     */
+    private String key(String name) throws IOException
+    {
+        String prefix = wiki.namespaceIdentifier(Wiki.CATEGORY_NAMESPACE);
+        name = name.replaceFirst("^(Category|" + prefix + "):", "");
+        return wiki.normalize(prefix + ":" + name);
+    }
+}
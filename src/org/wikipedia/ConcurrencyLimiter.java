@@ -0,0 +1,338 @@
+/**
+ *  @(#)ConcurrencyLimiter.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ *  Limits the number of requests in flight to a single host, and adapts
+ *  that limit to how the host is coping (additive increase, multiplicative
+ *  decrease). Every successful response that comes back about as fast as
+ *  usual while the limit is in full use raises the limit by roughly one
+ *  per round trip. Database lag, <tt>ratelimited</tt> errors and HTTP
+ *  429/503 halve it. There is one limiter per host, shared by every {@link
+ *  Wiki} talking to it, so the highest safe concurrency is found without
+ *  tuning thread counts by hand.
+ *
+ *  <p>
+ *  A program that makes one request at a time is never held back.
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+public final class ConcurrencyLimiter
+{
+    private static final ConcurrentHashMap<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private static final int INITIAL_LIMIT = 4;
+    private static final int DEFAULT_MAX_LIMIT = 32;
+    // responses slower than this multiple of the usual latency are unhealthy
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // weight of a new sample in the smoothed latency
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    private final String host;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // all guarded by lock
+    private double limit = INITIAL_LIMIT;
+    private int maxlimit = DEFAULT_MAX_LIMIT;
+    private int inflight = 0;
+    private double latency = -1; // nanoseconds, smoothed
+    private long lastdecrease = System.nanoTime();
+    private long congestions = 0;
+    // permits held by each thread, see acquire()
+    private final ThreadLocal<int[]> held = ThreadLocal.withInitial(() -> new int[1]);
+
+    private ConcurrencyLimiter(String host)
+    {
+        this.host = host;
+    }
+
+    /**
+     *  Returns the limiter for the given host.
+     *  @param host a domain name, e.g. "en.wikipedia.org"
+     *  @return (see above)
+     */
+    public static ConcurrencyLimiter forHost(String host)
+    {
+        return limiters.computeIfAbsent(host, ConcurrencyLimiter::new);
+    }
+
+    /**
+     *  Returns the limiters of every host contacted so far.
+     *  @return (see above)
+     */
+    public static Collection<ConcurrencyLimiter> getLimiters()
+    {
+        return Collections.unmodifiableCollection(limiters.values());
+    }
+
+    /**
+     *  Waits until another request may be sent to this host. A thread that
+     *  already holds a permit for this host (e.g. because a request is made
+     *  while parsing a streamed response) is let through straight away, as
+     *  waiting for itself would never end.
+     *  @return a permit that must be closed once the response has been read
+     *  @throws InterruptedIOException if interrupted while waiting
+     */
+    public Permit acquire() throws InterruptedIOException
+    {
+        int[] mine = held.get();
+        lock.lock();
+        try
+        {
+            if (mine[0] == 0)
+                while (inflight >= (int)limit)
+                    available.await();
+            inflight++;
+            mine[0]++;
+            return new Permit(System.nanoTime(), mine);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a request to " + host);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Returns the host this limiter is for.
+     *  @return (see above)
+     */
+    public String getHost()
+    {
+        return host;
+    }
+
+    /**
+     *  Returns the current number of requests allowed in flight.
+     *  @return (see above)
+     */
+    public int getLimit()
+    {
+        lock.lock();
+        try
+        {
+            return (int)limit;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Returns the number of requests currently in flight.
+     *  @return (see above)
+     */
+    public int getInFlight()
+    {
+        lock.lock();
+        try
+        {
+            return inflight;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Returns the number of times the host signalled congestion.
+     *  @return (see above)
+     */
+    public long getCongestionCount()
+    {
+        lock.lock();
+        try
+        {
+            return congestions;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Returns the maximum the limit may grow to.
+     *  @return (see above)
+     */
+    public int getMaxLimit()
+    {
+        lock.lock();
+        try
+        {
+            return maxlimit;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Sets the maximum the limit may grow to. Default = 32.
+     *  @param maxlimit the new maximum
+     *  @throws IllegalArgumentException if maxlimit &lt; 1
+     */
+    public void setMaxLimit(int maxlimit)
+    {
+        if (maxlimit < 1)
+            throw new IllegalArgumentException("Must allow at least one concurrent request.");
+        lock.lock();
+        try
+        {
+            this.maxlimit = maxlimit;
+            limit = Math.min(limit, maxlimit);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Called when a request finishes.
+     *  @param start when the request was sent (System.nanoTime())
+     *  @param success whether the request succeeded, false if the outcome
+     *  says nothing about the host
+     *  @param congested whether the host signalled congestion
+     */
+    private void release(long start, boolean success, boolean congested)
+    {
+        long now = System.nanoTime();
+        lock.lock();
+        try
+        {
+            boolean saturated = inflight >= (int)limit;
+            inflight--;
+            if (congested)
+            {
+                congestions++;
+                // requests sent before the last cut are answering for the old
+                // limit, don't punish the host twice for the same overload
+                if (start - lastdecrease > 0)
+                {
+                    limit = Math.max(1, limit / 2);
+                    lastdecrease = now;
+                }
+            }
+            else if (success)
+            {
+                long sample = now - start;
+                boolean healthy = latency < 0 || sample <= latency * LATENCY_TOLERANCE;
+                latency = latency < 0 ? sample : latency + LATENCY_SMOOTHING * (sample - latency);
+                // only grow a limit that is actually in use
+                if (healthy && saturated)
+                    limit = Math.min(maxlimit, limit + 1 / limit);
+            }
+            available.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Returns a string representation of this limiter.
+     *  @return (see above)
+     */
+    @Override
+    public String toString()
+    {
+        lock.lock();
+        try
+        {
+            return "ConcurrencyLimiter[host=" + host + ",limit=" + (int)limit + ",inflight=" + inflight
+                + ",congestions=" + congestions + "]";
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Permission to have one request in flight. Report what the host said
+     *  with {@link #completed(int)} as soon as the status is known, and
+     *  close the permit once the response has been read; the limit is
+     *  adjusted then. A permit closed without a reported status (e.g. after
+     *  a network error) leaves the limit alone. {@link #congested()} releases
+     *  the permit straight away.
+     */
+    public final class Permit implements Closeable
+    {
+        private final long start;
+        private final int[] owner;
+        private boolean success = false, congested = false;
+        private boolean released = false;
+
+        private Permit(long start, int[] owner)
+        {
+            this.start = start;
+            this.owner = owner;
+        }
+
+        /**
+         *  Reports the HTTP status the host answered with. 429 and 503 count
+         *  as congestion.
+         *  @param status the HTTP status code
+         */
+        public void completed(int status)
+        {
+            congested = status == 429 || status == 503;
+            success = status < 400;
+        }
+
+        /**
+         *  Reports that the host signalled congestion (database lag, rate
+         *  limiting) and releases this permit.
+         */
+        public void congested()
+        {
+            congested = true;
+            close();
+        }
+
+        /**
+         *  Releases this permit. Only the first call has any effect.
+         */
+        @Override
+        public void close()
+        {
+            if (released)
+                return;
+            released = true;
+            owner[0]--;
+            release(start, success && !congested, congested);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ *  @(#)ContinuationIterator.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ *  Iterates over the results of a list query one continuation page at a
+ *  time. Pages are requested as the consumer gets to them, so nothing more
+ *  is fetched once the consumer stops asking. Network errors surface as
+ *  {@link UncheckedIOException}s.
+ *
+ *  <p>
+ *  Given an executor, the iterator also pipelines the requests: the request
+ *  for the next page is sent in the background as soon as the continuation
+ *  value of the current page has been read, which is usually before its
+ *  items have been parsed. Results are still handed out in order, and no
+ *  more than one page beyond the one being parsed is requested ahead of the
+ *  consumer.
+ *
+ *  @param <T> the type of the results
+ *  @author MER-C
+ *  @since 0.32
+ */
+final class ContinuationIterator<T> implements Iterator<T>
+{
+    /**
+     *  Fetches a single page of a list query.
+     *  @param <T> the type of the results
+     */
+    @FunctionalInterface
+    interface PageSource<T>
+    {
+        /**
+         *  Fetches one page of results.
+         *  @param continuation the continuation value returned for the
+         *  previous page, null for the first page
+         *  @param page where to put the results
+         *  @param continued may be given the continuation value for the next
+         *  page as soon as it is known, before this method returns
+         *  @return the continuation value for the next page, or null if this
+         *  was the last page
+         *  @throws IOException if a network error occurs
+         */
+        String fetch(String continuation, List<T> page, Consumer<String> continued) throws IOException;
+    }
+
+    /**
+     *  Runs the background requests. The threads are daemons and go away
+     *  when idle.
+     */
+    static final ExecutorService PREFETCH = Executors.newCachedThreadPool(runnable ->
+    {
+        Thread thread = new Thread(runnable, "Wiki.java continuation prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PageSource<T> source;
+    private final Executor executor;
+    private Page upcoming = null;
+    private boolean started = false;
+    private List<T> page = Collections.emptyList();
+    private int index = 0;
+
+    /**
+     *  Creates a new iterator. Nothing is fetched until the first call to
+     *  {@link #hasNext()}.
+     *  @param source fetches the pages
+     *  @param executor where to request pages in advance, or null to fetch
+     *  pages only when needed
+     */
+    ContinuationIterator(PageSource<T> source, Executor executor)
+    {
+        this.source = source;
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        // pages may legitimately be empty (e.g. all results filtered out)
+        while (index == page.size())
+        {
+            List<T> next;
+            try
+            {
+                next = nextPage();
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException(ex);
+            }
+            if (next == null)
+                return false;
+            page = next;
+            index = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public T next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        T result = page.get(index);
+        page.set(index++, null); // don't hold on to what the consumer is done with
+        return result;
+    }
+
+    /**
+     *  Returns the next page of results, waiting for it if necessary.
+     *  @return the next page, or null if there are no more pages
+     *  @throws IOException if a network error occurs
+     */
+    List<T> nextPage() throws IOException
+    {
+        if (!started)
+        {
+            started = true;
+            upcoming = new Page(null);
+            upcoming.promote();
+        }
+        if (upcoming == null)
+            return null;
+        Page current = upcoming;
+        List<T> items = current.await();
+        upcoming = current.successor();
+        if (upcoming != null)
+            upcoming.promote();
+        return items;
+    }
+
+    /**
+     *  Fetches every page of a list query.
+     *  @param <T> the type of the results
+     *  @param source fetches the pages
+     *  @param executor where to request pages in advance, or null to fetch
+     *  pages one after the other
+     *  @param results where to put the results
+     *  @throws IOException if a network error occurs
+     */
+    static <T> void fetchAll(PageSource<T> source, Executor executor, List<T> results) throws IOException
+    {
+        ContinuationIterator<T> pages = new ContinuationIterator<>(source, executor);
+        for (List<T> page = pages.nextPage(); page != null; page = pages.nextPage())
+            results.addAll(page);
+    }
+
+    /**
+     *  A page of results that may not have arrived yet. A page requests its
+     *  successor when it knows the continuation value and the page before
+     *  it has been handed out, whichever comes last.
+     */
+    private final class Page
+    {
+        private final List<T> items = new ArrayList<>();
+        private final FutureTask<String> task;
+        private String next = null;
+        private boolean current = false;
+        private Page successor = null;
+
+        private Page(String continuation)
+        {
+            task = new FutureTask<>(() -> source.fetch(continuation, items, this::continued));
+        }
+
+        /**
+         *  Called when the continuation value becomes known, maybe on
+         *  another thread.
+         */
+        private synchronized void continued(String continuation)
+        {
+            next = continuation;
+            if (current)
+                launchSuccessor();
+        }
+
+        /**
+         *  Called when this page becomes the next one to be handed out.
+         */
+        private synchronized void promote()
+        {
+            current = true;
+            launchSuccessor();
+        }
+
+        private void launchSuccessor()
+        {
+            if (next == null || successor != null)
+                return;
+            successor = new Page(next);
+            if (executor != null)
+                executor.execute(successor.task);
+        }
+
+        /**
+         *  Waits for the results, fetching them on this thread if no one
+         *  has started yet.
+         */
+        private List<T> await() throws IOException
+        {
+            task.run(); // no-op if already running or done
+            try
+            {
+                String last = task.get();
+                synchronized (this)
+                {
+                    next = last;
+                }
+                return items;
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a page of results");
+            }
+            catch (ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException)cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                if (cause instanceof Error)
+                    throw (Error)cause;
+                throw new IOException(cause);
+            }
+        }
+
+        /**
+         *  Returns the page after this one once this one is complete.
+         */
+        private synchronized Page successor()
+        {
+            launchSuccessor();
+            return successor;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ *  @(#)DiffParser.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.nio.CharBuffer;
+import java.util.*;
+
+/**
+ *  Parses the HTML diff tables returned by {@link Wiki.Revision#diff(long)}
+ *  and friends. The table is walked once and the added and removed lines,
+ *  and the inline changes within them (<tt>&lt;ins&gt;</tt> and
+ *  <tt>&lt;del&gt;</tt>), come out as views of the diff rather than copies.
+ *  Their content is still HTML, i.e. wikitext like <tt>&lt;ref&gt;</tt>
+ *  shows up as <tt>&amp;lt;ref&amp;gt;</tt>.
+ *
+ *  <pre>
+ *  for (DiffParser.Line line : DiffParser.parse(revision.diff(Wiki.PREVIOUS_REVISION)))
+ *      if (line.isAdded())
+ *          for (CharSequence change : line.getChanges())
+ *              process(change);
+ *  </pre>
+ *
+ *  @see <a href="https://en.wikipedia.org/w/api.php?action=query&amp;prop=revisions&amp;revids=77350972&amp;rvdiffto=prev">
+ *  Example diff</a>
+ *  @see TextDiff
+ *  @author MER-C
+ *  @since 0.32
+ */
+public final class DiffParser
+{
+    private static final String ADDED = "<td class=\"diff-addedline", DELETED = "<td class=\"diff-deletedline";
+    private static final String INS = "<ins class=\"diffchange", DEL = "<del class=\"diffchange";
+
+    /**
+     *  An added or removed line of a diff.
+     *  @since 0.32
+     */
+    public static final class Line
+    {
+        private final boolean added;
+        private final CharSequence text;
+        private final List<CharSequence> deltas;
+
+        private Line(boolean added, CharSequence text, List<CharSequence> deltas)
+        {
+            this.added = added;
+            this.text = text;
+            this.deltas = deltas;
+        }
+
+        /**
+         *  Returns whether this line was added (or removed).
+         *  @return (see above)
+         */
+        public boolean isAdded()
+        {
+            return added;
+        }
+
+        /**
+         *  Returns the whole line, including the markup of inline changes.
+         *  @return (see above)
+         */
+        public CharSequence getText()
+        {
+            return text;
+        }
+
+        /**
+         *  Returns the text that changed within this line, in order. Changes
+         *  that are only separated by whitespace are joined into one.
+         *  @return (see above), empty if the whole line was added or removed
+         */
+        public List<CharSequence> getDeltas()
+        {
+            return deltas;
+        }
+
+        /**
+         *  Returns what was actually added or removed: the deltas if there
+         *  are any, otherwise the whole line.
+         *  @return (see above)
+         */
+        public List<CharSequence> getChanges()
+        {
+            return deltas.isEmpty() ? Collections.singletonList(text) : deltas;
+        }
+
+        /**
+         *  Returns a string representation of this line.
+         *  @return (see above)
+         */
+        @Override
+        public String toString()
+        {
+            return (added ? "+" : "-") + text;
+        }
+    }
+
+    private DiffParser()
+    {
+    }
+
+    /**
+     *  Parses a diff table.
+     *  @param diff a HTML diff as returned by {@link Wiki.Revision#diff(long)},
+     *  may be null (no diff)
+     *  @return the added and removed lines, in order
+     */
+    public static List<Line> parse(CharSequence diff)
+    {
+        if (diff == null)
+            return Collections.emptyList();
+        List<Line> lines = new ArrayList<>();
+        for (int i = indexOf(diff, '<', 0); i >= 0; i = indexOf(diff, '<', i + 1))
+        {
+            boolean added = startsWith(diff, ADDED, i);
+            if (!added && !startsWith(diff, DELETED, i))
+                continue;
+            int start = indexOf(diff, '>', i) + 1;
+            int end = indexOf(diff, "</td>", start);
+            if (start == 0 || end < 0)
+                break;
+            i = end;
+
+            // strip <div> ... </div>
+            if (startsWith(diff, "<div>", start))
+                start += 5;
+            if (end - 6 >= start && startsWith(diff, "</div>", end - 6))
+                end -= 6;
+            lines.add(new Line(added, CharBuffer.wrap(diff, start, end), deltas(diff, start, end, added ? INS : DEL)));
+        }
+        return lines;
+    }
+
+    /**
+     *  Finds the inline changes of a line.
+     *  @param diff the diff
+     *  @param start where the content of the line starts
+     *  @param end where the content of the line ends
+     *  @param marker the tag that opens an inline change
+     *  @return the changes
+     */
+    private static List<CharSequence> deltas(CharSequence diff, int start, int end, String marker)
+    {
+        List<CharSequence> deltas = null;
+        String close = marker.substring(0, 4).replace("<", "</") + ">";
+        int lastend = -1;
+        for (int i = indexOf(diff, marker, start); i >= 0 && i < end; i = indexOf(diff, marker, i + 1))
+        {
+            int dstart = indexOf(diff, '>', i) + 1;
+            int dend = indexOf(diff, close, dstart);
+            if (dstart == 0 || dend < 0 || dend > end)
+                break;
+            if (deltas == null)
+                deltas = new ArrayList<>();
+
+            // condense deltas to avoid problems like
+            // https://en.wikipedia.org/w/index.php?title=&diff=prev&oldid=486611734
+            int gap = lastend + close.length();
+            if (lastend >= 0 && isBlank(diff, gap, i))
+            {
+                CharSequence previous = deltas.remove(deltas.size() - 1);
+                StringBuilder joined = new StringBuilder(previous.length() + i - gap + dend - dstart);
+                joined.append(previous).append(diff, gap, i).append(diff, dstart, dend);
+                deltas.add(joined.toString());
+            }
+            else
+                deltas.add(CharBuffer.wrap(diff, dstart, dend));
+            lastend = dend;
+            i = dend;
+        }
+        return deltas == null ? Collections.emptyList() : deltas;
+    }
+
+    private static boolean isBlank(CharSequence diff, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+            if (!Character.isWhitespace(diff.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private static boolean startsWith(CharSequence diff, String prefix, int index)
+    {
+        if (index < 0 || index + prefix.length() > diff.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (diff.charAt(index + i) != prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static int indexOf(CharSequence diff, char c, int from)
+    {
+        for (int i = from; i < diff.length(); i++)
+            if (diff.charAt(i) == c)
+                return i;
+        return -1;
+    }
+
+    private static int indexOf(CharSequence diff, String s, int from)
+    {
+        for (int i = indexOf(diff, s.charAt(0), from); i >= 0; i = indexOf(diff, s.charAt(0), i + 1))
+            if (startsWith(diff, s, i))
+                return i;
+        return -1;
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ *  @(#)ElementItem.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.util.*;
+
+/**
+ *  A {@link ResponseItem} filled in by one of the streaming response parsers.
+ *  Attributes and nested elements are stored flat in document order; nested
+ *  elements additionally remember where their content ends so that {@link
+ *  #getElements(String)} can hand out views of them. Like nested elements,
+ *  the item itself is visible under its own name with its text content as
+ *  the value, e.g. the text of a <tt>&lt;rev&gt;</tt>. One instance is
+ *  reused for every item of a response.
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+final class ElementItem implements ResponseItem
+{
+    private String[] names = new String[16], values = new String[16];
+    // for nested elements, the index after the last entry of their content,
+    // -1 for attributes
+    private int[] ends = new int[16];
+    private int size = 0;
+
+    // currently open nested elements
+    private int[] open = new int[8];
+    private int depth = 0;
+
+    // the item's own name and text content
+    private String name = null;
+    private final StringBuilder content = new StringBuilder();
+    private String contentstring = null;
+
+    /**
+     *  Adds an attribute to the innermost open element.
+     *  @param name the attribute name
+     *  @param value the decoded attribute value
+     */
+    void attribute(String name, String value)
+    {
+        add(name, value, -1);
+    }
+
+    /**
+     *  Opens a nested element. Its attributes, text content and children
+     *  follow until the matching {@link #endElement()}.
+     *  @param name the name of the element
+     */
+    void startElement(String name)
+    {
+        if (depth == open.length)
+            open = Arrays.copyOf(open, depth * 2);
+        open[depth++] = add(name, "", size + 1);
+    }
+
+    /**
+     *  Appends text content to the innermost open element.
+     *  @param text the text to append
+     */
+    void text(String text)
+    {
+        if (depth == 0)
+        {
+            // may be huge (revision text) and arrive in many pieces
+            content.append(text);
+            return;
+        }
+        int index = open[depth - 1];
+        values[index] = values[index].isEmpty() ? text : values[index] + text;
+    }
+
+    /**
+     *  Closes the innermost open element.
+     */
+    void endElement()
+    {
+        int index = open[--depth];
+        ends[index] = size;
+    }
+
+    /**
+     *  Returns the number of open nested elements.
+     *  @return (see above)
+     */
+    int depth()
+    {
+        return depth;
+    }
+
+    /**
+     *  Empties this item for reuse.
+     */
+    void clear()
+    {
+        clear(null);
+    }
+
+    /**
+     *  Empties this item for reuse by an element with the given name.
+     *  @param name the name of the element, null if it has none
+     */
+    void clear(String name)
+    {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        depth = 0;
+        this.name = name;
+        content.setLength(0);
+        contentstring = null;
+    }
+
+    private int add(String name, String value, int end)
+    {
+        if (size == names.length)
+        {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        ends[size] = end;
+        return size++;
+    }
+
+    @Override
+    public String get(String name)
+    {
+        String value = get(0, size, name);
+        if (value != null || !name.equals(this.name))
+            return value;
+        if (contentstring == null)
+            contentstring = content.toString();
+        return contentstring;
+    }
+
+    @Override
+    public List<ResponseItem> getElements(String name)
+    {
+        return getElements(0, size, name);
+    }
+
+    private String get(int from, int to, String name)
+    {
+        for (int i = from; i < to; i++)
+            if (names[i].equals(name))
+                return values[i];
+        return null;
+    }
+
+    private List<ResponseItem> getElements(int from, int to, String name)
+    {
+        List<ResponseItem> elements = new ArrayList<>();
+        for (int i = from; i < to; i++)
+            if (ends[i] >= 0 && names[i].equals(name))
+                elements.add(new Range(i, ends[i]));
+        return elements;
+    }
+
+    /**
+     *  A view of a nested element. Its own name maps to its text content.
+     */
+    private class Range implements ResponseItem
+    {
+        private final int self, to;
+
+        private Range(int self, int to)
+        {
+            this.self = self;
+            this.to = to;
+        }
+
+        @Override
+        public String get(String name)
+        {
+            return ElementItem.this.get(self, to, name);
+        }
+
+        @Override
+        public List<ResponseItem> getElements(String name)
+        {
+            return ElementItem.this.getElements(self + 1, to, name);
+        }
+    }
+}
@@ -0,0 +1,535 @@
+/**
+ *  @(#)JsonItemReader.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ *  Streaming reader for <tt>format=json&amp;formatversion=2</tt> list query
+ *  responses. The response is tokenized straight off the input stream;
+ *  the objects in the array named after the list module (e.g.
+ *  <tt>"usercontribs": [ ... ]</tt>) are handed to a parser one at a time as
+ *  {@link ResponseItem}s. Object keys repeat for every item, so they are
+ *  looked up in a small cache instead of being allocated over and over.
+ *  Not thread safe, use one reader per response.
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+final class JsonItemReader
+{
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos = 0, limit = 0;
+
+    private final StringBuilder scratch = new StringBuilder(64);
+    private final String[] keys = new String[256];
+    private final ElementItem item = new ElementItem();
+
+    private final String container, continuation;
+    private String next, errorcode, errorinfo;
+    private Consumer<String> continued;
+
+    /**
+     *  Creates a new reader.
+     *  @param in the decompressed response body
+     *  @param container the name of the array that holds the items, e.g.
+     *  "revisions"
+     *  @param continuation the name of the continuation parameter, e.g.
+     *  "rvcontinue"
+     *  @throws IOException if the platform doesn't know UTF-8
+     */
+    JsonItemReader(InputStream in, String container, String continuation) throws IOException
+    {
+        this.in = new InputStreamReader(in, "UTF-8");
+        this.container = container;
+        this.continuation = continuation;
+    }
+
+    /**
+     *  Reads the whole response.
+     *  @param <T> the type of object the items are parsed into
+     *  @param parser turns an item into a result, returns null to skip it
+     *  @param page where to put the results
+     *  @param continued gets the value of the continuation parameter as soon
+     *  as it is read, may be null
+     *  @return the value of the continuation parameter, or null if not present
+     *  @throws IOException if a network error occurs or the response is
+     *  malformed
+     */
+    <T> String read(Function<ResponseItem, T> parser, List<T> page, Consumer<String> continued) throws IOException
+    {
+        this.continued = continued;
+        if (peek() != '{')
+            throw syntaxError();
+        readObject(parser, page, false);
+        return next;
+    }
+
+    /**
+     *  Returns the code of the API error in the response.
+     *  @return (see above) or null if there was no error
+     */
+    String getErrorCode()
+    {
+        return errorcode;
+    }
+
+    /**
+     *  Returns the description of the API error in the response.
+     *  @return (see above) or null if there was no error
+     */
+    String getErrorInfo()
+    {
+        return errorinfo;
+    }
+
+    // NAVIGATION
+
+    /**
+     *  Walks an object outside of any item, looking for the items, the
+     *  continuation and errors.
+     */
+    private <T> void readObject(Function<ResponseItem, T> parser, List<T> page, boolean incontinue) throws IOException
+    {
+        expect('{');
+        if (peek() == '}')
+        {
+            pos++;
+            return;
+        }
+        do
+        {
+            String key = readKey();
+            expect(':');
+            int c = peek();
+            if (c == '[' && key.equals(container) && !incontinue)
+                readItems(parser, page);
+            else if (c == '{' && key.equals("error"))
+                readError();
+            else if (c == '{')
+                readObject(parser, page, incontinue || key.equals("query-continue") || key.equals("continue"));
+            else if (c == '[')
+                readArray(parser, page, incontinue);
+            else if (incontinue && c == '"' && key.equals(continuation))
+            {
+                next = readString();
+                if (continued != null)
+                    continued.accept(next);
+            }
+            else
+                skipValue();
+        }
+        while (comma('}'));
+    }
+
+    private <T> void readArray(Function<ResponseItem, T> parser, List<T> page, boolean incontinue) throws IOException
+    {
+        expect('[');
+        if (peek() == ']')
+        {
+            pos++;
+            return;
+        }
+        do
+        {
+            int c = peek();
+            if (c == '{')
+                readObject(parser, page, incontinue);
+            else if (c == '[')
+                readArray(parser, page, incontinue);
+            else
+                skipValue();
+        }
+        while (comma(']'));
+    }
+
+    private <T> void readItems(Function<ResponseItem, T> parser, List<T> page) throws IOException
+    {
+        expect('[');
+        if (peek() == ']')
+        {
+            pos++;
+            return;
+        }
+        do
+        {
+            if (peek() != '{')
+            {
+                skipValue();
+                continue;
+            }
+            item.clear();
+            foldObject();
+            T result = parser.apply(item);
+            if (result != null)
+                page.add(result);
+        }
+        while (comma(']'));
+    }
+
+    private void readError() throws IOException
+    {
+        expect('{');
+        if (peek() == '}')
+            pos++;
+        else
+        {
+            do
+            {
+                String key = readKey();
+                expect(':');
+                if (peek() == '"' && key.equals("code"))
+                    errorcode = readString();
+                else if (peek() == '"' && key.equals("info"))
+                    errorinfo = readString();
+                else
+                    skipValue();
+            }
+            while (comma('}'));
+        }
+        if (errorcode == null)
+            errorcode = "";
+    }
+
+    // ITEMS
+
+    /**
+     *  Adds the members of an object to the current item.
+     */
+    private void foldObject() throws IOException
+    {
+        expect('{');
+        if (peek() == '}')
+        {
+            pos++;
+            return;
+        }
+        do
+        {
+            String key = readKey();
+            expect(':');
+            foldValue(key);
+        }
+        while (comma('}'));
+    }
+
+    private void foldValue(String key) throws IOException
+    {
+        switch (peek())
+        {
+            case '"':
+                item.attribute(key, readString());
+                break;
+            case '{':
+                item.startElement(key);
+                foldObject();
+                item.endElement();
+                break;
+            case '[':
+                foldArray(key);
+                break;
+            case 't':
+                skipLiteral();
+                item.attribute(key, "");
+                break;
+            case 'f':
+            case 'n':
+                skipLiteral();
+                break;
+            default: // numbers
+                item.attribute(key, readLiteral());
+                break;
+        }
+    }
+
+    private void foldArray(String key) throws IOException
+    {
+        expect('[');
+        if (peek() == ']')
+        {
+            pos++;
+            item.attribute(key, "");
+            return;
+        }
+        StringBuilder joined = null;
+        do
+        {
+            int c = peek();
+            if (c == '{')
+            {
+                item.startElement(key);
+                foldObject();
+                item.endElement();
+            }
+            else if (c == '[')
+                skipValue();
+            else
+            {
+                String value = c == '"' ? readString() : readLiteral();
+                if (joined == null)
+                    joined = new StringBuilder(value);
+                else
+                    joined.append(',').append(value);
+            }
+        }
+        while (comma(']'));
+        if (joined != null)
+            item.attribute(key, joined.toString());
+    }
+
+    // TOKENS
+
+    /**
+     *  Returns the next non-whitespace character without consuming it.
+     */
+    private int peek() throws IOException
+    {
+        while (true)
+        {
+            if (pos == limit && !fill())
+                return -1;
+            char c = buffer[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return c;
+            pos++;
+        }
+    }
+
+    private boolean fill() throws IOException
+    {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0)
+            return false;
+        pos = 0;
+        limit = read;
+        return true;
+    }
+
+    private void expect(char c) throws IOException
+    {
+        if (peek() != c)
+            throw syntaxError();
+        pos++;
+    }
+
+    /**
+     *  Consumes the separator after a member or element.
+     *  @param close the closing bracket of the current object or array
+     *  @return true if another member or element follows
+     */
+    private boolean comma(char close) throws IOException
+    {
+        int c = peek();
+        pos++;
+        if (c == ',')
+            return true;
+        if (c == close)
+            return false;
+        throw syntaxError();
+    }
+
+    /**
+     *  Reads an object key. Keys without escapes that fit in the buffer are
+     *  looked up in the key cache, so no String is created for them.
+     */
+    private String readKey() throws IOException
+    {
+        expect('"');
+        int hash = 0;
+        for (int i = pos; i < limit; i++)
+        {
+            char c = buffer[i];
+            if (c == '\\')
+                break;
+            if (c == '"')
+            {
+                int length = i - pos;
+                int slot = hash & (keys.length - 1);
+                String key = keys[slot];
+                if (key == null || !matches(key, pos, length))
+                {
+                    key = new String(buffer, pos, length);
+                    keys[slot] = key;
+                }
+                pos = i + 1;
+                return key;
+            }
+            hash = 31 * hash + c;
+        }
+        pos--;
+        return readString();
+    }
+
+    private boolean matches(String key, int offset, int length)
+    {
+        if (key.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (key.charAt(i) != buffer[offset + i])
+                return false;
+        return true;
+    }
+
+    private String readString() throws IOException
+    {
+        expect('"');
+        // fast path: no escapes and no buffer boundary
+        for (int i = pos; i < limit; i++)
+        {
+            char c = buffer[i];
+            if (c == '\\')
+                break;
+            if (c == '"')
+            {
+                String s = new String(buffer, pos, i - pos);
+                pos = i + 1;
+                return s;
+            }
+        }
+        scratch.setLength(0);
+        while (true)
+        {
+            if (pos == limit && !fill())
+                throw syntaxError();
+            char c = buffer[pos++];
+            if (c == '"')
+                return scratch.toString();
+            if (c != '\\')
+            {
+                scratch.append(c);
+                continue;
+            }
+            if (pos == limit && !fill())
+                throw syntaxError();
+            c = buffer[pos++];
+            switch (c)
+            {
+                case 'n':
+                    scratch.append('\n');
+                    break;
+                case 't':
+                    scratch.append('\t');
+                    break;
+                case 'r':
+                    scratch.append('\r');
+                    break;
+                case 'b':
+                    scratch.append('\b');
+                    break;
+                case 'f':
+                    scratch.append('\f');
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++)
+                    {
+                        if (pos == limit && !fill())
+                            throw syntaxError();
+                        int digit = Character.digit(buffer[pos++], 16);
+                        if (digit < 0)
+                            throw syntaxError();
+                        code = (code << 4) | digit;
+                    }
+                    scratch.append((char)code);
+                    break;
+                default: // " \ /
+                    scratch.append(c);
+                    break;
+            }
+        }
+    }
+
+    /**
+     *  Reads a number, true, false or null.
+     */
+    private String readLiteral() throws IOException
+    {
+        scratch.setLength(0);
+        while ((pos < limit || fill()) && !isDelimiter(buffer[pos]))
+            scratch.append(buffer[pos++]);
+        if (scratch.length() == 0)
+            throw syntaxError();
+        return scratch.toString();
+    }
+
+    private void skipLiteral() throws IOException
+    {
+        int start = pos;
+        while ((pos < limit || fill()) && !isDelimiter(buffer[pos]))
+            pos++;
+        if (pos == start)
+            throw syntaxError();
+    }
+
+    private static boolean isDelimiter(char c)
+    {
+        return c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private void skipValue() throws IOException
+    {
+        switch (peek())
+        {
+            case '"':
+                readString();
+                break;
+            case '{':
+                pos++;
+                if (peek() == '}')
+                {
+                    pos++;
+                    break;
+                }
+                do
+                {
+                    readKey();
+                    expect(':');
+                    skipValue();
+                }
+                while (comma('}'));
+                break;
+            case '[':
+                pos++;
+                if (peek() == ']')
+                {
+                    pos++;
+                    break;
+                }
+                do
+                {
+                    skipValue();
+                }
+                while (comma(']'));
+                break;
+            default:
+                skipLiteral();
+                break;
+        }
+    }
+
+    private IOException syntaxError()
+    {
+        return new IOException("Malformed JSON in server response");
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ *  @(#)LagGovernor.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *  Keeps track of database lag on a single host, see <a
+ *  href="https://mediawiki.org/wiki/Manual:Maxlag_parameter">[[mw:Manual:Maxlag
+ *  parameter]]</a>. There is one governor per host, shared by every
+ *  {@link Wiki} talking to it. When a response reports that the lag exceeds
+ *  maxlag, the governor remembers the lag and the <tt>Retry-After</tt> time;
+ *  requests about to be sent to that host wait until then. Waiting takes no
+ *  locks, so threads that are parsing responses or talking to other hosts
+ *  carry on undisturbed.
+ *
+ *  <p>
+ *  The getters are meant for monitoring, e.g. <tt>LagGovernor.getGovernors()</tt>
+ *  lists every host that has been contacted along with its lag state.
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+public final class LagGovernor
+{
+    private static final ConcurrentHashMap<String, LagGovernor> governors = new ConcurrentHashMap<>();
+
+    private final String host;
+    // all times are milliseconds since the epoch
+    private final AtomicLong resume = new AtomicLong();
+    private volatile int lag = -1;
+    private volatile long lagtime = 0;
+    private final LongAdder laggedresponses = new LongAdder();
+
+    private LagGovernor(String host)
+    {
+        this.host = host;
+    }
+
+    /**
+     *  Returns the governor for the given host.
+     *  @param host a domain name, e.g. "en.wikipedia.org"
+     *  @return (see above)
+     */
+    public static LagGovernor forHost(String host)
+    {
+        return governors.computeIfAbsent(host, LagGovernor::new);
+    }
+
+    /**
+     *  Returns the governors of every host contacted so far.
+     *  @return (see above)
+     */
+    public static Collection<LagGovernor> getGovernors()
+    {
+        return Collections.unmodifiableCollection(governors.values());
+    }
+
+    /**
+     *  Records a response that was refused because of database lag. Requests
+     *  to this host are held back until <tt>retryafter</tt> seconds from
+     *  now, or longer if an earlier response asked for that.
+     *  @param lag the reported lag in seconds (<tt>X-Database-Lag</tt>)
+     *  @param retryafter the time to wait in seconds (<tt>Retry-After</tt>)
+     */
+    public void lagged(int lag, int retryafter)
+    {
+        long now = System.currentTimeMillis();
+        this.lag = lag;
+        lagtime = now;
+        laggedresponses.increment();
+        resume.accumulateAndGet(now + retryafter * 1000L, Math::max);
+    }
+
+    /**
+     *  Waits until requests may be sent to this host again. Returns
+     *  immediately if the host isn't lagged or if the last reported lag is
+     *  below <tt>maxlag</tt>, i.e. it was another client with a stricter
+     *  maxlag that got refused.
+     *  @param maxlag the maxlag of the request about to be sent, negative if
+     *  maxlag is disabled
+     *  @throws InterruptedIOException if interrupted while waiting
+     */
+    public void await(int maxlag) throws InterruptedIOException
+    {
+        if (maxlag < 0)
+            return;
+        // the resume time may be pushed back while we sleep
+        for (long wait = getRemainingDelay(); wait > 0 && lag >= maxlag; wait = getRemainingDelay())
+        {
+            try
+            {
+                Thread.sleep(wait);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for database lag on " + host);
+            }
+        }
+    }
+
+    /**
+     *  Returns the host this governor is for.
+     *  @return (see above)
+     */
+    public String getHost()
+    {
+        return host;
+    }
+
+    /**
+     *  Returns whether requests to this host are currently held back.
+     *  @return (see above)
+     */
+    public boolean isLagged()
+    {
+        return getRemainingDelay() > 0;
+    }
+
+    /**
+     *  Returns how long requests to this host will still be held back.
+     *  @return the delay in milliseconds, 0 if requests may be sent now
+     */
+    public long getRemainingDelay()
+    {
+        return Math.max(0, resume.get() - System.currentTimeMillis());
+    }
+
+    /**
+     *  Returns the most recently reported database lag.
+     *  @return the lag in seconds, -1 if lag has never been reported
+     */
+    public int getLastLag()
+    {
+        return lag;
+    }
+
+    /**
+     *  Returns when database lag was last reported.
+     *  @return milliseconds since the epoch, 0 if lag has never been
+     *  reported
+     */
+    public long getLastLagTime()
+    {
+        return lagtime;
+    }
+
+    /**
+     *  Returns the number of responses refused because of database lag.
+     *  @return (see above)
+     */
+    public long getLaggedResponses()
+    {
+        return laggedresponses.sum();
+    }
+
+    /**
+     *  Returns a string representation of this governor.
+     *  @return (see above)
+     */
+    @Override
+    public String toString()
+    {
+        return "LagGovernor[host=" + host + ",lag=" + lag + ",remaining=" + getRemainingDelay()
+            + "ms,laggedresponses=" + getLaggedResponses() + "]";
+    }
+}
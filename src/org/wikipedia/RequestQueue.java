@@ -0,0 +1,144 @@
+/**
+ *  @(#)RequestQueue.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Runs calls on an executor, no more than a given number at a time. Calls
+ *  over the limit wait in a queue without occupying a thread and are started
+ *  in submission order as running calls finish.
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+final class RequestQueue
+{
+    private final Executor executor;
+    private final int limit;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     *  Creates a new queue.
+     *  @param executor runs the calls, must not run them on the calling
+     *  thread
+     *  @param limit the maximum number of calls running at the same time
+     *  @throws IllegalArgumentException if limit &lt; 1
+     */
+    RequestQueue(Executor executor, int limit)
+    {
+        if (limit < 1)
+            throw new IllegalArgumentException("Must allow at least one concurrent request.");
+        this.executor = Objects.requireNonNull(executor);
+        this.limit = limit;
+    }
+
+    /**
+     *  Returns the maximum number of calls running at the same time.
+     *  @return (see above)
+     */
+    int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     *  Returns the number of calls waiting to be started.
+     *  @return (see above)
+     */
+    int size()
+    {
+        return queue.size();
+    }
+
+    /**
+     *  Queues a call.
+     *  @param <T> the type of the result
+     *  @param call the call to make
+     *  @return a future for the result of the call, completed exceptionally
+     *  with whatever the call throws
+     */
+    <T> CompletableFuture<T> submit(Callable<T> call)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        queue.add(() ->
+        {
+            if (future.isDone()) // cancelled while queued
+                return;
+            try
+            {
+                future.complete(call.call());
+            }
+            catch (Throwable ex)
+            {
+                future.completeExceptionally(ex);
+            }
+        });
+        dispatch();
+        return future;
+    }
+
+    /**
+     *  Starts queued calls while there is capacity.
+     */
+    private void dispatch()
+    {
+        while (!queue.isEmpty())
+        {
+            int current = running.get();
+            if (current >= limit)
+                return;
+            if (!running.compareAndSet(current, current + 1))
+                continue;
+            Runnable task = queue.poll();
+            if (task == null)
+            {
+                // someone else got there first
+                running.decrementAndGet();
+                continue;
+            }
+            try
+            {
+                executor.execute(() ->
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        running.decrementAndGet();
+                        dispatch();
+                    }
+                });
+            }
+            catch (RejectedExecutionException ex)
+            {
+                running.decrementAndGet();
+                queue.add(task);
+                throw ex;
+            }
+        }
+    }
+}
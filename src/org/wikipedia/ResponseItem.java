@@ -0,0 +1,79 @@
+/**
+ *  @(#)ResponseItem.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.util.List;
+
+/**
+ *  A read-only view of a single item in an API response, e.g. a
+ *  <tt>&lt;rev&gt;</tt>, <tt>&lt;item&gt;</tt>, <tt>&lt;cm&gt;</tt> or
+ *  <tt>&lt;rc&gt;</tt> element. The attributes of nested elements are folded
+ *  in after the item's own, and each nested element is also visible under its
+ *  own name with its text content as the value (e.g. the <tt>&lt;param&gt;</tt>
+ *  of a log entry). Values are already decoded.
+ *
+ *  <p>
+ *  The same item may come from an XML or a JSON (<tt>formatversion=2</tt>)
+ *  response. In JSON, <tt>true</tt> shows up as an empty value and
+ *  <tt>false</tt> as absent, just like XML flags; arrays of plain values are
+ *  joined with commas and every object in an array is a nested element
+ *  named after the array.
+ *
+ *  <p>
+ *  Items handed out while a response is being parsed are only valid until the
+ *  parser moves on to the next item, so don't hold on to them.
+ *
+ *  @see Wiki#parseRevision(org.wikipedia.ResponseItem, java.lang.String)
+ *  @see Wiki#parseLogEntry(org.wikipedia.ResponseItem)
+ *  @author MER-C
+ *  @since 0.32
+ */
+public interface ResponseItem
+{
+    /**
+     *  Returns the value of the given attribute (or nested element).
+     *  @param name the name of the attribute
+     *  @return the decoded value, or null if not present
+     */
+    String get(String name);
+
+    /**
+     *  Returns whether the given attribute (or nested element) is present.
+     *  This is how the API marks boolean flags such as <tt>minor=""</tt>.
+     *  @param name the name of the attribute
+     *  @return (see above)
+     */
+    default boolean has(String name)
+    {
+        return get(name) != null;
+    }
+
+    /**
+     *  Returns views of the nested elements with the given name, e.g. the
+     *  <tt>&lt;pr&gt;</tt> entries of a page's protection. In each view, the
+     *  element's own name maps to its text content, so the groups of a user
+     *  are <tt>g.get("g")</tt> for each <tt>g</tt> in
+     *  <tt>getElements("g")</tt>.
+     *  @param name the name of the elements
+     *  @return the elements in document order, possibly empty
+     */
+    List<ResponseItem> getElements(String name);
+}
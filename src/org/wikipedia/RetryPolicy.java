@@ -0,0 +1,229 @@
+/**
+ *  @(#)RetryPolicy.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.CharacterCodingException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Decides whether and when a failed request is retried. Failures are first
+ *  classified: timeouts, dropped connections, HTTP 408, 429 and 5xx, and the
+ *  <tt>readonly</tt> and <tt>ratelimited</tt> API errors (which {@link Wiki}
+ *  reports as HTTP 503, for reads and writes alike) are worth another go;
+ *  unknown hosts, other client errors (HTTP 4xx, e.g. missing pages),
+ *  malformed URLs and interruptions are not. Retryable failures are retried
+ *  up to a number of attempts per request, waiting exponentially longer each
+ *  time with random jitter so that many clients failing together don't all
+ *  come back together.
+ *
+ *  <p>
+ *  Write requests (edits, moves, uploads, emails, logging in) are not
+ *  idempotent, so they are only retried if the server certainly didn't act
+ *  on them: the connection was never made, or the server turned them down
+ *  with HTTP 429 or 503, including the <tt>readonly</tt> and
+ *  <tt>ratelimited</tt> API errors. A write that timed out
+ *  may well have been done and is not sent again.
+ *
+ *  <p>
+ *  A policy can also have a retry budget shared by every request made under
+ *  it. Give each job its own policy with a budget, and a job that keeps
+ *  failing stops retrying instead of spending hours on it:
+ *
+ *  <pre>
+ *  RetryPolicy policy = new RetryPolicy();
+ *  policy.setRetryBudget(100);
+ *  wiki.setRetryPolicy(policy);
+ *  </pre>
+ *
+ *  Waiting for database lag to clear is not a retry in this sense and
+ *  doesn't count against either limit, see {@link LagGovernor}.
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+public class RetryPolicy implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int maxattempts;
+    private final long basedelay, maxdelay;
+    // retries left for everything using this policy, -1 = unlimited
+    private final AtomicInteger budget = new AtomicInteger(-1);
+
+    /**
+     *  Creates a policy that makes up to three attempts per request,
+     *  waiting about 1 s and 2 s before the retries.
+     */
+    public RetryPolicy()
+    {
+        this(3, 1000, 30000);
+    }
+
+    /**
+     *  Creates a new policy.
+     *  @param maxattempts the maximum number of attempts per request,
+     *  including the first one. 1 disables retries.
+     *  @param basedelay the delay before the first retry in milliseconds,
+     *  doubled for every retry after that
+     *  @param maxdelay the maximum delay between attempts in milliseconds
+     *  @throws IllegalArgumentException if maxattempts &lt; 1 or the delays
+     *  are negative
+     */
+    public RetryPolicy(int maxattempts, long basedelay, long maxdelay)
+    {
+        if (maxattempts < 1)
+            throw new IllegalArgumentException("Must make at least one attempt.");
+        if (basedelay < 0 || maxdelay < 0)
+            throw new IllegalArgumentException("Negative delay.");
+        this.maxattempts = maxattempts;
+        this.basedelay = basedelay;
+        this.maxdelay = maxdelay;
+    }
+
+    /**
+     *  Returns the maximum number of attempts per request.
+     *  @return (see above)
+     */
+    public int getMaxAttempts()
+    {
+        return maxattempts;
+    }
+
+    /**
+     *  Sets the number of retries left for all requests made under this
+     *  policy. Default: unlimited.
+     *  @param retries the number of retries, or -1 for no limit
+     */
+    public void setRetryBudget(int retries)
+    {
+        budget.set(Math.max(retries, -1));
+    }
+
+    /**
+     *  Returns the number of retries left for all requests made under this
+     *  policy.
+     *  @return (see above) or -1 if unlimited
+     */
+    public int getRetryBudget()
+    {
+        return budget.get();
+    }
+
+    /**
+     *  Determines whether a request that failed with the given exception may
+     *  succeed if tried again. Override to change the classification.
+     *  @param ex the failure
+     *  @return (see above)
+     */
+    public boolean isRetryable(IOException ex)
+    {
+        if (ex instanceof HttpRetryException)
+        {
+            int status = ((HttpRetryException)ex).responseCode();
+            return status == 408 || status == 429 || status >= 500;
+        }
+        if (ex instanceof SocketTimeoutException)
+            return true;
+        // deterministic failures and interruptions
+        if (ex instanceof InterruptedIOException || ex instanceof UnknownHostException
+            || ex instanceof MalformedURLException || ex instanceof FileNotFoundException
+            || ex instanceof CharacterCodingException)
+            return false;
+        // dropped connections, truncated responses and the like
+        return true;
+    }
+
+    /**
+     *  Determines whether a write request that failed with the given
+     *  exception may be sent again, i.e. whether the server certainly didn't
+     *  act on it. Override to change the classification.
+     *  @param ex the failure
+     *  @return (see above)
+     *  @see #isRetryable(java.io.IOException)
+     */
+    public boolean isRetryableWrite(IOException ex)
+    {
+        if (ex instanceof HttpRetryException)
+        {
+            int status = ((HttpRetryException)ex).responseCode();
+            return status == 429 || status == 503;
+        }
+        return ex instanceof ConnectException;
+    }
+
+    /**
+     *  Returns how long to wait before the given retry: the exponential delay
+     *  for that retry, capped at the maximum, of which the upper half is
+     *  randomized.
+     *  @param retry the retry, 1 = the first retry
+     *  @return the delay in milliseconds
+     */
+    protected long getDelay(int retry)
+    {
+        long delay = basedelay << Math.min(retry - 1, 30);
+        if (delay > maxdelay || delay < 0)
+            delay = maxdelay;
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     *  Starts keeping track of the attempts for a single request.
+     *  @param write whether the request is a write request, see {@link
+     *  #isRetryableWrite(java.io.IOException)}
+     *  @return (see above)
+     */
+    Attempts start(boolean write)
+    {
+        return new Attempts(write);
+    }
+
+    /**
+     *  The attempts made so far for a single request.
+     */
+    final class Attempts
+    {
+        private final boolean write;
+        private int retries = 0;
+
+        private Attempts(boolean write)
+        {
+            this.write = write;
+        }
+
+        /**
+         *  Decides what to do about a failed attempt.
+         *  @param ex why the attempt failed
+         *  @return how long to wait before trying again in milliseconds, or
+         *  -1 if the request should fail with <tt>ex</tt>
+         */
+        long retry(IOException ex)
+        {
+            if (retries + 1 >= maxattempts || !(write ? isRetryableWrite(ex) : isRetryable(ex)))
+                return -1;
+            if (budget.getAndUpdate(left -> left > 0 ? left - 1 : left) == 0)
+                return -1;
+            return getDelay(++retries);
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/**
+ *  @(#)RevisionCache.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.*;
+import java.util.zip.*;
+
+/**
+ *  A disk-backed cache of revision texts. The text of a revision never
+ *  changes once saved, so entries never go stale; they are keyed by revision
+ *  ID and stored with the SHA-1 of the text, which is checked on every read
+ *  and, if the caller knows it, against the SHA-1 the server reported. Texts
+ *  are deflated with a preset dictionary of common wikitext and the least
+ *  recently used entries are evicted once the cache grows beyond its maximum
+ *  size. Safe for use by many threads and by many {@link Wiki} instances at
+ *  once, but not by several processes.
+ *
+ *  <p>
+ *  Only the texts of revisions of one wiki should go into a cache, as
+ *  revision IDs are not unique across wikis.
+ *
+ *  @see Wiki#setRevisionCache(org.wikipedia.RevisionCache)
+ *  @author MER-C
+ *  @since 0.32
+ */
+public final class RevisionCache
+{
+    private static final int MAGIC = 0x574a5243; // "WJRC"
+
+    // Deflate looks back into the dictionary for matches, so fragments that
+    // turn up in almost every article help even small texts. Most common last.
+    private static final byte[] DICTIONARY = (
+        "{{Authority control}}{{DEFAULTSORT:|access-date=|archive-url=|archive-date=|url-status=live"
+        + "|publisher=|website=|work=|last=|first=|date=|isbn=|pages=|page=|journal=|volume=|issue="
+        + "{{cite book{{cite news{{cite journal{{cite web|url=https://www.|title=|accessdate="
+        + "<ref name=\"<ref>{{cite web|url=http://www.</ref>\n== External links ==\n* [http"
+        + "\n== See also ==\n* [[\n== References ==\n{{Reflist}}\n\n[[File:|thumb|right|"
+        + "{{Infobox |image=|caption=|name=\n| \n}}\n'''''' is a  of the  in the [[ and the [[Category:"
+        + "]]\n[[Category:").getBytes(StandardCharsets.UTF_8);
+
+    private final Path directory;
+    private volatile long maxsize;
+
+    // revid -> size of the file, least recently used first; guarded by itself
+    private final LinkedHashMap<Long, Long> index = new LinkedHashMap<>(256, 0.75f, true);
+    private long size = 0;
+
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+    /**
+     *  Opens the cache in the given directory, creating it if necessary.
+     *  Entries left behind by an earlier cache in the same directory are
+     *  picked up.
+     *  @param directory where to keep the cache
+     *  @param maxsize the maximum size of the cache on disk in bytes
+     *  @throws IOException if the directory cannot be created or read
+     *  @throws IllegalArgumentException if maxsize is negative
+     */
+    public RevisionCache(Path directory, long maxsize) throws IOException
+    {
+        if (maxsize < 0)
+            throw new IllegalArgumentException("Negative cache size: " + maxsize);
+        this.directory = Files.createDirectories(directory);
+        this.maxsize = maxsize;
+
+        // oldest files first, which is as close to LRU as we can get
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(directory, 2))
+        {
+            files = stream.filter(file -> file.getFileName().toString().matches("\\d+")
+                && Files.isRegularFile(file)).collect(Collectors.toList());
+        }
+        Map<Path, Long> modified = new HashMap<>(2 * files.size());
+        for (Path file : files)
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        files.sort(Comparator.comparing(modified::get));
+        synchronized (index)
+        {
+            for (Path file : files)
+            {
+                long length = Files.size(file);
+                index.put(Long.parseLong(file.getFileName().toString()), length);
+                size += length;
+            }
+        }
+        evict();
+    }
+
+    /**
+     *  Returns the text of the given revision, if cached.
+     *  @param revid a revision ID
+     *  @return the text of the revision, or null if not cached
+     *  @throws IOException if the cache cannot be read
+     */
+    public String get(long revid) throws IOException
+    {
+        return get(revid, null);
+    }
+
+    /**
+     *  Returns the text of the given revision, if cached with the given
+     *  SHA-1.
+     *  @param revid a revision ID
+     *  @param sha1 the SHA-1 of the text in hexadecimal as reported by the
+     *  server, or null if not known
+     *  @return the text of the revision, or null if not cached or cached with
+     *  a different SHA-1
+     *  @throws IOException if the cache cannot be read
+     */
+    public String get(long revid, String sha1) throws IOException
+    {
+        boolean cached;
+        synchronized (index)
+        {
+            // also marks the entry as recently used
+            cached = index.get(revid) != null;
+        }
+        String text = cached ? read(revid, sha1) : null;
+        if (text == null)
+            misses.increment();
+        else
+            hits.increment();
+        return text;
+    }
+
+    /**
+     *  Returns whether the text of the given revision is cached.
+     *  @param revid a revision ID
+     *  @return (see above)
+     */
+    public boolean contains(long revid)
+    {
+        synchronized (index)
+        {
+            return index.containsKey(revid);
+        }
+    }
+
+    /**
+     *  Caches the text of the given revision. If the server reported a SHA-1
+     *  for the revision and it doesn't match the text, the text is not
+     *  cached.
+     *  @param revid a revision ID
+     *  @param sha1 the SHA-1 of the text in hexadecimal as reported by the
+     *  server, or null if not known
+     *  @param text the text of the revision
+     *  @return whether the text was cached
+     *  @throws IOException if the cache cannot be written
+     */
+    public boolean put(long revid, String sha1, String text) throws IOException
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] digest = sha1(bytes);
+        if (sha1 != null && !sha1.equalsIgnoreCase(toHex(digest)))
+            return false;
+
+        Path file = file(revid);
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), "rev", ".tmp");
+        try
+        {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            deflater.setDictionary(DICTIONARY);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                out.writeInt(MAGIC);
+                out.write(digest);
+                out.writeInt(bytes.length);
+                try (DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, 8192))
+                {
+                    deflated.write(bytes);
+                }
+            }
+            finally
+            {
+                deflater.end();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+
+        long length = Files.size(file);
+        synchronized (index)
+        {
+            Long old = index.put(revid, length);
+            size += length - (old == null ? 0 : old);
+        }
+        evict();
+        return true;
+    }
+
+    /**
+     *  Removes the text of the given revision from the cache.
+     *  @param revid a revision ID
+     *  @throws IOException if the cache cannot be written
+     */
+    public void remove(long revid) throws IOException
+    {
+        synchronized (index)
+        {
+            Long old = index.remove(revid);
+            if (old == null)
+                return;
+            size -= old;
+        }
+        Files.deleteIfExists(file(revid));
+    }
+
+    /**
+     *  Removes everything from the cache.
+     *  @throws IOException if the cache cannot be written
+     */
+    public void clear() throws IOException
+    {
+        List<Long> revids;
+        synchronized (index)
+        {
+            revids = new ArrayList<>(index.keySet());
+        }
+        for (long revid : revids)
+            remove(revid);
+    }
+
+    /**
+     *  Sets the maximum size of the cache on disk, evicting the least
+     *  recently used entries if it is now too big.
+     *  @param maxsize the maximum size in bytes
+     *  @throws IOException if the cache cannot be written
+     *  @throws IllegalArgumentException if maxsize is negative
+     */
+    public void setMaxSize(long maxsize) throws IOException
+    {
+        if (maxsize < 0)
+            throw new IllegalArgumentException("Negative cache size: " + maxsize);
+        this.maxsize = maxsize;
+        evict();
+    }
+
+    /**
+     *  Returns the maximum size of the cache on disk.
+     *  @return the maximum size in bytes
+     */
+    public long getMaxSize()
+    {
+        return maxsize;
+    }
+
+    /**
+     *  Returns the current size of the cache on disk.
+     *  @return the size in bytes
+     */
+    public long size()
+    {
+        synchronized (index)
+        {
+            return size;
+        }
+    }
+
+    /**
+     *  Returns the number of cached revisions.
+     *  @return (see above)
+     */
+    public int count()
+    {
+        synchronized (index)
+        {
+            return index.size();
+        }
+    }
+
+    /**
+     *  Returns the number of lookups that found the text.
+     *  @return (see above)
+     */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    /**
+     *  Returns the number of lookups that didn't find the text.
+     *  @return (see above)
+     */
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    /**
+     *  Computes the SHA-1 of some text the way MediaWiki does, i.e. of its
+     *  UTF-8 encoding.
+     *  @param text some text
+     *  @return the SHA-1 in hexadecimal
+     */
+    public static String sha1(String text)
+    {
+        return toHex(sha1(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     *  Reads and checks a cached text. A corrupt entry is removed.
+     *  @param revid a revision ID
+     *  @param sha1 the expected SHA-1 or null
+     *  @return the text or null if it is gone, corrupt or has a different
+     *  SHA-1
+     *  @throws IOException if the cache cannot be read
+     */
+    private String read(long revid, String sha1) throws IOException
+    {
+        byte[] data;
+        try
+        {
+            data = Files.readAllBytes(file(revid));
+        }
+        catch (NoSuchFileException ex)
+        {
+            // evicted by someone else in the meantime
+            return null;
+        }
+
+        byte[] digest = new byte[20];
+        byte[] bytes;
+        try
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC)
+                throw new DataFormatException("Not a cached revision");
+            in.readFully(digest);
+            bytes = new byte[in.readInt()];
+            int offset = 4 + digest.length + 4;
+
+            Inflater inflater = new Inflater();
+            try
+            {
+                inflater.setInput(data, offset, data.length - offset);
+                int n = 0;
+                while (n < bytes.length)
+                {
+                    int read = inflater.inflate(bytes, n, bytes.length - n);
+                    if (read == 0 && inflater.needsDictionary())
+                        inflater.setDictionary(DICTIONARY);
+                    else if (read == 0 && (inflater.finished() || inflater.needsInput()))
+                        throw new DataFormatException("Truncated cached revision");
+                    n += read;
+                }
+            }
+            finally
+            {
+                inflater.end();
+            }
+        }
+        catch (DataFormatException | EOFException | NegativeArraySizeException ex)
+        {
+            remove(revid);
+            return null;
+        }
+
+        if (!Arrays.equals(digest, sha1(bytes)))
+        {
+            remove(revid);
+            return null;
+        }
+        if (sha1 != null && !sha1.equalsIgnoreCase(toHex(digest)))
+            return null;
+        // touch it so that the order survives a restart
+        try
+        {
+            Files.setLastModifiedTime(file(revid), FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (NoSuchFileException ex)
+        {
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     *  Removes the least recently used entries until the cache fits.
+     *  @throws IOException if the cache cannot be written
+     */
+    private void evict() throws IOException
+    {
+        List<Long> evicted = new ArrayList<>();
+        synchronized (index)
+        {
+            Iterator<Map.Entry<Long, Long>> iter = index.entrySet().iterator();
+            while (size > maxsize && iter.hasNext())
+            {
+                Map.Entry<Long, Long> entry = iter.next();
+                evicted.add(entry.getKey());
+                size -= entry.getValue();
+                iter.remove();
+            }
+        }
+        for (long revid : evicted)
+            Files.deleteIfExists(file(revid));
+    }
+
+    /**
+     *  Returns where the text of the given revision is stored. Files are
+     *  spread over 256 subdirectories so that no directory gets too big.
+     *  @param revid a revision ID
+     *  @return (see above)
+     */
+    private Path file(long revid)
+    {
+        return directory.resolve(String.format("%02x", revid & 0xff)).resolve(Long.toString(revid));
+    }
+
+    private static byte[] sha1(byte[] bytes)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-1").digest(bytes);
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // every Java platform has SHA-1
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ *  @(#)SingleFlight.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *  Coalesces identical calls: while a call for some key is running, anyone
+ *  else asking for the same key waits for that call and gets its result (or
+ *  its exception) instead of making the call again. Optionally results are
+ *  handed out for a while after the call finished, too.
+ *
+ *  <p>
+ *  Results are shared, not copied, so they must not be modified by callers.
+ *
+ *  @param <K> the type of the keys
+ *  @param <V> the type of the results
+ *  @author MER-C
+ *  @since 0.32
+ */
+final class SingleFlight<K, V>
+{
+    private final ConcurrentHashMap<K, Call<V>> calls = new ConcurrentHashMap<>();
+    // finished calls kept for the window, oldest first
+    private final ConcurrentLinkedQueue<Map.Entry<K, Call<V>>> finished = new ConcurrentLinkedQueue<>();
+    private final LongAdder executed = new LongAdder(), coalesced = new LongAdder();
+    private volatile long window = 0;
+
+    /**
+     *  Does something that may fail with an IOException.
+     *  @param <V> the type of the result
+     */
+    @FunctionalInterface
+    interface Work<V>
+    {
+        V run() throws IOException;
+    }
+
+    /**
+     *  Sets for how long the result of a finished call is handed out to new
+     *  callers with the same key.
+     *  @param window the time in milliseconds, 0 to only coalesce calls that
+     *  are still running
+     */
+    void setWindow(long window)
+    {
+        this.window = Math.max(window, 0);
+        if (window <= 0)
+            clear();
+    }
+
+    /**
+     *  Returns for how long the result of a finished call is handed out.
+     *  @return the time in milliseconds
+     */
+    long getWindow()
+    {
+        return window;
+    }
+
+    /**
+     *  Returns the result for the given key, doing the work only if no
+     *  identical call is running or finished within the window.
+     *  @param key identifies the call
+     *  @param work makes the call
+     *  @return (see above)
+     *  @throws IOException if the call failed
+     */
+    V execute(K key, Work<V> work) throws IOException
+    {
+        purge();
+        Call<V> mine = new Call<>();
+        while (true)
+        {
+            Call<V> call = calls.putIfAbsent(key, mine);
+            if (call == null)
+                break;
+            if (call.isExpired())
+            {
+                calls.remove(key, call);
+                continue;
+            }
+            coalesced.increment();
+            call.waiters.incrementAndGet();
+            return call.await();
+        }
+
+        executed.increment();
+        try
+        {
+            V result = work.run();
+            mine.result.complete(result);
+            long keep = window;
+            if (keep > 0)
+            {
+                mine.expires = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(keep);
+                finished.add(new AbstractMap.SimpleImmutableEntry<>(key, mine));
+            }
+            else
+                calls.remove(key, mine);
+            return result;
+        }
+        catch (IOException | RuntimeException | Error ex)
+        {
+            // failures are never cached
+            calls.remove(key, mine);
+            mine.result.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     *  Returns whether anyone has joined the running call for the given key.
+     *  The caller making the call can use this to decide whether a result
+     *  that is expensive to keep is worth keeping; anyone joining later just
+     *  gets what the call returns.
+     *  @param key identifies the call
+     *  @return (see above)
+     */
+    boolean hasWaiters(K key)
+    {
+        Call<V> call = calls.get(key);
+        return call != null && call.waiters.get() > 0;
+    }
+
+    /**
+     *  Forgets all finished calls.
+     */
+    void clear()
+    {
+        for (Map.Entry<K, Call<V>> entry; (entry = finished.poll()) != null; )
+            calls.remove(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     *  Returns the number of calls that were actually made.
+     *  @return (see above)
+     */
+    long getExecutedCount()
+    {
+        return executed.sum();
+    }
+
+    /**
+     *  Returns the number of calls that were answered with the result of
+     *  another call.
+     *  @return (see above)
+     */
+    long getCoalescedCount()
+    {
+        return coalesced.sum();
+    }
+
+    /**
+     *  Forgets finished calls that have expired.
+     */
+    private void purge()
+    {
+        for (Map.Entry<K, Call<V>> entry = finished.peek(); entry != null && entry.getValue().isExpired(); entry = finished.peek())
+            if (finished.remove(entry))
+                calls.remove(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     *  A running or finished call.
+     *  @param <V> the type of the result
+     */
+    private static final class Call<V>
+    {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+        // System.nanoTime() after which the result is stale, set when finished
+        private volatile long expires;
+
+        private boolean isExpired()
+        {
+            return result.isDone() && expires != 0 && System.nanoTime() - expires > 0;
+        }
+
+        private V await() throws IOException
+        {
+            try
+            {
+                return result.get();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an identical request");
+            }
+            catch (ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException)cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                throw (Error)cause;
+            }
+        }
+    }
+}
@@ -0,0 +1,502 @@
+/**
+ *  @(#)TextDiff.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.util.*;
+
+/**
+ *  The difference between two texts, computed locally. Like MediaWiki's
+ *  diffs, lines are compared first; where a block of lines was replaced by
+ *  another, the words within are compared as well. The result is a list of
+ *  {@link Span}s of added and removed text: whole lines that were added or
+ *  removed, and the words that changed within lines that were edited (the
+ *  <tt>diffchange-inline</tt> bits of a MediaWiki diff). Changes separated
+ *  only by whitespace are merged into one span.
+ *
+ *  <p>
+ *  Both levels use Myers' O(ND) algorithm with linear space bisection, so
+ *  the typical small edit to a large page is cheap. Instances are immutable
+ *  and may be computed on any number of threads at once.
+ *
+ *  @see Wiki#getDiffs(java.util.List, java.util.function.BiConsumer)
+ *  @author MER-C
+ *  @since 0.32
+ */
+public final class TextDiff
+{
+    private final String oldtext, newtext;
+    private final List<Span> spans;
+
+    /**
+     *  A piece of text that was added or removed.
+     *  @since 0.32
+     */
+    public final class Span
+    {
+        private final boolean added, inline;
+        private final int start, end;
+
+        private Span(boolean added, boolean inline, int start, int end)
+        {
+            this.added = added;
+            this.inline = inline;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         *  Returns whether this text was added (or removed).
+         *  @return (see above)
+         */
+        public boolean isAdded()
+        {
+            return added;
+        }
+
+        /**
+         *  Returns whether this span is part of a line that was edited, as
+         *  opposed to whole lines that were added or removed.
+         *  @return (see above)
+         */
+        public boolean isInline()
+        {
+            return inline;
+        }
+
+        /**
+         *  Returns where this span starts in the new text if it was added,
+         *  in the old text if it was removed.
+         *  @return the offset of the first character
+         */
+        public int getStart()
+        {
+            return start;
+        }
+
+        /**
+         *  Returns where this span ends in the new text if it was added, in
+         *  the old text if it was removed.
+         *  @return the offset after the last character
+         */
+        public int getEnd()
+        {
+            return end;
+        }
+
+        /**
+         *  Returns the text that was added or removed.
+         *  @return (see above)
+         */
+        public String getText()
+        {
+            return (added ? newtext : oldtext).substring(start, end);
+        }
+
+        /**
+         *  Returns a string representation of this span.
+         *  @return (see above)
+         */
+        @Override
+        public String toString()
+        {
+            return (added ? "+" : "-") + (inline ? "inline[" : "[") + getText() + "]";
+        }
+    }
+
+    private TextDiff(String oldtext, String newtext)
+    {
+        this.oldtext = oldtext;
+        this.newtext = newtext;
+        this.spans = Collections.unmodifiableList(diffLines());
+    }
+
+    /**
+     *  Computes the difference between two texts.
+     *  @param oldtext the old text, e.g. of the parent revision
+     *  @param newtext the new text
+     *  @return the difference
+     */
+    public static TextDiff compute(String oldtext, String newtext)
+    {
+        return new TextDiff(Objects.requireNonNull(oldtext), Objects.requireNonNull(newtext));
+    }
+
+    /**
+     *  Returns the old text.
+     *  @return (see above)
+     */
+    public String getOldText()
+    {
+        return oldtext;
+    }
+
+    /**
+     *  Returns the new text.
+     *  @return (see above)
+     */
+    public String getNewText()
+    {
+        return newtext;
+    }
+
+    /**
+     *  Returns all changes in the order they occur. For each block of changes,
+     *  removed spans come before added ones.
+     *  @return (see above)
+     */
+    public List<Span> getSpans()
+    {
+        return spans;
+    }
+
+    /**
+     *  Returns the text that was added, in order.
+     *  @return (see above)
+     */
+    public List<Span> getAdded()
+    {
+        List<Span> ret = new ArrayList<>();
+        for (Span span : spans)
+            if (span.added)
+                ret.add(span);
+        return ret;
+    }
+
+    /**
+     *  Returns the text that was removed, in order.
+     *  @return (see above)
+     */
+    public List<Span> getRemoved()
+    {
+        List<Span> ret = new ArrayList<>();
+        for (Span span : spans)
+            if (!span.added)
+                ret.add(span);
+        return ret;
+    }
+
+    /**
+     *  Returns whether the two texts are the same.
+     *  @return (see above)
+     */
+    public boolean isEmpty()
+    {
+        return spans.isEmpty();
+    }
+
+    /**
+     *  Returns a string representation of this diff.
+     *  @return (see above)
+     */
+    @Override
+    public String toString()
+    {
+        return "TextDiff" + spans;
+    }
+
+    /**
+     *  Compares the texts line by line, then word by word within blocks of
+     *  replaced lines.
+     *  @return the spans
+     */
+    private List<Span> diffLines()
+    {
+        int[] oldlines = lineStarts(oldtext), newlines = lineStarts(newtext);
+        Map<String, Integer> ids = new HashMap<>();
+        int[] a = tokenIds(oldtext, oldlines, ids), b = tokenIds(newtext, newlines, ids);
+        boolean[] removed = new boolean[a.length], added = new boolean[b.length];
+        diff(a, 0, a.length, b, 0, b.length, removed, added);
+
+        List<Span> ret = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < a.length || j < b.length)
+        {
+            if (i < a.length && j < b.length && !removed[i] && !added[j])
+            {
+                i++;
+                j++;
+                continue;
+            }
+            int i2 = i, j2 = j;
+            while (i2 < a.length && removed[i2])
+                i2++;
+            while (j2 < b.length && added[j2])
+                j2++;
+            if (i2 > i && j2 > j)
+                diffWords(oldlines[i], oldlines[i2], newlines[j], newlines[j2], ret);
+            else
+            {
+                if (i2 > i)
+                    ret.add(new Span(false, false, oldlines[i], oldlines[i2]));
+                if (j2 > j)
+                    ret.add(new Span(true, false, newlines[j], newlines[j2]));
+            }
+            i = i2;
+            j = j2;
+        }
+        return ret;
+    }
+
+    /**
+     *  Compares a block of replaced lines word by word.
+     *  @param ostart where the block starts in the old text
+     *  @param oend where the block ends in the old text
+     *  @param nstart where the block starts in the new text
+     *  @param nend where the block ends in the new text
+     *  @param spans where to put the changes
+     */
+    private void diffWords(int ostart, int oend, int nstart, int nend, List<Span> spans)
+    {
+        int[] oldwords = wordStarts(oldtext, ostart, oend), newwords = wordStarts(newtext, nstart, nend);
+        Map<String, Integer> ids = new HashMap<>();
+        int[] a = tokenIds(oldtext, oldwords, ids), b = tokenIds(newtext, newwords, ids);
+        boolean[] removed = new boolean[a.length], added = new boolean[b.length];
+        diff(a, 0, a.length, b, 0, b.length, removed, added);
+        addSpans(false, oldtext, oldwords, removed, spans);
+        addSpans(true, newtext, newwords, added, spans);
+    }
+
+    /**
+     *  Turns runs of changed words into spans, merging runs that are only
+     *  separated by whitespace.
+     *  @param isadded whether the words were added or removed
+     *  @param text the text the words are in
+     *  @param starts the offsets of the words, plus the end of the last one
+     *  @param changed which words changed
+     *  @param spans where to put the spans
+     */
+    private void addSpans(boolean isadded, String text, int[] starts, boolean[] changed, List<Span> spans)
+    {
+        int start = -1, end = -1;
+        for (int k = 0; k < changed.length; k++)
+        {
+            if (changed[k])
+            {
+                if (start < 0)
+                    start = starts[k];
+                end = starts[k + 1];
+            }
+            else if (start >= 0 && !isBlank(text, starts[k], starts[k + 1]))
+            {
+                spans.add(new Span(isadded, true, start, end));
+                start = -1;
+            }
+        }
+        if (start >= 0)
+            spans.add(new Span(isadded, true, start, end));
+    }
+
+    private static boolean isBlank(String text, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+            if (!Character.isWhitespace(text.charAt(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     *  Splits a text into lines, each including its line break.
+     *  @param text the text
+     *  @return the offsets of the lines, plus the length of the text
+     */
+    private static int[] lineStarts(String text)
+    {
+        int[] starts = new int[16];
+        int n = 0;
+        for (int i = 0; i < text.length(); i = text.indexOf('\n', i) + 1)
+        {
+            if (n + 1 >= starts.length)
+                starts = Arrays.copyOf(starts, 2 * starts.length);
+            starts[n++] = i;
+            if (text.indexOf('\n', i) < 0)
+                break;
+        }
+        starts[n] = text.length();
+        return Arrays.copyOf(starts, n + 1);
+    }
+
+    /**
+     *  Splits part of a text into words the way MediaWiki does: runs of
+     *  letters and digits are words, any other character is a word of its
+     *  own.
+     *  @param text the text
+     *  @param start where to start
+     *  @param end where to stop
+     *  @return the offsets of the words, plus the end
+     */
+    private static int[] wordStarts(String text, int start, int end)
+    {
+        int[] starts = new int[16];
+        int n = 0;
+        for (int i = start; i < end; )
+        {
+            if (n + 1 >= starts.length)
+                starts = Arrays.copyOf(starts, 2 * starts.length);
+            starts[n++] = i;
+            if (Character.isLetterOrDigit(text.charAt(i)))
+                while (i < end && Character.isLetterOrDigit(text.charAt(i)))
+                    i++;
+            else
+                i++;
+        }
+        starts[n] = end;
+        return Arrays.copyOf(starts, n + 1);
+    }
+
+    /**
+     *  Numbers tokens so that equal tokens get the same number.
+     *  @param text the text the tokens are in
+     *  @param starts the offsets of the tokens, plus the end of the last one
+     *  @param ids the numbers handed out so far
+     *  @return the numbers of the tokens
+     */
+    private static int[] tokenIds(String text, int[] starts, Map<String, Integer> ids)
+    {
+        int[] ret = new int[starts.length - 1];
+        for (int i = 0; i < ret.length; i++)
+        {
+            Integer id = ids.putIfAbsent(text.substring(starts[i], starts[i + 1]), ids.size());
+            ret[i] = id == null ? ids.size() - 1 : id;
+        }
+        return ret;
+    }
+
+    /**
+     *  Finds a shortest edit script between <tt>a[alo..ahi)</tt> and
+     *  <tt>b[blo..bhi)</tt> and marks the tokens that are not part of the
+     *  longest common subsequence.
+     *  @param a the old tokens
+     *  @param alo where to start in a
+     *  @param ahi where to stop in a
+     *  @param b the new tokens
+     *  @param blo where to start in b
+     *  @param bhi where to stop in b
+     *  @param removed set for tokens of a that were removed
+     *  @param added set for tokens of b that were added
+     */
+    static void diff(int[] a, int alo, int ahi, int[] b, int blo, int bhi, boolean[] removed, boolean[] added)
+    {
+        // common prefix and suffix
+        while (alo < ahi && blo < bhi && a[alo] == b[blo])
+        {
+            alo++;
+            blo++;
+        }
+        while (alo < ahi && blo < bhi && a[ahi - 1] == b[bhi - 1])
+        {
+            ahi--;
+            bhi--;
+        }
+        if (alo == ahi || blo == bhi)
+        {
+            Arrays.fill(removed, alo, ahi, true);
+            Arrays.fill(added, blo, bhi, true);
+            return;
+        }
+
+        // Find the middle of the edit path by walking it from both ends at
+        // once, then solve both halves on their own. See E. Myers (1986),
+        // "An O(ND) Difference Algorithm and Its Variations".
+        int n = ahi - alo, m = bhi - blo;
+        int maxd = (n + m + 1) / 2, offset = maxd, length = 2 * maxd + 2;
+        int[] v1 = new int[length], v2 = new int[length];
+        Arrays.fill(v1, -1);
+        Arrays.fill(v2, -1);
+        v1[offset + 1] = 0;
+        v2[offset + 1] = 0;
+        int delta = n - m;
+        // if the total number of tokens is odd, the front path will collide
+        // with the reverse path
+        boolean front = (delta & 1) != 0;
+        // offsets for start and end of k loop, prevent mapping of space
+        // beyond the grid
+        int k1start = 0, k1end = 0, k2start = 0, k2end = 0;
+        for (int d = 0; d < maxd; d++)
+        {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2)
+            {
+                int k1offset = offset + k1;
+                int x1 = k1 == -d || k1 != d && v1[k1offset - 1] < v1[k1offset + 1] ? v1[k1offset + 1] : v1[k1offset - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[alo + x1] == b[blo + y1])
+                {
+                    x1++;
+                    y1++;
+                }
+                v1[k1offset] = x1;
+                if (x1 > n)
+                    k1end += 2; // ran off the right of the graph
+                else if (y1 > m)
+                    k1start += 2; // ran off the bottom of the graph
+                else if (front)
+                {
+                    int k2offset = offset + delta - k1;
+                    if (k2offset >= 0 && k2offset < length && v2[k2offset] != -1 && x1 >= n - v2[k2offset])
+                    {
+                        split(a, alo, ahi, b, blo, bhi, x1, y1, removed, added);
+                        return;
+                    }
+                }
+            }
+
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2)
+            {
+                int k2offset = offset + k2;
+                int x2 = k2 == -d || k2 != d && v2[k2offset - 1] < v2[k2offset + 1] ? v2[k2offset + 1] : v2[k2offset - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[ahi - x2 - 1] == b[bhi - y2 - 1])
+                {
+                    x2++;
+                    y2++;
+                }
+                v2[k2offset] = x2;
+                if (x2 > n)
+                    k2end += 2;
+                else if (y2 > m)
+                    k2start += 2;
+                else if (!front)
+                {
+                    int k1offset = offset + delta - k2;
+                    if (k1offset >= 0 && k1offset < length && v1[k1offset] != -1)
+                    {
+                        int x1 = v1[k1offset];
+                        int y1 = offset + x1 - k1offset;
+                        if (x1 >= n - x2)
+                        {
+                            split(a, alo, ahi, b, blo, bhi, x1, y1, removed, added);
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+        // nothing in common
+        Arrays.fill(removed, alo, ahi, true);
+        Arrays.fill(added, blo, bhi, true);
+    }
+
+    private static void split(int[] a, int alo, int ahi, int[] b, int blo, int bhi, int x, int y,
+        boolean[] removed, boolean[] added)
+    {
+        diff(a, alo, alo + x, b, blo, blo + y, removed, added);
+        diff(a, alo + x, ahi, b, blo + y, bhi, removed, added);
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ *  @(#)TimestampCodec.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+/**
+ *  Converts between seconds since the epoch and the two fixed width
+ *  timestamp formats MediaWiki uses, <tt>2016-01-02T03:04:05Z</tt> (API
+ *  output) and <tt>20160102030405</tt> (API input, database). Both are always
+ *  UTC and years are always four digits, so the digits are read and written
+ *  in place with plain arithmetic: no substrings, no <tt>String.format</tt>,
+ *  no Calendar.
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+final class TimestampCodec
+{
+    private static final long SECONDS_PER_DAY = 86400L;
+    // where the digits of yyyymmddhhmmss are in yyyy-mm-ddThh:mm:ssZ
+    private static final int[] ISO_DIGITS = { 0, 1, 2, 3, 5, 6, 8, 9, 11, 12, 14, 15, 17, 18 };
+
+    private TimestampCodec()
+    {
+    }
+
+    /**
+     *  Parses a timestamp of the form yyyy-mm-ddThh:mm:ssZ.
+     *  @param timestamp the timestamp to parse
+     *  @return seconds since the epoch
+     *  @throws IllegalArgumentException if the timestamp is malformed
+     */
+    static long parseIso(CharSequence timestamp)
+    {
+        if (timestamp.length() < 19 || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-'
+            || timestamp.charAt(10) != 'T' || timestamp.charAt(13) != ':' || timestamp.charAt(16) != ':')
+            throw new IllegalArgumentException("Malformed timestamp: " + timestamp);
+        return toEpoch(digits(timestamp, 0, 4), digits(timestamp, 5, 2), digits(timestamp, 8, 2),
+            digits(timestamp, 11, 2), digits(timestamp, 14, 2), digits(timestamp, 17, 2));
+    }
+
+    /**
+     *  Parses a timestamp of the form yyyymmddhhmmss.
+     *  @param timestamp the timestamp to parse
+     *  @return seconds since the epoch
+     *  @throws IllegalArgumentException if the timestamp is malformed
+     */
+    static long parseCompact(CharSequence timestamp)
+    {
+        if (timestamp.length() < 14)
+            throw new IllegalArgumentException("Malformed timestamp: " + timestamp);
+        return toEpoch(digits(timestamp, 0, 4), digits(timestamp, 4, 2), digits(timestamp, 6, 2),
+            digits(timestamp, 8, 2), digits(timestamp, 10, 2), digits(timestamp, 12, 2));
+    }
+
+    /**
+     *  Formats a time as yyyymmddhhmmss.
+     *  @param epoch seconds since the epoch
+     *  @return (see above)
+     */
+    static String formatCompact(long epoch)
+    {
+        char[] out = new char[14];
+        long days = Math.floorDiv(epoch, SECONDS_PER_DAY);
+        int seconds = (int)Math.floorMod(epoch, SECONDS_PER_DAY);
+        writeDate(out, days, 0, 4, 6);
+        write(out, 8, seconds / 3600);
+        write(out, 10, seconds / 60 % 60);
+        write(out, 12, seconds % 60);
+        return new String(out);
+    }
+
+    /**
+     *  Formats a time as yyyy-mm-ddThh:mm:ssZ.
+     *  @param epoch seconds since the epoch
+     *  @return (see above)
+     */
+    static String formatIso(long epoch)
+    {
+        char[] out = { '0', '0', '0', '0', '-', '0', '0', '-', '0', '0', 'T', '0', '0', ':', '0', '0', ':', '0', '0', 'Z' };
+        long days = Math.floorDiv(epoch, SECONDS_PER_DAY);
+        int seconds = (int)Math.floorMod(epoch, SECONDS_PER_DAY);
+        writeDate(out, days, 0, 5, 8);
+        write(out, 11, seconds / 3600);
+        write(out, 14, seconds / 60 % 60);
+        write(out, 17, seconds % 60);
+        return new String(out);
+    }
+
+    /**
+     *  Converts yyyy-mm-ddThh:mm:ssZ to yyyymmddhhmmss without going through
+     *  a number.
+     *  @param timestamp an API timestamp
+     *  @return (see above)
+     */
+    static String isoToCompact(CharSequence timestamp)
+    {
+        char[] out = new char[14];
+        for (int i = 0; i < 14; i++)
+            out[i] = timestamp.charAt(ISO_DIGITS[i]);
+        return new String(out);
+    }
+
+    /**
+     *  Returns the seconds since the epoch of the given UTC date and time.
+     *  @param year the year
+     *  @param month the month, January = 1
+     *  @param day the day of the month
+     *  @param hour the hour of the day (0-23)
+     *  @param minute the minute
+     *  @param second the second
+     *  @return (see above)
+     */
+    static long toEpoch(int year, int month, int day, int hour, int minute, int second)
+    {
+        return daysFromCivil(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+    }
+
+    /**
+     *  Splits seconds since the epoch into UTC date and time fields.
+     *  @param epoch seconds since the epoch
+     *  @param fields where to put year, month (January = 1), day, hour,
+     *  minute and second, in that order
+     */
+    static void toFields(long epoch, int[] fields)
+    {
+        long days = Math.floorDiv(epoch, SECONDS_PER_DAY);
+        int seconds = (int)Math.floorMod(epoch, SECONDS_PER_DAY);
+        long date = civilFromDays(days);
+        fields[0] = (int)(date >> 9);
+        fields[1] = (int)(date >> 5) & 0xF;
+        fields[2] = (int)date & 0x1F;
+        fields[3] = seconds / 3600;
+        fields[4] = seconds / 60 % 60;
+        fields[5] = seconds % 60;
+    }
+
+    // Proleptic Gregorian day arithmetic, see
+    // http://howardhinnant.github.io/date_algorithms.html
+
+    private static long daysFromCivil(long year, int month, int day)
+    {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yoe = year - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     *  Returns year &lt;&lt; 9 | month &lt;&lt; 5 | day for the given day
+     *  since the epoch.
+     */
+    private static long civilFromDays(long days)
+    {
+        days += 719468;
+        long era = Math.floorDiv(days, 146097);
+        long doe = days - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+
+    private static void writeDate(char[] out, long days, int year, int month, int day)
+    {
+        long date = civilFromDays(days);
+        int y = (int)(date >> 9);
+        write(out, year, y / 100);
+        write(out, year + 2, y % 100);
+        write(out, month, (int)(date >> 5) & 0xF);
+        write(out, day, (int)date & 0x1F);
+    }
+
+    private static void write(char[] out, int index, int value)
+    {
+        out[index] = (char)('0' + value / 10);
+        out[index + 1] = (char)('0' + value % 10);
+    }
+
+    private static int digits(CharSequence s, int start, int count)
+    {
+        int value = 0;
+        for (int i = start; i < start + count; i++)
+        {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                throw new IllegalArgumentException("Malformed timestamp: " + s);
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ *  @(#)URLConnectionTransport.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ *  The default {@link WikiTransport}, built on <tt>java.net.URLConnection</tt>.
+ *  The JDK keeps a cache of idle persistent (HTTP/1.1 keep-alive) connections
+ *  per host, including the TLS session, but a connection only goes back into
+ *  that cache once its response has been read to the end and closed. This
+ *  class makes sure that always happens -- including for error responses --
+ *  so consecutive API calls to the same wiki skip the TCP and TLS handshakes.
+ *
+ *  <p>
+ *  The size of the keep-alive cache is controlled by the standard
+ *  <tt>http.maxConnections</tt> system property (default 5 per host).
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+public class URLConnectionTransport implements WikiTransport
+{
+    // don't bother draining huge leftovers, just drop the connection instead
+    private static final int MAX_DRAIN_BYTES = 65536;
+
+    private final int connecttimeout, readtimeout;
+
+    /**
+     *  Creates a new transport.
+     *  @param connecttimeout the connect timeout in milliseconds
+     *  @param readtimeout the read timeout in milliseconds
+     */
+    public URLConnectionTransport(int connecttimeout, int readtimeout)
+    {
+        this.connecttimeout = connecttimeout;
+        this.readtimeout = readtimeout;
+    }
+
+    /**
+     *  Creates a new, unconnected URL connection. Override to change SSL
+     *  handling, use a proxy, etc.
+     *  @param url a URL string
+     *  @return a connection to that URL
+     *  @throws IOException if a network error occurs
+     */
+    protected URLConnection openConnection(String url) throws IOException
+    {
+        return new URL(url).openConnection();
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    @Override
+    public Response get(String url, Map<String, String> headers) throws IOException
+    {
+        URLConnection connection = prepare(url, headers);
+        connection.connect();
+        return new ConnectionResponse(connection);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    @Override
+    public Response post(String url, Map<String, String> headers, String contenttype, byte[] body) throws IOException
+    {
+        URLConnection connection = prepare(url, headers);
+        connection.setRequestProperty("Content-Type", contenttype);
+        connection.setDoOutput(true);
+        // stream the body instead of letting the JDK buffer a second copy
+        if (connection instanceof HttpURLConnection)
+            ((HttpURLConnection)connection).setFixedLengthStreamingMode(body.length);
+        connection.connect();
+        try (OutputStream out = connection.getOutputStream())
+        {
+            out.write(body);
+        }
+        return new ConnectionResponse(connection);
+    }
+
+    /**
+     *  Sets up a connection with the given headers and the timeouts of this
+     *  transport.
+     *  @param url the url to connect to
+     *  @param headers the request headers
+     *  @return the unconnected connection
+     *  @throws IOException if a network error occurs
+     */
+    private URLConnection prepare(String url, Map<String, String> headers) throws IOException
+    {
+        URLConnection connection = openConnection(url);
+        connection.setConnectTimeout(connecttimeout);
+        connection.setReadTimeout(readtimeout);
+        for (Map.Entry<String, String> header : headers.entrySet())
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        return connection;
+    }
+
+    /**
+     *  Wraps a connected URLConnection.
+     */
+    private static class ConnectionResponse implements Response
+    {
+        private final URLConnection connection;
+        private InputStream body;
+
+        private ConnectionResponse(URLConnection connection)
+        {
+            this.connection = connection;
+        }
+
+        @Override
+        public int getStatus() throws IOException
+        {
+            if (connection instanceof HttpURLConnection)
+                return ((HttpURLConnection)connection).getResponseCode();
+            return 200;
+        }
+
+        @Override
+        public String getHeader(String name)
+        {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public List<String> getHeaders(String name)
+        {
+            // walk the headers by index to keep them in the order sent
+            List<String> values = new ArrayList<>();
+            String key;
+            for (int i = 1; (key = connection.getHeaderFieldKey(i)) != null; i++)
+                if (name.equalsIgnoreCase(key))
+                    values.add(connection.getHeaderField(i));
+            return values;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException
+        {
+            if (body == null)
+                body = connection.getInputStream();
+            return body;
+        }
+
+        /**
+         *  Reads whatever is left of the response (or error response) and
+         *  closes it, which returns the socket to the keep-alive cache.
+         *  @throws IOException if a network error occurs
+         */
+        @Override
+        public void close() throws IOException
+        {
+            InputStream in = body;
+            if (in == null && connection instanceof HttpURLConnection)
+            {
+                HttpURLConnection http = (HttpURLConnection)connection;
+                in = http.getResponseCode() >= 400 ? http.getErrorStream() : http.getInputStream();
+            }
+            if (in == null)
+                return;
+            try
+            {
+                byte[] buffer = new byte[4096];
+                int total = 0, read;
+                while (total < MAX_DRAIN_BYTES && (read = in.read(buffer)) != -1)
+                    total += read;
+            }
+            catch (IOException ignored)
+            {
+                // connection is unusable anyway
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+}
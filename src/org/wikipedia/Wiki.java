@@ -26,10 +26,15 @@ import java.nio.*;
 import java.nio.file.Files;
 import java.text.Normalizer;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import java.util.logging.*;
+import java.util.stream.*;
 import java.util.zip.GZIPInputStream;
 
 import javax.security.auth.login.*;
+import javax.xml.stream.*;
 
 /**
  *  This is a somewhat sketchy bot framework for editing MediaWiki wikis.
@@ -411,42 +416,64 @@ public class Wiki implements Serializable
 
     // the domain of the wiki
     private String domain;
-    protected String query, base, apiUrl;
-    protected String scriptPath = "/w";
-    private boolean wgCapitalLinks = true;
-    private String timezone = "UTC";
+    // Wiki objects may be shared between threads (e.g. by servlets). State
+    // that changes after construction is either volatile and replaced
+    // wholesale, or a concurrent collection.
+    protected volatile String query, base, apiUrl;
+    protected volatile String scriptPath = "/w";
+    private volatile boolean wgCapitalLinks = true;
+    private volatile String timezone = "UTC";
 
     // user management
-    private Map<String, String> cookies = new HashMap<>(12);
-    private User user;
-    private int statuscounter = 0;
+    // also updated by background requests, see setPrefetching()
+    private Map<String, String> cookies = new ConcurrentHashMap<>(12);
+    private transient AtomicInteger cookiegeneration = new AtomicInteger();
+    private transient volatile RequestHeaders requestheaders = null;
+    private volatile User user;
+    private transient AtomicInteger statuscounter = new AtomicInteger();
 
     // various caches
-    private transient LinkedHashMap<String, Integer> namespaces = null;
-    private transient List<String> watchlist = null;
+    private transient volatile Map<String, Integer> namespaces = null;
+    private transient volatile List<String> watchlist = null;
 
     // preferences
-    private int max = 500;
-    private int slowmax = 50;
+    private volatile int max = 500;
+    private volatile int slowmax = 50;
+    private transient volatile boolean limitsknown = false; // see refreshLimits()
     private int throttle = 10000; // throttle
+    private int throttleburst = 1;
     private int maxlag = 5;
     private int assertion = ASSERT_NONE; // assertion mode
     private transient int statusinterval = 100; // status check
     private String useragent = "Wiki.java/" + version + " (https://github.com/MER-C/wiki-java/)";
     private boolean zipped = true;
+    private boolean jsonresponses = false;
+    private boolean prefetch = true;
     private boolean markminor = false, markbot = false;
     private boolean resolveredirect = false;
     private String protocol = "https://";
     private Level loglevel = Level.ALL;
     private static final Logger logger = Logger.getLogger("wiki");
+    private transient WikiTransport transport = defaultTransport();
 
-    // Store time when the last throttled action was executed
-    private long lastThrottleActionTime = 0;
     // Store time when next login attempt can be executed
     private long nextLoginTime = -1;
 
-    // retry count
-    private int maxtries = 2;
+    // retries
+    private RetryPolicy retrypolicy = new RetryPolicy();
+
+    // identical read requests in flight, see setCoalescingWindow()
+    private transient SingleFlight<String, Object> coalescer = new SingleFlight<>();
+    private int coalescingwindow = 0;
+
+    // single title lookups, see setBatchingWindow()
+    private transient BatchLoader<String, String> textloader;
+    private transient BatchLoader<String, Map> infoloader;
+    private transient BatchLoader<String, Revision> toprevloader;
+    private int batchingwindow = 0;
+
+    // revision texts, see setRevisionCache()
+    private transient volatile RevisionCache revisioncache = null;
 
     // serial version
     private static final long serialVersionUID = -8745212681497643456L;
@@ -459,8 +486,19 @@ public class Wiki implements Serializable
     // log2(upload chunk size). Default = 22 => upload size = 4 MB. Disable
     // chunked uploads by setting a large value here (50 = 1 PB will do).
     private static final int LOG2_CHUNK_SIZE = 22;
-    // maximum URL length in bytes
+    // maximum URL length in bytes, longer read requests are POSTed
     private static final int URL_LENGTH_LIMIT = 7500;
+    // pull parsers for list queries. Factories aren't guaranteed to be thread
+    // safe, so each thread gets its own.
+    private static final ThreadLocal<XMLInputFactory> XML_INPUT = ThreadLocal.withInitial(() ->
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    });
 
     // CONSTRUCTORS AND CONFIGURATION
 
@@ -525,6 +563,7 @@ public class Wiki implements Serializable
         logger.setLevel(loglevel);
         logger.log(Level.CONFIG, "[{0}] Using Wiki.java {1}", new Object[] { domain, version });
         initVars();
+        initBatchLoaders();
     }
 
     /**
@@ -602,6 +641,37 @@ public class Wiki implements Serializable
         log(Level.CONFIG, "setThrottle", "Throttle set to " + throttle + " milliseconds");
     }
 
+    /**
+     *  Gets the number of write actions that may be made back to back
+     *  before the throttle kicks in.
+     *  @return (see above)
+     *  @see #setThrottleBurst
+     *  @since 0.32
+     */
+    public int getThrottleBurst()
+    {
+        return Math.max(throttleburst, 1);
+    }
+
+    /**
+     *  Sets the number of write actions that may be made back to back before
+     *  the throttle kicks in. Over time the rate is still one action every
+     *  {@link #getThrottle()} milliseconds; idle time earns the burst back.
+     *  The throttle is shared by every Wiki logged in to the same account.
+     *  Default is 1, i.e. every action waits for the throttle.
+     *  @param burst the maximum number of actions back to back
+     *  @throws IllegalArgumentException if burst &lt; 1
+     *  @see #getThrottleBurst
+     *  @since 0.32
+     */
+    public void setThrottleBurst(int burst)
+    {
+        if (burst < 1)
+            throw new IllegalArgumentException("Burst must be at least 1.");
+        throttleburst = burst;
+        log(Level.CONFIG, "setThrottleBurst", "Throttle burst set to " + burst);
+    }
+
     /**
      *  Detects the $wgScriptpath wiki variable and sets the bot framework up
      *  to use it. You need not call this if you know the script path is
@@ -674,6 +744,7 @@ public class Wiki implements Serializable
     public void setUserAgent(String useragent)
     {
         this.useragent = useragent;
+        invalidateRequestHeaders();
     }
 
     /**
@@ -695,6 +766,7 @@ public class Wiki implements Serializable
     public void setUsingCompressedRequests(boolean zipped)
     {
         this.zipped = zipped;
+        invalidateRequestHeaders();
     }
 
     /**
@@ -708,6 +780,85 @@ public class Wiki implements Serializable
         return zipped;
     }
 
+    /**
+     *  Enables/disables JSON (<tt>format=json&amp;formatversion=2</tt>)
+     *  responses for the streaming list queries, i.e. <tt>getPageInfo()</tt>,
+     *  <tt>getPageHistory()</tt>, <tt>contribs()</tt>, <tt>watchlist()</tt>,
+     *  <tt>getCategoryMembers()</tt>, <tt>getLogEntries()</tt> and
+     *  <tt>recentChanges()</tt>. JSON responses are smaller and don't need
+     *  entity decoding. Everything else keeps using XML. Default: false.
+     *  @param json whether to request JSON responses
+     *  @since 0.32
+     */
+    public void setUsingJSONResponses(boolean json)
+    {
+        jsonresponses = json;
+    }
+
+    /**
+     *  Checks whether the streaming list queries request JSON responses.
+     *  Default: false.
+     *  @return (see above)
+     *  @see #setUsingJSONResponses(boolean)
+     *  @since 0.32
+     */
+    public boolean isUsingJSONResponses()
+    {
+        return jsonresponses;
+    }
+
+    /**
+     *  Enables/disables requesting the next page of a list query (e.g.
+     *  <tt>contribs()</tt>, <tt>getPageHistory()</tt> and their streams) in
+     *  the background while the current one is being parsed. This overlaps
+     *  the round trip for the next page with the parsing of this one, and
+     *  costs at most one page that turns out not to be needed when a stream
+     *  is cut short. Default: true.
+     *  @param prefetch whether to request pages ahead
+     *  @since 0.32
+     */
+    public void setPrefetching(boolean prefetch)
+    {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     *  Checks whether list queries request pages ahead. Default: true.
+     *  @return (see above)
+     *  @see #setPrefetching(boolean)
+     *  @since 0.32
+     */
+    public boolean isPrefetching()
+    {
+        return prefetch;
+    }
+
+    /**
+     *  Sets the HTTP client used to talk to this wiki. The default transport
+     *  reuses keep-alive connections via <tt>java.net.URLConnection</tt>;
+     *  supply your own to use a different client (e.g. a HTTP/2 one on newer
+     *  JDKs), a proxy and so on. Transports may be shared between Wikis.
+     *
+     *  @param transport the new transport
+     *  @see #getTransport
+     *  @since 0.32
+     */
+    public void setTransport(WikiTransport transport)
+    {
+        this.transport = Objects.requireNonNull(transport);
+    }
+
+    /**
+     *  Returns the HTTP client used to talk to this wiki.
+     *  @return (see above)
+     *  @see #setTransport
+     *  @since 0.32
+     */
+    public WikiTransport getTransport()
+    {
+        return transport;
+    }
+
     /**
      *  Checks whether API action=query dependencies automatically resolve
      *  redirects (default = false).
@@ -858,6 +1009,283 @@ public class Wiki implements Serializable
         initVars();
     }
 
+    /**
+     *  Gets the policy that decides whether and when failed requests are
+     *  retried.
+     *  @return (see above)
+     *  @see #setRetryPolicy
+     *  @since 0.32
+     */
+    public RetryPolicy getRetryPolicy()
+    {
+        return retrypolicy;
+    }
+
+    /**
+     *  Sets the policy that decides whether and when failed requests are
+     *  retried. Default: up to three attempts per request with exponential
+     *  backoff starting at about a second, no overall limit.
+     *  @param policy the new policy
+     *  @see #getRetryPolicy
+     *  @since 0.32
+     */
+    public void setRetryPolicy(RetryPolicy policy)
+    {
+        retrypolicy = Objects.requireNonNull(policy);
+        log(Level.CONFIG, "setRetryPolicy", "Making up to " + policy.getMaxAttempts() + " attempts per request");
+    }
+
+    /**
+     *  Sets how identical read requests are coalesced. While a request for
+     *  some URL is in flight, other threads asking this Wiki for the same URL
+     *  wait for its response instead of sending the request again, which
+     *  cuts the load a busy servlet puts on the server when many users run
+     *  the same query at once. With a positive window, the response is also
+     *  handed out for that long after it arrived. Only the response is
+     *  shared: every caller parses it into objects of its own, so changing
+     *  e.g. a revision returned to one caller doesn't affect the others.
+     *  List query responses are parsed straight off the network and only
+     *  held in memory if another thread is already waiting for them or the
+     *  window is positive; a thread that comes too late sends the request
+     *  again. Errors are shared with the requests waiting at the time but never
+     *  kept. Default: 0, i.e. only requests in flight are coalesced.
+     *
+     *  @param window the time in milliseconds, 0 to coalesce requests in
+     *  flight only, -1 to disable coalescing
+     *  @see #getCoalescingWindow
+     *  @see #getCoalescedRequests
+     *  @since 0.32
+     */
+    public void setCoalescingWindow(int window)
+    {
+        coalescingwindow = Math.max(window, -1);
+        coalescer.setWindow(window);
+        log(Level.CONFIG, "setCoalescingWindow", "Setting request coalescing window to " + coalescingwindow + " ms");
+    }
+
+    /**
+     *  Gets how identical read requests are coalesced.
+     *  @return the time in milliseconds responses are handed out after they
+     *  arrived, or -1 if coalescing is disabled
+     *  @see #setCoalescingWindow
+     *  @since 0.32
+     */
+    public int getCoalescingWindow()
+    {
+        return coalescingwindow;
+    }
+
+    /**
+     *  Gets the number of read requests that were answered with the response
+     *  to an identical request instead of being sent.
+     *  @return (see above)
+     *  @see #setCoalescingWindow
+     *  @since 0.32
+     */
+    public long getCoalescedRequests()
+    {
+        return coalescer.getCoalescedCount();
+    }
+
+    /**
+     *  Sets how long single title lookups wait for company. With a positive
+     *  window, {@link #getPageText(java.lang.String)}, {@link
+     *  #getPageInfo(java.lang.String)}, {@link #exists(java.lang.String)} and
+     *  {@link #getTopRevision(java.lang.String)} calls made by different
+     *  threads within the window are sent as one multi-title request of up
+     *  to {@link #getSlowMax()} titles, and the results are handed back to
+     *  each caller. This turns a servlet answering many users at once from N
+     *  requests into about N/50, at the price of every such call taking at
+     *  least the window. Default: 0, i.e. every call is sent on its own.
+     *
+     *  @param window the time in milliseconds, 0 to disable batching
+     *  @see #getBatchingWindow
+     *  @since 0.32
+     */
+    public void setBatchingWindow(int window)
+    {
+        batchingwindow = Math.max(window, 0);
+        log(Level.CONFIG, "setBatchingWindow", "Setting single title batching window to " + batchingwindow + " ms");
+    }
+
+    /**
+     *  Gets how long single title lookups wait for company.
+     *  @return the time in milliseconds, 0 if batching is disabled
+     *  @see #setBatchingWindow
+     *  @since 0.32
+     */
+    public int getBatchingWindow()
+    {
+        return batchingwindow;
+    }
+
+    /**
+     *  Sets the cache consulted for revision texts before they are fetched.
+     *  {@link Revision#getText()}, {@link #getRevisionTexts(long[])} and
+     *  {@link #getPageText(java.lang.String[])} look up revisions there
+     *  first and put what they fetch there. With a cache, getPageText costs
+     *  an extra (cheap) request for the IDs of the current revisions, but
+     *  the text of pages that haven't changed since is not fetched again.
+     *  Default: none.
+     *
+     *  @param cache a cache of texts of revisions of this wiki, null to
+     *  disable caching
+     *  @see #getRevisionCache
+     *  @since 0.32
+     */
+    public void setRevisionCache(RevisionCache cache)
+    {
+        revisioncache = cache;
+        log(Level.CONFIG, "setRevisionCache", cache == null ? "Disabling revision cache" : "Setting revision cache");
+    }
+
+    /**
+     *  Gets the cache consulted for revision texts.
+     *  @return (see above), or null if there is none
+     *  @see #setRevisionCache
+     *  @since 0.32
+     */
+    public RevisionCache getRevisionCache()
+    {
+        return revisioncache;
+    }
+
+    /**
+     *  Gets the maximum number of results list queries return per request
+     *  for the current session, e.g. 500 or 5000 with <tt>apihighlimits</tt>.
+     *  @return (see above)
+     *  @see #refreshLimits
+     *  @since 0.32
+     */
+    public int getMax()
+    {
+        return max;
+    }
+
+    /**
+     *  Gets the maximum number of titles or revision IDs per request for the
+     *  current session, e.g. 50 or 500 with <tt>apihighlimits</tt>. Multi
+     *  title and multi revision methods fill their batches up to this limit.
+     *  @return (see above)
+     *  @see #refreshLimits
+     *  @since 0.32
+     */
+    public int getSlowMax()
+    {
+        return slowmax;
+    }
+
+    /**
+     *  Asks the server for the request limits of the current session, see
+     *  {@link #getMax()} and {@link #getSlowMax()}. The limits are read from
+     *  <tt>action=paraminfo</tt>, which reports the limits that actually
+     *  apply to this session whether it is logged in or not and whatever
+     *  group granted <tt>apihighlimits</tt>. This is done automatically
+     *  before the first multi title or multi revision request and when
+     *  logging in or out.
+     *
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    public void refreshLimits() throws IOException
+    {
+        String line = fetch(apiUrl + "action=paraminfo&modules=query%7Cquery%2Ballpages", "refreshLimits");
+        // <param name="titles" type="string" multi="" limit="50" lowlimit="50" highlimit="500" />
+        ResponseItem titles = paramInfo(line, "titles");
+        // <param name="limit" type="limit" max="500" highmax="5000" ... /> (of list=allpages)
+        ResponseItem limit = paramInfo(line, "limit");
+        int newslowmax, newmax;
+        if (titles != null && titles.has("limit") && limit != null && limit.has("max"))
+        {
+            newslowmax = Integer.parseInt(titles.get("limit"));
+            boolean highlimits = titles.has("highlimit") && newslowmax >= Integer.parseInt(titles.get("highlimit"))
+                && !titles.get("highlimit").equals(titles.get("lowlimit"));
+            newmax = Integer.parseInt(limit.get(highlimits && limit.has("highmax") ? "highmax" : "max"));
+        }
+        else
+        {
+            // paraminfo predates limit reporting, go by the user rights
+            User us = user;
+            boolean highlimits = us != null && us.isAllowedTo("apihighlimits");
+            newslowmax = highlimits ? 500 : 50;
+            newmax = highlimits ? 5000 : 500;
+        }
+        slowmax = newslowmax;
+        max = newmax;
+        limitsknown = true;
+        log(Level.CONFIG, "refreshLimits", "Using limits max = " + newmax + ", slowmax = " + newslowmax);
+    }
+
+    /**
+     *  Fetches the request limits if that hasn't been done yet for this
+     *  session.
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    private void ensureLimits() throws IOException
+    {
+        if (limitsknown)
+            return;
+        synchronized (this)
+        {
+            if (!limitsknown)
+                refreshLimits();
+        }
+    }
+
+    /**
+     *  Finds the description of a parameter in a paraminfo response.
+     *  @param line the response
+     *  @param name the name of the parameter
+     *  @return the attributes of the parameter or null if not present
+     *  @since 0.32
+     */
+    private static ResponseItem paramInfo(String line, String name)
+    {
+        int a = line.indexOf(" name=\"" + name + "\"");
+        if (a < 0)
+            return null;
+        int start = line.lastIndexOf("<param ", a);
+        int end = line.indexOf('>', a);
+        if (start < 0 || end < 0)
+            return null;
+        if (line.charAt(end - 1) == '/')
+            end--;
+        return new XmlAttributes(line, start, end);
+    }
+
+    /**
+     *  Sets up the loaders that batch single title lookups.
+     *  @since 0.32
+     */
+    private void initBatchLoaders()
+    {
+        textloader = new BatchLoader<>(titles ->
+        {
+            String[] texts = getPageText(titles.toArray(new String[titles.size()]));
+            Map<String, String> ret = new HashMap<>(2 * texts.length);
+            for (int i = 0; i < texts.length; i++)
+                ret.put(titles.get(i), texts[i]);
+            return ret;
+        });
+        infoloader = new BatchLoader<>(titles ->
+        {
+            Map[] info = getPageInfo(titles.toArray(new String[titles.size()]));
+            Map<String, Map> ret = new HashMap<>(2 * info.length);
+            for (int i = 0; i < info.length; i++)
+                ret.put(titles.get(i), info[i]);
+            return ret;
+        });
+        toprevloader = new BatchLoader<>(titles ->
+        {
+            Revision[] revisions = getTopRevisions(titles.toArray(new String[titles.size()]));
+            Map<String, Revision> ret = new HashMap<>(2 * revisions.length);
+            for (int i = 0; i < revisions.length; i++)
+                ret.put(titles.get(i), revisions[i]);
+            return ret;
+        });
+    }
+
     /**
      *  Gets the assertion mode. Assertion modes are bitmasks.
      *  @return the current assertion mode
@@ -974,13 +1402,8 @@ public class Wiki implements Serializable
         if (line.contains("result=\"Success\""))
         {
             user = new User(username);
-            boolean apihighlimit = user.isAllowedTo("apihighlimits");
-            if (apihighlimit)
-            {
-                max = 5000;
-                slowmax = 500;
-            }
-            log(Level.INFO, "login", "Successfully logged in as " + username + ", highLimit = " + apihighlimit);
+            refreshLimits();
+            log(Level.INFO, "login", "Successfully logged in as " + username + ", max = " + max + ", slowmax = " + slowmax);
         }
         else
         {
@@ -1062,9 +1485,11 @@ public class Wiki implements Serializable
     public synchronized void logout()
     {
         cookies.clear();
+        invalidateRequestHeaders();
         user = null;
         max = 500;
         slowmax = 50;
+        limitsknown = false;
         log(Level.INFO, "logout", "Logged out");
     }
 
@@ -1337,6 +1762,12 @@ public class Wiki implements Serializable
      */
     public Map getPageInfo(String page) throws IOException
     {
+        int window = batchingwindow;
+        if (window > 0)
+        {
+            checkBatchTitle(page);
+            return infoloader.load(normalize(page), window, slowmax);
+        }
         return getPageInfo(new String[] { page })[0];
     }
 
@@ -1374,106 +1805,123 @@ public class Wiki implements Serializable
     public Map[] getPageInfo(String[] pages) throws IOException
     {
         Map[] info = new HashMap[pages.length];
+        Map<String, Map<String, Object>> results = new HashMap<>(2 * pages.length);
         StringBuilder url = new StringBuilder(query);
         url.append("prop=info&intoken=edit%7Cwatch&inprop=protection%7Cdisplaytitle%7Cwatchers&titles=");
-        for (String temp : constructTitleString(pages, true))
+        for (String temp : constructTitleString(pages))
         {
-            String line = fetch(url.toString() + temp, "getPageInfo");
-
             // form: <page pageid="239098" ns="0" title="BitTorrent" ... >
             // <protection />
             // </page>
-            for (int j = line.indexOf("<page "); j > 0; j = line.indexOf("<page ", ++j))
-            {
-                int x = line.indexOf("</page>", j);
-                String item = line.substring(j, x);
-                Map<String, Object> tempmap = new HashMap<>(15);
-
-                // does the page exist?
-                boolean exists = !item.contains("missing=\"\"");
-                tempmap.put("exists", exists);
-                if (exists)
-                {
-                    tempmap.put("lastpurged", timestampToCalendar(parseAttribute(item, "touched", 0), true));
-                    tempmap.put("lastrevid", Long.parseLong(parseAttribute(item, "lastrevid", 0)));
-                    tempmap.put("size", Integer.parseInt(parseAttribute(item, "length", 0)));
-                    tempmap.put("pageid", Long.parseLong(parseAttribute(item, "pageid", 0)));
-                }
-                else
-                {
-                    tempmap.put("lastedited", null);
-                    tempmap.put("lastrevid", -1L);
-                    tempmap.put("size", -1);
-                    tempmap.put("pageid", -1);
-                }
+            List<Map.Entry<String, Map<String, Object>>> page = new ArrayList<>();
+            fetchItems(url.toString() + temp, "pages", null, item -> new AbstractMap.SimpleImmutableEntry<>(
+                item.get("title"), parsePageInfo(item)), page, "getPageInfo");
+            for (Map.Entry<String, Map<String, Object>> entry : page)
+                results.put(entry.getKey(), entry.getValue());
+        }
 
-                // parse protection level
-                // expected form: <pr type="edit" level="sysop" expiry="infinity" cascade="" />
-                Map<String, Object> protectionstate = new HashMap<>();
-                for (int z = item.indexOf("<pr "); z > 0; z = item.indexOf("<pr ", ++z))
-                {
-                    String type = parseAttribute(item, "type", z);
-                    String level = parseAttribute(item, "level", z);
-                    protectionstate.put(type, level);
-                    //if (level != NO_PROTECTION)
-                    String expiry = parseAttribute(item, "expiry", z);
-                    if (expiry.equals("infinity"))
-                        protectionstate.put(type + "expiry", null);
-                    else
-                        protectionstate.put(type + "expiry", timestampToCalendar(expiry, true));
-                    // protected via cascade
-                    if (item.contains("source=\""))
-                        protectionstate.put("cascadesource", parseAttribute(item, "source", z));
-                }
-                // MediaWiki namespace
-                String parsedtitle = parseAttribute(item, "title", 0);
-                if (namespace(parsedtitle) == MEDIAWIKI_NAMESPACE)
-                {
-                    protectionstate.put("edit", FULL_PROTECTION);
-                    protectionstate.put("move", FULL_PROTECTION);
-                    if (!exists)
-                        protectionstate.put("create", FULL_PROTECTION);
-                }
+        // reorder
+        String[] resolved = resolveTitles(pages, results.keySet());
+        for (int i = 0; i < pages.length; i++)
+            info[i] = results.get(resolved[i]);
+
+        log(Level.INFO, "getPageInfo", "Successfully retrieved page info for " + Arrays.toString(pages));
+        return info;
+    }
 
-                protectionstate.put("cascade", item.contains("cascade=\"\""));
-                tempmap.put("protection", protectionstate);
+    /**
+     *  Parses a <tt>&lt;page&gt;</tt> of a prop=info query into the map
+     *  returned by {@link #getPageInfo(java.lang.String[])}.
+     *  @param item the page to parse
+     *  @return the page info
+     *  @since 0.32
+     */
+    private Map<String, Object> parsePageInfo(ResponseItem item)
+    {
+        Map<String, Object> tempmap = new HashMap<>(15);
 
-                tempmap.put("displaytitle", parseAttribute(item, "displaytitle", 0));
-                tempmap.put("timestamp", makeCalendar());
+        // does the page exist?
+        boolean exists = !item.has("missing");
+        tempmap.put("exists", exists);
+        if (exists)
+        {
+            tempmap.put("lastpurged", timestampToCalendar(item.get("touched"), true));
+            tempmap.put("lastrevid", Long.parseLong(item.get("lastrevid")));
+            tempmap.put("size", Integer.parseInt(item.get("length")));
+            tempmap.put("pageid", Long.parseLong(item.get("pageid")));
+        }
+        else
+        {
+            tempmap.put("lastedited", null);
+            tempmap.put("lastrevid", -1L);
+            tempmap.put("size", -1);
+            tempmap.put("pageid", -1);
+        }
+
+        // parse protection level
+        // expected form: <pr type="edit" level="sysop" expiry="infinity" cascade="" />
+        // or in JSON: "protection": [ { "type": "edit", ... } ]
+        Map<String, Object> protectionstate = new HashMap<>();
+        for (ResponseItem pr : item.getElements(jsonresponses ? "protection" : "pr"))
+        {
+            String type = pr.get("type");
+            String level = pr.get("level");
+            protectionstate.put(type, level);
+            //if (level != NO_PROTECTION)
+            String expiry = pr.get("expiry");
+            if (expiry.equals("infinity"))
+                protectionstate.put(type + "expiry", null);
+            else
+                protectionstate.put(type + "expiry", timestampToCalendar(expiry, true));
+            // protected via cascade
+            if (pr.has("source"))
+                protectionstate.put("cascadesource", pr.get("source"));
+        }
+        // MediaWiki namespace
+        if (Integer.parseInt(item.get("ns")) == MEDIAWIKI_NAMESPACE)
+        {
+            protectionstate.put("edit", FULL_PROTECTION);
+            protectionstate.put("move", FULL_PROTECTION);
+            if (!exists)
+                protectionstate.put("create", FULL_PROTECTION);
+        }
 
-                // DEPRECATED, will be removed shortly
-                tempmap.put("token", parseAttribute(item, "edittoken", 0)); 
-                // watchlist token
-                if (user != null)
-                {
-                    tempmap.put("watchtoken", parseAttribute(item, "watchtoken", 0));
-                    logger.log(Level.WARNING, "getPageInfo: watchtoken and editoken are deprecated and will be removed shortly.");
-                }
+        protectionstate.put("cascade", item.has("cascade"));
+        tempmap.put("protection", protectionstate);
 
-                // number of watchers
-                if (item.contains("watchers=\""))
-                    tempmap.put("watchers", Integer.parseInt(parseAttribute(item, "watchers", 0)));
+        tempmap.put("displaytitle", item.get("displaytitle"));
+        tempmap.put("timestamp", makeCalendar());
 
-                // reorder
-                for (int i = 0; i < pages.length; i++)
-                    if (normalize(pages[i]).equals(parsedtitle))
-                        info[i] = tempmap;
-            }
+        // DEPRECATED, will be removed shortly
+        tempmap.put("token", item.get("edittoken")); 
+        // watchlist token
+        if (user != null)
+        {
+            tempmap.put("watchtoken", item.get("watchtoken"));
+            logger.log(Level.WARNING, "getPageInfo: watchtoken and editoken are deprecated and will be removed shortly.");
         }
 
-        log(Level.INFO, "getPageInfo", "Successfully retrieved page info for " + Arrays.toString(pages));
-        return info;
+        // number of watchers
+        if (item.has("watchers"))
+            tempmap.put("watchers", Integer.parseInt(item.get("watchers")));
+        return tempmap;
     }
 
     /**
-     *  Fill namespace cache. Required for thread safety.
+     *  Fill namespace cache. Only the first call takes a lock, and only so
+     *  that concurrent first calls don't all fetch the namespaces.
      *  @throws IOException if a network error occurs. 
      *  @since 0.32
      */
-    private synchronized void ensureNamespaceCache() throws IOException
+    private void ensureNamespaceCache() throws IOException
     {
-        if (namespaces == null)
-            populateNamespaceCache();
+        if (namespaces != null)
+            return;
+        synchronized (this)
+        {
+            if (namespaces == null)
+                populateNamespaceCache();
+        }
     }
 
     /**
@@ -1491,13 +1939,14 @@ public class Wiki implements Serializable
      */
     public int namespace(String title) throws IOException
     {
-        ensureNamespaceCache();
-
         // perform a limited normalization
         if (title.startsWith(":"))
             title = title.substring(1);
+        // populateNamespaceCache() normalizes namespace names, which never
+        // contain colons, before the cache is published
         if (!title.contains(":"))
             return MAIN_NAMESPACE;
+        ensureNamespaceCache();
         title = title.replace("_", " ");
         String namespace = title.substring(0, 1).toUpperCase() + title.substring(1, title.indexOf(':'));
 
@@ -1546,7 +1995,7 @@ public class Wiki implements Serializable
     public LinkedHashMap<String, Integer> getNamespaces() throws IOException
     {
         ensureNamespaceCache();
-        return (LinkedHashMap<String, Integer>)namespaces.clone();
+        return new LinkedHashMap<>(namespaces);
     }
 
     /**
@@ -1557,7 +2006,8 @@ public class Wiki implements Serializable
     protected void populateNamespaceCache() throws IOException
     {
         String line = fetch(query + "meta=siteinfo&siprop=namespaces%7Cnamespacealiases", "namespace");
-        namespaces = new LinkedHashMap<>(30);
+        // build the map completely before anyone else gets to see it
+        LinkedHashMap<String, Integer> namespaces = new LinkedHashMap<>(30);
 
         // xml form: <ns id="-2" canonical="Media" ... >Media</ns> or <ns id="0" ... />
         for (int a = line.indexOf("<ns "); a > 0; a = line.indexOf("<ns ", ++a))
@@ -1573,9 +2023,22 @@ public class Wiki implements Serializable
                 namespaces.put(canonicalnamespace, ns);
         }
 
+        this.namespaces = Collections.unmodifiableMap(namespaces);
         log(Level.INFO, "namespace", "Successfully retrieved namespace list (" + namespaces.size() + " namespaces)");
     }
 
+    /**
+     *  Determines whether a page exists.
+     *  @param title the title to check
+     *  @return (see above)
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    public boolean exists(String title) throws IOException
+    {
+        return (Boolean)getPageInfo(title).get("exists");
+    }
+
     /**
      *  Determines whether a series of pages exist.
      *  @param titles the titles to check.
@@ -1607,6 +2070,12 @@ public class Wiki implements Serializable
      */
     public String getPageText(String title) throws IOException
     {
+        int window = batchingwindow;
+        if (window > 0)
+        {
+            checkBatchTitle(title);
+            return textloader.load(normalize(title), window, slowmax);
+        }
         return getPageText(new String[] { title })[0];
     }
     
@@ -1635,38 +2104,80 @@ public class Wiki implements Serializable
         HashMap<String, String> pageTexts = new HashMap<>(2 * titles.length);
         String url = query + "prop=revisions&rvprop=content&titles=";
         
-        for (String chunk : constructTitleString(titles, true))
+        if (revisioncache != null)
+            getCachedPageText(titles, pageTexts);
+        else
         {
-            String[] results = fetch(url + chunk, "getPageText").split("<page ");
-
-            // skip first element to remove front crud
-            for (int i = 1; i < results.length; i++)
+            for (String chunk : constructTitleString(titles))
             {
-                // determine existance, then locate and extract content
-                String parsedtitle = parseAttribute(results[i], "title", 0);
-                String text = null;
-                if (!results[i].contains("missing=\"\""))
+                String[] results = fetch(url + chunk, "getPageText").split("<page ");
+
+                // skip first element to remove front crud
+                for (int i = 1; i < results.length; i++)
                 {
-                    int x = results[i].indexOf("<rev ", i);
-                    int y = results[i].indexOf(">", x) + 1;
-                    int z = results[i].indexOf("</rev>", y);
-                    text = decode(results[i].substring(y, z));
-                }
+                    // determine existance, then locate and extract content
+                    String parsedtitle = parseAttribute(results[i], "title", 0);
+                    String text = null;
+                    if (!results[i].contains("missing=\"\""))
+                    {
+                        int x = results[i].indexOf("<rev ");
+                        int y = results[i].indexOf(">", x) + 1;
+                        int z = results[i].indexOf("</rev>", y);
+                        text = decode(results[i].substring(y, z));
+                    }
                 
-                // store result for later
-                pageTexts.put(parsedtitle, text);
+                    // store result for later
+                    pageTexts.put(parsedtitle, text);
+                }
             }
         }
 
         String[] ret = new String[titles.length];
         // returned array is in the same order as input array
+        String[] resolved = resolveTitles(titles, pageTexts.keySet());
         for (int j = 0; j < titles.length; j++)
-            ret[j] = pageTexts.get(normalize(titles[j]));
+            ret[j] = pageTexts.get(resolved[j]);
 
         log(Level.INFO, "getPageText", "Successfully retrieved text of " + titles.length + " pages.");
         return ret;
     }
 
+    /**
+     *  Fills in the text of the given pages by looking up their current
+     *  revisions and getting those through the revision cache.
+     *  @param titles a list of titles
+     *  @param pageTexts where to put the texts, keyed by the title in the
+     *  response, null for pages that don't exist
+     *  @throws IOException if a network error occurs
+     *  @see #getPageText(java.lang.String[])
+     *  @since 0.32
+     */
+    private void getCachedPageText(String[] titles, Map<String, String> pageTexts) throws IOException
+    {
+        Map<Long, String> lastrevids = new LinkedHashMap<>(2 * titles.length);
+        String url = query + "prop=info&titles=";
+        for (String chunk : constructTitleString(titles))
+        {
+            List<Map.Entry<Long, String>> results = new ArrayList<>();
+            fetchItems(url + chunk, "pages", null, item -> new AbstractMap.SimpleImmutableEntry<>(
+                item.has("lastrevid") ? Long.parseLong(item.get("lastrevid")) : -1L, item.get("title")), results,
+                "getPageText");
+            for (Map.Entry<Long, String> entry : results)
+            {
+                if (entry.getKey() < 0)
+                    pageTexts.put(entry.getValue(), null);
+                else
+                    lastrevids.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        long[] revids = new long[lastrevids.size()];
+        int i = 0;
+        for (Long revid : lastrevids.keySet())
+            revids[i++] = revid;
+        getRevisionTexts(revids, (revid, text) -> pageTexts.put(lastrevids.get(revid), text));
+    }
+
     /**
      *  Gets the text of a specific section. Useful for section editing.
      *  @param title the title of the relevant page
@@ -1850,7 +2361,7 @@ public class Wiki implements Serializable
      *  @see #getPageText
      *  @since 0.17
      */
-    public synchronized void edit(String title, String text, String summary, boolean minor, boolean bot,
+    public void edit(String title, String text, String summary, boolean minor, boolean bot,
         int section, Calendar basetime) throws IOException, LoginException
     {
         // @revised 0.16 to use API edit. No more screenscraping - yay!
@@ -1975,7 +2486,7 @@ public class Wiki implements Serializable
      *  @throws AccountLockedException if user is blocked
      *  @since 0.24
      */
-    public synchronized void delete(String title, String reason) throws IOException, LoginException
+    public void delete(String title, String reason) throws IOException, LoginException
     {
         throttle();
         if (user == null || !user.isAllowedTo("delete"))
@@ -2017,7 +2528,7 @@ public class Wiki implements Serializable
      *  @throws AccountLockedException if user is blocked
      *  @since 0.30
      */
-    public synchronized void undelete(String title, String reason, Revision... revisions) throws IOException, LoginException
+    public void undelete(String title, String reason, Revision... revisions) throws IOException, LoginException
     {
         throttle();
         if (user == null || !user.isAllowedTo("undelete"))
@@ -2034,10 +2545,10 @@ public class Wiki implements Serializable
             out.append("&timestamps=");
             for (int i = 0; i < revisions.length - 1; i++)
             {
-                out.append(calendarToTimestamp(revisions[i].getTimestamp()));
+                out.append(TimestampCodec.formatCompact(revisions[i].getEpochSecond()));
                 out.append("%7C");
             }
-            out.append(calendarToTimestamp(revisions[revisions.length - 1].getTimestamp()));
+            out.append(TimestampCodec.formatCompact(revisions[revisions.length - 1].getEpochSecond()));
         }
         String response = post(apiUrl + "action=undelete", out.toString(), "undelete");
 
@@ -2047,7 +2558,7 @@ public class Wiki implements Serializable
             log(Level.WARNING, "undelete", "Can't undelete: " + title + " has no deleted revisions.");
         log(Level.INFO, "undelete", "Successfully undeleted " + title);
         for (Revision rev : revisions)
-            rev.pageDeleted = false;
+            rev.setFlag(Revision.PAGE_DELETED, false);
     }
 
     /**
@@ -2063,7 +2574,7 @@ public class Wiki implements Serializable
         url.append("action=purge");
         if (links)
             url.append("&forcelinkupdate");
-        for (String x : constructTitleString(titles, false))
+        for (String x : constructTitleString(titles))
             post(url.toString(), "titles=" + x, "purge");
         log(Level.INFO, "purge", "Successfully purged " + titles.length + " pages.");
     }
@@ -2240,7 +2751,7 @@ public class Wiki implements Serializable
     protected List<String>[] getTemplates(String[] titles, String template, int... ns) throws IOException
     {
         List<String>[] ret = new ArrayList[titles.length];
-        String[] titlestrings = constructTitleString(titles, true);
+        String[] titlestrings = constructTitleString(titles);
         
         StringBuilder url = new StringBuilder(query);
         url.append("prop=templates&tllimit=max");
@@ -2455,6 +2966,12 @@ public class Wiki implements Serializable
      */
     public Revision getTopRevision(String title) throws IOException
     {
+        int window = batchingwindow;
+        if (window > 0)
+        {
+            checkBatchTitle(title);
+            return toprevloader.load(normalize(title), window, slowmax);
+        }
         StringBuilder url = new StringBuilder(query);
         url.append("prop=revisions&rvlimit=1&meta=tokens&type=rollback&titles=");
         url.append(encode(title, true));
@@ -2464,13 +2981,121 @@ public class Wiki implements Serializable
         int b = line.indexOf("/>", a);
         if (a < 0) // page does not exist
             return null;
-        return parseRevision(line.substring(a, b), title);
+        return parseRevision(new XmlAttributes(line, a, b), title);
     }
 
     /**
-     *  Gets the first revision of a page, or null if the page does not exist.
-     *  @param title a page
-     *  @return the oldest revision of that page
+     *  Gets the most recent revisions of many pages at once.
+     *  @param titles some pages
+     *  @return the most recent revision of each page, in the same order as
+     *  the titles, null for pages that don't exist
+     *  @throws IOException if a network error occurs
+     *  @see #getTopRevision(java.lang.String)
+     *  @since 0.32
+     */
+    private Revision[] getTopRevisions(String[] titles) throws IOException
+    {
+        Map<String, Revision> revisions = new HashMap<>(2 * titles.length);
+        // rvlimit is for single pages only, several pages get their top revision anyway
+        String url = query + "prop=revisions&meta=tokens&type=rollback"
+            + "&rvprop=timestamp%7Cuser%7Cids%7Cflags%7Csize%7Ccomment%7Csha1&titles=";
+        for (String chunk : constructTitleString(titles))
+        {
+            String[] pages = fetch(url + chunk, "getTopRevision").split("<page ");
+            // skip first element to remove front crud
+            for (int i = 1; i < pages.length; i++)
+            {
+                String title = parseAttribute(pages[i], "title", 0);
+                int a = pages[i].indexOf("<rev "); // important space
+                // null if the page does not exist
+                revisions.put(title, a < 0 ? null : parseRevision(new XmlAttributes(pages[i], a, pages[i].indexOf("/>", a)), title));
+            }
+        }
+
+        Revision[] ret = new Revision[titles.length];
+        String[] resolved = resolveTitles(titles, revisions.keySet());
+        for (int i = 0; i < titles.length; i++)
+            ret[i] = revisions.get(resolved[i]);
+        return ret;
+    }
+
+    /**
+     *  Works out which of the titles in a response belong to the given
+     *  titles. Usually this is the normalized title, but our normalization
+     *  can disagree with the server's (e.g. Unicode normalization, language
+     *  variants); for those titles, the server is asked.
+     *  @param titles the titles that were asked for
+     *  @param found the titles in the response
+     *  @return the title in the response for each of the given titles, in
+     *  the same order
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    private String[] resolveTitles(String[] titles, Set<String> found) throws IOException
+    {
+        String[] ret = new String[titles.length];
+        List<String> unknown = new ArrayList<>();
+        for (int i = 0; i < titles.length; i++)
+        {
+            ret[i] = normalize(titles[i]);
+            if (!found.contains(ret[i]))
+                unknown.add(titles[i]);
+        }
+        if (unknown.isEmpty())
+            return ret;
+
+        // xml form: <normalized><n from="foo" to="Foo" /></normalized> and
+        // the same for <converted><c ... /></converted>
+        Map<String, String> renamed = new HashMap<>();
+        for (String chunk : constructTitleString(unknown.toArray(new String[unknown.size()])))
+        {
+            String line = fetch(query + "titles=" + chunk, "resolveTitles");
+            for (String tag : new String[] { "<n ", "<c " })
+            {
+                for (int a = line.indexOf(tag); a >= 0; a = line.indexOf(tag, ++a))
+                {
+                    String element = line.substring(a, line.indexOf('>', a));
+                    renamed.put(parseAttribute(element, "from", 0), parseAttribute(element, "to", 0));
+                }
+            }
+        }
+        for (int i = 0; i < titles.length; i++)
+        {
+            // normalized, then converted
+            for (int j = 0; j < 2 && !found.contains(ret[i]) && renamed.containsKey(ret[i]); j++)
+                ret[i] = renamed.get(ret[i]);
+        }
+        return ret;
+    }
+
+    /**
+     *  Checks a title before it joins a batch of lookups made for other
+     *  threads, so that a bad title fails only its own lookup and not
+     *  everyone's.
+     *  @param title the title to check
+     *  @throws UnsupportedOperationException if the title is a Special: or
+     *  Media: page
+     *  @throws IllegalArgumentException if the title is not valid
+     *  @throws IOException if a network error occurs
+     *  @see #setBatchingWindow(int)
+     *  @since 0.32
+     */
+    private void checkBatchTitle(String title) throws IOException
+    {
+        if (namespace(title) < 0)
+            throw new UnsupportedOperationException("Cannot retrieve \"" + title + "\": namespace < 0.");
+        // characters MediaWiki never allows in titles, | would even split it up
+        boolean valid = !normalize(title).isEmpty();
+        for (int i = 0; valid && i < title.length(); i++)
+            valid = "<>[]{}|".indexOf(title.charAt(i)) < 0 && !Character.isISOControl(title.charAt(i));
+        if (!valid)
+            throw new IllegalArgumentException("Invalid title: \"" + title + "\"");
+    }
+
+    /**
+     *  Gets the first revision of a page, or null if the page does not exist.
+     *  @param title a page
+     *  @return the oldest revision of that page
      *  @throws IOException if a network error occurs
      *  @since 0.24
      */
@@ -2485,7 +3110,7 @@ public class Wiki implements Serializable
         int b = line.indexOf("/>", a);
         if (a < 0) // page does not exist
             return null;
-        return parseRevision(line.substring(a, b), title);
+        return parseRevision(new XmlAttributes(line, a, b), title);
     }
 
     /**
@@ -2517,7 +3142,7 @@ public class Wiki implements Serializable
             url.append("redirects");
         url.append("&titles=");
         String[] ret = new String[titles.length];
-        for (String blah : constructTitleString(titles, true))
+        for (String blah : constructTitleString(titles))
         {
             String line = fetch(url.toString() + blah, "resolveRedirects");
             // expected form: <redirects><r from="Main page" to="Main Page"/>
@@ -2562,45 +3187,101 @@ public class Wiki implements Serializable
      */
     public Revision[] getPageHistory(String title, Calendar start, Calendar end, boolean reverse) throws IOException
     {
-        // set up the url
-        StringBuilder url = new StringBuilder(query);
-        url.append("prop=revisions&rvlimit=max&titles=");
-        url.append(encode(title, true));
-        url.append("&rvprop=timestamp%7Cuser%7Cids%7Cflags%7Csize%7Ccomment%7Csha1");
-        if (reverse)
-            url.append("&rvdir=newer");
-        if (start != null)
-        {
-            url.append(reverse ? "&rvstart=" : "&rvend=");
-            url.append(calendarToTimestamp(start));
-        }
-        if (end != null)
-        {
-            url.append(reverse ? "&rvend=" : "&rvstart=");
-            url.append(calendarToTimestamp(end));
-        }
-        String rvcontinue = null;
         List<Revision> revisions = new ArrayList<>(1500);
+        ContinuationIterator.fetchAll(pageHistorySource(title, start, end, reverse), prefetcher(), revisions);
 
-        // main loop
-        do
-        {
-            String line;
-            if (rvcontinue == null)
-                line = fetch(url.toString(), "getPageHistory");
-            else
-                line = fetch(url.toString() + "&rvcontinue=" + rvcontinue, "getPageHistory");
-            rvcontinue = parseAttribute(line, "rvcontinue", 0);
+        Revision[] temp = linkHistory(revisions, reverse);
+        log(Level.INFO, "getPageHistory", "Successfully retrieved page history of " + title + " (" + temp.length + " revisions)");
+        return temp;
+    }
+
+    /**
+     *  Gets the revision history of a page between two dates, fetching
+     *  several slices of it at once. The time span is cut into <tt>slices</tt>
+     *  slices of equal length, which are fetched concurrently (up to {@link
+     *  BulkExecutor#getMaxRequestsPerHost()} at a time) and then put back
+     *  together, so the result is the same as that of {@link
+     *  #getPageHistory(java.lang.String, java.util.Calendar,
+     *  java.util.Calendar, boolean)}. This only pays off for pages with many
+     *  thousands of revisions, e.g. noticeboards; if the start date is
+     *  unknown, one extra request finds the first revision.
+     *
+     *  @param title a page
+     *  @param start the EARLIEST of the two dates, may be null
+     *  @param end the LATEST of the two dates, may be null
+     *  @param reverse whether to put the oldest first (default = false, newest
+     *  first is how history pages work)
+     *  @param slices how many slices to cut the time span into
+     *  @return the revisions of that page in that time span
+     *  @throws IOException if a network error occurs
+     *  @throws IllegalArgumentException if <tt>slices &lt; 1</tt>
+     *  @since 0.32
+     */
+    public Revision[] getPageHistory(String title, Calendar start, Calendar end, boolean reverse, int slices)
+        throws IOException
+    {
+        if (slices < 1)
+            throw new IllegalArgumentException("Number of slices must be at least 1: " + slices);
+        if (slices == 1)
+            return getPageHistory(title, start, end, reverse);
 
-            // parse stuff
-            for (int a = line.indexOf("<rev "); a > 0; a = line.indexOf("<rev ", ++a))
+        // find out what there is to cut up
+        long from, to = end == null ? System.currentTimeMillis() / 1000 : calendarToEpoch(end);
+        if (start != null)
+            from = calendarToEpoch(start);
+        else
+        {
+            StringBuilder url = new StringBuilder(query);
+            url.append("prop=revisions&rvlimit=1&rvdir=newer&rvprop=timestamp&titles=");
+            url.append(encode(title, true));
+            List<String> first = new ArrayList<>(1);
+            fetchItems(url.toString(), "revisions", null, item -> item.get("timestamp"), first, "getPageHistory");
+            if (first.isEmpty())
+                return new Revision[0];
+            from = timestampToEpoch(first.get(0));
+        }
+        // timestamps only go down to the second
+        slices = (int)Math.max(1, Math.min(slices, to - from));
+
+        // Slices don't overlap: each ends a second before the next starts.
+        // The outermost ones are open ended like the original request, so
+        // nothing falls between the cracks if our clock is off.
+        List<CompletableFuture<List<Revision>>> futures = new ArrayList<>(slices);
+        try (BulkExecutor bulk = new BulkExecutor())
+        {
+            for (int i = 0; i < slices; i++)
             {
-                int b = line.indexOf("/>", a);
-                revisions.add(parseRevision(line.substring(a, b), title));
+                // oldest first if reverse, newest first otherwise
+                int slice = reverse ? i : slices - 1 - i;
+                Calendar slicestart = slice == 0 ? start : epochToCalendar(from + (to - from) * slice / slices);
+                Calendar sliceend = slice == slices - 1 ? end : epochToCalendar(from + (to - from) * (slice + 1) / slices - 1);
+                futures.add(bulk.submit(this, wiki ->
+                {
+                    List<Revision> revisions = new ArrayList<>();
+                    ContinuationIterator.fetchAll(pageHistorySource(title, slicestart, sliceend, reverse), null, revisions);
+                    return revisions;
+                }));
             }
+            List<Revision> revisions = new ArrayList<>(1500);
+            for (CompletableFuture<List<Revision>> future : futures)
+                revisions.addAll(BulkExecutor.await(future));
+
+            Revision[] temp = linkHistory(revisions, reverse);
+            log(Level.INFO, "getPageHistory", "Successfully retrieved page history of " + title + " (" + temp.length
+                + " revisions in " + slices + " slices)");
+            return temp;
         }
-        while (rvcontinue != null);
-        // populate previous/next
+    }
+
+    /**
+     *  Fills in the size differences and following revisions of a page
+     *  history.
+     *  @param revisions the page history, in order
+     *  @param reverse whether the oldest revision comes first
+     *  @return the revisions as an array
+     */
+    private static Revision[] linkHistory(List<Revision> revisions, boolean reverse)
+    {
         int size = revisions.size();
         Revision[] temp = revisions.toArray(new Revision[size]);
         if (reverse)
@@ -2627,10 +3308,97 @@ public class Wiki implements Serializable
                     temp[i].next = temp[i - 1].revid;
             }
         }
-        log(Level.INFO, "getPageHistory", "Successfully retrieved page history of " + title + " (" + size + " revisions)");
         return temp;
     }
 
+    /**
+     *  Lazily fetches the revision history of a page between two dates. Like
+     *  <tt>getPageHistory()</tt>, except that a page of revisions is only
+     *  fetched when the stream gets to it, so short circuiting operations
+     *  such as <tt>limit()</tt> or <tt>findFirst()</tt> stop the requests as
+     *  well. Network errors are thrown as <tt>UncheckedIOException</tt>s.
+     *
+     *  @param title a page
+     *  @param start the EARLIEST of the two dates
+     *  @param end the LATEST of the two dates
+     *  @param reverse whether to put the oldest first (default = false, newest
+     *  first is how history pages work)
+     *  @return the revisions of that page in that time span
+     *  @throws IOException if the title cannot be encoded
+     *  @see #getPageHistory(java.lang.String, java.util.Calendar, java.util.Calendar, boolean)
+     *  @since 0.32
+     */
+    public Stream<Revision> getPageHistoryStream(String title, Calendar start, Calendar end, boolean reverse) throws IOException
+    {
+        Iterator<Revision> revisions = new ContinuationIterator<>(pageHistorySource(title, start, end, reverse), prefetcher());
+        // populate previous/next, this needs the revision after the current one
+        return stream(new Iterator<Revision>()
+        {
+            private Revision previous = null, following = null;
+            private boolean started = false;
+
+            @Override
+            public boolean hasNext()
+            {
+                return started ? following != null : revisions.hasNext();
+            }
+
+            @Override
+            public Revision next()
+            {
+                Revision current = started ? following : revisions.next();
+                if (current == null)
+                    throw new NoSuchElementException();
+                started = true;
+                following = revisions.hasNext() ? revisions.next() : null;
+                if (reverse)
+                {
+                    current.sizediff = previous == null ? current.size : current.size - previous.size;
+                    if (following != null)
+                        current.next = following.revid;
+                }
+                else
+                {
+                    current.sizediff = following == null ? current.size : current.size - following.size;
+                    if (previous != null)
+                        current.next = previous.revid;
+                }
+                previous = current;
+                return current;
+            }
+        });
+    }
+
+    /**
+     *  Fetches pages of the revision history of a page.
+     *  @see #getPageHistory(java.lang.String, java.util.Calendar, java.util.Calendar, boolean)
+     */
+    private ContinuationIterator.PageSource<Revision> pageHistorySource(String title, Calendar start, Calendar end,
+        boolean reverse) throws IOException
+    {
+        // set up the url
+        StringBuilder url = new StringBuilder(query);
+        url.append("prop=revisions&rvlimit=max&titles=");
+        url.append(encode(title, true));
+        url.append("&rvprop=timestamp%7Cuser%7Cids%7Cflags%7Csize%7Ccomment%7Csha1");
+        if (reverse)
+            url.append("&rvdir=newer");
+        if (start != null)
+        {
+            url.append(reverse ? "&rvstart=" : "&rvend=");
+            url.append(calendarToTimestamp(start));
+        }
+        if (end != null)
+        {
+            url.append(reverse ? "&rvend=" : "&rvstart=");
+            url.append(calendarToTimestamp(end));
+        }
+        String base = url.toString();
+        // xml form: <page ...><revisions><rev revid="..." ... /></revisions></page>
+        return (rvcontinue, page, continued) -> fetchItems(rvcontinue == null ? base : base + "&rvcontinue=" + rvcontinue,
+            "revisions", "rvcontinue", item -> parseRevision(item, title), page, continued, "getPageHistory");
+    }
+
     /**
      *  Gets the deleted history of a page.
      *  @param title a page
@@ -2702,8 +3470,8 @@ public class Wiki implements Serializable
                 for (int z = response.indexOf("<rev ", x); z < y && z >= 0; z = response.indexOf("<rev ", ++z))
                 {
                     int aa = response.indexOf(" />", z);
-                    Revision temp = parseRevision(response.substring(z, aa), deltitle);
-                    temp.pageDeleted = true;
+                    Revision temp = parseRevision(new XmlAttributes(response, z, aa), deltitle);
+                    temp.setFlag(Revision.PAGE_DELETED, true);
                     delrevs.add(temp);
                 }
             }
@@ -2790,8 +3558,8 @@ public class Wiki implements Serializable
                 for (int z = response.indexOf("<rev ", x); z < y && z >= 0; z = response.indexOf("<rev ", ++z))
                 {
                     int aa = response.indexOf(" />", z);
-                    Revision temp = parseRevision(response.substring(z, aa), deltitle);
-                    temp.pageDeleted = true;
+                    Revision temp = parseRevision(new XmlAttributes(response, z, aa), deltitle);
+                    temp.setFlag(Revision.PAGE_DELETED, true);
                     delrevs.add(temp);
                 }
             }
@@ -2924,7 +3692,7 @@ public class Wiki implements Serializable
      *  @throws CredentialException if page is protected and we can't move it
      *  @since 0.16
      */
-    public synchronized void move(String title, String newTitle, String reason, boolean noredirect, boolean movetalk,
+    public void move(String title, String newTitle, String reason, boolean noredirect, boolean movetalk,
         boolean movesubpages) throws IOException, LoginException
     {
         throttle();
@@ -3001,7 +3769,7 @@ public class Wiki implements Serializable
      *  @throws CredentialNotFoundException if we cannot protect
      *  @since 0.30
      */
-    public synchronized void protect(String page, Map<String, Object> protectionstate, String reason) throws IOException, LoginException
+    public void protect(String page, Map<String, Object> protectionstate, String reason) throws IOException, LoginException
     {
         throttle();
         
@@ -3129,8 +3897,7 @@ public class Wiki implements Serializable
                 for (int j = line.indexOf("<rev ", i); j > 0 && j < z; j = line.indexOf("<rev ", ++j))
                 {
                     int y = line.indexOf("/>", j);
-                    String blah = line.substring(j, y);
-                    Revision rev = parseRevision(blah, title);
+                    Revision rev = parseRevision(new XmlAttributes(line, j, y), title);
                     long oldid = rev.getRevid();
                     for (int k = 0; k < oldids.length; k++)
                         if (oldids[k] == oldid)
@@ -3141,6 +3908,193 @@ public class Wiki implements Serializable
         return revisions;
     }
 
+    /**
+     *  Gets the text of many revisions at once, as many per request as the
+     *  server allows (see {@link #getSlowMax()}). Much faster than calling
+     *  {@link Revision#getText()} for each revision.
+     *
+     *  @param revids a list of oldids
+     *  @return the texts of those revisions, in the order of the input array.
+     *  If a revision has been deleted or its text hidden, the corresponding
+     *  index is null.
+     *  @throws IOException if a network error occurs
+     *  @see #getRevisionTexts(long[], java.util.function.BiConsumer)
+     *  @since 0.32
+     */
+    public String[] getRevisionTexts(long[] revids) throws IOException
+    {
+        Map<Long, String> texts = new HashMap<>(2 * revids.length);
+        getRevisionTexts(revids, texts::put);
+        String[] ret = new String[revids.length];
+        for (int i = 0; i < revids.length; i++)
+            ret[i] = texts.get(revids[i]);
+        log(Level.INFO, "getRevisionTexts", "Successfully retrieved text of " + revids.length + " revisions.");
+        return ret;
+    }
+
+    /**
+     *  Gets the text of many revisions at once and hands each text to the
+     *  given consumer as soon as its batch has arrived, so that only one
+     *  batch is held in memory at a time. Revisions are fetched as many per
+     *  request as the server allows (see {@link #getSlowMax()}). Texts in
+     *  the {@link #setRevisionCache(org.wikipedia.RevisionCache) revision
+     *  cache} are not fetched again, and fetched texts are put there.
+     *
+     *  @param revids a list of oldids
+     *  @param consumer gets each revision ID once, with its text or null if
+     *  the revision has been deleted or its text hidden, in the order of the
+     *  input array
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    public void getRevisionTexts(long[] revids, BiConsumer<Long, String> consumer) throws IOException
+    {
+        ensureLimits();
+        int batch = slowmax;
+        RevisionCache cache = revisioncache;
+        String url = query + "prop=revisions&rvprop=ids%7Csha1%7Ccontent&revids=";
+        Set<Long> seen = new HashSet<>(2 * revids.length);
+        // window = revisions waiting to be handed out, tofetch = those of
+        // them that weren't in the cache
+        List<Long> window = new ArrayList<>(batch), tofetch = new ArrayList<>(batch);
+        Map<Long, String> texts = new HashMap<>(2 * batch);
+        for (int i = 0; i < revids.length; i++)
+        {
+            if (seen.add(revids[i]))
+            {
+                window.add(revids[i]);
+                String text = cache == null ? null : cache.get(revids[i]);
+                if (text == null)
+                    tofetch.add(revids[i]);
+                else
+                    texts.put(revids[i], text);
+            }
+            // don't hold on to too many cached texts while waiting for a full batch
+            if (window.isEmpty() || tofetch.size() < batch && window.size() < max && i < revids.length - 1)
+                continue;
+
+            if (!tofetch.isEmpty())
+            {
+                StringBuilder ids = new StringBuilder();
+                for (Long revid : tofetch)
+                {
+                    if (ids.length() > 0)
+                        ids.append("%7C");
+                    ids.append(revid);
+                }
+                // large texts may not fit in one response, in which case the
+                // rest follows via rvcontinue
+                String rvcontinue = null;
+                do
+                {
+                    List<String[]> page = new ArrayList<>();
+                    rvcontinue = fetchItems(url + ids + (rvcontinue == null ? "" : "&rvcontinue=" + rvcontinue),
+                        "revisions", "rvcontinue", item -> new String[] { item.get("revid"),
+                        parseRevisionText(item), item.get("sha1") }, page, "getRevisionTexts");
+                    for (String[] rev : page)
+                    {
+                        long revid = Long.parseLong(rev[0]);
+                        texts.put(revid, rev[1]);
+                        if (cache != null && rev[1] != null)
+                            cache.put(revid, rev[2], rev[1]);
+                    }
+                }
+                while (rvcontinue != null);
+            }
+
+            for (Long revid : window)
+                consumer.accept(revid, texts.get(revid));
+            window.clear();
+            tofetch.clear();
+            texts.clear();
+        }
+    }
+
+    /**
+     *  Extracts the text of a <tt>&lt;rev&gt;</tt> fetched with
+     *  <tt>rvprop=content</tt>.
+     *  @param item the revision
+     *  @return the text or null if it is hidden or missing
+     *  @since 0.32
+     */
+    private static String parseRevisionText(ResponseItem item)
+    {
+        if (item.has("texthidden") || item.has("textmissing"))
+            return null;
+        // JSON has the text as an attribute, XML as the content of the element
+        String text = item.get("content");
+        return text != null ? text : item.get("rev");
+    }
+
+    /**
+     *  Computes the diffs of many revisions against their parent revisions
+     *  locally. The texts are fetched in batches (see {@link
+     *  #getRevisionTexts(long[], java.util.function.BiConsumer)}), so this
+     *  costs about one request per {@link #getSlowMax()}/2 revisions instead
+     *  of one per diff, and the diffs are computed on all cores.
+     *
+     *  @param revisions a list of revisions
+     *  @return the diffs between each revision and its parent, in the order of
+     *  the input list. A revision without a parent is compared to the empty
+     *  text. If the text of either revision has been deleted or hidden, the
+     *  corresponding index is null.
+     *  @throws IOException if a network error occurs
+     *  @see #getDiffs(java.util.List, java.util.function.BiConsumer)
+     *  @since 0.32
+     */
+    public TextDiff[] getDiffs(List<Revision> revisions) throws IOException
+    {
+        TextDiff[] ret = new TextDiff[revisions.size()];
+        int[] i = new int[1];
+        getDiffs(revisions, (revision, diff) -> ret[i[0]++] = diff);
+        log(Level.INFO, "getDiffs", "Successfully computed " + ret.length + " diffs.");
+        return ret;
+    }
+
+    /**
+     *  Computes the diffs of many revisions against their parent revisions
+     *  locally and hands each to the given consumer as soon as its batch is
+     *  done, so that only one batch of texts is held in memory at a time.
+     *
+     *  @param revisions a list of revisions
+     *  @param consumer gets each revision with its diff against its parent,
+     *  or null if the text of either revision has been deleted or hidden, in
+     *  the order of the input list. A revision without a parent is compared
+     *  to the empty text.
+     *  @throws IOException if a network error occurs
+     *  @see TextDiff
+     *  @since 0.32
+     */
+    public void getDiffs(List<Revision> revisions, BiConsumer<Revision, TextDiff> consumer) throws IOException
+    {
+        ensureLimits();
+        // each diff needs two texts
+        int batch = Math.max(slowmax / 2, 1);
+        for (int i = 0; i < revisions.size(); i += batch)
+        {
+            List<Revision> chunk = revisions.subList(i, Math.min(i + batch, revisions.size()));
+            long[] revids = new long[2 * chunk.size()];
+            int n = 0;
+            for (Revision revision : chunk)
+            {
+                revids[n++] = revision.revid;
+                if (revision.previous > 0)
+                    revids[n++] = revision.previous;
+            }
+            Map<Long, String> texts = new HashMap<>(2 * n);
+            getRevisionTexts(Arrays.copyOf(revids, n), texts::put);
+
+            TextDiff[] diffs = chunk.parallelStream().map(revision ->
+            {
+                String newtext = texts.get(revision.revid);
+                String oldtext = revision.previous > 0 ? texts.get(revision.previous) : "";
+                return newtext == null || oldtext == null ? null : TextDiff.compute(oldtext, newtext);
+            }).toArray(TextDiff[]::new);
+            for (int j = 0; j < diffs.length; j++)
+                consumer.accept(chunk.get(j), diffs[j]);
+        }
+    }
+
     /**
      *  Reverts a series of edits on the same page by the same user quickly
      *  provided that they are the most recent revisions on that page. If this
@@ -3181,7 +4135,7 @@ public class Wiki implements Serializable
      *  @throws AccountLockedException if the user is blocked
      *  @since 0.19
      */
-    public synchronized void rollback(Revision revision, boolean bot, String reason) throws IOException, LoginException
+    public void rollback(Revision revision, boolean bot, String reason) throws IOException, LoginException
     {
         // check rights
         if (user == null || !user.isAllowedTo("rollback"))
@@ -3244,7 +4198,7 @@ public class Wiki implements Serializable
      *  delete revisions or log entries
      *  @throws AccountLockedException if the user is blocked
      */
-    public synchronized void revisionDelete(Boolean hidecontent, Boolean hideuser, Boolean hidereason, String reason, Boolean suppress,
+    public void revisionDelete(Boolean hidecontent, Boolean hideuser, Boolean hidereason, String reason, Boolean suppress,
         Revision[] revisions) throws IOException, LoginException
     {
         throttle();
@@ -3255,13 +4209,6 @@ public class Wiki implements Serializable
         StringBuilder out = new StringBuilder("reason=");
         out.append(encode(reason, false));
         out.append("&type=revision"); // FIXME: allow log entry deletion
-        out.append("&ids=");
-        for (int i = 0; i < revisions.length - 1; i++) // FIXME: allow more than slowmax revisions
-        {
-            out.append(revisions[i].getRevid());
-            out.append("%7C");
-        }
-        out.append(revisions[revisions.length - 1].getRevid());
         out.append("&token=");
         out.append(encode(getToken("csrf"), false));
         if (user.isAllowedTo("suppressrevision") && suppress != null)
@@ -3292,19 +4239,25 @@ public class Wiki implements Serializable
             temp.delete(temp.length() - 2, temp.length());
         out.append(temp);
 
-        // send/read response
-        String response = post(apiUrl + "action=revisiondelete", out.toString(), "revisionDelete");
-        if (!response.contains("<revisiondelete "))
-            checkErrorsAndUpdateStatus(response, "move");
+        // send/read response, as many revisions at a time as we may
+        long[] revids = new long[revisions.length];
+        for (int i = 0; i < revisions.length; i++)
+            revids[i] = revisions[i].getRevid();
+        for (String chunk : constructRevisionString(revids))
+        {
+            String response = post(apiUrl + "action=revisiondelete", "ids=" + chunk + "&" + out, "revisionDelete");
+            if (!response.contains("<revisiondelete "))
+                checkErrorsAndUpdateStatus(response, "move");
+        }
         log(Level.INFO, "revisionDelete", "Successfully (un)deleted " + revisions.length + " revisions.");
         for (Revision rev : revisions)
         {
             if (hideuser != null)
-                rev.userDeleted = hideuser;
+                rev.setFlag(Revision.USER_DELETED, hideuser);
             if (hidereason != null)
-                rev.summaryDeleted = hidereason;
+                rev.setFlag(Revision.SUMMARY_DELETED, hidereason);
             if (hidecontent != null)
-                rev.contentDeleted = hidecontent;
+                rev.setFlag(Revision.CONTENT_DELETED, hidecontent);
         }
     }
 
@@ -3345,7 +4298,7 @@ public class Wiki implements Serializable
      *  @throws ConcurrentModificationException if an edit conflict occurs
      *  @since 0.20
      */
-    public synchronized void undo(Revision rev, Revision to, String reason, boolean minor,
+    public void undo(Revision rev, Revision to, String reason, boolean minor,
         boolean bot) throws IOException, LoginException
     {
         throttle();
@@ -3401,82 +4354,91 @@ public class Wiki implements Serializable
     /**
      *  Parses stuff of the form <tt>title="L. Sprague de Camp"
      *  timestamp="2006-08-28T23:48:08Z" minor="" comment="robot  Modifying:
-     *  [[bg:Blah]]"</tt> into useful revision objects. Used by
-     *  <tt>contribs()</tt>, <tt>watchlist()</tt>, <tt>getPageHistory()</tt>
-     *  <tt>rangeContribs()</tt> and <tt>recentChanges()</tt>. NOTE: if
+     *  [[bg:Blah]]"</tt> into useful revision objects. NOTE: if
      *  RevisionDelete was used on a revision, the relevant values will be null.
      *
      *  @param xml the XML to parse
      *  @param title an optional title parameter if we already know what it is
      *  (use "" if we don't)
      *  @return the Revision encoded in the XML
+     *  @see #parseRevision(org.wikipedia.ResponseItem, java.lang.String)
      *  @since 0.17
      */
     protected Revision parseRevision(String xml, String title)
     {
-        long oldid = Long.parseLong(parseAttribute(xml, " revid", 0));
-        Calendar timestamp = timestampToCalendar(parseAttribute(xml, "timestamp", 0), true);
+        return parseRevision(new XmlAttributes(xml), title);
+    }
+
+    /**
+     *  Turns a <tt>&lt;rev&gt;</tt>, <tt>&lt;rc&gt;</tt> or
+     *  <tt>&lt;item&gt;</tt> into a useful revision object. Used by
+     *  <tt>contribs()</tt>, <tt>watchlist()</tt>, <tt>getPageHistory()</tt>
+     *  <tt>rangeContribs()</tt> and <tt>recentChanges()</tt>. NOTE: if
+     *  RevisionDelete was used on a revision, the relevant values will be null.
+     *
+     *  @param item the item to parse
+     *  @param title an optional title parameter if we already know what it is
+     *  (use "" if we don't)
+     *  @return the Revision described by the item
+     *  @since 0.32
+     */
+    protected Revision parseRevision(ResponseItem item, String title)
+    {
+        long oldid = Long.parseLong(item.get("revid"));
+        long timestamp = timestampToEpoch(item.get("timestamp"));
 
         // title
         if (title.isEmpty())
-            title = parseAttribute(xml, "title", 0);
-
-        // summary
-        String summary = null;
-        if (xml.contains("comment=\""))
-            summary = parseAttribute(xml, "comment", 0);
+            title = item.get("title");
 
-        // user
-        String user2 = null;
-        if (xml.contains("user=\""))
-            user2 = parseAttribute(xml, "user", 0);
+        // summary, user
+        String summary = item.get("comment");
+        String user2 = item.get("user");
 
         // flags: minor, bot, new
-        boolean minor = xml.contains("minor=\"\"");
-        boolean bot = xml.contains("bot=\"\"");
-        boolean rvnew = xml.contains("new=\"\"");
+        boolean minor = item.has("minor");
+        boolean bot = item.has("bot");
+        boolean rvnew = item.has("new");
 
         // size
         int size = 0;
-        if (xml.contains("newlen=")) // recentchanges
-            size = Integer.parseInt(parseAttribute(xml, "newlen", 0));
-        else if (xml.contains("size=\""))
-            size = Integer.parseInt(parseAttribute(xml, "size", 0));
-        else if (xml.contains("len=\"")) // deletedrevs
-            size = Integer.parseInt(parseAttribute(xml, "len", 0));
+        if (item.has("newlen")) // recentchanges
+            size = Integer.parseInt(item.get("newlen"));
+        else if (item.has("size"))
+            size = Integer.parseInt(item.get("size"));
+        else if (item.has("len")) // deletedrevs
+            size = Integer.parseInt(item.get("len"));
 
         Revision revision = new Revision(oldid, timestamp, title, summary, user2, minor, bot, rvnew, size);
         // set rcid
-        if (xml.contains("rcid=\""))
-            revision.setRcid(Long.parseLong(parseAttribute(xml, "rcid", 0)));
+        if (item.has("rcid"))
+            revision.setRcid(Long.parseLong(item.get("rcid")));
 
         // rollback token; will automatically be null if we cannot rollback
-        if (xml.contains("rollbacktoken=\""))
-            revision.setRollbackToken(parseAttribute(xml, "rollbacktoken", 0));
+        revision.setRollbackToken(item.get("rollbacktoken"));
 
         // previous revision
-        if (xml.contains("parentid")) // page history/getRevision
-            revision.previous = Long.parseLong(parseAttribute(xml, "parentid", 0));
-        else if (xml.contains("old_revid")) // watchlist
-            revision.previous = Long.parseLong(parseAttribute(xml, "old_revid", 0));
+        if (item.has("parentid")) // page history/getRevision
+            revision.previous = Long.parseLong(item.get("parentid"));
+        else if (item.has("old_revid")) // watchlist
+            revision.previous = Long.parseLong(item.get("old_revid"));
 
         // sizediff
-        if (xml.contains("oldlen=\"")) // recentchanges
-            revision.sizediff = revision.size - Integer.parseInt(parseAttribute(xml, "oldlen", 0));
-        else if (xml.contains("sizediff=\""))
-            revision.sizediff = Integer.parseInt(parseAttribute(xml, "sizediff", 0));
+        if (item.has("oldlen")) // recentchanges
+            revision.sizediff = revision.size - Integer.parseInt(item.get("oldlen"));
+        else if (item.has("sizediff"))
+            revision.sizediff = Integer.parseInt(item.get("sizediff"));
 
         // revisiondelete
-        revision.summaryDeleted = xml.contains("commenthidden=\"");
-        revision.userDeleted = xml.contains("userhidden=\"");
+        revision.setFlag(Revision.SUMMARY_DELETED, item.has("commenthidden"));
+        revision.setFlag(Revision.USER_DELETED, item.has("userhidden"));
         // Silly workaround: prop=revisions, prop=deletedrevisions, 
         // list=recentchanges and list=alldeletedrevisions all don't tell you 
         // whether content has been revision deleted until you fetch the content. 
         // Instead, fetch the SHA-1 of the content to minimize data transfer.
-        revision.contentDeleted = xml.contains("sha1hidden=\"");
-        // list=usercontribs does tell you
-        if (xml.contains("texthidden=\""))
-            revision.contentDeleted = true;
+        // list=usercontribs does tell you.
+        revision.setFlag(Revision.CONTENT_DELETED, item.has("sha1hidden") || item.has("texthidden"));
+        revision.sha1 = item.get("sha1");
         return revision;
     }
 
@@ -3570,24 +4532,7 @@ public class Wiki implements Serializable
         String url2 = parseAttribute(line, "url", 0);
 
         // then we read the image
-        logurl(url2, "getImage");
-        URLConnection connection = makeConnection(url2);
-        setCookies(connection);
-        connection.connect();
-
-        // there should be a better way to do this
-        InputStream input = connection.getInputStream();
-        if ("gzip".equals(connection.getContentEncoding()))
-            input = new GZIPInputStream(input);
-
-        try (BufferedInputStream in = new BufferedInputStream(input);
-            BufferedOutputStream outStream = new BufferedOutputStream(new FileOutputStream(file)))
-        {
-            int c;
-            while ((c = in.read()) != -1)
-                outStream.write(c);
-            outStream.flush();
-        }
+        download(url2, file, "getImage");
         log(Level.INFO, "getImage", "Successfully retrieved image \"" + title + "\"");
         return true;
     }
@@ -3696,7 +4641,7 @@ public class Wiki implements Serializable
         for (int a = line.indexOf("<ii "); a > 0; a = line.indexOf("<ii ", ++a))
         {
             int b = line.indexOf('>', a);
-            LogEntry le = parseLogEntry(line.substring(a, b));
+            LogEntry le = parseLogEntry(new XmlAttributes(line, a, b));
             le.target = prefixtitle;
             le.type = UPLOAD_LOG;
             le.action = "overwrite";
@@ -3743,32 +4688,14 @@ public class Wiki implements Serializable
             if (timestamp.equals(calendarToTimestamp(entry.getTimestamp())))
             {
                 // this is it
-                url = parseAttribute(line, "url", a);
-                logurl(url, "getOldImage");
-                URLConnection connection = makeConnection(url);
-                setCookies(connection);
-                connection.connect();
-
-                // there should be a better way to do this
-                InputStream input = connection.getInputStream();
-                if ("gzip".equals(connection.getContentEncoding()))
-                    input = new GZIPInputStream(input);
-
-                try (BufferedInputStream in = new BufferedInputStream(input);
-                    BufferedOutputStream outStream = new BufferedOutputStream(new FileOutputStream(file)))
-                {
-                    int c;
-                    while ((c = in.read()) != -1)
-                        outStream.write(c);
-                    outStream.flush();
-
-                    // scrape archive name for logging purposes
-                    String archive = parseAttribute(line, "archivename", 0);
-                    if (archive == null)
-                        archive = title;
-                    log(Level.INFO, "getOldImage", "Successfully retrieved old image \"" + archive + "\"");
-                    return true;
-                }
+                download(parseAttribute(line, "url", a), file, "getOldImage");
+
+                // scrape archive name for logging purposes
+                String archive = parseAttribute(line, "archivename", 0);
+                if (archive == null)
+                    archive = title;
+                log(Level.INFO, "getOldImage", "Successfully retrieved old image \"" + archive + "\"");
+                return true;
             }
         }
         return false;
@@ -3849,7 +4776,7 @@ public class Wiki implements Serializable
             for (int i = line.indexOf("<img "); i > 0; i = line.indexOf("<img ", ++i))
             {
                 int b = line.indexOf("/>", i);
-                LogEntry le = parseLogEntry(line.substring(i, b));
+                LogEntry le = parseLogEntry(new XmlAttributes(line, i, b));
                 le.type = UPLOAD_LOG;
                 le.action = "upload"; // unless it's an overwrite?
                 le.user = user;
@@ -3884,7 +4811,7 @@ public class Wiki implements Serializable
      *  @throws AccountLockedException if user is blocked
      *  @since 0.21
      */
-    public synchronized void upload(File file, String filename, String contents, String reason) throws IOException, LoginException
+    public void upload(File file, String filename, String contents, String reason) throws IOException, LoginException
     {
         throttle();
 
@@ -4085,15 +5012,59 @@ public class Wiki implements Serializable
      *  @since 0.28
      */
     public String[] allUsers(String start, int number, String prefix, String group, String excludegroup, String rights) throws IOException
+    {
+        // only request ahead if we need more than one page
+        ContinuationIterator<String> pages = new ContinuationIterator<>(allUsersSource(start, number, prefix,
+            group, excludegroup, rights), number < 0 || number > slowmax ? prefetcher() : null);
+        List<String> members = new ArrayList<>(6667); // enough for most requests
+        List<String> page;
+        while ((number < 0 || members.size() < number) && (page = pages.nextPage()) != null)
+            members.addAll(page);
+        // the last page may contain more than the required amount
+        if (number >= 0 && members.size() > number)
+            members.subList(number, members.size()).clear();
+        int size = members.size();
+        log(Level.INFO, "allUsers", "Successfully retrieved user list (" + size + " users)");
+        return members.toArray(new String[size]);
+    }
+
+    /**
+     *  Lazily lists users in alphabetical order. Like <tt>allUsers()</tt>,
+     *  except that a page of users is only fetched when the stream gets to
+     *  it; use <tt>limit()</tt> instead of a number of users. Network errors
+     *  are thrown as <tt>UncheckedIOException</tt>s.
+     *
+     *  @param start the string to start enumeration
+     *  @param prefix list all users with this prefix (overrides start), use ""
+     *  to not not specify one
+     *  @param group list all users in this group(s). Use pipe-char "|" to separate group names.
+     *  @param excludegroup list all users who are not in this group(s). Use pipe-char "|" to separate group names.
+     *  @param rights list all users with this right(s). Use pipe-char "|" to separate right names.
+     *  @return the usernames
+     *  @throws IOException if the parameters cannot be encoded
+     *  @see #allUsers(java.lang.String, int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+     *  @since 0.32
+     */
+    public Stream<String> allUsersStream(String start, String prefix, String group, String excludegroup, String rights) throws IOException
+    {
+        return stream(new ContinuationIterator<>(allUsersSource(start, -1, prefix, group, excludegroup, rights), prefetcher()));
+    }
+
+    /**
+     *  Fetches pages of the user list.
+     *  @see #allUsers(java.lang.String, int, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+     */
+    private ContinuationIterator.PageSource<String> allUsersSource(String start, int number, String prefix,
+        String group, String excludegroup, String rights) throws IOException
     {
         // sanitise
         StringBuilder url = new StringBuilder(query);
         url.append("list=allusers&aulimit=");
-        String next = "";
+        String first = "";
         if (prefix.isEmpty())
         {
             url.append( ( number > slowmax || number == -1 ) ? slowmax : number);
-            next = encode(start, false);
+            first = start;
         }
         else
         {
@@ -4116,34 +5087,25 @@ public class Wiki implements Serializable
             url.append("&aurights=");
             url.append(encode(rights, false));
         }
-        List<String> members = new ArrayList<>(6667); // enough for most requests
-        do
+        String base = url.toString(), aufrom = first;
+        return (next, page, continued) ->
         {
-            String temp = url.toString();
+            String temp = base;
+            if (next == null)
+                next = aufrom;
             if (!next.isEmpty())
                 temp += ("&aufrom=" + encode(next, false));
             String line = fetch(temp, "allUsers");
-            
+
             // bail if nonsense groups/rights
             if (line.contains("Unrecognized values for parameter"))
-                return new String[0];
-            
-            // parse
-            next = parseAttribute(line, "aufrom", 0);
+                return null;
+
+            // xml form: <u userid="..." name="..." />
             for (int w = line.indexOf("<u "); w > 0; w = line.indexOf("<u ", ++w))
-            {
-                members.add(parseAttribute(line, "name", w));
-                if (members.size() == number)
-                {
-                    next = null;
-                    break;
-                }
-            }
-        }
-        while (next != null);
-        int size = members.size();
-        log(Level.INFO, "allUsers", "Successfully retrieved user list (" + size + " users)");
-        return members.toArray(new String[size]);
+                page.add(parseAttribute(line, "name", w));
+            return parseAttribute(line, "aufrom", 0);
+        };
     }
 
     /**
@@ -4263,6 +5225,44 @@ public class Wiki implements Serializable
      *  @since 0.17
      */
     public Revision[] contribs(String user, String prefix, Calendar end, Calendar start, int... ns) throws IOException
+    {
+        List<Revision> revisions = new ArrayList<>(7500);
+        ContinuationIterator.fetchAll(contribsSource(user, prefix, end, start, ns), prefetcher(), revisions);
+        int size = revisions.size();
+        log(Level.INFO, "contribs", "Successfully retrived contributions for " + (prefix.isEmpty() ? user : prefix) + " (" + size + " edits)");
+        return revisions.toArray(new Revision[size]);
+    }
+
+    /**
+     *  Lazily fetches the contributions for a user, an IP address or a range
+     *  of IP addresses. Like <tt>contribs()</tt>, except that a page of
+     *  contributions is only fetched when the stream gets to it, so
+     *  short circuiting operations such as <tt>limit()</tt> or
+     *  <tt>anyMatch()</tt> stop the requests as well. Network errors are
+     *  thrown as <tt>UncheckedIOException</tt>s.
+     *
+     *  @param user the user to get contributions for.
+     *  @param prefix a prefix of usernames. Overrides <tt>user</tt>.  Use "" to
+     *  not specify one.
+     *  @param end fetch edits no older than this date
+     *  @param start fetch edits no newer than this date
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return contributions of this user, newest first
+     *  @throws IOException if the username cannot be encoded
+     *  @see #contribs(java.lang.String, java.lang.String, java.util.Calendar, java.util.Calendar, int...)
+     *  @since 0.32
+     */
+    public Stream<Revision> contribsStream(String user, String prefix, Calendar end, Calendar start, int... ns) throws IOException
+    {
+        return stream(new ContinuationIterator<>(contribsSource(user, prefix, end, start, ns), prefetcher()));
+    }
+
+    /**
+     *  Fetches pages of contributions.
+     *  @see #contribs(java.lang.String, java.lang.String, java.util.Calendar, java.util.Calendar, int...)
+     */
+    private ContinuationIterator.PageSource<Revision> contribsSource(String user, String prefix, Calendar end,
+        Calendar start, int... ns) throws IOException
     {
         // prepare the url
         StringBuilder temp = new StringBuilder(query);
@@ -4284,38 +5284,15 @@ public class Wiki implements Serializable
             temp.append("&ucend=");
             temp.append(calendarToTimestamp(end));
         }
-        List<Revision> revisions = new ArrayList<>(7500);
-        String uccontinue = "", ucstart = "";
         if (start != null)
         {
             temp.append("&ucstart=");
             temp.append(calendarToTimestamp(start));
         }
-
-        // fetch data
-        do
-        {
-            String line = fetch(temp.toString() + uccontinue + ucstart, "contribs");
-
-            // set offset parameter
-            if (line.contains("uccontinue"))
-                uccontinue = "&uccontinue=" + encode(parseAttribute(line, "uccontinue", 0), false);
-            else
-                uccontinue = null; // depleted list
-
-            // xml form: <item user="Wizardman" ... size="59460" />
-            for (int a = line.indexOf("<item "); a > 0; a = line.indexOf("<item ", ++a))
-            {
-                int b = line.indexOf(" />", a);
-                revisions.add(parseRevision(line.substring(a, b), ""));
-            }
-        }
-        while (uccontinue != null);
-
-        // clean up
-        int size = revisions.size();
-        log(Level.INFO, "contribs", "Successfully retrived contributions for " + (prefix.isEmpty() ? user : prefix) + " (" + size + " edits)");
-        return revisions.toArray(new Revision[size]);
+        String base = temp.toString();
+        // xml form: <item user="Wizardman" ... size="59460" />
+        return (uccontinue, page, continued) -> fetchItems(uccontinue == null ? base : base + "&uccontinue=" + encode(uccontinue, false),
+            "usercontribs", "uccontinue", item -> parseRevision(item, ""), page, continued, "contribs");
     }
 
     /**
@@ -4335,7 +5312,7 @@ public class Wiki implements Serializable
      *  not have a verified email address
      *  @since 0.24
      */
-    public synchronized void emailUser(User user, String message, String subject, boolean emailme) throws IOException, LoginException
+    public void emailUser(User user, String message, String subject, boolean emailme) throws IOException, LoginException
     {
         throttle();
 
@@ -4382,7 +5359,7 @@ public class Wiki implements Serializable
      *  @throws AccountLockedException if you have been blocked
      *  @since 0.31
      */
-    public synchronized void unblock(String blockeduser, String reason) throws IOException, LoginException
+    public void unblock(String blockeduser, String reason) throws IOException, LoginException
     {
         throttle();
         if (user == null || !user.isA("sysop"))
@@ -4456,7 +5433,7 @@ public class Wiki implements Serializable
         String state = unwatch ? "unwatch" : "watch";
         if (watchlist == null)
             getRawWatchlist();
-        for (String titlestring : constructTitleString(titles, false))
+        for (String titlestring : constructTitleString(titles))
         {
             StringBuilder request = new StringBuilder("titles=");
             request.append(titlestring);
@@ -4500,13 +5477,14 @@ public class Wiki implements Serializable
             throw new CredentialNotFoundException("The watchlist is available for registered users only.");
 
         // cache
-        if (watchlist != null && cache)
-            return watchlist.toArray(new String[watchlist.size()]);
+        List<String> cached = watchlist;
+        if (cached != null && cache)
+            return cached.toArray(new String[0]);
 
         // set up some things
         String url = query + "list=watchlistraw&wrlimit=max";
         String wrcontinue = null;
-        watchlist = new ArrayList<>(750);
+        List<String> watchlist = new ArrayList<>(750);
         // fetch the watchlist
         do
         {
@@ -4528,6 +5506,7 @@ public class Wiki implements Serializable
         while (wrcontinue != null);
         // log
         int size = watchlist.size();
+        this.watchlist = new CopyOnWriteArrayList<>(watchlist);
         log(Level.INFO, "getRawWatchlist", "Successfully retrieved raw watchlist (" + size + " items)");
         return watchlist.toArray(new String[size]);
     }
@@ -4577,6 +5556,38 @@ public class Wiki implements Serializable
      *  @since 0.27
      */
     public Revision[] watchlist(boolean allrev, int... ns) throws IOException, CredentialNotFoundException
+    {
+        List<Revision> wl = new ArrayList<>(667);
+        ContinuationIterator.fetchAll(watchlistSource(allrev, ns), prefetcher(), wl);
+        int size = wl.size();
+        log(Level.INFO, "watchlist", "Successfully retrieved watchlist (" + size + " items)");
+        return wl.toArray(new Revision[size]);
+    }
+
+    /**
+     *  Lazily fetches recent changes to pages on your watchlist. Like
+     *  <tt>watchlist()</tt>, except that a page of changes is only fetched
+     *  when the stream gets to it. Network errors are thrown as
+     *  <tt>UncheckedIOException</tt>s.
+     *
+     *  @param allrev show all revisions to the pages, instead of the top most
+     *  change
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return list of changes to watched pages and their talk pages
+     *  @throws CredentialNotFoundException if not logged in
+     *  @see #watchlist(boolean, int...)
+     *  @since 0.32
+     */
+    public Stream<Revision> watchlistStream(boolean allrev, int... ns) throws CredentialNotFoundException
+    {
+        return stream(new ContinuationIterator<>(watchlistSource(allrev, ns), prefetcher()));
+    }
+
+    /**
+     *  Fetches pages of the watchlist.
+     *  @see #watchlist(boolean, int...)
+     */
+    private ContinuationIterator.PageSource<Revision> watchlistSource(boolean allrev, int... ns) throws CredentialNotFoundException
     {
         if (user == null)
             throw new CredentialNotFoundException("Not logged in");
@@ -4585,25 +5596,11 @@ public class Wiki implements Serializable
         if (allrev)
             url.append("&wlallrev=true");
         constructNamespaceString(url, "wl", ns);
-
-        List<Revision> wl = new ArrayList<>(667);
-        String wlstart = "";
-        do
-        {
-            String line = fetch(url.toString() + "&wlstart=" + wlstart, "watchlist");
-            wlstart = parseAttribute(line, "wlstart", 0);
-
-            // xml form: <item pageid="16396" revid="176417" ns="0" title="API:Query - Lists" />
-            for (int i = line.indexOf("<item "); i > 0; i = line.indexOf("<item ", ++i))
-            {
-                int j = line.indexOf("/>", i);
-                wl.add(parseRevision(line.substring(i, j), ""));
-            }
-        }
-        while (wlstart != null);
-        int size = wl.size();
-        log(Level.INFO, "watchlist", "Successfully retrieved watchlist (" + size + " items)");
-        return wl.toArray(new Revision[size]);
+        url.append("&wlstart=");
+        String base = url.toString();
+        // xml form: <item pageid="16396" revid="176417" ns="0" title="API:Query - Lists" />
+        return (wlstart, page, continued) -> fetchItems(wlstart == null ? base : base + wlstart, "watchlist", "wlstart",
+            item -> parseRevision(item, ""), page, continued, "watchlist");
     }
 
     // LISTS
@@ -4682,32 +5679,48 @@ public class Wiki implements Serializable
      *  @since 0.10
      */
     public String[] imageUsage(String image, int... ns) throws IOException
+    {
+        List<String> pages = new ArrayList<>(1333);
+        ContinuationIterator.fetchAll(imageUsageSource(image, ns), prefetcher(), pages);
+        int size = pages.size();
+        log(Level.INFO, "imageUsage", "Successfully retrieved usages of " + image + " (" + size + " items)");
+        return pages.toArray(new String[size]);
+    }
+
+    /**
+     *  Lazily lists the pages in the specified namespaces which use the
+     *  specified image. Like <tt>imageUsage()</tt>, except that a page of
+     *  results is only fetched when the stream gets to it. Network errors are
+     *  thrown as <tt>UncheckedIOException</tt>s.
+     *
+     *  @param image the image (may contain File:)
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return the list of pages that use this image
+     *  @throws IOException if a network error occurs while fetching namespace
+     *  names
+     *  @see #imageUsage(java.lang.String, int...)
+     *  @since 0.32
+     */
+    public Stream<String> imageUsageStream(String image, int... ns) throws IOException
+    {
+        return stream(new ContinuationIterator<>(imageUsageSource(image, ns), prefetcher()));
+    }
+
+    /**
+     *  Fetches pages of image usages.
+     *  @see #imageUsage(java.lang.String, int...)
+     */
+    private ContinuationIterator.PageSource<String> imageUsageSource(String image, int... ns) throws IOException
     {
         StringBuilder url = new StringBuilder(query);
         image = image.replaceFirst("^(File|Image|" + namespaceIdentifier(FILE_NAMESPACE) + "):", "");
         url.append("list=imageusage&iulimit=max&iutitle=");
         url.append(encode("File:" + image, true));
         constructNamespaceString(url, "iu", ns);
-
-        // fiddle
-        List<String> pages = new ArrayList<>(1333);
-        String next = "";
-        do
-        {
-            // connect
-            if (!pages.isEmpty())
-                next = "&iucontinue=" + next;
-            String line = fetch(url + next, "imageUsage");
-            next = parseAttribute(line, "iucontinue", 0);
-
-            // xml form: <iu pageid="196465" ns="7" title="File talk:Wiki.png" />
-            for (int x = line.indexOf("<iu "); x > 0; x = line.indexOf("<iu ", ++x))
-                pages.add(parseAttribute(line, "title", x));
-        }
-        while (next != null);
-        int size = pages.size();
-        log(Level.INFO, "imageUsage", "Successfully retrieved usages of File:" + image + " (" + size + " items)");
-        return pages.toArray(new String[size]);
+        String base = url.toString();
+        // xml form: <iu pageid="196465" ns="7" title="File talk:Wiki.png" />
+        return (iucontinue, page, continued) -> fetchItems(iucontinue == null ? base : base + "&iucontinue=" + encode(iucontinue, false),
+            "imageusage", "iucontinue", item -> item.get("title"), page, continued, "imageUsage");
     }
 
     /**
@@ -4739,6 +5752,38 @@ public class Wiki implements Serializable
      *  @since 0.10
      */
     public String[] whatLinksHere(String title, boolean redirects, int... ns) throws IOException
+    {
+        List<String> pages = new ArrayList<>(6667); // generally enough
+        ContinuationIterator.fetchAll(whatLinksHereSource(title, redirects, ns), prefetcher(), pages);
+        int size = pages.size();
+        log(Level.INFO, "whatLinksHere", "Successfully retrieved " + (redirects ? "redirects to " : "links to ") + title + " (" + size + " items)");
+        return pages.toArray(new String[size]);
+    }
+
+    /**
+     *  Lazily lists the pages linking to a page. Like
+     *  <tt>whatLinksHere()</tt>, except that a page of results is only
+     *  fetched when the stream gets to it. Network errors are thrown as
+     *  <tt>UncheckedIOException</tt>s.
+     *
+     *  @param title the title of the page
+     *  @param redirects whether we should limit to redirects only
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return the list of pages linking to the specified page
+     *  @throws IOException if the title cannot be encoded
+     *  @see #whatLinksHere(java.lang.String, boolean, int...)
+     *  @since 0.32
+     */
+    public Stream<String> whatLinksHereStream(String title, boolean redirects, int... ns) throws IOException
+    {
+        return stream(new ContinuationIterator<>(whatLinksHereSource(title, redirects, ns), prefetcher()));
+    }
+
+    /**
+     *  Fetches pages of backlinks.
+     *  @see #whatLinksHere(java.lang.String, boolean, int...)
+     */
+    private ContinuationIterator.PageSource<String> whatLinksHereSource(String title, boolean redirects, int... ns) throws IOException
     {
         StringBuilder url = new StringBuilder(query);
         url.append("list=backlinks&bllimit=max&bltitle=");
@@ -4746,29 +5791,10 @@ public class Wiki implements Serializable
         constructNamespaceString(url, "bl", ns);
         if (redirects)
             url.append("&blfilterredir=redirects");
-
-        // main loop
-        List<String> pages = new ArrayList<>(6667); // generally enough
-        String blcontinue = null;
-        do
-        {
-            // fetch data
-            String line;
-            if (blcontinue == null)
-                line = fetch(url.toString(), "whatLinksHere");
-            else
-                line = fetch(url.toString() + "&blcontinue=" + blcontinue, "whatLinksHere");
-            blcontinue = parseAttribute(line, "blcontinue", 0);
-
-            // xml form: <bl pageid="217224" ns="0" title="Mainpage" redirect="" />
-            for (int x = line.indexOf("<bl "); x > 0; x = line.indexOf("<bl ", ++x))
-                pages.add(parseAttribute(line, "title", x));
-        }
-        while (blcontinue != null);
-
-        int size = pages.size();
-        log(Level.INFO, "whatLinksHere", "Successfully retrieved " + (redirects ? "redirects to " : "links to ") + title + " (" + size + " items)");
-        return pages.toArray(new String[size]);
+        String base = url.toString();
+        // xml form: <bl pageid="217224" ns="0" title="Mainpage" redirect="" />
+        return (blcontinue, page, continued) -> fetchItems(blcontinue == null ? base : base + "&blcontinue=" + encode(blcontinue, false),
+            "backlinks", "blcontinue", item -> item.get("title"), page, continued, "whatLinksHere");
     }
 
     /**
@@ -4863,7 +5889,8 @@ public class Wiki implements Serializable
      *
      *  @param name the name of the category
      *  @param maxdepth depth of recursion for subcategories
-     *  @param visitedcategories list of already visited categories
+     *  @param visitedcategories list of already visited categories, gets the
+     *  categories visited by this call
      *  @param sorttimestamp whether to sort the returned array by date/time
      *  added to category (earliest first)
      *  @param ns a list of namespaces to filter by, empty = all namespaces.
@@ -4873,62 +5900,175 @@ public class Wiki implements Serializable
      */
     protected String[] getCategoryMembers(String name, int maxdepth, List<String> visitedcategories, 
         boolean sorttimestamp, int... ns) throws IOException
+    {
+        List<String> members = new ArrayList<>();
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        visited.addAll(visitedcategories);
+        int before = visited.size();
+        getCategoryMembers(name, maxdepth, visited, sorttimestamp, members::add, ns);
+        // report back the categories we went through, in no particular order
+        if (visited.size() > before)
+        {
+            Set<String> known = new HashSet<>(visitedcategories);
+            for (String category : visited)
+                if (known.add(category))
+                    visitedcategories.add(category);
+        }
+
+        int size = members.size();
+        log(Level.INFO, "getCategoryMembers", "Successfully retrieved contents of Category:" + name + " (" + size + " items)");
+        return members.toArray(new String[size]);
+    }
+
+    /**
+     *  Gets the members of a category and of its subcategories down to the
+     *  given depth, and hands them to the given consumer as they are found.
+     *  Subcategories are visited breadth first, those of one level all at
+     *  once (up to {@link BulkExecutor#getMaxRequestsPerHost()} requests at a
+     *  time); each category is only visited once, so cycles in the category
+     *  graph do no harm. A page that is in several of the visited categories
+     *  is handed out once per category.
+     *
+     *  @param name the name of the category
+     *  @param maxdepth depth of recursion for subcategories
+     *  @param sorttimestamp whether to sort the members of each category by
+     *  date/time added to category (earliest first)
+     *  @param consumer gets the title of each member, called only from the
+     *  thread that called this method
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    public void getCategoryMembers(String name, int maxdepth, boolean sorttimestamp, Consumer<String> consumer,
+        int... ns) throws IOException
+    {
+        getCategoryMembers(name, maxdepth, ConcurrentHashMap.newKeySet(), sorttimestamp, consumer, ns);
+    }
+
+    /**
+     *  Walks a category tree breadth first.
+     *
+     *  @param name the name of the category
+     *  @param maxdepth depth of recursion for subcategories
+     *  @param visited the categories already visited, gets the categories
+     *  visited by this call
+     *  @param sorttimestamp whether to sort by date/time added to category
+     *  @param consumer gets the title of each member
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @throws IOException if a network error occurs
+     *  @see #getCategoryMembers(java.lang.String, int, boolean,
+     *  java.util.function.Consumer, int...)
+     *  @since 0.32
+     */
+    private void getCategoryMembers(String name, int maxdepth, Set<String> visited, boolean sorttimestamp,
+        Consumer<String> consumer, int... ns) throws IOException
     {
         name = name.replaceFirst("^(Category|" + namespaceIdentifier(CATEGORY_NAMESPACE) + "):", "");
-        StringBuilder url = new StringBuilder(query);
-        url.append("list=categorymembers&cmprop=title&cmlimit=max&cmtitle=");
-        url.append(encode("Category:" + name, true));
-        if (sorttimestamp)
-            url.append("&cmsort=timestamp");
+        // if we filter by namespace, we still need the subcategories to descend
         boolean nocat = ns.length != 0;
-        if (maxdepth > 0 && nocat)
+        for (int i = 0; nocat && i < ns.length; i++)
+            nocat = ns[i] != CATEGORY_NAMESPACE;
+        int[] withcats = ns;
+        if (nocat)
+        {
+            withcats = Arrays.copyOf(ns, ns.length + 1);
+            withcats[ns.length] = CATEGORY_NAMESPACE;
+        }
+
+        if (maxdepth <= 0)
+        {
+            for (String member : getCategoryMembersLevel(name, sorttimestamp, ns))
+                consumer.accept(member);
+            return;
+        }
+
+        visited.add(normalize(namespaceIdentifier(CATEGORY_NAMESPACE) + ":" + name));
+        List<String> level = Collections.singletonList(name);
+        try (BulkExecutor bulk = new BulkExecutor())
         {
-            for (int i = 0; nocat && i < ns.length; i++)
-                nocat = (ns[i] != CATEGORY_NAMESPACE);
-            if (nocat)
+            for (int depth = 0; !level.isEmpty(); depth++)
             {
-                int[] temp = Arrays.copyOf(ns, ns.length + 1);
-                temp[ns.length] = CATEGORY_NAMESPACE;
-                constructNamespaceString(url, "cm", temp);
+                boolean descend = depth < maxdepth;
+                int[] temp = descend ? withcats : ns;
+                List<CompletableFuture<List<String>>> futures = new ArrayList<>(level.size());
+                for (String category : level)
+                    futures.add(bulk.submit(this, wiki -> getCategoryMembersLevel(category, sorttimestamp, temp)));
+
+                // hand out members in the order of the categories
+                List<String> next = new ArrayList<>();
+                for (CompletableFuture<List<String>> future : futures)
+                {
+                    for (String member : BulkExecutor.await(future))
+                    {
+                        boolean iscat = namespace(member) == CATEGORY_NAMESPACE;
+                        if (descend && iscat && visited.add(member))
+                            next.add(member);
+                        // ignore this item if we requested subcat but not CATEGORY_NAMESPACE
+                        if (!descend || !nocat || !iscat)
+                            consumer.accept(member);
+                    }
+                }
+                log(Level.FINE, "getCategoryMembers", "Visited " + level.size() + " categories at depth " + depth
+                    + " of Category:" + name);
+                level = next;
             }
-            else
-                constructNamespaceString(url, "cm", ns);
         }
-        else
-            constructNamespaceString(url, "cm", ns);
+    }
+
+    /**
+     *  Gets the direct members of a category.
+     *  @param name the name of the category, with or without namespace
+     *  @param sorttimestamp whether to sort by date/time added to category
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return the titles of the members
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    private List<String> getCategoryMembersLevel(String name, boolean sorttimestamp, int... ns) throws IOException
+    {
+        return getCategoryMembersLevel(name, sorttimestamp, -1, ns);
+    }
+
+    /**
+     *  Gets the direct members of a category, optionally only those added
+     *  since a given time.
+     *  @param name the name of the category, with or without namespace
+     *  @param sorttimestamp whether to sort by date/time added to category,
+     *  implied by <tt>since</tt>
+     *  @param since only get members added at or after this time, in seconds
+     *  since the epoch, or -1 for all members
+     *  @param ns a list of namespaces to filter by, empty = all namespaces.
+     *  @return the titles of the members
+     *  @throws IOException if a network error occurs
+     *  @see CategoryGraph
+     *  @since 0.32
+     */
+    List<String> getCategoryMembersLevel(String name, boolean sorttimestamp, long since, int... ns) throws IOException
+    {
+        name = name.replaceFirst("^(Category|" + namespaceIdentifier(CATEGORY_NAMESPACE) + "):", "");
+        StringBuilder url = new StringBuilder(query);
+        url.append("list=categorymembers&cmprop=title&cmlimit=max&cmtitle=");
+        url.append(encode("Category:" + name, true));
+        if (since >= 0)
+        {
+            url.append("&cmsort=timestamp&cmdir=newer&cmstart=");
+            url.append(TimestampCodec.formatIso(since));
+        }
+        else if (sorttimestamp)
+            url.append("&cmsort=timestamp");
+        constructNamespaceString(url, "cm", ns);
         List<String> members = new ArrayList<>();
         String next = "";
         do
         {
             if (!next.isEmpty())
                 next = "&cmcontinue=" + encode(next, false);
-            String line = fetch(url.toString() + next, "getCategoryMembers");
-            next = parseAttribute(line, "cmcontinue", 0);
-
             // xml form: <cm pageid="24958584" ns="3" title="User talk:86.29.138.185" />
-            for (int x = line.indexOf("<cm "); x > 0; x = line.indexOf("<cm ", ++x))
-            {
-                String member = parseAttribute(line, "title", x);
-
-                // fetch subcategories
-                boolean iscat = namespace(member) == CATEGORY_NAMESPACE;
-                if (maxdepth > 0 && iscat && !visitedcategories.contains(member))
-                {
-                    visitedcategories.add(member);
-                    String[] categoryMembers = getCategoryMembers(member, maxdepth - 1, visitedcategories, sorttimestamp, ns);
-                    members.addAll(Arrays.asList(categoryMembers));
-                }
-
-                // ignore this item if we requested subcat but not CATEGORY_NAMESPACE
-                if (!(maxdepth > 0) || !nocat || !iscat)
-                    members.add(member);
-            }
+            next = fetchItems(url.toString() + next, "categorymembers", "cmcontinue", item -> item.get("title"), 
+                members, "getCategoryMembers");
         }
         while (next != null);
-
-        int size = members.size();
-        log(Level.INFO, "getCategoryMembers", "Successfully retrieved contents of Category:" + name + " (" + size + " items)");
-        return members.toArray(new String[size]);
+        return members;
     }
 
     /**
@@ -5094,18 +6234,18 @@ public class Wiki implements Serializable
             {
                 // find entry
                 int b = line.indexOf("/>", a);
-                String temp = line.substring(a, b);
-                LogEntry le = parseLogEntry(temp);
+                ResponseItem block = new XmlAttributes(line, a, b);
+                LogEntry le = parseLogEntry(block);
                 le.type = BLOCK_LOG;
                 le.action = "block";
                 // parseLogEntries parses block target into le.user due to mw.api
                 // attribute name
                 if (le.user == null) // autoblock
-                    le.target = "#" + parseAttribute(temp, "id", 0);
+                    le.target = "#" + block.get("id");
                 else
                     le.target = namespaceIdentifier(USER_NAMESPACE) + ":" + le.user.username;
                 // parse blocker for real
-                le.user = new User(parseAttribute(temp, "by", 0));
+                le.user = new User(block.get("by"));
                 entries.add(le);
             }
         }
@@ -5240,36 +6380,95 @@ public class Wiki implements Serializable
     public LogEntry[] getLogEntries(Calendar start, Calendar end, int amount, String log, String action,
         User user, String target, int namespace) throws IOException
     {
-        // construct the query url from the parameters given
-        StringBuilder url = new StringBuilder(query);
-        url.append("list=logevents&leprop=title%7Ctype%7Cuser%7Ctimestamp%7Ccomment%7Cdetails&lelimit=");
-
         // check for amount
         if (amount < 1)
             throw new IllegalArgumentException("Tried to retrieve less than one log entry!");
-        url.append(amount > max ? max : amount);
+        // only request ahead if we need more than one page
+        ContinuationIterator<LogEntry> pages = new ContinuationIterator<>(logEntriesSource(start, end,
+            amount > max ? max : amount, log, action, user, target, namespace), amount > max ? prefetcher() : null);
 
-        // log type
-        if (!log.equals(ALL_LOGS))
-        {
-            if (action.isEmpty())
-            {
-                url.append("&letype=");
-                url.append(log);
-            }
-            else
-            {
-                url.append("&leaction=");
-                url.append(log);
-                url.append("/");
-                url.append(action);
-            }
-        }
+        // only now we can actually start to retrieve the logs
+        List<LogEntry> entries = new ArrayList<>(6667); // should be enough
+        List<LogEntry> page;
+        while (entries.size() < amount && (page = pages.nextPage()) != null)
+            entries.addAll(page);
+        // the last page may contain more than the required amount
+        if (entries.size() > amount)
+            entries.subList(amount, entries.size()).clear();
 
-        if (namespace != ALL_NAMESPACES)
-        {
-            url.append("&lenamespace=");
-            url.append(namespace);
+        // log the success
+        StringBuilder console = new StringBuilder("Successfully retrieved log (type=");
+        console.append(log);
+        int size = entries.size();
+        console.append(", ");
+        console.append(size);
+        console.append(" entries)");
+        log(Level.INFO, "getLogEntries", console.toString());
+        return entries.toArray(new LogEntry[size]);
+    }
+
+    /**
+     *  Lazily fetches log entries between the given times by the given user
+     *  on the given target, newest first. Like <tt>getLogEntries()</tt>,
+     *  except that a page of entries is only fetched when the stream gets to
+     *  it; use <tt>limit()</tt> instead of an amount. Network errors are
+     *  thrown as <tt>UncheckedIOException</tt>s.
+     *
+     *  @param start what timestamp to start. Use null to not specify one.
+     *  @param end what timestamp to end. Use null to not specify one.
+     *  @param log what log to get (e.g. DELETION_LOG)
+     *  @param action what action to get (e.g. delete, undelete, etc.), use "" to
+     *  not specify one
+     *  @param user the user performing the action. Use null not to specify
+     *  one.
+     *  @param target the target of the action. Use "" not to specify one.
+     *  @param namespace filters by namespace. Returns empty if namespace
+     *  doesn't exist. Use ALL_NAMESPACES to not specify one.
+     *  @return the specified log entries
+     *  @throws IOException if the parameters cannot be encoded
+     *  @throws IllegalArgumentException if start &lt; end
+     *  @see #getLogEntries(java.util.Calendar, java.util.Calendar, int, java.lang.String, java.lang.String, org.wikipedia.Wiki.User, java.lang.String, int)
+     *  @since 0.32
+     */
+    public Stream<LogEntry> getLogEntriesStream(Calendar start, Calendar end, String log, String action,
+        User user, String target, int namespace) throws IOException
+    {
+        return stream(new ContinuationIterator<>(logEntriesSource(start, end, max, log, action, user, target, namespace), prefetcher()));
+    }
+
+    /**
+     *  Fetches pages of log entries.
+     *  @see #getLogEntries(java.util.Calendar, java.util.Calendar, int, java.lang.String, java.lang.String, org.wikipedia.Wiki.User, java.lang.String, int)
+     */
+    private ContinuationIterator.PageSource<LogEntry> logEntriesSource(Calendar start, Calendar end, int limit,
+        String log, String action, User user, String target, int namespace) throws IOException
+    {
+        // construct the query url from the parameters given
+        StringBuilder url = new StringBuilder(query);
+        url.append("list=logevents&leprop=title%7Ctype%7Cuser%7Ctimestamp%7Ccomment%7Cdetails&lelimit=");
+        url.append(limit);
+
+        // log type
+        if (!log.equals(ALL_LOGS))
+        {
+            if (action.isEmpty())
+            {
+                url.append("&letype=");
+                url.append(log);
+            }
+            else
+            {
+                url.append("&leaction=");
+                url.append(log);
+                url.append("/");
+                url.append(action);
+            }
+        }
+
+        if (namespace != ALL_NAMESPACES)
+        {
+            url.append("&lenamespace=");
+            url.append(namespace);
         }
         if (user != null)
         {
@@ -5296,104 +6495,87 @@ public class Wiki implements Serializable
             url.append("&leend=");
             url.append(calendarToTimestamp(end));
         }
-
-        // only now we can actually start to retrieve the logs
-        String lecontinue = null;
-        List<LogEntry> entries = new ArrayList<>(6667); // should be enough
-        do
-        {
-            String line;
-            if (lecontinue == null)
-                line = fetch(url.toString(), "getLogEntries");
-            else
-                line = fetch(url.toString() + "&lecontinue=" + lecontinue, "getLogEntries");
-            lecontinue = parseAttribute(line, "lecontinue", 0);
-
-            // parse xml. We need to repeat the test because the XML may contain more than the required amount.
-            String[] items = line.split("<item ");
-            for (int i = 1; i < items.length && entries.size() < amount; i++)
-                entries.add(parseLogEntry(items[i]));
-        }
-        while (entries.size() < amount && lecontinue != null);
-
-        // log the success
-        StringBuilder console = new StringBuilder("Successfully retrieved log (type=");
-        console.append(log);
-        int size = entries.size();
-        console.append(", ");
-        console.append(size);
-        console.append(" entries)");
-        log(Level.INFO, "getLogEntries", console.toString());
-        return entries.toArray(new LogEntry[size]);
+        String base = url.toString();
+        // xml form: <item logid="..." type="..." ...><params ... /></item>
+        return (lecontinue, page, continued) -> fetchItems(lecontinue == null ? base : base + "&lecontinue=" + lecontinue,
+            "logevents", "lecontinue", this::parseLogEntry, page, continued, "getLogEntries");
     }
 
     /**
-     *  Parses xml generated by <tt>getLogEntries()</tt>,
-     *  <tt>getImageHistory()</tt> and <tt>getIPBlockList()</tt> into LogEntry
-     *  objects. Override this if you want custom log types. NOTE: if
-     *  RevisionDelete was used on a log entry, the relevant values will be
-     *  null.
+     *  Parses xml generated by <tt>getImageHistory()</tt>,
+     *  <tt>getUploads()</tt> and <tt>getIPBlockList()</tt> into LogEntry
+     *  objects. NOTE: if RevisionDelete was used on a log entry, the relevant
+     *  values will be null.
      *
      *  @param xml the xml to parse
      *  @return the parsed log entry
+     *  @see #parseLogEntry(org.wikipedia.ResponseItem)
      *  @since 0.18
      */
     protected LogEntry parseLogEntry(String xml)
+    {
+        return parseLogEntry(new XmlAttributes(xml));
+    }
+
+    /**
+     *  Turns a log event, image revision or block into a LogEntry object.
+     *  Override this if you want custom log types. NOTE: if RevisionDelete was
+     *  used on a log entry, the relevant values will be null.
+     *
+     *  @param item the item to parse
+     *  @return the parsed log entry
+     *  @since 0.32
+     */
+    protected LogEntry parseLogEntry(ResponseItem item)
     {
         // note that we can override these in the calling method
         String type = "", action = "";
-        boolean actionhidden = xml.contains("actionhidden=\"");
-        if (xml.contains("type=\"")) // only getLogEntries
+        boolean actionhidden = item.has("actionhidden");
+        if (item.has("type")) // only getLogEntries
         {
-            type = parseAttribute(xml, "type", 0);
-            action = parseAttribute(xml, "action", 0);
+            type = item.get("type");
+            action = item.get("action");
         }
 
         // reason
         String reason;
-        boolean reasonhidden = xml.contains("commenthidden=\"");
+        boolean reasonhidden = item.has("commenthidden");
         if (type.equals(USER_CREATION_LOG)) // there is no reason for creating a user
             reason = "";
-        else if (xml.contains("reason=\""))
-            reason = parseAttribute(xml, "reason", 0);
+        else if (item.has("reason"))
+            reason = item.get("reason");
         else
-            reason = parseAttribute(xml, "comment", 0);
+            reason = item.get("comment");
 
         // generic performer name (won't work for ipblocklist, overridden there)
-        boolean userhidden = xml.contains("userhidden=\"\"");
+        boolean userhidden = item.has("userhidden");
         User performer = null;
-        if (xml.contains("user=\""))
-            performer = new User(parseAttribute(xml, "user", 0));
+        if (item.has("user"))
+            performer = new User(item.get("user"));
 
         // generic target name
-        String target = null;
-        if (xml.contains(" title=\"")) // space is important -- commons.getImageHistory("File:Chief1.gif");
-            target = parseAttribute(xml, "title", 0);
-
-        String timestamp = convertTimestamp(parseAttribute(xml, "timestamp", 0));
+        String target = item.get("title");
+        String timestamp = convertTimestamp(item.get("timestamp"));
 
         // details: TODO: make this a HashMap
         Object details = null;
-        if (xml.contains("commenthidden")) // oversighted
+        if (reasonhidden) // oversighted
             details = null;
         else if (type.equals(MOVE_LOG))
-            details = parseAttribute(xml, "target_title", 0); // the new title
-        else if (type.equals(BLOCK_LOG) || xml.contains("<block"))
+            details = item.get("target_title"); // the new title
+        else if (type.equals(BLOCK_LOG) || item.has("block"))
         {
-            int a = xml.indexOf("<block") + 7;
-            String s = xml.substring(a);
-            int c = xml.contains("expiry=\"") ? s.indexOf("expiry=") + 8 : s.indexOf("duration=") + 10;
-            if (c > 10) // not an unblock
+            String duration = item.has("expiry") ? item.get("expiry") : item.get("duration");
+            if (duration != null) // not an unblock
             {
-                int d = s.indexOf('\"', c);
                 details = new Object[]
                 {
-                    s.contains("anononly"), // anon-only
-                    s.contains("nocreate"), // account creation blocked
-                    s.contains("noautoblock"), // autoblock disabled
-                    s.contains("noemail"), // email disabled
-                    s.contains("nousertalk"), // cannot edit talk page
-                    s.substring(c, d) // duration
+                    hasBlockFlag(item, "anononly"), // anon-only
+                    hasBlockFlag(item, "nocreate"), // account creation blocked
+                    hasBlockFlag(item, "noautoblock"), // autoblock disabled
+                    hasBlockFlag(item, "noemail"), // email disabled
+                    hasBlockFlag(item, "nousertalk"), // cannot edit talk page
+                    duration // duration
                 };
             }
         }
@@ -5402,24 +6584,15 @@ public class Wiki implements Serializable
             if (action.equals("unprotect"))
                 details = null;
             else
-            {
                 // FIXME: return a protectionstate here?
-                int a = xml.indexOf("<param>") + 7;
-                int b = xml.indexOf("</param>", a);
-                details = xml.substring(a, b);
-            }
+                details = item.has("param") ? item.get("param") : item.get("description");
         }
         else if (type.equals(USER_RENAME_LOG))
-        {
-            int a = xml.indexOf("<param>") + 7;
-            int b = xml.indexOf("</param>", a);
-            details = decode(xml.substring(a, b)); // the new username
-        }
+            details = item.has("param") ? item.get("param") : item.get("newuser"); // the new username
         else if (type.equals(USER_RIGHTS_LOG))
         {
-            int a = xml.indexOf("new=\"") + 5;
-            int b = xml.indexOf('\"', a);
-            StringTokenizer tk = new StringTokenizer(xml.substring(a, b), ", ");
+            String rights = item.has("new") ? item.get("new") : item.get("newgroups");
+            StringTokenizer tk = new StringTokenizer(rights == null ? "" : rights, ", ");
             List<String> temp = new ArrayList<>();
             while (tk.hasMoreTokens())
                 temp.add(tk.nextToken());
@@ -5433,6 +6606,20 @@ public class Wiki implements Serializable
         return le;
     }
 
+    /**
+     *  Checks whether a block has the given flag set, either as an attribute
+     *  (list=blocks) or in the comma separated <tt>flags</tt> (list=logevents).
+     *  @param item a block or block log entry
+     *  @param flag the flag to check
+     *  @return whether the flag is set
+     *  @since 0.32
+     */
+    private static boolean hasBlockFlag(ResponseItem item, String flag)
+    {
+        String flags = item.get("flags");
+        return item.has(flag) || flags != null && flags.contains(flag);
+    }
+
     /**
      *  Lists pages that start with a given prefix. Equivalent to
      *  [[Special:Prefixindex]].
@@ -5549,6 +6736,50 @@ public class Wiki implements Serializable
      */
     public String[] listPages(String prefix, Map<String, Object> protectionstate, int namespace, int minimum,
         int maximum, Boolean redirects) throws IOException
+    {
+        List<String> pages = new ArrayList<>(6667);
+        ContinuationIterator.fetchAll(listPagesSource(prefix, protectionstate, namespace, minimum, maximum, redirects), prefetcher(), pages);
+        int size = pages.size();
+        log(Level.INFO, "listPages", "Successfully retrieved page list (" + size + " pages)");
+        return pages.toArray(new String[size]);
+    }
+
+    /**
+     *  Lazily lists pages with titles containing a certain prefix with a
+     *  certain protection state and in a certain namespace. Like
+     *  <tt>listPages()</tt>, except that a page of titles is only fetched when
+     *  the stream gets to it. Network errors are thrown as
+     *  <tt>UncheckedIOException</tt>s.
+     *
+     *  @param prefix the prefix of the title. Use "" to not specify one.
+     *  @param protectionstate a {@link #protect protection state}, use null
+     *  to not specify one
+     *  @param namespace a namespace. ALL_NAMESPACES is not suppported, an
+     *  UnsupportedOperationException will be thrown.
+     *  @param minimum the minimum size in bytes these pages can be. Use -1 to
+     *  not specify one.
+     *  @param maximum the maximum size in bytes these pages can be. Use -1 to
+     *  not specify one.
+     *  @param redirects Boolean.TRUE = list redirects only, Boolean.FALSE = list
+     *  non-redirects only, null = list both
+     *  @return the specified list of pages
+     *  @throws IOException if a network error occurs while fetching namespace
+     *  names
+     *  @see #listPages(java.lang.String, java.util.Map, int, int, int, java.lang.Boolean)
+     *  @since 0.32
+     */
+    public Stream<String> listPagesStream(String prefix, Map<String, Object> protectionstate, int namespace, int minimum,
+        int maximum, Boolean redirects) throws IOException
+    {
+        return stream(new ContinuationIterator<>(listPagesSource(prefix, protectionstate, namespace, minimum, maximum, redirects), prefetcher()));
+    }
+
+    /**
+     *  Fetches pages of the page list.
+     *  @see #listPages(java.lang.String, java.util.Map, int, int, int, java.lang.Boolean)
+     */
+    private ContinuationIterator.PageSource<String> listPagesSource(String prefix, Map<String, Object> protectionstate,
+        int namespace, int minimum, int maximum, Boolean redirects) throws IOException
     {
         // @revised 0.15 to add short/long pages
         // No varargs namespace here because MW API only supports one namespace
@@ -5608,37 +6839,16 @@ public class Wiki implements Serializable
             url.append("&apfilterredir=redirects");
         else if (redirects == Boolean.FALSE)
             url.append("&apfilterredir=nonredirects");
-
-        // parse
-        List<String> pages = new ArrayList<>(6667);
-        String next = null;
-        do
+        String base = url.toString();
+        // don't continue if no max, min, prefix or protection level
+        boolean unlimited = maximum < 0 && minimum < 0 && prefix.isEmpty() && protectionstate == null;
+        return (apcontinue, page, continued) ->
         {
-            // connect and read
-            String s = url.toString();
-            if (next != null)
-                s += ("&apcontinue=" + encode(next, false));
-            String line = fetch(s, "listPages");
-
-            // don't set a continuation if no max, min, prefix or protection level
-            if (maximum < 0 && minimum < 0 && prefix.isEmpty() && protectionstate == null)
-                next = null;
-            // find next value
-            else if (line.contains("apcontinue="))
-                next = parseAttribute(line, "apcontinue", 0);
-            else
-                next = null;
-
             // xml form: <p pageid="1756320" ns="0" title="Kre'fey" />
-            for (int a = line.indexOf("<p "); a > 0; a = line.indexOf("<p ", ++a))
-                pages.add(parseAttribute(line, "title", a));
-        }
-        while (next != null);
-
-        // tidy up
-        int size = pages.size();
-        log(Level.INFO, "listPages", "Successfully retrieved page list (" + size + " pages)");
-        return pages.toArray(new String[size]);
+            String next = fetchItems(apcontinue == null ? base : base + "&apcontinue=" + encode(apcontinue, false),
+                "allpages", "apcontinue", item -> item.get("title"), page, unlimited ? null : continued, "listPages");
+            return unlimited ? null : next;
+        };
     }
 
     /**
@@ -5850,20 +7060,14 @@ public class Wiki implements Serializable
         List<Revision> revisions = new ArrayList<>(750);
         do
         {
-            String temp = url.toString();
-            String line = fetch(temp + rcstart, newpages ? "newPages" : "recentChanges");
-
-            // set continuation parameter
-            rcstart = parseAttribute(line, "rcstart", 0);
-
             // xml form <rc type="edit" ns="0" title="Main Page" ... />
-            for (int i = line.indexOf("<rc "); i > 0 && revisions.size() < amount; i = line.indexOf("<rc ", ++i))
-            {
-                int j = line.indexOf("/>", i);
-                revisions.add(parseRevision(line.substring(i, j), ""));
-            }
+            rcstart = fetchItems(url.toString() + rcstart, "recentchanges", "rcstart", item -> parseRevision(item, ""), 
+                revisions, newpages ? "newPages" : "recentChanges");
         }
-        while (revisions.size() < amount);
+        while (revisions.size() < amount && rcstart != null);
+        // the last page may contain more than the required amount
+        if (revisions.size() > amount)
+            revisions.subList(amount, revisions.size()).clear();
         int temp = revisions.size();
         log(Level.INFO, "recentChanges", "Successfully retrieved recent changes (" + temp + " revisions)");
         return revisions.toArray(new Revision[temp]);
@@ -5982,8 +7186,8 @@ public class Wiki implements Serializable
     public class User implements Cloneable, Serializable
     {
         private String username;
-        private String[] rights = null; // cache
-        private String[] groups = null; // cache
+        private volatile String[] rights = null; // cache
+        private volatile String[] groups = null; // cache
 
         /**
          *  Creates a new user object. Does not create a new user on the
@@ -6033,24 +7237,24 @@ public class Wiki implements Serializable
             String info = fetch(query + "list=users&usprop=editcount%7Cgroups%7Crights%7Cemailable%7Cblockinfo%7Cgender%7Cregistration&ususers="
                 + encode(username, false), "getUserInfo");
             Map<String, Object> ret = new HashMap<>(10);
+            int a = info.indexOf("<user ");
+            int b = info.indexOf("</user>", a);
+            ResponseItem item = new XmlAttributes(info, a, b < 0 ? info.length() : b);
 
-            ret.put("blocked", info.contains("blockedby=\""));
-            ret.put("emailable", info.contains("emailable=\""));
-            ret.put("editcount", Integer.parseInt(parseAttribute(info, "editcount", 0)));
-            ret.put("gender", Gender.valueOf(parseAttribute(info, "gender", 0)));
+            ret.put("blocked", item.has("blockedby"));
+            ret.put("emailable", item.has("emailable"));
+            ret.put("editcount", Integer.parseInt(item.get("editcount")));
+            ret.put("gender", Gender.valueOf(item.get("gender")));
 
-            String registrationdate = parseAttribute(info, "registration", 0);
+            String registrationdate = item.get("registration");
             // TODO remove check when https://phabricator.wikimedia.org/T24097 is resolved
             if (registrationdate != null && !registrationdate.isEmpty())
                 ret.put("created", timestampToCalendar(registrationdate, true));
 
             // groups
             List<String> temp = new ArrayList<>();
-            for (int x = info.indexOf("<g>"); x > 0; x = info.indexOf("<g>", ++x))
-            {
-                int y = info.indexOf("</g>", x);
-                temp.add(info.substring(x + 3, y));
-            }
+            for (ResponseItem g : item.getElements("g"))
+                temp.add(g.get("g"));
             String[] temp2 = temp.toArray(new String[temp.size()]);
             // cache
             if (this.equals(getCurrentUser()))
@@ -6059,11 +7263,8 @@ public class Wiki implements Serializable
 
             // rights
             temp.clear();
-            for (int x = info.indexOf("<r>"); x > 0; x = info.indexOf("<r>", ++x))
-            {
-                int y = info.indexOf("</r>", x);
-                temp.add(info.substring(x + 3, y));
-            }
+            for (ResponseItem r : item.getElements("r"))
+                temp.add(r.get("r"));
             temp2 = temp.toArray(new String[temp.size()]);
             // cache
             if (this.equals(getCurrentUser()))
@@ -6456,18 +7657,25 @@ public class Wiki implements Serializable
      */
     public class Revision implements Comparable<Revision>
     {
-        private boolean minor, bot, rvnew;
+        // flags
+        private static final int MINOR = 1, BOT = 2, NEW = 4, SUMMARY_DELETED = 8,
+            USER_DELETED = 16, CONTENT_DELETED = 32, PAGE_DELETED = 64;
+
+        // Histories and contribution lists run to hundreds of thousands of
+        // these, so keep them small: the timestamp is stored in epoch seconds
+        // (a Calendar is several hundred bytes on its own), booleans are
+        // packed into one int and titles/usernames are interned.
+        private int flags;
         private String summary;
         private long revid, rcid = -1;
         private long previous = 0, next = 0;
-        private Calendar timestamp;
+        private long timestamp;
         private String user;
         private String title;
         private String rollbacktoken = null;
         private int size = 0;
         private int sizediff = 0;
-        private boolean summaryDeleted = false, userDeleted = false, contentDeleted = false;
-        private boolean pageDeleted = false;
+        private String sha1 = null;
 
         /**
          *  Constructs a new Revision object.
@@ -6487,18 +7695,52 @@ public class Wiki implements Serializable
          */
         public Revision(long revid, Calendar timestamp, String title, String summary, String user,
             boolean minor, boolean bot, boolean rvnew, int size)
+        {
+            this(revid, calendarToEpoch(timestamp), title, summary, user, minor, bot, rvnew, size);
+        }
+
+        /**
+         *  Constructs a new Revision object.
+         *  @param revid the id of the revision
+         *  @param timestamp when this revision was made, in seconds since the
+         *  epoch
+         *  @param title the concerned article
+         *  @param summary the edit summary
+         *  @param user the user making this revision (may be anonymous, if not
+         *  use <tt>User.getUsername()</tt>)
+         *  @param minor whether this was a minor edit
+         *  @param bot whether this was a bot edit
+         *  @param rvnew whether this revision created a new page
+         *  @param size the size of the revision
+         *  @since 0.32
+         */
+        public Revision(long revid, long timestamp, String title, String summary, String user,
+            boolean minor, boolean bot, boolean rvnew, int size)
         {
             this.revid = revid;
             this.timestamp = timestamp;
             this.summary = summary;
-            this.minor = minor;
-            this.user = user;
-            this.title = title;
-            this.bot = bot;
-            this.rvnew = rvnew;
+            this.user = user == null ? null : user.intern();
+            this.title = title == null ? null : title.intern();
+            setFlag(MINOR, minor);
+            setFlag(BOT, bot);
+            setFlag(NEW, rvnew);
             this.size = size;
         }
 
+        private boolean getFlag(int flag)
+        {
+            return (flags & flag) != 0;
+        }
+
+        private void setFlag(int flag, boolean value)
+        {
+            if (value)
+                flags |= flag;
+            else
+                flags &= ~flag;
+        }
+
         /**
          *  Fetches the contents of this revision.
          *  @return the contents of the appropriate article at <tt>timestamp</tt>
@@ -6515,7 +7757,7 @@ public class Wiki implements Serializable
             // TODO: returning a 404 here when revision content has been deleted
             // is not a good idea.
             String temp;
-            if (pageDeleted)
+            if (isPageDeleted())
             {
                 String url = query + "prop=deletedrevisions&drvprop=content&revids=" + revid;
                 temp = fetch(url, "Revision.getText");
@@ -6527,8 +7769,21 @@ public class Wiki implements Serializable
             }
             else
             {
+                RevisionCache cache = isContentDeleted() ? null : revisioncache;
+                if (cache != null)
+                {
+                    temp = cache.get(revid, sha1);
+                    if (temp != null)
+                    {
+                        log(Level.INFO, "Revision.getText", "Retrieved text of revision " + revid + " from cache");
+                        // action=raw output ends with a new line
+                        return temp + "\n";
+                    }
+                }
                 String url = base + encode(title, true) + "&oldid=" + revid + "&action=raw";
                 temp = fetch(url, "Revision.getText");
+                if (cache != null && temp.endsWith("\n"))
+                    cache.put(revid, sha1, temp.substring(0, temp.length() - 1));
                 log(Level.INFO, "Revision.getText", "Successfully retrieved text of revision " + revid);
                 return temp;
             }
@@ -6549,7 +7804,7 @@ public class Wiki implements Serializable
                 throw new IllegalArgumentException("Log entries have no valid content!");
 
             String temp;
-            if (pageDeleted)
+            if (isPageDeleted())
             {
                 String url = query + "prop=deletedrevisions&drvprop=content&drvparse=1&revids=" + revid;
                 temp = fetch(url, "Revision.getRenderedText");
@@ -6571,7 +7826,7 @@ public class Wiki implements Serializable
          */
         public boolean isContentDeleted()
         {
-            return contentDeleted;
+            return getFlag(CONTENT_DELETED);
         }
 
         /**
@@ -6629,7 +7884,7 @@ public class Wiki implements Serializable
          */
         protected String diff(long oldid, String text) throws IOException
         {
-            if (pageDeleted)
+            if (isPageDeleted())
             {
                 StringBuilder temp = new StringBuilder("revids=");
                 if (oldid == NEXT_REVISION)
@@ -6723,7 +7978,7 @@ public class Wiki implements Serializable
          */
         public boolean isMinor()
         {
-            return minor;
+            return getFlag(MINOR);
         }
 
         /**
@@ -6733,7 +7988,7 @@ public class Wiki implements Serializable
          */
         public boolean isBot()
         {
-            return bot;
+            return getFlag(BOT);
         }
 
         /**
@@ -6748,7 +8003,7 @@ public class Wiki implements Serializable
          */
         public boolean isNew()
         {
-            return rvnew;
+            return getFlag(NEW);
         }
 
         /**
@@ -6769,7 +8024,7 @@ public class Wiki implements Serializable
          */
         public boolean isSummaryDeleted()
         {
-            return summaryDeleted;
+            return getFlag(SUMMARY_DELETED);
         }
 
         /**
@@ -6792,7 +8047,7 @@ public class Wiki implements Serializable
          */
         public boolean isUserDeleted()
         {
-            return userDeleted;
+            return getFlag(USER_DELETED);
         }
 
         /**
@@ -6802,7 +8057,7 @@ public class Wiki implements Serializable
          */
         public boolean isPageDeleted()
         {
-            return pageDeleted;
+            return getFlag(PAGE_DELETED);
         }
 
         /**
@@ -6827,11 +8082,22 @@ public class Wiki implements Serializable
         }
 
         /**
-         *  Gets the time that this revision was made.
+         *  Gets the time that this revision was made. A new Calendar is made
+         *  for every call; use <tt>getEpochSecond()</tt> where that matters.
          *  @return the timestamp
          *  @since 0.17
          */
         public Calendar getTimestamp()
+        {
+            return epochToCalendar(timestamp);
+        }
+
+        /**
+         *  Gets the time that this revision was made.
+         *  @return the timestamp in seconds since 1970-01-01T00:00:00Z
+         *  @since 0.32
+         */
+        public long getEpochSecond()
         {
             return timestamp;
         }
@@ -6856,6 +8122,18 @@ public class Wiki implements Serializable
             return sizediff;
         }
 
+        /**
+         *  Returns the SHA-1 of the content of this revision in hexadecimal,
+         *  or null if the query that produced this revision didn't fetch it
+         *  or the content is RevisionDeleted.
+         *  @return see above
+         *  @since 0.32
+         */
+        public String getSha1()
+        {
+            return sha1;
+        }
+
         /**
          *  Returns a string representation of this revision.
          *  @return see above
@@ -6871,19 +8149,19 @@ public class Wiki implements Serializable
             sb.append("\",user=");
             sb.append(user == null ? "[hidden]" : user);
             sb.append(",userdeleted=");
-            sb.append(userDeleted);
+            sb.append(isUserDeleted());
             sb.append(",timestamp=");
-            sb.append(calendarToTimestamp(timestamp));
+            sb.append(TimestampCodec.formatCompact(timestamp));
             sb.append(",summary=\"");
             sb.append(summary == null ? "[hidden]" : summary);
             sb.append("\",summarydeleted=");
-            sb.append(summaryDeleted);
+            sb.append(isSummaryDeleted());
             sb.append(",contentDeleted=");
-            sb.append(contentDeleted);
+            sb.append(isContentDeleted());
             sb.append(",minor=");
-            sb.append(minor);
+            sb.append(isMinor());
             sb.append(",bot=");
-            sb.append(bot);
+            sb.append(isBot());
             sb.append(",size=");
             sb.append(size);
             sb.append(",rcid=");
@@ -6908,9 +8186,7 @@ public class Wiki implements Serializable
         @Override
         public int compareTo(Wiki.Revision other)
         {
-            if (timestamp.equals(other.timestamp))
-                return 0; // might not happen, but
-            return timestamp.after(other.timestamp) ? 1 : -1;
+            return Long.compare(timestamp, other.timestamp);
         }
 
         /**
@@ -7035,152 +8311,488 @@ public class Wiki implements Serializable
      */
     protected String fetch(String url, String caller) throws IOException
     {
-        String temp = "";
-        int tries = maxtries;
-        do
-        {
-            logurl(url, caller);
-            tries--;
-            try
-            {
-                // connect
-                URLConnection connection = makeConnection(url);
-                connection.setConnectTimeout(CONNECTION_CONNECT_TIMEOUT_MSEC);
-                connection.setReadTimeout(CONNECTION_READ_TIMEOUT_MSEC);
-                setCookies(connection);
-                connection.connect();
-                grabCookies(connection);
-
-                // check lag and retry
-                if (checkLag(connection))
-                    return fetch(url, caller);
-
-                // get the text
-                String line;
-                StringBuilder text = new StringBuilder(100000);
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(
-                    zipped ? new GZIPInputStream(connection.getInputStream()) : connection.getInputStream(), "UTF-8")))
-                {
-                    while ((line = in.readLine()) != null)
-                    {
-                        text.append(line);
-                        text.append("\n");
-                    }
-                }
-                temp = text.toString();
-            }
-            catch (IOException ex)
-            {
-                if (tries == 0)
-                    throw ex;
-                try
-                {
-                    Thread.sleep(10000);
-                }
-                catch (InterruptedException ignored)
-                {
-                }
-            }
-        }
-        while (temp.isEmpty());
-        if (temp.contains("<error code="))
-        {
-            // assertions
-            if ((assertion & ASSERT_BOT) == ASSERT_BOT && temp.contains("error code=\"assertbotfailed\""))
-                // assert !temp.contains("error code=\"assertbotfailed\"") : "Bot privileges missing or revoked, or session expired.";
-                throw new AssertionError("Bot privileges missing or revoked, or session expired.");
-            if ((assertion & ASSERT_USER) == ASSERT_USER && temp.contains("error code=\"assertuserfailed\""))
-                // assert !temp.contains("error code=\"assertuserfailed\"") : "Session expired.";
-                throw new AssertionError("Session expired.");
-            // Something *really* bad happened. Most of these are self-explanatory
-            // and are indicative of bugs (not necessarily in this framework) or
-            // can be avoided entirely.
-            if (!temp.matches("code=\"(rvnosuchsection)")) // list "good" errors here
-                throw new UnknownError("MW API error. Server response was: " + temp);
-        }
+        String temp = coalesce(url, () -> send(url, caller, false, () -> get(url), (response, permit) ->
+        {
+            String text = readText(response);
+            // the connection dropped before anything arrived
+            if (text.isEmpty())
+                throw new EOFException("Empty response from " + domain);
+            checkRecoverableErrors(text, caller);
+            return text;
+        }));
+        int error = temp.indexOf("<error code=");
+        if (error >= 0 && !temp.matches("code=\"(rvnosuchsection)")) // list "good" errors here
+            throw apiError(parseAttribute(temp, "code", error), temp);
         return temp;
     }
 
     /**
-     *  Does a text-only HTTP POST.
-     *  @param url the url to post to
-     *  @param text the text to post
+     *  Fetches one page of a list query and parses the given items straight
+     *  off the (possibly compressed) response stream, so the response text is
+     *  never held in memory as a whole. The results are only added to
+     *  <tt>results</tt> once the page has been read completely, which means a
+     *  request that fails halfway and is retried doesn't leave duplicates
+     *  behind. Depending on {@link #isUsingJSONResponses()}, the response is
+     *  requested as XML or JSON.
+     *
+     *  @param <T> the type of object the items are parsed into
+     *  @param url the url to fetch, starting with <tt>query</tt>
+     *  @param container the element or array that holds the items, e.g.
+     *  "revisions" for <tt>&lt;revisions&gt;&lt;rev ... /&gt;&lt;/revisions&gt;</tt>
+     *  @param continuation the name of the continuation parameter, e.g.
+     *  "rvcontinue"
+     *  @param parser turns an item into a result, returns null to skip it
+     *  @param results where to put the results
      *  @param caller the caller of this method
+     *  @return the value of the continuation parameter for the next page or
+     *  null if this is the last page
      *  @throws IOException if a network error occurs
-     *  @return the server response
-     *  @see #multipartPost(java.lang.String, java.util.Map, java.lang.String)
-     *  @since 0.24
+     *  @throws AssertionError if assert=user|bot fails
+     *  @see #fetch(java.lang.String, java.lang.String)
+     *  @since 0.32
      */
-    protected String post(String url, String text, String caller) throws IOException
+    protected <T> String fetchItems(String url, String container, String continuation,
+        Function<ResponseItem, T> parser, Collection<? super T> results, String caller) throws IOException
     {
-        String temp = "";
-        int tries = maxtries;
-        do
-        {
-            logurl(url, caller);
-            tries--;
-            try
+        return fetchItems(url, container, continuation, parser, results, null, caller);
+    }
+
+    /**
+     *  Fetches a page of a list query like {@link #fetchItems(java.lang.String,
+     *  java.lang.String, java.lang.String, java.util.function.Function,
+     *  java.util.Collection, java.lang.String)}, and reports the value of the
+     *  continuation parameter as soon as it has been read, i.e. usually before
+     *  the items have been parsed. This is what allows the next page to be
+     *  requested while this one is still being parsed.
+     *
+     *  @param <T> the type of object the items are parsed into
+     *  @param url the query URL, including any continuation parameter
+     *  @param container the name of the element that holds the items
+     *  @param continuation the name of the continuation parameter
+     *  @param parser turns an item into a result, returns null to skip it
+     *  @param results where to put the results
+     *  @param continued gets the value of the continuation parameter, may be
+     *  null. Not called if this is the last page.
+     *  @param caller the caller of this method
+     *  @return the value of the continuation parameter for the next page or
+     *  null if this is the last page
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    private <T> String fetchItems(String url, String container, String continuation, Function<ResponseItem, T> parser,
+        Collection<? super T> results, Consumer<String> continued, String caller) throws IOException
+    {
+        boolean json = jsonresponses;
+        if (json)
+            url = url.replace("format=xml", "format=json&formatversion=2");
+        String request = url, key = "items\n" + request;
+        List<T> items = new ArrayList<>();
+        String[] next = new String[1];
+        boolean[] sent = new boolean[1];
+        // Identical requests are handed the response text and parse it
+        // themselves, so no two callers ever get the same (mutable) objects.
+        SingleFlight.Work<byte[]> read = () ->
+        {
+            sent[0] = true;
+            return send(request, caller, false, () -> get(request), (response, permit) ->
             {
-                URLConnection connection = makeConnection(url);
-                setCookies(connection);
-                connection.setDoOutput(true);
-                connection.setConnectTimeout(CONNECTION_CONNECT_TIMEOUT_MSEC);
-                connection.setReadTimeout(CONNECTION_READ_TIMEOUT_MSEC);
-                connection.connect();
-
-                try (OutputStreamWriter out = new OutputStreamWriter(connection.getOutputStream(), "UTF-8"))
+                items.clear();
+                // the response is only held in memory if someone can use it
+                if (!keepResponse(key))
                 {
-                    out.write(text);
+                    next[0] = readPage(getBody(response), json, container, continuation, parser, items, continued, caller);
+                    return null;
                 }
-                // check lag and retry
-                if (checkLag(connection))
-                    return post(url, text, caller);
+                ByteArrayOutputStream copy = new ByteArrayOutputStream(16384);
+                InputStream in = new CopyingInputStream(getBody(response), copy);
+                next[0] = readPage(in, json, container, continuation, parser, items, continued, caller);
+                in.close();
+                return copy.toByteArray();
+            });
+        };
+        byte[] body = coalesce(key, read);
+        // someone else read the page...
+        if (!sent[0])
+        {
+            // ...but we joined too late for them to keep it
+            if (body == null)
+                read.run();
+            else
+                next[0] = readPage(new ByteArrayInputStream(body), json, container, continuation, parser, items,
+                    continued, caller);
+        }
+        results.addAll(items);
+        return next[0];
+    }
+
+    /**
+     *  Parses a page of a list query.
+     *  @param <T> the type of object the items are parsed into
+     *  @param in the decompressed response body
+     *  @param json whether the response is JSON (or XML)
+     *  @param container the element or array that holds the items
+     *  @param continuation the name of the continuation parameter
+     *  @param parser turns an item into a result, returns null to skip it
+     *  @param page where to put the results
+     *  @param continued gets the value of the continuation parameter as soon
+     *  as it is read, may be null
+     *  @param caller the caller of the request
+     *  @return the value of the continuation parameter or null if not present
+     *  @throws IOException if a network error occurs or the response is
+     *  malformed
+     *  @throws HttpRetryException if the server is busy or read only
+     *  @since 0.32
+     */
+    private <T> String readPage(InputStream in, boolean json, String container, String continuation,
+        Function<ResponseItem, T> parser, List<T> page, Consumer<String> continued, String caller) throws IOException
+    {
+        if (!json)
+            return readItems(in, container, continuation, parser, page, continued, caller);
+        JsonItemReader reader = new JsonItemReader(in, container, continuation);
+        String next = reader.read(parser, page, continued);
+        String code = reader.getErrorCode();
+        if (code != null)
+        {
+            HttpRetryException recoverable = recoverableError(code, caller);
+            if (recoverable != null)
+                throw recoverable;
+            throw apiError(code, code + ": " + reader.getErrorInfo());
+        }
+        return next;
+    }
 
-                grabCookies(connection);
-                StringBuilder buffer = new StringBuilder(100000);
-                String line;
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(
-                    zipped ? new GZIPInputStream(connection.getInputStream()) : connection.getInputStream(), "UTF-8")))
+    /**
+     *  Wraps a stream so that everything read from it is also written to
+     *  <tt>copy</tt>. Closing the wrapped stream reads the rest of it first,
+     *  so that the copy is complete even if the parser stopped early.
+     *  @since 0.32
+     */
+    private static final class CopyingInputStream extends FilterInputStream
+    {
+        private final OutputStream copy;
+        private boolean closed = false;
+
+        /**
+         *  Wraps a stream.
+         *  @param in the stream to read
+         *  @param copy gets a copy of what is read
+         */
+        private CopyingInputStream(InputStream in, OutputStream copy)
+        {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+                return;
+            closed = true;
+            try
+            {
+                byte[] buffer = new byte[4096];
+                while (read(buffer) != -1)
+                    ;
+            }
+            finally
+            {
+                super.close();
+            }
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int c = super.read();
+            if (c >= 0)
+                copy.write(c);
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int read = super.read(b, off, len);
+            if (read > 0)
+                copy.write(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            return Math.max(read(new byte[(int)Math.min(n, 4096)]), 0);
+        }
+    }
+
+    /**
+     *  Sends a read request. Requests with URLs too long for a GET request
+     *  (e.g. 500 titles) are sent as POST requests with the same parameters,
+     *  which the API treats the same.
+     *  @param url the URL of the request
+     *  @return the response
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    private WikiTransport.Response get(String url) throws IOException
+    {
+        int params = url.indexOf('?');
+        if (url.length() <= URL_LENGTH_LIMIT || params < 0)
+            return transport.get(url, requestHeaders());
+        return transport.post(url.substring(0, params), requestHeaders(), "application/x-www-form-urlencoded",
+            url.substring(params + 1).getBytes("UTF-8"));
+    }
+
+    /**
+     *  Sends a read request unless an identical one is in flight, see {@link
+     *  #setCoalescingWindow(int)}. Requests only count as identical if they
+     *  are made by the same user.
+     *  @param <T> the type of the result
+     *  @param key identifies the request
+     *  @param request sends the request and reads the response
+     *  @return the result of this request or the identical one
+     *  @throws IOException if this request or the identical one failed
+     *  @since 0.32
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T coalesce(String key, SingleFlight.Work<T> request) throws IOException
+    {
+        if (coalescingwindow < 0)
+            return request.run();
+        return (T)coalescer.execute(coalescingKey(key), request::run);
+    }
+
+    /**
+     *  Decides whether the response to a coalesced read request should be
+     *  kept for others, which is the case if identical requests are waiting
+     *  for it or it is handed out for a while afterwards.
+     *  @param key identifies the request
+     *  @return (see above)
+     *  @see #coalesce(java.lang.String, org.wikipedia.SingleFlight.Work)
+     *  @since 0.32
+     */
+    private boolean keepResponse(String key)
+    {
+        int window = coalescingwindow;
+        return window > 0 || window == 0 && coalescer.hasWaiters(coalescingKey(key));
+    }
+
+    private String coalescingKey(String key)
+    {
+        User us = user;
+        return (us == null ? "" : us.getUsername()) + "\n" + key;
+    }
+
+    /**
+     *  Returns where list queries request pages ahead.
+     *  @return (see above) or null if pages should be requested one after
+     *  the other
+     *  @see #setPrefetching(boolean)
+     */
+    private Executor prefetcher()
+    {
+        return prefetch ? ContinuationIterator.PREFETCH : null;
+    }
+
+    /**
+     *  Wraps the results of a lazily evaluated list query in a sequential
+     *  stream.
+     *  @param <T> the type of the results
+     *  @param results an iterator over the results
+     *  @return (see above)
+     *  @since 0.32
+     */
+    private static <T> Stream<T> stream(Iterator<T> results)
+    {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results,
+            Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     *  Pull-parses a list query response in XML format. The items are the
+     *  children of the container element, which may be nested arbitrarily
+     *  deep (e.g. <tt>&lt;page&gt;&lt;revisions&gt;&lt;rev&gt;</tt>).
+     *
+     *  @param <T> the type of object the items are parsed into
+     *  @param in the decompressed response body
+     *  @param container the name of the element that holds the items
+     *  @param continuation the name of the continuation parameter
+     *  @param parser turns an item into a result, returns null to skip it
+     *  @param page where to put the results
+     *  @param continued gets the value of the continuation parameter as soon
+     *  as it is read, may be null
+     *  @param caller the caller of the request
+     *  @return the value of the continuation parameter or null if not present
+     *  @throws IOException if a network error occurs or the response is
+     *  malformed
+     *  @throws HttpRetryException if the server is busy or read only
+     *  @since 0.32
+     */
+    private <T> String readItems(InputStream in, String container, String continuation,
+        Function<ResponseItem, T> parser, List<T> page, Consumer<String> continued, String caller) throws IOException
+    {
+        String next = null;
+        ElementItem item = new ElementItem();
+        boolean incontainer = false, initem = false, incontinue = false;
+        try
+        {
+            XMLStreamReader reader = XML_INPUT.get().createXMLStreamReader(in, "UTF-8");
+            try
+            {
+                while (reader.hasNext())
                 {
-                    while ((line = in.readLine()) != null)
+                    switch (reader.next())
                     {
-                        buffer.append(line);
-                        buffer.append("\n");
+                        case XMLStreamConstants.START_ELEMENT:
+                            String name = reader.getLocalName();
+                            if (initem)
+                            {
+                                // fold nested elements into the current item
+                                item.startElement(name);
+                                addAttributes(reader, item);
+                            }
+                            else if (incontainer)
+                            {
+                                initem = true;
+                                item.clear(name);
+                                addAttributes(reader, item);
+                            }
+                            else if (name.equals("error"))
+                            {
+                                String code = reader.getAttributeValue(null, "code");
+                                HttpRetryException recoverable = recoverableError(code, caller);
+                                if (recoverable != null)
+                                    throw recoverable;
+                                throw apiError(code, code + ": " + reader.getAttributeValue(null, "info"));
+                            }
+                            else if (incontinue || name.equals("query-continue") || name.equals("continue"))
+                            {
+                                incontinue = true;
+                                String value = continuation == null ? null : reader.getAttributeValue(null, continuation);
+                                if (value != null)
+                                {
+                                    next = value;
+                                    if (continued != null)
+                                        continued.accept(value);
+                                }
+                            }
+                            else if (name.equals(container))
+                                incontainer = true;
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                            if (initem)
+                                item.text(reader.getText());
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            if (initem && item.depth() > 0)
+                                item.endElement();
+                            else if (initem)
+                            {
+                                initem = false;
+                                T result = parser.apply(item);
+                                if (result != null)
+                                    page.add(result);
+                            }
+                            else if (incontainer)
+                                incontainer = false;
+                            else if (incontinue)
+                            {
+                                String end = reader.getLocalName();
+                                incontinue = !end.equals("query-continue") && !end.equals("continue");
+                            }
+                            break;
                     }
                 }
-                temp = buffer.toString();
-                
-                // check for recoverable errors
-                
-                // rate limit (though might be a long one e.g. email)
-                if (temp.contains("error code=\"ratelimited\""))
-                {
-                    log(Level.WARNING, caller, "Server-side throttle hit.");
-                    throw new HttpRetryException("Action throttled.", 503);
-                }
-                // database lock
-                if (temp.contains("error code=\"readonly\""))
-                {
-                    log(Level.WARNING, caller, "Database locked!");
-                    throw new HttpRetryException("Database locked!", 503);
-                }
-                return temp;
             }
-            catch (IOException ex)
+            finally
             {
-                if (tries == 0)
-                    throw ex;
-                try
-                {
-                    Thread.sleep(10000);
-                }
-                catch (InterruptedException ignored)
-                {
-                }
+                reader.close();
             }
         }
-        while (temp.isEmpty());
-        throw new AssertionError("Unreachable.");
+        catch (XMLStreamException ex)
+        {
+            throw new IOException("Malformed server response", ex);
+        }
+        return next;
+    }
+
+    /**
+     *  Copies the attributes of the current element to an item.
+     *  @param reader a reader positioned at a start element
+     *  @param item the item to add the attributes to
+     *  @since 0.32
+     */
+    private static void addAttributes(XMLStreamReader reader, ElementItem item)
+    {
+        for (int i = 0, count = reader.getAttributeCount(); i < count; i++)
+            item.attribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+    }
+
+    /**
+     *  Creates the exception for an API error that can't be handled.
+     *  @param code the error code
+     *  @param response the server response or error message
+     *  @return the exception to throw
+     *  @since 0.32
+     */
+    private Error apiError(String code, String response)
+    {
+        // assertions
+        if ((assertion & ASSERT_BOT) == ASSERT_BOT && "assertbotfailed".equals(code))
+            // assert !temp.contains("error code=\"assertbotfailed\"") : "Bot privileges missing or revoked, or session expired.";
+            return new AssertionError("Bot privileges missing or revoked, or session expired.");
+        if ((assertion & ASSERT_USER) == ASSERT_USER && "assertuserfailed".equals(code))
+            // assert !temp.contains("error code=\"assertuserfailed\"") : "Session expired.";
+            return new AssertionError("Session expired.");
+        // Something *really* bad happened. Most of these are self-explanatory
+        // and are indicative of bugs (not necessarily in this framework) or
+        // can be avoided entirely.
+        return new UnknownError("MW API error. Server response was: " + response);
+    }
+
+    /**
+     *  Downloads a file, e.g. an image, and saves it. Warning: This does
+     *  overwrite any file content!
+     *  @param url the url of the file
+     *  @param file where to save it
+     *  @param caller the caller of this method
+     *  @throws FileNotFoundException if the file is a directory, cannot be
+     *  created or opened
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    private void download(String url, File file, String caller) throws IOException
+    {
+        send(url, caller, false, () -> transport.get(url, requestHeaders()), (response, permit) ->
+        {
+            try (BufferedInputStream in = new BufferedInputStream(getBody(response));
+                BufferedOutputStream outStream = new BufferedOutputStream(new FileOutputStream(file)))
+            {
+                int c;
+                while ((c = in.read()) != -1)
+                    outStream.write(c);
+                outStream.flush();
+            }
+            return null;
+        });
+    }
+
+    /**
+     *  Does a text-only HTTP POST.
+     *  @param url the url to post to
+     *  @param text the text to post
+     *  @param caller the caller of this method
+     *  @throws IOException if a network error occurs
+     *  @return the server response
+     *  @see #multipartPost(java.lang.String, java.util.Map, java.lang.String)
+     *  @since 0.24
+     */
+    protected String post(String url, String text, String caller) throws IOException
+    {
+        byte[] body = text.getBytes("UTF-8");
+        return send(url, caller, true, () -> transport.post(url, requestHeaders(), "application/x-www-form-urlencoded", body),
+            (response, permit) -> readWriteResponse(response, permit, caller));
     }
 
     /**
@@ -7197,141 +8809,288 @@ public class Wiki implements Serializable
      */
     protected String multipartPost(String url, Map<String, ?> params, String caller) throws IOException
     {
-        String temp = "";
-        int tries = maxtries;
-        do
+        // write stuff to a local buffer
+        String boundary = "----------NEXT PART----------";
+        String contenttype = "multipart/form-data; boundary=" + boundary;
+        boundary = "--" + boundary + "\r\n";
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bout))
         {
-            logurl(url, caller);
-            tries--;
-            try
+            out.writeBytes(boundary);
+
+            // write params
+            for (Map.Entry<String, ?> entry : params.entrySet())
             {
-                URLConnection connection = makeConnection(url);
-                String boundary = "----------NEXT PART----------";
-                connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-                setCookies(connection);
-                connection.setDoOutput(true);
-                connection.setConnectTimeout(CONNECTION_CONNECT_TIMEOUT_MSEC);
-                connection.setReadTimeout(CONNECTION_READ_TIMEOUT_MSEC);
-                connection.connect();
-
-                // write stuff to a local buffer
-                boundary = "--" + boundary + "\r\n";
-                ByteArrayOutputStream bout = new ByteArrayOutputStream();
-                try (DataOutputStream out = new DataOutputStream(bout))
+                String name = entry.getKey();
+                Object value = entry.getValue();
+                out.writeBytes("Content-Disposition: form-data; name=\"" + name + "\"\r\n");
+                if (value instanceof String)
                 {
-                    out.writeBytes(boundary);
-
-                    // write params
-                    for (Map.Entry<String, ?> entry : params.entrySet())
-                    {
-                        String name = entry.getKey();
-                        Object value = entry.getValue();
-                        out.writeBytes("Content-Disposition: form-data; name=\"" + name + "\"\r\n");
-                        if (value instanceof String)
-                        {
-                            out.writeBytes("Content-Type: text/plain; charset=UTF-8\r\n\r\n");
-                            out.write(((String)value).getBytes("UTF-8"));
-                        }
-                        else if (value instanceof byte[])
-                        {
-                            out.writeBytes("Content-Type: application/octet-stream\r\n\r\n");
-                            out.write((byte[])value);
-                        }
-                        else
-                            throw new UnsupportedOperationException("Unrecognized data type");
-                        out.writeBytes("\r\n");
-                        out.writeBytes(boundary);
-                    }
-                    out.writeBytes("--\r\n");
+                    out.writeBytes("Content-Type: text/plain; charset=UTF-8\r\n\r\n");
+                    out.write(((String)value).getBytes("UTF-8"));
                 }
-                try (OutputStream uout = connection.getOutputStream())
+                else if (value instanceof byte[])
                 {
-                    // write the buffer to the URLConnection
-                    uout.write(bout.toByteArray());
+                    out.writeBytes("Content-Type: application/octet-stream\r\n\r\n");
+                    out.write((byte[])value);
                 }
+                else
+                    throw new UnsupportedOperationException("Unrecognized data type");
+                out.writeBytes("\r\n");
+                out.writeBytes(boundary);
+            }
+            out.writeBytes("--\r\n");
+        }
+        byte[] body = bout.toByteArray();
+        return send(url, caller, true, () -> transport.post(url, requestHeaders(), contenttype, body),
+            (response, permit) -> readWriteResponse(response, permit, caller));
+    }
 
-                // check lag and retry
-                if (checkLag(connection))
-                    return multipartPost(url, params, caller);
+    /**
+     *  Sends a request to the wiki and hands the response to <tt>handler</tt>,
+     *  retrying according to the {@link RetryPolicy}. Before each attempt this
+     *  waits for database lag to clear (see {@link LagGovernor}) and for a
+     *  free slot (see {@link ConcurrencyLimiter}). A response refused because
+     *  of lag is tried again without counting as a failed attempt. Error
+     *  statuses fail the request before the handler sees the response.
+     *
+     *  @param <T> the type of the result
+     *  @param url the url of the request, for logging
+     *  @param caller the caller of this method
+     *  @param write whether this request changes something on the wiki, and
+     *  so must not be sent again unless the server certainly didn't act on
+     *  it, see {@link RetryPolicy#isRetryableWrite(java.io.IOException)}
+     *  @param request sends the request
+     *  @param handler reads the response
+     *  @return whatever the handler returns
+     *  @throws IOException if a network error occurs and retries are
+     *  exhausted or pointless
+     *  @throws FileNotFoundException if the server returned HTTP 404 or 410
+     *  @throws HttpRetryException if the server returned any other error
+     *  status and retries are exhausted or pointless
+     *  @since 0.32
+     */
+    private <T> T send(String url, String caller, boolean write, Request request, ResponseHandler<T> handler)
+        throws IOException
+    {
+        RetryPolicy.Attempts attempts = retrypolicy.start(write);
+        while (true)
+        {
+            logurl(url, caller);
+            LagGovernor.forHost(domain).await(maxlag);
+            try (ConcurrencyLimiter.Permit permit = ConcurrencyLimiter.forHost(domain).acquire();
+                WikiTransport.Response response = request.send())
+            {
+                grabCookies(response);
 
-                // done, read the response
-                grabCookies(connection);
-                String line;
-                StringBuilder buffer = new StringBuilder(100000);
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(
-                    zipped ? new GZIPInputStream(connection.getInputStream()) : connection.getInputStream(), "UTF-8")))
-                {
-                    while ((line = in.readLine()) != null)
-                    {
-                        buffer.append(line);
-                        buffer.append("\n");
-                    }
-                }
-                temp = buffer.toString();
-                
-                // check for recoverable errors
-                
-                // rate limit (though might be a long one e.g. email)
-                if (temp.contains("error code=\"ratelimited\""))
-                {
-                    log(Level.WARNING, caller, "Server-side throttle hit.");
-                    throw new HttpRetryException("Action throttled.", 503);
-                }
-                // database lock
-                if (temp.contains("error code=\"readonly\""))
+                // check lag and retry
+                if (checkLag(response))
                 {
-                    log(Level.WARNING, caller, "Database locked!");
-                    throw new HttpRetryException("Database locked!", 503);
+                    permit.congested();
+                    continue;
                 }
-                return temp;
+                int status = response.getStatus();
+                permit.completed(status);
+                if (status == 404 || status == 410)
+                    throw new FileNotFoundException(url);
+                // RetryPolicy decides by the status whether this is worth another go
+                if (status >= 400)
+                    throw new HttpRetryException("Server returned HTTP " + status + ".", status);
+                return handler.handle(response, permit);
             }
             catch (IOException ex)
             {
-                if (tries == 0)
+                long delay = attempts.retry(ex);
+                if (delay < 0)
                     throw ex;
+                log(Level.WARNING, caller, "Retrying in " + delay + " ms after " + ex);
                 try
                 {
-                    Thread.sleep(10000);
+                    Thread.sleep(delay);
                 }
-                catch (InterruptedException ignored)
+                catch (InterruptedException ie)
                 {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry " + url);
                 }
             }
         }
-        while (temp.isEmpty());
-        throw new AssertionError("Unreachable.");
     }
-    
+
+    /**
+     *  Sends a request, see {@link #send(java.lang.String, java.lang.String,
+     *  boolean, org.wikipedia.Wiki.Request, org.wikipedia.Wiki.ResponseHandler)}.
+     */
+    @FunctionalInterface
+    private interface Request
+    {
+        WikiTransport.Response send() throws IOException;
+    }
+
+    /**
+     *  Reads a response, see {@link #send(java.lang.String, java.lang.String,
+     *  boolean, org.wikipedia.Wiki.Request, org.wikipedia.Wiki.ResponseHandler)}.
+     *  @param <T> the type of the result
+     */
+    @FunctionalInterface
+    private interface ResponseHandler<T>
+    {
+        T handle(WikiTransport.Response response, ConcurrencyLimiter.Permit permit) throws IOException;
+    }
+
+    /**
+     *  Reads the response to a write request.
+     *  @param response the response
+     *  @param permit the permit the request was sent under
+     *  @param caller the caller of the request
+     *  @return the response text
+     *  @throws IOException if a network error occurs
+     *  @throws HttpRetryException if the action was throttled or the database
+     *  is locked
+     *  @since 0.32
+     */
+    private String readWriteResponse(WikiTransport.Response response, ConcurrencyLimiter.Permit permit, String caller) throws IOException
+    {
+        String temp = readText(response);
+        if (temp.contains("error code=\"ratelimited\""))
+            permit.congested();
+        checkRecoverableErrors(temp, caller);
+        return temp;
+    }
+
+    /**
+     *  Reads the body of a response into a String, decompressing it if
+     *  necessary.
+     *  @param response a response from the transport
+     *  @return the response text
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    protected String readText(WikiTransport.Response response) throws IOException
+    {
+        String line;
+        StringBuilder text = new StringBuilder(100000);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(getBody(response), "UTF-8")))
+        {
+            while ((line = in.readLine()) != null)
+            {
+                text.append(line);
+                text.append("\n");
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     *  Returns the (decompressed) body of a response.
+     *  @param response a response from the transport
+     *  @return the body of that response
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    protected InputStream getBody(WikiTransport.Response response) throws IOException
+    {
+        InputStream in = response.getBody();
+        if ("gzip".equalsIgnoreCase(response.getHeader("Content-Encoding")))
+            in = new GZIPInputStream(in);
+        return in;
+    }
+
+    /**
+     *  Checks a response for errors that are worth retrying.
+     *  @param temp the server response
+     *  @param caller the caller of the request
+     *  @throws HttpRetryException if the action was throttled or the database
+     *  is locked
+     *  @since 0.32
+     */
+    private void checkRecoverableErrors(String temp, String caller) throws HttpRetryException
+    {
+        int error = temp.indexOf("<error code=");
+        HttpRetryException recoverable = error < 0 ? null : recoverableError(parseAttribute(temp, "code", error), caller);
+        if (recoverable != null)
+            throw recoverable;
+    }
+
     /**
-     *  Checks for database lag and sleeps if lag &gt; maxlag.
-     *  @param connection the URL connection used in the request
+     *  Turns the API errors that are worth retrying into HTTP 503, so that
+     *  the retry policy treats them like the server being busy.
+     *  @param code an API error code
+     *  @param caller the caller of the request
+     *  @return the exception to throw, or null if the error is not worth
+     *  retrying
+     *  @see RetryPolicy
+     *  @since 0.32
+     */
+    private HttpRetryException recoverableError(String code, String caller)
+    {
+        // rate limit (though might be a long one e.g. email)
+        if ("ratelimited".equals(code))
+        {
+            log(Level.WARNING, caller, "Server-side throttle hit.");
+            return new HttpRetryException("Action throttled.", 503);
+        }
+        // database lock
+        if ("readonly".equals(code))
+        {
+            log(Level.WARNING, caller, "Database locked!");
+            return new HttpRetryException("Database locked!", 503);
+        }
+        return null;
+    }
+
+    /**
+     *  Checks for database lag. If lag &gt;= maxlag, this is recorded with
+     *  the {@link LagGovernor} for this wiki's host, which holds back further
+     *  requests to that host (from this and every other <tt>Wiki</tt>)
+     *  until the server is ready for them. This method does not wait itself.
+     *  @param response the response to the request
      *  @return true if there was sufficient database lag.
      *  @since 0.32
      */
-    protected synchronized boolean checkLag(URLConnection connection)
+    protected boolean checkLag(WikiTransport.Response response)
     {
-        int lag = connection.getHeaderFieldInt("X-Database-Lag", -5);
+        int lag = parseIntHeader(response, "X-Database-Lag", -5);
         // X-Database-Lag is the current lag rounded down to the nearest integer.
         // Thus, we need to retry in case of equality.
         if (lag >= maxlag)
         {
-            try
-            {
-                int time = connection.getHeaderFieldInt("Retry-After", 10);
-                logger.log(Level.WARNING, "Current database lag {0} s exceeds maxlag of {1} s, waiting {2} s.", new Object[] { lag, maxlag, time });
-                Thread.sleep(time * 1000);
-            }
-            catch (InterruptedException ignored)
-            {
-            }
+            int time = parseIntHeader(response, "Retry-After", 10);
+            logger.log(Level.WARNING, "Current database lag {0} s exceeds maxlag of {1} s, waiting {2} s.", new Object[] { lag, maxlag, time });
+            LagGovernor.forHost(domain).lagged(lag, time);
             return true;
         }
         return false;
     }
 
+    /**
+     *  Parses an integer valued response header.
+     *  @param response a server response
+     *  @param name the name of the header
+     *  @param def the value to return if the header is absent or malformed
+     *  @return the value of the header
+     *  @since 0.32
+     */
+    private static int parseIntHeader(WikiTransport.Response response, String name, int def)
+    {
+        String value = response.getHeader(name);
+        if (value == null)
+            return def;
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            return def;
+        }
+    }
+
     /**
      *  Creates a new URL connection. Override to change SSL handling, use a
-     *  proxy, etc.
+     *  proxy, etc. Only used by the default transport; see {@link
+     *  #setTransport(org.wikipedia.WikiTransport)} to replace the HTTP client
+     *  altogether.
      *  @param url a URL string
      *  @return a connection to that URL
      *  @throws IOException if a network error occurs
@@ -7342,6 +9101,24 @@ public class Wiki implements Serializable
         return new URL(url).openConnection();
     }
 
+    /**
+     *  Creates the default transport, which reuses keep-alive connections and
+     *  delegates connection creation to {@link #makeConnection(String)}.
+     *  @return (see above)
+     *  @since 0.32
+     */
+    private WikiTransport defaultTransport()
+    {
+        return new URLConnectionTransport(CONNECTION_CONNECT_TIMEOUT_MSEC, CONNECTION_READ_TIMEOUT_MSEC)
+        {
+            @Override
+            protected URLConnection openConnection(String url) throws IOException
+            {
+                return makeConnection(url);
+            }
+        };
+    }
+
     /**
      *  Checks for errors from standard read/write requests and performs
      *  occasional status checks.
@@ -7359,7 +9136,7 @@ public class Wiki implements Serializable
     protected void checkErrorsAndUpdateStatus(String line, String caller) throws IOException, LoginException
     {
         // perform various status checks every 100 or so edits
-        if (statuscounter > statusinterval)
+        if (statuscounter.getAndIncrement() > statusinterval)
         {
             // purge user rights in case of desysop or loss of other priviliges
             user.getUserInfo();
@@ -7370,10 +9147,8 @@ public class Wiki implements Serializable
             if ((assertion & ASSERT_NO_MESSAGES) == ASSERT_NO_MESSAGES && hasNewMessages())
                 // assert !hasNewMessages() : "User has new messages";
                 throw new AssertionError("User has new messages");
-            statuscounter = 0;
+            statuscounter.set(0);
         }
-        else
-            statuscounter++;
 
         // successful
         if (line.contains("result=\"Success\""))
@@ -7415,6 +9190,9 @@ public class Wiki implements Serializable
      */
     protected String decode(String in)
     {
+        // nothing to do, which is the usual case
+        if (in.indexOf('&') < 0)
+            return in;
         // Remove entity references. Oddly enough, URLDecoder doesn't nuke these.
         in = in.replace("&lt;", "<").replace("&gt;", ">"); // html tags
         in = in.replace("&quot;", "\"");
@@ -7434,15 +9212,18 @@ public class Wiki implements Serializable
      */
     protected String parseAttribute(String xml, String attribute, int index)
     {
-        // let's hope the JVM always inlines this
-        if (xml.contains(attribute + "=\""))
+        // single pass from index, no concatenated search key
+        int length = attribute.length();
+        for (int a = xml.indexOf(attribute, index); a >= 0; a = xml.indexOf(attribute, a + length))
         {
-            int a = xml.indexOf(attribute + "=\"", index) + attribute.length() + 2;
-            int b = xml.indexOf('\"', a);
-            return decode(xml.substring(a, b));
+            int b = a + length;
+            if (xml.startsWith("=\"", b))
+            {
+                b += 2;
+                return decode(xml.substring(b, xml.indexOf('\"', b)));
+            }
         }
-        else
-            return null;
+        return null;
     }
 
     /**
@@ -7475,45 +9256,74 @@ public class Wiki implements Serializable
     }
     
     /**
-     *  Cuts up a list of revisions into batches for prop=X&ids=Y type queries.
+     *  Cuts up a list of revisions into batches for prop=X&ids=Y type
+     *  queries, each as large as the server allows (see {@link
+     *  #getSlowMax()}).
      *  @param ids a list of revision IDs
      *  @return the revisions ready for insertion into a URL
+     *  @throws IOException if a network error occurs
      *  @since 0.32
      */
-    protected String[] constructRevisionString(long[] ids)
+    protected String[] constructRevisionString(long[] ids) throws IOException
     {
-        // copy ids to preserve order 
+        ensureLimits();
+        int batch = slowmax;
+        // sort a copy to preserve the order of the input and remove duplicates
         long[] sortedids = Arrays.copyOf(ids, ids.length);
-        long previous = -1;
-        
+        Arrays.sort(sortedids);
+
         StringBuilder buffer = new StringBuilder();
         ArrayList<String> chunks = new ArrayList<>();
+        int count = 0;
         for (int i = 0; i < sortedids.length; i++)
         {
-            // remove duplicates
-            if (sortedids[i] != previous)
-                buffer.append(sortedids[i]);
-            if (i == ids.length - 1 || i == slowmax - 1)
+            if (i > 0 && sortedids[i] == sortedids[i - 1])
+                continue;
+            if (count > 0)
+                buffer.append("%7C");
+            buffer.append(sortedids[i]);
+            if (++count == batch)
             {
                 chunks.add(buffer.toString());
                 buffer.setLength(0);
+                count = 0;
             }
-            else
-                buffer.append("%7C");
         }
+        if (count > 0)
+            chunks.add(buffer.toString());
         return chunks.toArray(new String[chunks.size()]);
     }
 
     /**
      *  Cuts up a list of titles into batches for prop=X&amp;titles=Y type queries.
      *  @param titles a list of titles.
-     *  @param limit whether to apply the maximum URL size
+     *  @param limit ignored, long requests are sent as POST requests
      *  @return the titles ready for insertion into a URL
      *  @throws IOException if a network error occurs
      *  @since 0.29
+     *  @deprecated use constructTitleString(String[])
      */
+    @Deprecated
     protected String[] constructTitleString(String[] titles, boolean limit) throws IOException
     {
+        return constructTitleString(titles);
+    }
+
+    /**
+     *  Cuts up a list of titles into batches for prop=X&amp;titles=Y type
+     *  queries, each as large as the server allows (see {@link
+     *  #getSlowMax()}). Don't worry about the length of the resulting URLs,
+     *  {@link #fetch(java.lang.String, java.lang.String)} sends long requests
+     *  as POST requests.
+     *  @param titles a list of titles.
+     *  @return the titles ready for insertion into a URL
+     *  @throws IOException if a network error occurs
+     *  @since 0.32
+     */
+    protected String[] constructTitleString(String[] titles) throws IOException
+    {
+        ensureLimits();
+        int batch = slowmax;
         // sort and remove duplicates per [[mw:API]]
         Set<String> blah = new TreeSet<>();
         for (String title : titles)
@@ -7526,8 +9336,7 @@ public class Wiki implements Serializable
         for (int i = 0; i < temp.length; i++)
         {
             buffer.append(temp[i]);
-            if (i == temp.length - 1 || (i % slowmax == slowmax - 1) 
-                || (limit && buffer.length() > URL_LENGTH_LIMIT))
+            if (i == temp.length - 1 || i % batch == batch - 1)
             {
                 ret.add(encode(buffer.toString(), false));
                 buffer.setLength(0);
@@ -7535,13 +9344,6 @@ public class Wiki implements Serializable
             else
                 buffer.append("|");
         }
-        // JDK 1.8:
-        // StringJoiner sj = new StringJoiner("|");
-        // for (int i = 0; i < temp.length; i++)
-        // {
-        //     sj.add(normalize(temp[i]));
-        //     statement of if above, removing else
-        // }
         return ret.toArray(new String[ret.size()]);
     }
 
@@ -7626,21 +9428,16 @@ public class Wiki implements Serializable
 
     /**
      *  Ensures no less than <tt>throttle</tt> milliseconds pass between edits
-     *  and other write actions.
+     *  and other write actions by this account, apart from bursts of up to
+     *  <tt>throttleburst</tt> actions. No lock is held while waiting, so
+     *  reads carry on regardless.
+     *  @throws InterruptedIOException if interrupted while waiting
      *  @since 0.30
      */
-    private synchronized void throttle()
+    private void throttle() throws InterruptedIOException
     {
-        try
-        {
-            long time = throttle - System.currentTimeMillis() + lastThrottleActionTime;
-            if (time > 0)
-                Thread.sleep(time);
-        }
-        catch (InterruptedException ignored)
-        {
-        }
-        this.lastThrottleActionTime = System.currentTimeMillis();
+        User current = user;
+        WriteThrottle.forAccount(domain, current == null ? null : current.getUsername()).acquire(throttle, getThrottleBurst());
     }
 
     // user rights methods
@@ -7677,9 +9474,32 @@ public class Wiki implements Serializable
      *  Sets cookies to an unconnected URLConnection and enables gzip
      *  compression of returned text.
      *  @param u an unconnected URLConnection
+     *  @deprecated requests no longer go through <tt>URLConnection</tt>s
+     *  made by this class, so overriding this method has no effect. Use
+     *  {@link #requestHeaders()} or a custom {@link WikiTransport} instead.
      */
+    @Deprecated
     protected void setCookies(URLConnection u)
     {
+        for (Map.Entry<String, String> header : requestHeaders().entrySet())
+            u.setRequestProperty(header.getKey(), header.getValue());
+    }
+
+    /**
+     *  Returns the headers sent with every request: cookies, gzip compression
+     *  of returned text and the user agent. These are only assembled again
+     *  when the cookies or settings change.
+     *  @return an unmodifiable map of request headers
+     *  @since 0.32
+     */
+    protected Map<String, String> requestHeaders()
+    {
+        // read the generation before the cookies, so that headers built
+        // while the cookies change are never mistaken for current ones
+        int generation = cookiegeneration.get();
+        RequestHeaders cached = requestheaders;
+        if (cached != null && cached.generation == generation)
+            return cached.headers;
         StringBuilder cookie = new StringBuilder(100);
         for (Map.Entry<String, String> entry : cookies.entrySet())
         {
@@ -7688,33 +9508,62 @@ public class Wiki implements Serializable
             cookie.append(entry.getValue());
             cookie.append("; ");
         }
-        u.setRequestProperty("Cookie", cookie.toString());
+        Map<String, String> headers = new HashMap<>(6);
+        headers.put("Cookie", cookie.toString());
 
         // enable gzip compression
         if (zipped)
-            u.setRequestProperty("Accept-encoding", "gzip");
-        u.setRequestProperty("User-Agent", useragent);
+            headers.put("Accept-encoding", "gzip");
+        headers.put("User-Agent", useragent);
+        headers = Collections.unmodifiableMap(headers);
+        requestheaders = new RequestHeaders(generation, headers);
+        return headers;
     }
 
     /**
-     *  Grabs cookies from the URL connection provided.
-     *  @param u an unconnected URLConnection
+     *  Makes the next request assemble the request headers again.
+     *  @since 0.32
      */
-    private void grabCookies(URLConnection u)
+    private void invalidateRequestHeaders()
     {
-        String headerName;
-        for (int i = 1; (headerName = u.getHeaderFieldKey(i)) != null; i++)
-            if (headerName.equals("Set-Cookie"))
-            {
-                String cookie = u.getHeaderField(i);
-                cookie = cookie.substring(0, cookie.indexOf(';'));
-                String name = cookie.substring(0, cookie.indexOf('='));
-                String value = cookie.substring(cookie.indexOf('=') + 1, cookie.length());
-                // these cookies were pruned, but are still sent for some reason?
-                // TODO: when these cookies are no longer sent, remove this test
-                if (!value.equals("deleted"))
-                    cookies.put(name, value);
-            }
+        cookiegeneration.incrementAndGet();
+    }
+
+    /**
+     *  Request headers along with the cookie generation they were built
+     *  from.
+     *  @since 0.32
+     */
+    private static class RequestHeaders
+    {
+        private final int generation;
+        private final Map<String, String> headers;
+
+        private RequestHeaders(int generation, Map<String, String> headers)
+        {
+            this.generation = generation;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     *  Grabs cookies from the response provided.
+     *  @param response a server response
+     */
+    private void grabCookies(WikiTransport.Response response)
+    {
+        for (String cookie : response.getHeaders("Set-Cookie"))
+        {
+            int semicolon = cookie.indexOf(';');
+            if (semicolon >= 0)
+                cookie = cookie.substring(0, semicolon);
+            String name = cookie.substring(0, cookie.indexOf('='));
+            String value = cookie.substring(cookie.indexOf('=') + 1, cookie.length());
+            // these cookies were pruned, but are still sent for some reason?
+            // TODO: when these cookies are no longer sent, remove this test
+            if (!value.equals("deleted") && !value.equals(cookies.put(name, value)))
+                invalidateRequestHeaders();
+        }
     }
 
     // logging methods
@@ -7764,8 +9613,7 @@ public class Wiki implements Serializable
      */
     protected String calendarToTimestamp(Calendar c)
     {
-        return String.format("%04d%02d%02d%02d%02d%02d", c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1,
-            c.get(Calendar.DAY_OF_MONTH), c.get(Calendar.HOUR_OF_DAY), c.get(Calendar.MINUTE), c.get(Calendar.SECOND));
+        return TimestampCodec.formatCompact(calendarToEpoch(c));
     }
 
     /**
@@ -7780,20 +9628,58 @@ public class Wiki implements Serializable
      */
     protected final Calendar timestampToCalendar(String timestamp, boolean api)
     {
-        // TODO: move to Java 1.8
+        return epochToCalendar(api ? TimestampCodec.parseIso(timestamp) : TimestampCodec.parseCompact(timestamp));
+    }
+
+    /**
+     *  Turns a timestamp of the form used by the API (yyyy-mm-ddThh:mm:ssZ)
+     *  into seconds since the epoch.
+     *
+     *  @param timestamp the timestamp to convert
+     *  @return the converted timestamp
+     *  @see #epochToCalendar
+     *  @since 0.32
+     */
+    protected final long timestampToEpoch(String timestamp)
+    {
+        return TimestampCodec.parseIso(timestamp);
+    }
+
+    /**
+     *  Turns seconds since the epoch into a Calendar object with the same
+     *  fields as <tt>timestampToCalendar()</tt> would give for the
+     *  corresponding API timestamp.
+     *
+     *  @param epoch the timestamp to convert
+     *  @return the converted Calendar
+     *  @see #calendarToEpoch
+     *  @since 0.32
+     */
+    protected final Calendar epochToCalendar(long epoch)
+    {
+        int[] fields = new int[6];
+        TimestampCodec.toFields(epoch, fields);
         Calendar calendar = makeCalendar();
-        if (api)
-            timestamp = convertTimestamp(timestamp);
-        int year = Integer.parseInt(timestamp.substring(0, 4));
-        int month = Integer.parseInt(timestamp.substring(4, 6)) - 1; // January == 0!
-        int day = Integer.parseInt(timestamp.substring(6, 8));
-        int hour = Integer.parseInt(timestamp.substring(8, 10));
-        int minute = Integer.parseInt(timestamp.substring(10, 12));
-        int second = Integer.parseInt(timestamp.substring(12, 14));
-        calendar.set(year, month, day, hour, minute, second);
+        calendar.set(fields[0], fields[1] - 1, fields[2], fields[3], fields[4], fields[5]); // January == 0!
+        calendar.set(Calendar.MILLISECOND, 0);
         return calendar;
     }
 
+    /**
+     *  Turns a Calendar object into seconds since the epoch. The inverse of
+     *  <tt>epochToCalendar()</tt>.
+     *
+     *  @param c the calendar to convert
+     *  @return the converted calendar
+     *  @see #epochToCalendar
+     *  @since 0.32
+     */
+    protected final long calendarToEpoch(Calendar c)
+    {
+        return TimestampCodec.toEpoch(c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1, c.get(Calendar.DAY_OF_MONTH),
+            c.get(Calendar.HOUR_OF_DAY), c.get(Calendar.MINUTE), c.get(Calendar.SECOND));
+    }
+
     /**
      *  Converts a timestamp of the form used by the API (yyyy-mm-ddThh:mm:ssZ)
      *  to the form yyyymmddhhmmss.
@@ -7805,14 +9691,7 @@ public class Wiki implements Serializable
      */
     protected String convertTimestamp(String timestamp)
     {
-        // TODO: remove this once Java 1.8 comes around
-        StringBuilder ts = new StringBuilder(timestamp.substring(0, 4));
-        ts.append(timestamp.substring(5, 7));
-        ts.append(timestamp.substring(8, 10));
-        ts.append(timestamp.substring(11, 13));
-        ts.append(timestamp.substring(14, 16));
-        ts.append(timestamp.substring(17, 19));
-        return ts.toString();
+        return TimestampCodec.isoToCompact(timestamp);
     }
 
     // serialization
@@ -7838,6 +9717,11 @@ public class Wiki implements Serializable
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
     {
         in.defaultReadObject();
-        statuscounter = statusinterval; // force a status check on next edit
+        transport = defaultTransport();
+        cookiegeneration = new AtomicInteger();
+        statuscounter = new AtomicInteger(statusinterval); // force a status check on next edit
+        coalescer = new SingleFlight<>();
+        coalescer.setWindow(coalescingwindow);
+        initBatchLoaders();
     }
 }
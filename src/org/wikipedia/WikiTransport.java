@@ -0,0 +1,104 @@
+/**
+ *  @(#)WikiTransport.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Sends HTTP requests on behalf of a {@link Wiki}. All network traffic of
+ *  <tt>fetch()</tt>, <tt>post()</tt> and <tt>multipartPost()</tt> goes
+ *  through an instance of this interface, so it is the place to plug in a
+ *  different HTTP client (HTTP/2, a proxy, a test stub, etc.). Cookies,
+ *  compression and the user agent are decided by the <tt>Wiki</tt> and passed
+ *  in as ready-made request headers.
+ *
+ *  <p>
+ *  Implementations should reuse connections to the same host wherever
+ *  possible and must be safe for use by multiple threads.
+ *
+ *  @see Wiki#setTransport(org.wikipedia.WikiTransport)
+ *  @see URLConnectionTransport
+ *  @author MER-C
+ *  @since 0.32
+ */
+public interface WikiTransport
+{
+    /**
+     *  Performs a HTTP GET request.
+     *  @param url the url to fetch
+     *  @param headers the request headers to send
+     *  @return the response, which must be closed after use
+     *  @throws IOException if a network error occurs
+     */
+    Response get(String url, Map<String, String> headers) throws IOException;
+
+    /**
+     *  Performs a HTTP POST request.
+     *  @param url the url to post to
+     *  @param headers the request headers to send
+     *  @param contenttype the MIME type of <tt>body</tt>
+     *  @param body the request body
+     *  @return the response, which must be closed after use
+     *  @throws IOException if a network error occurs
+     */
+    Response post(String url, Map<String, String> headers, String contenttype, byte[] body) throws IOException;
+
+    /**
+     *  A response from the server. Closing the response hands the underlying
+     *  connection back for reuse, so always close it (try-with-resources
+     *  works).
+     */
+    interface Response extends Closeable
+    {
+        /**
+         *  Returns the HTTP status code of this response, or 200 for
+         *  protocols that don't have one (e.g. <tt>file://</tt>).
+         *  @return (see above)
+         *  @throws IOException if a network error occurs
+         */
+        int getStatus() throws IOException;
+
+        /**
+         *  Returns the (last) value of the given response header.
+         *  @param name a header name, case insensitive
+         *  @return the value of that header, or null if not present
+         */
+        String getHeader(String name);
+
+        /**
+         *  Returns all values of the given response header, e.g. for
+         *  Set-Cookie.
+         *  @param name a header name, case insensitive
+         *  @return the values of that header, possibly empty
+         */
+        List<String> getHeaders(String name);
+
+        /**
+         *  Returns the response body as sent by the server, i.e. still
+         *  compressed if Content-Encoding says so.
+         *  @return the response body
+         *  @throws IOException if a network error occurs or the server
+         *  returned an error status
+         */
+        InputStream getBody() throws IOException;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ *  @(#)WriteThrottle.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  A token bucket for write actions (edits, moves, deletions, ...), one per
+ *  account and host so that every {@link Wiki} logged in to the same account
+ *  shares it. Up to <tt>burst</tt> actions may go through back to back,
+ *  after which actions are spaced <tt>interval</tt> apart; idle time earns
+ *  the burst back at the same rate.
+ *
+ *  <p>
+ *  The bucket is kept as the single time at which it will next be full
+ *  (the generic cell rate algorithm), so taking a token is one
+ *  compare-and-set. A thread that has to wait reserves its slot first and
+ *  then sleeps without holding any lock.
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+final class WriteThrottle
+{
+    private static final ConcurrentHashMap<String, WriteThrottle> throttles = new ConcurrentHashMap<>();
+
+    // when the bucket would be full again if no more tokens were taken,
+    // in milliseconds on the System.nanoTime() clock
+    private final AtomicLong full = new AtomicLong(Long.MIN_VALUE);
+
+    private WriteThrottle()
+    {
+    }
+
+    /**
+     *  Returns the throttle for the given account.
+     *  @param domain the domain of the wiki
+     *  @param username the account, or null if not logged in
+     *  @return (see above)
+     */
+    static WriteThrottle forAccount(String domain, String username)
+    {
+        String key = username == null ? domain : username + "@" + domain;
+        return throttles.computeIfAbsent(key, k -> new WriteThrottle());
+    }
+
+    /**
+     *  Takes a token, waiting until one is available.
+     *  @param interval the time it takes to earn a token in milliseconds
+     *  @param burst the number of tokens the bucket holds
+     *  @throws InterruptedIOException if interrupted while waiting
+     */
+    void acquire(long interval, int burst) throws InterruptedIOException
+    {
+        if (interval <= 0)
+            return;
+        burst = Math.max(burst, 1);
+        long now, wait;
+        while (true)
+        {
+            now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            long current = full.get();
+            long next = Math.max(current, now) + interval;
+            // the token is there once the bucket is less than full by burst
+            wait = next - burst * interval - now;
+            if (full.compareAndSet(current, next))
+                break;
+        }
+        if (wait <= 0)
+            return;
+        try
+        {
+            Thread.sleep(wait);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write throttle");
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ *  @(#)XmlAttributes.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.util.*;
+
+/**
+ *  A {@link ResponseItem} over an element of an XML response that has already
+ *  been read into a String, e.g. <tt>&lt;rev revid="..." ... /&gt;</tt>. The
+ *  element is tokenized once, up front, into the offsets of its attribute
+ *  names and values and those of its nested elements. Reading an attribute
+ *  compares names in place, and only the values actually read get copied and
+ *  have their entity references decoded.
+ *
+ *  <p>
+ *  Like nested elements, the element itself is visible under its own name.
+ *  The region may also start in the middle of a start tag (i.e. with the
+ *  attributes), as long as the rest is well formed.
+ *
+ *  @author MER-C
+ *  @since 0.32
+ */
+final class XmlAttributes implements ResponseItem
+{
+    // per entry: name start, name end, value start, value end, end of content
+    // (index of the next entry after the content of a nested element, -1 for
+    // attributes)
+    private static final int STRIDE = 5;
+
+    private final String xml;
+    private int[] entries = new int[16 * STRIDE];
+    private int size = 0;
+
+    /**
+     *  Tokenizes an element.
+     *  @param xml a string containing exactly one element
+     */
+    XmlAttributes(String xml)
+    {
+        this(xml, 0, xml.length());
+    }
+
+    /**
+     *  Tokenizes an element that is part of a larger string, without copying
+     *  it.
+     *  @param xml the string containing the element
+     *  @param from the index of the element's <tt>&lt;</tt>
+     *  @param to the end of the element (exclusive)
+     */
+    XmlAttributes(String xml, int from, int to)
+    {
+        this.xml = xml;
+        tokenize(from, to);
+    }
+
+    @Override
+    public String get(String name)
+    {
+        return get(0, size, name);
+    }
+
+    @Override
+    public List<ResponseItem> getElements(String name)
+    {
+        return getElements(0, size, name);
+    }
+
+    private String get(int from, int to, String name)
+    {
+        for (int i = from; i < to; i++)
+        {
+            int e = i * STRIDE;
+            int start = entries[e];
+            int length = entries[e + 1] - start;
+            if (length == name.length() && xml.regionMatches(start, name, 0, length))
+                return decode(xml, entries[e + 2], entries[e + 3]);
+        }
+        return null;
+    }
+
+    private List<ResponseItem> getElements(int from, int to, String name)
+    {
+        List<ResponseItem> elements = new ArrayList<>();
+        for (int i = from; i < to; i++)
+        {
+            int e = i * STRIDE;
+            int start = entries[e];
+            int length = entries[e + 1] - start;
+            if (entries[e + 4] >= 0 && length == name.length() && xml.regionMatches(start, name, 0, length))
+                elements.add(new Range(i, entries[e + 4]));
+        }
+        return elements;
+    }
+
+    /**
+     *  Walks the element once and records the offsets of everything in it.
+     *  Every element, including the outermost one, contributes an entry with
+     *  its text content followed by its attributes and children.
+     */
+    private void tokenize(int from, int to)
+    {
+        int[] open = new int[8];
+        int depth = 0;
+        int i = from;
+        while (i < to && Character.isWhitespace(xml.charAt(i)))
+            i++;
+        if (i < to && xml.charAt(i) != '<')
+        {
+            // we have been handed the attributes of a start tag
+            i = attributes(i, to);
+            if (i >= to || xml.charAt(i) == '/')
+                return;
+            open[depth++] = -1;
+            i++;
+        }
+        while (i < to)
+        {
+            if (xml.charAt(i) != '<')
+            {
+                i++;
+                continue;
+            }
+            i++;
+            if (i >= to)
+                return;
+            char c = xml.charAt(i);
+            if (c == '/')
+            {
+                // end tag
+                if (depth > 0)
+                {
+                    int entry = open[--depth];
+                    if (entry >= 0)
+                        entries[entry * STRIDE + 4] = size;
+                }
+                if (depth == 0)
+                    return;
+                i = xml.indexOf('>', i);
+                if (i < 0)
+                    return;
+                i++;
+                continue;
+            }
+            if (c == '!' || c == '?')
+            {
+                // comment, CDATA or processing instruction, ignore
+                i = xml.indexOf('>', i);
+                if (i < 0)
+                    return;
+                i++;
+                continue;
+            }
+
+            // start tag
+            int namestart = i;
+            while (i < to && !isDelimiter(xml.charAt(i)))
+                i++;
+            int entry = add(namestart, i, i, i, size + 1);
+            i = attributes(i, to);
+            if (i >= to)
+            {
+                // region ends inside the start tag
+                entries[entry * STRIDE + 4] = size;
+                break;
+            }
+            if (xml.charAt(i) == '/')
+            {
+                entries[entry * STRIDE + 4] = size;
+                if (depth == 0)
+                    return;
+                i = xml.indexOf('>', i);
+                if (i < 0)
+                    return;
+                i++;
+                continue;
+            }
+            // text content is everything up to the next tag
+            int textend = xml.indexOf('<', ++i);
+            if (textend < 0 || textend > to)
+                textend = to;
+            entries[entry * STRIDE + 2] = i;
+            entries[entry * STRIDE + 3] = textend;
+            if (depth == open.length)
+                open = Arrays.copyOf(open, depth * 2);
+            open[depth++] = entry;
+            i = textend;
+        }
+        // unterminated elements end with the region
+        while (depth > 0)
+        {
+            int entry = open[--depth];
+            if (entry >= 0)
+                entries[entry * STRIDE + 4] = size;
+        }
+    }
+
+    /**
+     *  Records the attributes of a start tag.
+     *  @param i an index inside the start tag, after the element name
+     *  @param to the end of the region
+     *  @return the index of the closing <tt>/</tt> or <tt>&gt;</tt>
+     */
+    private int attributes(int i, int to)
+    {
+        while (i < to)
+        {
+            char c = xml.charAt(i);
+            if (c == '/' || c == '>')
+                return i;
+            if (Character.isWhitespace(c))
+            {
+                i++;
+                continue;
+            }
+            int namestart = i;
+            while (i < to && xml.charAt(i) != '=' && !isDelimiter(xml.charAt(i)))
+                i++;
+            int nameend = i;
+            while (i < to && xml.charAt(i) != '"' && xml.charAt(i) != '\'')
+                i++;
+            if (i >= to)
+                return to;
+            char quote = xml.charAt(i);
+            int valuestart = ++i;
+            int valueend = xml.indexOf(quote, i);
+            if (valueend < 0 || valueend > to)
+                valueend = to;
+            add(namestart, nameend, valuestart, valueend, -1);
+            i = valueend + 1;
+        }
+        return to;
+    }
+
+    private int add(int namestart, int nameend, int valuestart, int valueend, int end)
+    {
+        if ((size + 1) * STRIDE > entries.length)
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        int e = size * STRIDE;
+        entries[e] = namestart;
+        entries[e + 1] = nameend;
+        entries[e + 2] = valuestart;
+        entries[e + 3] = valueend;
+        entries[e + 4] = end;
+        return size++;
+    }
+
+    private static boolean isDelimiter(char c)
+    {
+        return c == '/' || c == '>' || Character.isWhitespace(c);
+    }
+
+    /**
+     *  Copies a value, decoding entity references if there are any.
+     *  @param xml the string containing the value
+     *  @param start the start of the value
+     *  @param end the end of the value
+     *  @return the decoded value
+     */
+    static String decode(String xml, int start, int end)
+    {
+        int amp = start;
+        while (amp < end && xml.charAt(amp) != '&')
+            amp++;
+        if (amp == end)
+            return xml.substring(start, end);
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(xml, start, amp);
+        int i = amp;
+        while (i < end)
+        {
+            char c = xml.charAt(i);
+            int semicolon;
+            if (c != '&' || (semicolon = xml.indexOf(';', i)) < 0 || semicolon >= end)
+            {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            if (xml.startsWith("&lt;", i))
+                sb.append('<');
+            else if (xml.startsWith("&gt;", i))
+                sb.append('>');
+            else if (xml.startsWith("&quot;", i))
+                sb.append('"');
+            else if (xml.startsWith("&amp;", i))
+                sb.append('&');
+            else if (xml.startsWith("&apos;", i))
+                sb.append('\'');
+            else if (xml.startsWith("&#", i))
+            {
+                try
+                {
+                    boolean hex = xml.charAt(i + 2) == 'x';
+                    sb.appendCodePoint(Integer.parseInt(xml.substring(i + (hex ? 3 : 2), semicolon), hex ? 16 : 10));
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    sb.append(xml, i, semicolon + 1);
+                }
+            }
+            else
+                sb.append(xml, i, semicolon + 1);
+            i = semicolon + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     *  A view of a nested element. Its own name maps to its text content.
+     */
+    private class Range implements ResponseItem
+    {
+        private final int self, to;
+
+        private Range(int self, int to)
+        {
+            this.self = self;
+            this.to = to;
+        }
+
+        @Override
+        public String get(String name)
+        {
+            return XmlAttributes.this.get(self, to, name);
+        }
+
+        @Override
+        public List<ResponseItem> getElements(String name)
+        {
+            return XmlAttributes.this.getElements(self + 1, to, name);
+        }
+    }
+}
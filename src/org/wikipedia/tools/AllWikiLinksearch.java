@@ -22,7 +22,6 @@ package org.wikipedia.tools;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.swing.*;
 import org.wikipedia.*;
 
@@ -41,113 +40,99 @@ import org.wikipedia.*;
  */
 public class AllWikiLinksearch
 {
-    private static Queue<Wiki> queue = new ConcurrentLinkedQueue();
     private static FileWriter out = null;
     private static ProgressMonitor monitor;
     private static int progress = 0;
 
-    private static class LinksearchThread extends Thread
-    {
-        private String domain;
-
-        public LinksearchThread(String domain)
-        {
-            this.domain = domain;
-        }
-
-        /**
-         *  The real meat of this program.
-         */
-        public void run()
-        {
-            while(!queue.isEmpty())
-            {
-                // only write when there are results
-                int linknumber = 0;
-                // buffer so we don't get the output all mixed up
-                StringBuilder builder = new StringBuilder(1000);
-                try
-                {
-                    Wiki wiki = queue.poll();
-                    wiki.setMaxLag(0);
-                    builder.append("=== Results for ");
-                    builder.append(wiki.getDomain());
-                    builder.append(" ===\n");
-                    List[] links = wiki.linksearch("*." + domain);
-                    linknumber = links[0].size();
-                    if (linknumber != 0)
-                    {
-                        for (int i = 0; i < linknumber; i++)
-                        {
-                            builder.append("# [http://");
-                            builder.append(wiki.getDomain());
-                            builder.append("/wiki/");
-                            builder.append(((String)links[0].get(i)).replace(' ', '_'));
-                            builder.append(" ");
-                            builder.append(links[0].get(i));
-                            builder.append("] uses link <nowiki>");
-                            builder.append(links[1].get(i));
-                            builder.append("</nowiki>\n");
-                        }
-                        builder.append(linknumber);
-                        builder.append(" links found. ([http://");
-                        builder.append(wiki.getDomain());
-                        builder.append("/wiki/Special:Linksearch/*.");
-                        builder.append(domain);
-                        builder.append(" Linksearch])");
-                    }
-                }
-                catch (IOException ex)
-                {
-                    builder.append("<font color=red>An error occurred: ");
-                    linknumber = -1;
-                    builder.append(ex.getMessage());
-                }
-                finally
-                {
-                    builder.append("\n\n");
-                    if (linknumber != 0)
-                        writeOutput(builder.toString());
-                    updateProgress();
-                }
-            }
-            try
-            {
-                // flush so output is not truncated
-                out.flush();
-                sleep(5000);
-            }
-            catch (Exception ex)
-            {
-                // bleh
-            }
-        }
-    }
-
     public static void main(String[] args) throws IOException
     {
         // retrieve site matrix
-        ArrayList<Wiki> temp = new ArrayList<Wiki>(Arrays.asList(WMFWiki.getSiteMatrix()));
-        for (Wiki wiki : temp)
+        ArrayList<Wiki> wikis = new ArrayList<>();
+        for (Wiki wiki : WMFWiki.getSiteMatrix())
         {
             String domain = wiki.getDomain();
             // bad wikis: everything containing wikimania
             if (!domain.contains("wikimania"))
-                queue.add(wiki);
+                wikis.add(wiki);
         }
 
         // initialize progress monitor
         String domain = JOptionPane.showInputDialog(null, "Enter domain to search", "All wiki linksearch", JOptionPane.QUESTION_MESSAGE);
-        monitor = new ProgressMonitor(null, "Searching for links to " + domain, null, 0, queue.size());
+        monitor = new ProgressMonitor(null, "Searching for links to " + domain, null, 0, wikis.size());
         monitor.setMillisToPopup(0);
 
         // do the searching
         out = new FileWriter(domain + ".wiki");
-        writeOutput("*{{LinkSummary|" + domain + "}}\nSearching " + queue.size() + " wikis at "
+        writeOutput("*{{LinkSummary|" + domain + "}}\nSearching " + wikis.size() + " wikis at "
             + new Date().toString() + ".\n\n");
-        // TODO: perhaps make number of threads configurable
-        for (int i = 0; i < 3; i++)
-            new LinksearchThread(domain).start();
+        // every wiki is on its own host, so this runs all the searches at
+        // once where virtual threads are available
+        try (BulkExecutor bulk = new BulkExecutor())
+        {
+            for (Wiki wiki : wikis)
+                bulk.submit(wiki, w -> linksearch(w, domain));
+        }
+        // flush so output is not truncated
+        out.close();
+    }
+
+    /**
+     *  The real meat of this program: searches a single wiki and writes out
+     *  the results.
+     *  @param wiki the wiki to search
+     *  @param domain the domain to search for
+     *  @return null
+     */
+    private static Void linksearch(Wiki wiki, String domain)
+    {
+        // only write when there are results
+        int linknumber = 0;
+        // buffer so we don't get the output all mixed up
+        StringBuilder builder = new StringBuilder(1000);
+        try
+        {
+            wiki.setMaxLag(0);
+            builder.append("=== Results for ");
+            builder.append(wiki.getDomain());
+            builder.append(" ===\n");
+            List[] links = wiki.linksearch("*." + domain);
+            linknumber = links[0].size();
+            if (linknumber != 0)
+            {
+                for (int i = 0; i < linknumber; i++)
+                {
+                    builder.append("# [http://");
+                    builder.append(wiki.getDomain());
+                    builder.append("/wiki/");
+                    builder.append(((String)links[0].get(i)).replace(' ', '_'));
+                    builder.append(" ");
+                    builder.append(links[0].get(i));
+                    builder.append("] uses link <nowiki>");
+                    builder.append(links[1].get(i));
+                    builder.append("</nowiki>\n");
+                }
+                builder.append(linknumber);
+                builder.append(" links found. ([http://");
+                builder.append(wiki.getDomain());
+                builder.append("/wiki/Special:Linksearch/*.");
+                builder.append(domain);
+                builder.append(" Linksearch])");
+            }
+        }
+        catch (IOException ex)
+        {
+            builder.append("<font color=red>An error occurred: ");
+            linknumber = -1;
+            builder.append(ex.getMessage());
+        }
+        finally
+        {
+            builder.append("\n\n");
+            if (linknumber != 0)
+                writeOutput(builder.toString());
+            updateProgress();
+        }
+        return null;
     }
 
     /**
@@ -24,6 +24,7 @@ import java.util.*;
 import java.net.*;
 import java.util.zip.*;
 import javax.swing.JFileChooser;
+import org.wikipedia.DiffParser;
 import org.wikipedia.Wiki;
 
 /**
@@ -62,13 +63,6 @@ public class CCIAnalyzer
             // or read in from supplied wiki page
             cci = new StringBuilder(enWiki.getPageText(args[0]));
         
-        // some HTML strings we are looking for
-        // see https://en.wikipedia.org/w/api.php?action=query&prop=revisions&revids=77350972&rvdiffto=prev
-        String diffaddedbegin = "&lt;td class=&quot;diff-addedline&quot;&gt;"; // <td class="diff-addedline">
-        String diffaddedend = "&lt;/td&gt;"; // </td>
-        String deltabegin = "&lt;ins class=&quot;diffchange diffchange-inline&quot;&gt;"; // <ins class="diffchange diffchange-inline">
-        String deltaend = "&lt;/ins&gt;"; // </ins>
-        
         // parse the list of diffs
         ArrayList<String> minoredits = new ArrayList<>(500);
         for (int i = cci.indexOf("{{dif|"); i >= 0; i = cci.indexOf("{{dif|", ++i))
@@ -83,36 +77,21 @@ public class CCIAnalyzer
             // https://phabricator.wikimedia.org/T15209
             // We don't use the Wiki.java method here, this avoids an extra query.
             String diff = fetch("https://en.wikipedia.org/w/api.php?format=xml&action=query&prop=revisions&rvdiffto=prev&revids=" + oldid);
-            // Condense deltas to avoid problems like https://en.wikipedia.org/w/index.php?title=&diff=prev&oldid=486611734
-            diff = diff.toLowerCase();
-            diff = diff.replace(deltaend + " " + deltabegin, " ");
             // If the diff is empty (see https://en.wikipedia.org/w/index.php?diff=343490272)
-            // it will not contain diffaddedbegin -> default major to true.
+            // it will not contain added lines -> default major to true.
             boolean major = true;
-            // It is easy to strip the HTML.
-            for (int j = diff.indexOf(diffaddedbegin); j >= 0; j = diff.indexOf(diffaddedbegin, j))
+            for (DiffParser.Line line : DiffParser.parse(diffBody(diff)))
             {
-                int y2 = diff.indexOf(diffaddedend, j);
-                String addedline = diff.substring(j + diffaddedbegin.length(), y2);
-                addedline = addedline.replaceFirst("^&lt;div&gt;", "");
-                addedline = addedline.replace("&lt;/div&gt;", "");
-                if (addedline.contains(deltabegin))
+                if (!line.isAdded())
+                    continue;
+                for (CharSequence change : line.getChanges())
                 {
-                    for (int k = addedline.indexOf(deltabegin); k >= 0; k = addedline.indexOf(deltabegin, k))
-                    {
-                        int y3 = addedline.indexOf(deltaend, k);
-                        String delta = addedline.substring(k + deltabegin.length(), y3);
-                        major = analyzeDelta(delta);
-                        if (major)
-                            break;
-                        k = y3;
-                    }
+                    major = analyzeDelta(change.toString().toLowerCase());
+                    if (major)
+                        break;
                 }
-                else
-                    major = analyzeDelta(addedline);
                 if (major)
                     break;
-                j = y2;
             }
             if (!major)
                 minoredits.add(edit);
@@ -192,6 +171,26 @@ public class CCIAnalyzer
         return false;
     }
     
+    /**
+     *  Extracts the HTML diff table from an API response.
+     *  @param response a prop=revisions&amp;rvdiffto=prev query result
+     *  @return the diff table, or null if there is no diff
+     */
+    private static String diffBody(String response)
+    {
+        int a = response.indexOf("<diff");
+        int b = response.indexOf("</diff>", a);
+        if (a < 0 || b < 0)
+            // <diff> tag has no content if there is no diff
+            return null;
+        a = response.indexOf(">", a) + 1;
+        String diff = response.substring(a, b);
+        diff = diff.replace("&lt;", "<").replace("&gt;", ">");
+        diff = diff.replace("&quot;", "\"");
+        diff = diff.replace("&#039;", "'");
+        return diff.replace("&amp;", "&");
+    }
+    
     private static String fetch(String url) throws IOException
     {
         // connect
@@ -19,7 +19,9 @@
 package org.wikipedia.tools;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.text.SimpleDateFormat;
 import javax.swing.JFileChooser;
 
@@ -43,6 +45,7 @@ public class ContributionSurveyor
         String wikipage = null;
         String infile = null;
         String category = null;
+        String categorycache = null;
 
         // parse arguments
         ArrayList<String> users = new ArrayList<>(1500);
@@ -62,7 +65,9 @@ public class ContributionSurveyor
                             + "Default: en.wikipedia.org.\n"
                         + "\t--outfile file\n\t\tSave results to file, shows a filechooser if not specified.\n"
                         + "\t--wikipage 'Main Page'\n\t\tFetch a list of users at the wiki page Main Page.\n"
-                        + "\t--category 'A category'\n\t\tFetch a list of users from the given category (recursive)."
+                        + "\t--category 'A category'\n\t\tFetch a list of users from the given category (recursive).\n"
+                        + "\t--categorycache file\n\t\tKeep the category tree used by --category in file and only "
+                            + "fetch what changed since the last run.\n"
                         + "\t--user user\n\t\tSurvey the given user.\n"
                         + "\t--userspace\n\t\tSurvey userspace as well.\n");
 
@@ -91,6 +96,9 @@ public class ContributionSurveyor
                 case "--category":
                     category = args[++i];
                     break;
+                case "--categorycache":
+                    categorycache = args[++i];
+                    break;
             }
         }
         
@@ -98,6 +106,13 @@ public class ContributionSurveyor
         if (!users.isEmpty())
         {
         }
+        else if (category != null && categorycache != null)
+        {
+            CategoryGraph graph = new CategoryGraph(homewiki, Paths.get(categorycache));
+            graph.refresh();
+            users.addAll(Arrays.asList(graph.getCategoryMembers(category, 1, Wiki.USER_NAMESPACE)));
+            graph.save();
+        }
         else if (category != null)
             users.addAll(Arrays.asList(homewiki.getCategoryMembers(category, true, Wiki.USER_NAMESPACE)));
         else if (wikipage != null)
@@ -170,117 +185,138 @@ public class ContributionSurveyor
      */
     public static void contributionSurvey(Wiki homewiki, String[] users, File output, boolean userspace, boolean images) throws IOException
     {
-        FileWriter out = new FileWriter(output);
-        for (String user : users)
+        // fetch everything at once, but write the results in order
+        ArrayList<CompletableFuture<String>> surveys = new ArrayList<>(users.length);
+        try (BulkExecutor bulk = new BulkExecutor())
         {
-            // determine if user exists; if so, stats
-            Wiki.Revision[] contribs = homewiki.contribs(user);
-            out.write("===" + user + "===\n");
-            out.write("*{{user5|" + user + "}}\n");
-            Wiki.User wpuser = homewiki.getUser(user);
-            if (wpuser != null)
+            for (String user : users)
+                surveys.add(bulk.submit(homewiki, wiki -> surveyUser(wiki, user, userspace, images)));
+            FileWriter out = new FileWriter(output);
+            for (CompletableFuture<String> survey : surveys)
+                out.write(BulkExecutor.await(survey));
+            // timestamp
+            Date date = new GregorianCalendar(TimeZone.getTimeZone("UTC")).getTime();
+            SimpleDateFormat df = new SimpleDateFormat("hh:mm:ss dd MMMM yyyy");
+            out.write("This report generated by [https://github.com/MER-C/wiki-java ContributionSurveyor.java] on "
+                + df.format(date) + " (UTC).");
+            out.flush();
+            out.close();
+        }
+    }
+    
+    /**
+     *  Surveys the contributions of a single user.
+     *  @param homewiki the wiki to survey on
+     *  @param user the user to survey
+     *  @param userspace whether to survey output
+     *  @param images whether to survey images (searches Commons as well)
+     *  @return the section of the survey for this user
+     *  @throws IOException if a network error occurs
+     */
+    private static String surveyUser(Wiki homewiki, String user, boolean userspace, boolean images) throws IOException
+    {
+        StringBuilder out = new StringBuilder(10000);
+        // determine if user exists; if so, stats
+        Wiki.Revision[] contribs = homewiki.contribs(user);
+        out.append("===" + user + "===\n");
+        out.append("*{{user5|" + user + "}}\n");
+        Wiki.User wpuser = homewiki.getUser(user);
+        if (wpuser != null)
+        {
+            int editcount = wpuser.countEdits();
+            out.append("*Total edits: " + editcount + ", Live edits: " + contribs.length +
+            ", Deleted edits: " + (editcount - contribs.length) + "\n\n");
+        }
+        else
+            System.out.println(user + " is not a registered user.");
+
+        // survey mainspace edits
+        if (images || userspace)
+            out.append("====Mainspace edits (" + user + ")====");
+        HashMap<String, StringBuilder> diffs = new HashMap<>(60);
+        for (Wiki.Revision revision : contribs)
+        {
+            String title = revision.getPage();
+            // check only mainspace edits
+            int ns = homewiki.namespace(title);
+            if (ns != Wiki.MAIN_NAMESPACE)
+                continue;
+            // compute diff size; too small => skip
+            int size = revision.getSizeDiff();
+            if (size < 150)
+                continue;
+            // place to dump diffs
+            if (!diffs.containsKey(title))
             {
-                int editcount = wpuser.countEdits();
-                out.write("*Total edits: " + editcount + ", Live edits: " + contribs.length +
-                ", Deleted edits: " + (editcount - contribs.length) + "\n\n");
+                StringBuilder temp = new StringBuilder(500);
+                temp.append("\n*[[:");
+                temp.append(title);
+                temp.append("]]: ");
+                diffs.put(title, temp);
             }
-            else
-                System.out.println(user + " is not a registered user.");
+            StringBuilder temp = diffs.get(title);
+            temp.append("[[Special:Diff/");
+            temp.append(revision.getRevid());
+            temp.append("|(+");
+            temp.append(size);
+            temp.append(")]]");
+            diffs.put(title, temp);
+        }
+        // spit out the results of the survey
+        for (Map.Entry<String, StringBuilder> entry : diffs.entrySet())
+            out.append(entry.getValue().toString());
+        if (diffs.isEmpty())
+            out.append("\nNo major mainspace contributions.");
+        out.append("\n\n");
 
-            // survey mainspace edits
-            if (images || userspace)
-                out.write("====Mainspace edits (" + user + ")====");
-            HashMap<String, StringBuilder> diffs = new HashMap<>(60);
+        // survey userspace
+        if (userspace)
+        {
+            out.append("====Userspace edits (" + user + ")====\n");
+            HashSet<String> temp = new HashSet(50);
             for (Wiki.Revision revision : contribs)
             {
                 String title = revision.getPage();
-                // check only mainspace edits
+                // check only userspace edits
                 int ns = homewiki.namespace(title);
-                if (ns != Wiki.MAIN_NAMESPACE)
+                if (ns != Wiki.USER_NAMESPACE)
                     continue;
-                // compute diff size; too small => skip
-                int size = revision.getSizeDiff();
-                if (size < 150)
-                    continue;
-                // place to dump diffs
-                if (!diffs.containsKey(title))
-                {
-                    StringBuilder temp = new StringBuilder(500);
-                    temp.append("\n*[[:");
-                    temp.append(title);
-                    temp.append("]]: ");
-                    diffs.put(title, temp);
-                }
-                StringBuilder temp = diffs.get(title);
-                temp.append("[[Special:Diff/");
-                temp.append(revision.getRevid());
-                temp.append("|(+");
-                temp.append(size);
-                temp.append(")]]");
-                diffs.put(title, temp);
+                temp.add(title);
             }
-            // spit out the results of the survey
-            for (Map.Entry<String, StringBuilder> entry : diffs.entrySet())
-                out.write(entry.getValue().toString());
-            if (diffs.isEmpty())
-                out.write("\nNo major mainspace contributions.");
-            out.write("\n\n");
+            if (temp.isEmpty())
+                out.append("No userspace edits.\n");
+            else
+                out.append(ParserUtils.formatList(temp.toArray(new String[temp.size()])));
+            out.append("\n");
+        }
 
-            // survey userspace
-            if (userspace)
+        // survey images
+        if (images && wpuser != null)
+        {
+            String[][] survey = imageContributionSurvey(homewiki, wpuser);
+            if (survey[0].length > 0)
             {
-                out.write("====Userspace edits (" + user + ")====\n");
-                HashSet<String> temp = new HashSet(50);
-                for (Wiki.Revision revision : contribs)
-                {
-                    String title = revision.getPage();
-                    // check only userspace edits
-                    int ns = homewiki.namespace(title);
-                    if (ns != Wiki.USER_NAMESPACE)
-                        continue;
-                    temp.add(title);
-                }
-                if (temp.isEmpty())
-                    out.write("No userspace edits.\n");
-                else
-                    out.write(ParserUtils.formatList(temp.toArray(new String[temp.size()])));
-                out.write("\n");
+                out.append("====Local uploads (" + user + ")====\n");
+                out.append(ParserUtils.formatList(survey[0]));
+                out.append("\n");
             }
-
-            // survey images
-            if (images && wpuser != null)
+            if (survey[1].length > 0)
             {
-                String[][] survey = imageContributionSurvey(homewiki, wpuser);
-                if (survey[0].length > 0)
-                {
-                    out.write("====Local uploads (" + user + ")====\n");
-                    out.write(ParserUtils.formatList(survey[0]));
-                    out.write("\n");
-                }
-                if (survey[1].length > 0)
-                {
-                    out.write("====Commons uploads (" + user + ")====\n");
-                    out.write(ParserUtils.formatList(survey[1]));
-                    out.write("\n");
-                }
-                if (survey[2].length > 0)
-                {
-                    out.write("====Transferred uploads (" + user + ")====\n");
-                    out.write("WARNING: may be inaccurate, depending on username.");
-                    out.write(ParserUtils.formatList(survey[2]));
-                    out.write("\n");
-                }
+                out.append("====Commons uploads (" + user + ")====\n");
+                out.append(ParserUtils.formatList(survey[1]));
+                out.append("\n");
+            }
+            if (survey[2].length > 0)
+            {
+                out.append("====Transferred uploads (" + user + ")====\n");
+                out.append("WARNING: may be inaccurate, depending on username.");
+                out.append(ParserUtils.formatList(survey[2]));
+                out.append("\n");
             }
         }
-        // timestamp
-        Date date = new GregorianCalendar(TimeZone.getTimeZone("UTC")).getTime();
-        SimpleDateFormat df = new SimpleDateFormat("hh:mm:ss dd MMMM yyyy");
-        out.write("This report generated by [https://github.com/MER-C/wiki-java ContributionSurveyor.java] on "
-            + df.format(date) + " (UTC).");
-        out.flush();
-        out.close();
+        return out.toString();
     }
-    
+
     /**
      *  Performs an image contribution survey on a user.
      *  @param homewiki a wiki
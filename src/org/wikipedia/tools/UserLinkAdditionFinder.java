@@ -26,6 +26,8 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.stream.Stream;
 import javax.swing.JFileChooser;
+import org.wikipedia.DiffParser;
+import org.wikipedia.TextDiff;
 import org.wikipedia.Wiki;
 
 /**
@@ -35,6 +37,9 @@ import org.wikipedia.Wiki;
  */
 public class UserLinkAdditionFinder
 {
+    // link regex
+    private static final Pattern LINK_PATTERN = Pattern.compile("https?://.+?\\..{2,}?(?:\\s|]|<|$)");
+
     /**
      *  Runs this program.
      *  @param args the command line arguments (not used)
@@ -67,19 +72,19 @@ public class UserLinkAdditionFinder
                 }
             })
             // goddammit Oracle (again)! TODO: replace this when Java 1.9 is a thing.
-            .flatMap(opt -> opt.isPresent() ? Stream.of(opt.get()) : Stream.empty())
-            // fetch and parse diffs
-            .map(revision -> {
+            .flatMap(opt -> opt.isPresent() ? Stream.<Wiki.Revision[]>of(opt.get()) : Stream.empty())
+            // fetch and parse diffs, a batch at a time
+            .flatMap(revisions -> {
                 try
                 {
-                    return parseDiff(revision);
+                    return parseDiffs(enWiki, revisions).stream();
                 }
                 catch (IOException ex)
                 {
-                    return new String[] {
+                    return Arrays.stream(revisions).map(revision -> new String[] {
                         "" + revision.getRevid(),
                         "IOException when fetching revision"
-                    };
+                    });
                 }
             })
             // remove all sets { revid, user, links... } where no links are added
@@ -129,6 +134,45 @@ public class UserLinkAdditionFinder
         System.out.flush();
     }
     
+    /**
+     *  Returns the external links added by each of the given revisions. The
+     *  diffs are computed locally from batched revision texts.
+     *  @param wiki the wiki the revisions are from
+     *  @param revisions the revisions to check for added external links
+     *  @return for each revision, an array: [0] = the revid, [1] = the user,
+     *  [2+] = added URLs.
+     *  @throws IOException if a network error occurs
+     *  @see Wiki#getDiffs(java.util.List, java.util.function.BiConsumer)
+     */
+    public static List<String[]> parseDiffs(Wiki wiki, Wiki.Revision[] revisions) throws IOException
+    {
+        List<String[]> ret = new ArrayList<>(revisions.length);
+        wiki.getDiffs(Arrays.asList(revisions), (revision, diff) ->
+        {
+            if (diff == null)
+                ret.add(new String[] { "" + revision.getRevid(), "Revision text deleted" });
+            else
+                ret.add(parseDiff(revision, diff));
+        });
+        return ret;
+    }
+
+    /**
+     *  Returns a list of external links added by a particular revision.
+     *  @param revision the revision to check of added external links.
+     *  @param diff the diff of that revision against its parent
+     *  @return an array: [0] = the revid, [1] = the user, [2+] = added URLs.
+     */
+    public static String[] parseDiff(Wiki.Revision revision, TextDiff diff)
+    {
+        ArrayList<String> links = new ArrayList<>();
+        links.add("" + revision.getRevid());
+        links.add(revision.getUser());
+        for (TextDiff.Span span : diff.getAdded())
+            addLinks(span.getText().toLowerCase(), links);
+        return links.toArray(new String[links.size()]);
+    }
+
     /**
      *  Returns a list of external links added by a particular revision.
      *  @param revision the revision to check of added external links.
@@ -137,59 +181,32 @@ public class UserLinkAdditionFinder
      */
     public static String[] parseDiff(Wiki.Revision revision) throws IOException
     {
-        // fetch the diff
-        String diff;
-        if (revision.isNew())
-            diff = revision.getText();
-        else
-            diff = revision.diff(Wiki.PREVIOUS_REVISION);
-
-        // some HTML strings we are looking for
-        // see https://en.wikipedia.org/w/api.php?action=query&prop=revisions&revids=77350972&rvdiffto=prev
-        String diffaddedbegin = "<td class=\"diff-addedline\">";
-        String diffaddedend = "</td>";
-        String deltabegin = "<ins class=\"diffchange diffchange-inline\">";
-        String deltaend = "</ins>";
-        // link regex
-        Pattern pattern = Pattern.compile("https?://.+?\\..{2,}?(?:\\s|]|<|$)");
-        
         ArrayList<String> links = new ArrayList<>();
         links.add("" + revision.getRevid());
         links.add(revision.getUser());
-        
-        // Condense deltas to avoid problems like https://en.wikipedia.org/w/index.php?title=&diff=prev&oldid=486611734
-        diff = diff.toLowerCase();
-        diff = diff.replace(deltaend + " " + deltabegin, " ");
-        diff = diff.replace("&lt;", "<");
-        for (int j = diff.indexOf(diffaddedbegin); j >= 0; j = diff.indexOf(diffaddedbegin, j))
+
+        // a new page has no diff, all of its text was added
+        if (revision.isNew())
         {
-            int y2 = diff.indexOf(diffaddedend, j);
-            String addedline = diff.substring(j + diffaddedbegin.length(), y2);
-            addedline = addedline.replaceFirst("^<div>", "");
-            addedline = addedline.replace("</div>", "");
-            if (addedline.contains(deltabegin))
-            {
-                for (int k = addedline.indexOf(deltabegin); k >= 0; k = addedline.indexOf(deltabegin, k))
-                {
-                    int y3 = addedline.indexOf(deltaend, k);
-                    String delta = addedline.substring(k + deltabegin.length(), y3);
-                    // extract links
-                    Matcher matcher = pattern.matcher(delta);
-                    while (matcher.find())
-                        links.add(matcher.group().split("[\\|<\\]\\s]")[0]);
-                        
-                    k = y3;
-                }
-            }
-            else
-            {
-                Matcher matcher = pattern.matcher(addedline);
-                while (matcher.find())
-                    links.add(matcher.group().split("[\\|<\\]\\s]")[0]);
-            }
-            j = y2;
+            addLinks(revision.getText().toLowerCase(), links);
+            return links.toArray(new String[links.size()]);
         }
-        
+        for (DiffParser.Line line : DiffParser.parse(revision.diff(Wiki.PREVIOUS_REVISION)))
+            if (line.isAdded())
+                for (CharSequence change : line.getChanges())
+                    addLinks(change.toString().toLowerCase().replace("&lt;", "<"), links);
         return links.toArray(new String[links.size()]);
     }
+
+    /**
+     *  Extracts the external links from some added text.
+     *  @param text the text
+     *  @param links where to put the links
+     */
+    private static void addLinks(String text, List<String> links)
+    {
+        Matcher matcher = LINK_PATTERN.matcher(text);
+        while (matcher.find())
+            links.add(matcher.group().split("[\\|<\\]\\s]")[0]);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+/**
+ *  @(#)CategoryGraphTest.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *  Builds, saves and refreshes a {@link CategoryGraph} of a small category
+ *  graph with a cycle on a local stand-in server. Runs offline.
+ *  @author MER-C
+ */
+public class CategoryGraphTest
+{
+    private HttpServer server;
+    private Wiki wiki;
+    private final Map<String, AtomicInteger> categoryrequests = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> incrementalrequests = new ConcurrentHashMap<>();
+
+    // Root -> A -> Root
+    private final Map<String, List<String>> categories = new ConcurrentHashMap<>();
+    // members added "recently", i.e. returned when asked for those added since some time
+    private final Map<String, List<String>> recent = new ConcurrentHashMap<>();
+    {
+        categories.put("Category:Root", new ArrayList<>(Arrays.asList("Category:A", "Category:B", "Page 1")));
+        categories.put("Category:A", new ArrayList<>(Arrays.asList("Category:B", "Page 2", "Category:Root")));
+        categories.put("Category:B", new ArrayList<>(Arrays.asList("Category:A", "Page 3")));
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+        wiki = new Wiki("127.0.0.1:" + server.getAddress().getPort(), "/w", "http://");
+        wiki.setLogLevel(Level.WARNING);
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8");
+        String response;
+        if (query.contains("siteinfo"))
+            response = "<api><query><namespaces><ns id=\"0\" /><ns id=\"14\" canonical=\"Category\">Category</ns>"
+                + "</namespaces></query></api>";
+        else if (query.contains("paraminfo"))
+            response = "<api><paraminfo><modules><module name=\"query\"><parameters>"
+                + "<param name=\"titles\" type=\"string\" multi=\"\" limit=\"50\" lowlimit=\"50\" highlimit=\"500\" />"
+                + "</parameters></module></modules></paraminfo></api>";
+        else if (query.contains("prop=categoryinfo"))
+        {
+            StringBuilder pages = new StringBuilder();
+            for (String category : query.replaceAll(".*titles=([^&]*).*", "$1").split("\\|"))
+                pages.append("<page ns=\"14\" title=\"").append(category).append("\"><categoryinfo size=\"")
+                    .append(categories.getOrDefault(category, Collections.emptyList()).size()).append("\" /></page>");
+            response = "<api><query><pages>" + pages + "</pages></query></api>";
+        }
+        else if (query.contains("list=categorymembers"))
+        {
+            String category = query.replaceAll(".*cmtitle=([^&]*).*", "$1");
+            boolean since = query.contains("cmstart=");
+            (since ? incrementalrequests : categoryrequests).computeIfAbsent(category, key -> new AtomicInteger())
+                .incrementAndGet();
+            StringBuilder members = new StringBuilder();
+            for (String member : (since ? recent : categories).getOrDefault(category, Collections.emptyList()))
+                members.append("<cm ns=\"").append(member.startsWith("Category:") ? 14 : 0)
+                    .append("\" title=\"").append(member).append("\" />");
+            response = "<api><query><categorymembers>" + members + "</categorymembers></query></api>";
+        }
+        else
+            response = "<api />";
+        byte[] body = ("<?xml version=\"1.0\"?>" + response).getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    @Test
+    public void categoryGraph() throws Exception
+    {
+        Path file = Files.createTempFile("categories", ".gz");
+        Files.delete(file);
+        try
+        {
+            CategoryGraph graph = new CategoryGraph(wiki, file);
+            String[] expected = { "Category:A", "Category:B", "Page 1", "Category:B", "Page 2", "Category:Root",
+                "Category:A", "Page 3" };
+            assertArrayEquals(expected, graph.getCategoryMembers("Root", 10));
+            assertEquals(3, categoryrequests.size());
+            graph.save();
+
+            // answered from the file
+            categoryrequests.clear();
+            graph = new CategoryGraph(wiki, file);
+            assertArrayEquals(expected, graph.getCategoryMembers("Category:Root", 10));
+            assertArrayEquals(new String[] { "Page 1", "Page 2", "Page 3" }, graph.getCategoryMembers("Root", 10,
+                Wiki.MAIN_NAMESPACE));
+            assertTrue(categoryrequests.isEmpty());
+            assertEquals(new HashSet<>(Arrays.asList("Category:Root", "Category:B")),
+                new HashSet<>(Arrays.asList(graph.getCategories("Category:A"))));
+
+            // nothing changed
+            graph.refresh();
+            assertTrue(incrementalrequests.isEmpty());
+
+            // an addition is picked up incrementally
+            categories.get("Category:B").add("Page 4");
+            recent.put("Category:B", Arrays.asList("Page 4"));
+            graph.refresh();
+            assertEquals(1, incrementalrequests.get("Category:B").get());
+            assertEquals(1, incrementalrequests.size());
+            assertTrue(categoryrequests.isEmpty());
+            assertArrayEquals(new String[] { "Category:B" }, graph.getCategories("Page 4"));
+
+            // a removal needs a full crawl
+            categories.get("Category:A").remove("Page 2");
+            graph.refresh();
+            assertEquals(1, categoryrequests.get("Category:A").get());
+            assertEquals(0, graph.getCategories("Page 2").length);
+            assertArrayEquals(new String[] { "Page 1", "Page 3", "Page 4" }, graph.getCategoryMembers("Root", 10,
+                Wiki.MAIN_NAMESPACE));
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ *  @(#)CategoryTraversalTest.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *  Walks a small category graph with a cycle on a local stand-in server
+ *  using {@link Wiki#getCategoryMembers(java.lang.String, int, boolean,
+ *  int...)} and friends. Runs offline.
+ *  @author MER-C
+ */
+public class CategoryTraversalTest
+{
+    private HttpServer server;
+    private Wiki wiki;
+    private final Map<String, AtomicInteger> categoryrequests = new ConcurrentHashMap<>();
+
+    // Root -> A -> Root
+    private final Map<String, List<String>> categories = new HashMap<>();
+    {
+        categories.put("Category:Root", Arrays.asList("Category:A", "Category:B", "Page 1"));
+        categories.put("Category:A", Arrays.asList("Category:B", "Page 2", "Category:Root"));
+        categories.put("Category:B", Arrays.asList("Category:A", "Page 3"));
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+        wiki = new Wiki("127.0.0.1:" + server.getAddress().getPort(), "/w", "http://");
+        wiki.setLogLevel(Level.WARNING);
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8");
+        String response;
+        if (query.contains("siteinfo"))
+            response = "<api><query><namespaces><ns id=\"0\" /><ns id=\"14\" canonical=\"Category\">Category</ns>"
+                + "</namespaces></query></api>";
+        else if (query.contains("paraminfo"))
+            response = "<api><paraminfo><modules><module name=\"query\"><parameters>"
+                + "<param name=\"titles\" type=\"string\" multi=\"\" limit=\"50\" lowlimit=\"50\" highlimit=\"500\" />"
+                + "</parameters></module></modules></paraminfo></api>";
+        else if (query.contains("prop=categoryinfo"))
+        {
+            StringBuilder pages = new StringBuilder();
+            for (String category : query.replaceAll(".*titles=([^&]*).*", "$1").split("\\|"))
+                pages.append("<page ns=\"14\" title=\"").append(category).append("\"><categoryinfo size=\"")
+                    .append(categories.getOrDefault(category, Collections.emptyList()).size()).append("\" /></page>");
+            response = "<api><query><pages>" + pages + "</pages></query></api>";
+        }
+        else if (query.contains("list=categorymembers"))
+        {
+            String category = query.replaceAll(".*cmtitle=([^&]*).*", "$1");
+            categoryrequests.computeIfAbsent(category, key -> new AtomicInteger()).incrementAndGet();
+            StringBuilder members = new StringBuilder();
+            for (String member : categories.getOrDefault(category, Collections.emptyList()))
+                members.append("<cm ns=\"").append(member.startsWith("Category:") ? 14 : 0)
+                    .append("\" title=\"").append(member).append("\" />");
+            response = "<api><query><categorymembers>" + members + "</categorymembers></query></api>";
+        }
+        else
+            response = "<api />";
+        byte[] body = ("<?xml version=\"1.0\"?>" + response).getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    @Test
+    public void categoryTraversal() throws Exception
+    {
+        List<String> members = new ArrayList<>();
+        wiki.getCategoryMembers("Root", 10, false, members::add);
+        assertEquals(Arrays.asList("Category:A", "Category:B", "Page 1", "Category:B", "Page 2", "Category:Root",
+            "Category:A", "Page 3"), members);
+        // every category is fetched once despite the cycle
+        assertEquals(3, categoryrequests.size());
+        for (Map.Entry<String, AtomicInteger> entry : categoryrequests.entrySet())
+            assertEquals(entry.getKey(), 1, entry.getValue().get());
+
+        categoryrequests.clear();
+        String[] pages = wiki.getCategoryMembers("Category:Root", 10, false, Wiki.MAIN_NAMESPACE);
+        assertArrayEquals(new String[] { "Page 1", "Page 2", "Page 3" }, pages);
+        assertEquals(3, categoryrequests.size());
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ *  @(#)DiffParserTest.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *  Unit tests for {@link DiffParser}. Runs offline.
+ *  @author MER-C
+ */
+public class DiffParserTest
+{
+    // trimmed down from https://en.wikipedia.org/w/api.php?action=query&prop=revisions&revids=77350972&rvdiffto=prev
+    private static final String DIFF = "<tr><td colspan=\"2\" class=\"diff-lineno\">Line 1:</td></tr>\n"
+        + "<tr><td class=\"diff-marker\">\u2212</td><td class=\"diff-deletedline\"><div>Some "
+        + "<del class=\"diffchange diffchange-inline\">old</del> text</div></td>"
+        + "<td class=\"diff-marker\">+</td><td class=\"diff-addedline\"><div>Some "
+        + "<ins class=\"diffchange diffchange-inline\">new</ins> <ins class=\"diffchange diffchange-inline\">and"
+        + "</ins> text, <ins class=\"diffchange diffchange-inline\">&lt;ref&gt;</ins></div></td></tr>\n"
+        + "<tr><td class=\"diff-context\"><div>Unchanged</div></td></tr>\n"
+        + "<tr><td class=\"diff-marker\">+</td><td class=\"diff-addedline\"><div>A whole new line</div></td></tr>\n"
+        + "<tr><td class=\"diff-marker\">+</td><td class=\"diff-addedline\"></td></tr>\n";
+
+    private static List<String> strings(List<CharSequence> list)
+    {
+        List<String> ret = new ArrayList<>();
+        for (CharSequence cs : list)
+            ret.add(cs.toString());
+        return ret;
+    }
+
+    @Test
+    public void parse()
+    {
+        List<DiffParser.Line> lines = DiffParser.parse(DIFF);
+        assertEquals("parse: lines", 4, lines.size());
+
+        DiffParser.Line removed = lines.get(0);
+        assertFalse("parse: removed", removed.isAdded());
+        assertEquals("parse: removed deltas", Arrays.asList("old"), strings(removed.getDeltas()));
+
+        DiffParser.Line changed = lines.get(1);
+        assertTrue("parse: added", changed.isAdded());
+        assertEquals("parse: condensed deltas", Arrays.asList("new and", "&lt;ref&gt;"), strings(changed.getDeltas()));
+        assertEquals("parse: changes are deltas", changed.getDeltas(), changed.getChanges());
+
+        DiffParser.Line added = lines.get(2);
+        assertEquals("parse: whole line", "A whole new line", added.getText().toString());
+        assertTrue("parse: no deltas", added.getDeltas().isEmpty());
+        assertEquals("parse: changes are whole line", Arrays.asList("A whole new line"), strings(added.getChanges()));
+
+        assertEquals("parse: empty line", "", lines.get(3).getText().toString());
+    }
+
+    @Test
+    public void noDiff()
+    {
+        assertTrue("parse: null", DiffParser.parse(null).isEmpty());
+        assertTrue("parse: empty", DiffParser.parse("").isEmpty());
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ *  @(#)JsonItemReaderTest.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *  Unit tests for {@link JsonItemReader}: the folding rules on their own, and
+ *  list queries answered in XML and JSON by a local stand-in server, which
+ *  must give the same results. Runs offline.
+ *  @author MER-C
+ */
+public class JsonItemReaderTest
+{
+    // the same responses in both formats, keyed by what identifies the request
+    private static final Map<String, String> XML = new HashMap<>(), JSON = new HashMap<>();
+    static
+    {
+        XML.put("rvcontinue=3", "<api><query><pages><page pageid=\"1\" ns=\"0\" title=\"Example\"><revisions>"
+            + "<rev revid=\"3\" parentid=\"0\" user=\"C\" timestamp=\"2016-01-01T00:00:00Z\" size=\"10\" "
+            + "commenthidden=\"\" sha1=\"def\" /></revisions></page></pages></query></api>");
+        JSON.put("rvcontinue=3", "{\"batchcomplete\":true,\"query\":{\"pages\":[{\"pageid\":1,\"ns\":0,"
+            + "\"title\":\"Example\",\"revisions\":[{\"revid\":3,\"parentid\":0,\"user\":\"C\","
+            + "\"timestamp\":\"2016-01-01T00:00:00Z\",\"size\":10,\"commenthidden\":true,\"sha1\":\"def\","
+            + "\"anon\":null}]}]}}");
+        XML.put("prop=revisions", "<api><continue rvcontinue=\"3\" continue=\"||\" /><query><pages>"
+            + "<page pageid=\"1\" ns=\"0\" title=\"Example\"><revisions>"
+            + "<rev revid=\"5\" parentid=\"4\" minor=\"\" user=\"A &amp; B\" timestamp=\"2016-01-03T00:00:00Z\" "
+            + "size=\"30\" comment=\"caf\u00e9 &lt;ref&gt;\" sha1=\"abc\" />"
+            + "<rev revid=\"4\" parentid=\"3\" userhidden=\"\" timestamp=\"2016-01-02T00:00:00Z\" size=\"20\" "
+            + "comment=\"\" sha1hidden=\"\" /></revisions></page></pages></query></api>");
+        JSON.put("prop=revisions", "{\"batchcomplete\":false,\"continue\":{\"rvcontinue\":\"3\",\"continue\":\"||\"},"
+            + "\"query\":{\"pages\":[{\"pageid\":1,\"ns\":0,\"title\":\"Example\",\"revisions\":["
+            + "{\"revid\":5,\"parentid\":4,\"minor\":true,\"user\":\"A & B\",\"timestamp\":\"2016-01-03T00:00:00Z\","
+            + "\"size\":30,\"comment\":\"caf\\u00e9 <ref>\",\"sha1\":\"abc\",\"tags\":[\"mobile edit\",\"visual edit\"]},"
+            + "{\"revid\":4,\"parentid\":3,\"minor\":false,\"userhidden\":true,\"timestamp\":\"2016-01-02T00:00:00Z\","
+            + "\"size\":20,\"comment\":\"\",\"sha1hidden\":true,\"tags\":[]}]}]}}");
+        XML.put("list=logevents", "<api><query><logevents>"
+            + "<item logid=\"2\" ns=\"0\" title=\"Old\" type=\"move\" action=\"move\" user=\"A\" "
+            + "timestamp=\"2016-01-02T00:00:00Z\" comment=\"rename\"><params target_ns=\"0\" target_title=\"New\" /></item>"
+            + "<item logid=\"1\" ns=\"2\" title=\"User:Vandal\" type=\"block\" action=\"block\" user=\"Admin\" "
+            + "timestamp=\"2016-01-01T00:00:00Z\" comment=\"spam\"><params duration=\"1 day\" flags=\"nocreate,noemail\" />"
+            + "</item><item logid=\"0\" ns=\"0\" title=\"Hidden\" type=\"delete\" action=\"delete\" userhidden=\"\" "
+            + "commenthidden=\"\" timestamp=\"2015-12-31T00:00:00Z\" /></logevents></query></api>");
+        JSON.put("list=logevents", "{\"batchcomplete\":true,\"query\":{\"logevents\":["
+            + "{\"logid\":2,\"ns\":0,\"title\":\"Old\",\"type\":\"move\",\"action\":\"move\",\"user\":\"A\","
+            + "\"timestamp\":\"2016-01-02T00:00:00Z\",\"comment\":\"rename\",\"params\":{\"target_ns\":0,\"target_title\":\"New\"}},"
+            + "{\"logid\":1,\"ns\":2,\"title\":\"User:Vandal\",\"type\":\"block\",\"action\":\"block\",\"user\":\"Admin\","
+            + "\"timestamp\":\"2016-01-01T00:00:00Z\",\"comment\":\"spam\",\"params\":{\"duration\":\"1 day\","
+            + "\"flags\":[\"nocreate\",\"noemail\"]}},"
+            + "{\"logid\":0,\"ns\":0,\"title\":\"Hidden\",\"type\":\"delete\",\"action\":\"delete\",\"userhidden\":true,"
+            + "\"commenthidden\":true,\"timestamp\":\"2015-12-31T00:00:00Z\"}]}}");
+        XML.put("list=categorymembers", "<api><error code=\"invalidcategory\" info=\"The category name you entered is not valid.\" /></api>");
+        JSON.put("list=categorymembers", "{\"error\":{\"code\":\"invalidcategory\","
+            + "\"info\":\"The category name you entered is not valid.\",\"docref\":\"See api.php\"}}");
+    }
+
+    private HttpServer server;
+    private Wiki wiki;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+        wiki = new Wiki("127.0.0.1:" + server.getAddress().getPort(), "/w", "http://");
+        wiki.setLogLevel(Level.WARNING);
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8");
+        String response;
+        if (query.contains("siteinfo"))
+            response = "<?xml version=\"1.0\"?><api><query><namespaces><ns id=\"0\" />"
+                + "<ns id=\"2\" canonical=\"User\">User</ns><ns id=\"14\" canonical=\"Category\">Category</ns>"
+                + "</namespaces></query></api>";
+        else
+        {
+            boolean json = query.contains("format=json");
+            response = null;
+            for (Map.Entry<String, String> entry : (json ? JSON : XML).entrySet())
+                if (query.contains(entry.getKey()) && (response == null || !entry.getKey().startsWith("prop")))
+                    response = entry.getValue();
+            if (!json)
+                response = "<?xml version=\"1.0\"?>" + response;
+        }
+        byte[] body = response.getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    private static List<ResponseItem> read(String json, String container, String continuation, List<String> continued)
+        throws IOException
+    {
+        JsonItemReader reader = new JsonItemReader(new ByteArrayInputStream(json.getBytes("UTF-8")), container, continuation);
+        List<ResponseItem> items = new ArrayList<>();
+        // items are only valid until the next one is read, so take a snapshot
+        reader.read(item -> snapshot(item), items, continued == null ? null : continued::add);
+        return items;
+    }
+
+    private static ResponseItem snapshot(ResponseItem item)
+    {
+        Map<String, String> values = new HashMap<>();
+        for (String name : new String[] { "a", "t", "f", "n", "num", "arr", "empty", "inner", "nested", "s" })
+            if (item.has(name))
+                values.put(name, item.get(name));
+        List<String> groups = new ArrayList<>();
+        for (ResponseItem g : item.getElements("objs"))
+            groups.add(g.get("g"));
+        values.put("objs", String.join(",", groups));
+        return new ResponseItem()
+        {
+            @Override
+            public String get(String name)
+            {
+                return values.get(name);
+            }
+
+            @Override
+            public List<ResponseItem> getElements(String name)
+            {
+                return Collections.emptyList();
+            }
+        };
+    }
+
+    @Test
+    public void folding() throws IOException
+    {
+        List<ResponseItem> items = read("{\"query\":{\"things\":[{\"a\":\"x\",\"t\":true,\"f\":false,\"n\":null,"
+            + "\"num\":-1.5e3,\"arr\":[\"p\",2],\"empty\":[],\"nested\":{\"inner\":\"y\"},"
+            + "\"objs\":[{\"g\":\"sysop\"},{\"g\":\"bot\"}]}, 5, {\"a\":\"second\"}]}}", "things", "tcontinue", null);
+        assertEquals("folding: non-objects skipped", 2, items.size());
+        ResponseItem item = items.get(0);
+        assertEquals("folding: string", "x", item.get("a"));
+        assertEquals("folding: true", "", item.get("t"));
+        assertFalse("folding: false", item.has("f"));
+        assertFalse("folding: null", item.has("n"));
+        assertEquals("folding: number", "-1.5e3", item.get("num"));
+        assertEquals("folding: array", "p,2", item.get("arr"));
+        assertEquals("folding: empty array", "", item.get("empty"));
+        assertEquals("folding: nested object", "y", item.get("inner"));
+        assertEquals("folding: array of objects", "sysop,bot", item.get("objs"));
+        assertEquals("folding: next item", "second", items.get(1).get("a"));
+        assertFalse("folding: next item is fresh", items.get(1).has("t"));
+    }
+
+    @Test
+    public void strings() throws IOException
+    {
+        assertEquals("strings: escapes", "\"\\/\n\t\u00e9\u20ac", read("{\"things\":[{\"s\":"
+            + "\"\\\"\\\\\\/\\n\\t\\u00e9\\u20AC\"}]}", "things", null, null).get(0).get("s"));
+
+        // strings and keys across buffer boundaries
+        StringBuilder json = new StringBuilder("{\"query\":{\"things\":[");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 3000; i++)
+            expected.append(i % 7 == 0 ? "\u00e9\"" : "ab");
+        String s = expected.toString();
+        for (int i = 0; i < 20; i++)
+            json.append(i == 0 ? "" : ",").append("{\"a\":\"").append(i).append("\",\"s\":\"")
+                .append(s.replace("\"", "\\\"").replace("\u00e9", "\\u00e9")).append("\"}");
+        json.append("]}}");
+        List<ResponseItem> items = read(json.toString(), "things", null, null);
+        assertEquals("strings: count", 20, items.size());
+        for (int i = 0; i < 20; i++)
+        {
+            assertEquals("strings: key " + i, String.valueOf(i), items.get(i).get("a"));
+            assertEquals("strings: long " + i, s, items.get(i).get("s"));
+        }
+    }
+
+    @Test
+    public void continuation() throws IOException
+    {
+        List<String> continued = new ArrayList<>();
+        String json = "{\"continue\":{\"tcontinue\":\"abc|1\",\"continue\":\"-||\"},\"query\":{\"things\":[{\"a\":\"1\"}]}}";
+        JsonItemReader reader = new JsonItemReader(new ByteArrayInputStream(json.getBytes("UTF-8")), "things", "tcontinue");
+        List<String> page = new ArrayList<>();
+        // the continuation is read before the items
+        assertEquals("continuation: value", "abc|1", reader.read(item ->
+        {
+            assertEquals("continuation: reported early", Arrays.asList("abc|1"), continued);
+            return item.get("a");
+        }, page, continued::add));
+        assertEquals("continuation: items", Arrays.asList("1"), page);
+
+        // old style, and a container of the same name inside the continuation is no item
+        continued.clear();
+        List<ResponseItem> items = read("{\"query-continue\":{\"things\":{\"tcontinue\":\"z\"}},"
+            + "\"query\":{\"things\":[{\"a\":\"1\"}]}}", "things", "tcontinue", continued);
+        assertEquals("continuation: query-continue", Arrays.asList("z"), continued);
+        assertEquals("continuation: query-continue items", 1, items.size());
+
+        // last page
+        continued.clear();
+        reader = new JsonItemReader(new ByteArrayInputStream("{\"batchcomplete\":true,\"query\":{\"things\":[]}}"
+            .getBytes("UTF-8")), "things", "tcontinue");
+        assertNull("continuation: last page", reader.read(item -> item, new ArrayList<>(), continued::add));
+        assertTrue("continuation: not reported", continued.isEmpty());
+    }
+
+    @Test
+    public void errors() throws IOException
+    {
+        JsonItemReader reader = new JsonItemReader(new ByteArrayInputStream(("{\"error\":{\"code\":\"maxlag\","
+            + "\"info\":\"Waiting for a database server\",\"*\":\"docs\"},\"servedby\":\"mw1\"}").getBytes("UTF-8")),
+            "things", "tcontinue");
+        assertNull("errors: no continuation", reader.read(item -> item, new ArrayList<>(), null));
+        assertEquals("errors: code", "maxlag", reader.getErrorCode());
+        assertEquals("errors: info", "Waiting for a database server", reader.getErrorInfo());
+
+        reader = new JsonItemReader(new ByteArrayInputStream("{\"error\":{}}".getBytes("UTF-8")), "things", null);
+        reader.read(item -> item, new ArrayList<>(), null);
+        assertEquals("errors: no code", "", reader.getErrorCode());
+
+        for (String malformed : new String[] { "[1]", "{\"query\":{\"things\":[{\"a\":", "{\"a\" 1}", "{\"s\":\"abc" })
+        {
+            try
+            {
+                read(malformed, "things", null, null);
+                fail("errors: malformed " + malformed);
+            }
+            catch (IOException expected)
+            {
+            }
+        }
+    }
+
+    @Test
+    public void matchesXml() throws IOException
+    {
+        wiki.setUsingJSONResponses(false);
+        Wiki.Revision[] xmlhistory = wiki.getPageHistory("Example");
+        Wiki.LogEntry[] xmllog = wiki.getLogEntries(50);
+        String xmlerror = categoryError();
+
+        wiki.setUsingJSONResponses(true);
+        Wiki.Revision[] jsonhistory = wiki.getPageHistory("Example");
+        Wiki.LogEntry[] jsonlog = wiki.getLogEntries(50);
+        String jsonerror = categoryError();
+
+        assertEquals("matchesXml: history", 3, xmlhistory.length);
+        assertEquals("matchesXml: history", Arrays.toString(xmlhistory), Arrays.toString(jsonhistory));
+        assertEquals("matchesXml: summary", "caf\u00e9 <ref>", jsonhistory[0].getSummary());
+        assertTrue("matchesXml: minor", jsonhistory[0].isMinor());
+        assertFalse("matchesXml: not minor", jsonhistory[1].isMinor());
+        assertTrue("matchesXml: user hidden", jsonhistory[1].isUserDeleted());
+        assertTrue("matchesXml: content hidden", jsonhistory[1].isContentDeleted());
+        assertTrue("matchesXml: summary hidden", jsonhistory[2].isSummaryDeleted());
+        for (int i = 0; i < xmlhistory.length; i++)
+            assertEquals("matchesXml: sha1", xmlhistory[i].getSha1(), jsonhistory[i].getSha1());
+
+        assertEquals("matchesXml: log", 3, xmllog.length);
+        assertEquals("matchesXml: log", Arrays.toString(xmllog), Arrays.toString(jsonlog));
+        assertEquals("matchesXml: move target", "New", jsonlog[0].getDetails());
+        Object[] block = (Object[])jsonlog[1].getDetails();
+        assertEquals("matchesXml: block flags", Arrays.asList(false, true, false, true, false, "1 day"), Arrays.asList(block));
+
+        assertEquals("matchesXml: error", xmlerror, jsonerror);
+        assertTrue("matchesXml: error", jsonerror.contains("invalidcategory"));
+    }
+
+    private String categoryError() throws IOException
+    {
+        try
+        {
+            wiki.getCategoryMembers("Bad");
+            return null;
+        }
+        catch (UnknownError ex)
+        {
+            return ex.getMessage();
+        }
+    }
+}
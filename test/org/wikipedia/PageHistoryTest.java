@@ -0,0 +1,244 @@
+/**
+ *  @(#)PageHistoryTest.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *  Fetches a page history of a hundred revisions from a local stand-in
+ *  server, one response after the other and in concurrent time slices, and
+ *  checks that both come out the same. Also checks that histories handed
+ *  out again by the coalescing window are parsed afresh. Runs offline.
+ *  @author MER-C
+ */
+public class PageHistoryTest
+{
+    // a page history of HISTORY revisions an hour apart, HISTORY_PAGE to a response
+    private static final int HISTORY = 100, HISTORY_PAGE = 7;
+    private static final long HISTORY_START = 1451606400L; // 2016-01-01T00:00:00Z
+
+    private HttpServer server;
+    private Wiki wiki;
+    private final AtomicInteger historyrequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+        wiki = new Wiki("127.0.0.1:" + server.getAddress().getPort(), "/w", "http://");
+        wiki.setLogLevel(Level.WARNING);
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8");
+        String response;
+        if (query.contains("siteinfo"))
+            response = "<api><query><namespaces><ns id=\"0\" /></namespaces></query></api>";
+        else if (query.contains("prop=revisions") && query.contains("rvprop=timestamp"))
+            response = history(query);
+        else if (query.contains("prop=revisions") && query.contains("revids="))
+        {
+            StringBuilder revisions = new StringBuilder();
+            for (String revid : param(query, "revids").split("\\|"))
+                revisions.append(revision(Integer.parseInt(revid)));
+            response = "<api><query><pages><page ns=\"0\" title=\"Noticeboard\"><revisions>" + revisions
+                + "</revisions></page></pages></query></api>";
+        }
+        else
+            response = "<api />";
+        byte[] body = ("<?xml version=\"1.0\"?>" + response).getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    private String history(String query)
+    {
+        historyrequests.incrementAndGet();
+        boolean newer = query.contains("rvdir=newer");
+        long lo = Long.MIN_VALUE, hi = Long.MAX_VALUE;
+        String rvstart = param(query, "rvstart"), rvend = param(query, "rvend");
+        if (rvstart != null)
+            if (newer)
+                lo = parseTimestamp(rvstart);
+            else
+                hi = parseTimestamp(rvstart);
+        if (rvend != null)
+            if (newer)
+                hi = parseTimestamp(rvend);
+            else
+                lo = parseTimestamp(rvend);
+        String rvcontinue = param(query, "rvcontinue");
+        int limit = "1".equals(param(query, "rvlimit")) ? 1 : HISTORY_PAGE;
+
+        StringBuilder revisions = new StringBuilder();
+        String next = null;
+        int count = 0;
+        for (int i = 0; i < HISTORY; i++)
+        {
+            int revid = newer ? i + 1 : HISTORY - i;
+            long timestamp = HISTORY_START + 3600L * revid;
+            if (timestamp < lo || timestamp > hi)
+                continue;
+            if (rvcontinue != null && (newer ? revid < Integer.parseInt(rvcontinue) : revid > Integer.parseInt(rvcontinue)))
+                continue;
+            if (count++ == limit)
+            {
+                next = String.valueOf(revid);
+                break;
+            }
+            revisions.append(revision(revid));
+        }
+        return "<api>" + (next == null ? "" : "<continue rvcontinue=\"" + next + "\" continue=\"||\" />")
+            + "<query><pages><page ns=\"0\" title=\"Noticeboard\"><revisions>" + revisions
+            + "</revisions></page></pages></query></api>";
+    }
+
+    private static String revision(int revid)
+    {
+        return "<rev revid=\"" + revid + "\" parentid=\"" + (revid - 1) + "\" user=\"Example\" timestamp=\""
+            + Instant.ofEpochSecond(HISTORY_START + 3600L * revid) + "\" size=\"" + revid * 37 % 500
+            + "\" comment=\"\" />";
+    }
+
+    /**
+     *  Checks that two histories of the same span are linked up the same
+     *  way, and that each revision links to its neighbours. The links are
+     *  read off the revisions, following them would be a request each.
+     */
+    private static void assertLinked(Wiki.Revision[] serial, Wiki.Revision[] sliced) throws IOException
+    {
+        long newest = Arrays.stream(sliced).mapToLong(Wiki.Revision::getRevid).max().getAsLong();
+        for (int i = 0; i < serial.length; i++)
+        {
+            // sizediff, previous and next cross slice boundaries
+            assertEquals("revision " + i, serial[i].toString(), sliced[i].toString());
+            long revid = sliced[i].getRevid();
+            assertEquals("previous " + i, revid - 1, link(sliced[i], "previous"));
+            // only the newest revision of the span has no next one
+            assertEquals("next " + i, revid == newest ? 0 : revid + 1, link(sliced[i], "next"));
+        }
+        // and the links lead somewhere
+        for (Wiki.Revision revision : new Wiki.Revision[] { sliced[0], sliced[sliced.length - 1] })
+        {
+            Wiki.Revision previous = revision.getPrevious(), next = revision.getNext();
+            assertEquals(link(revision, "previous"), previous == null ? 0 : previous.getRevid());
+            assertEquals(link(revision, "next"), next == null ? 0 : next.getRevid());
+        }
+    }
+
+    /**
+     *  Returns the revid a revision links to, 0 if none.
+     */
+    private static long link(Wiki.Revision revision, String direction)
+    {
+        String link = revision.toString().replaceAll(".*," + direction + "=(\\d+).*", "$1");
+        return Long.parseLong(link);
+    }
+
+    private static String param(String query, String name)
+    {
+        for (String param : query.split("&"))
+            if (param.startsWith(name + "="))
+                return param.substring(name.length() + 1);
+        return null;
+    }
+
+    private static long parseTimestamp(String timestamp)
+    {
+        return LocalDateTime.parse(timestamp, DateTimeFormatter.ofPattern("yyyyMMddHHmmss")).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    @Test
+    public void pageHistorySlices() throws Exception
+    {
+        // no start date, so the first revision has to be looked up
+        Calendar last = wiki.epochToCalendar(HISTORY_START + 3600L * HISTORY);
+        for (boolean reverse : new boolean[] { false, true })
+        {
+            historyrequests.set(0);
+            Wiki.Revision[] serial = wiki.getPageHistory("Noticeboard", null, last, reverse);
+            assertEquals(HISTORY, serial.length);
+            assertEquals((HISTORY + HISTORY_PAGE - 1) / HISTORY_PAGE, historyrequests.get());
+
+            historyrequests.set(0);
+            Wiki.Revision[] sliced = wiki.getPageHistory("Noticeboard", null, last, reverse, 8);
+            // one lookup, then two pages for each slice
+            assertEquals(17, historyrequests.get());
+            assertEquals(serial.length, sliced.length);
+            assertLinked(serial, sliced);
+            assertEquals(reverse ? 1 : HISTORY, sliced[0].getRevid());
+        }
+
+        // a bounded span
+        Calendar start = wiki.epochToCalendar(HISTORY_START + 3600L * 10);
+        Calendar end = wiki.epochToCalendar(HISTORY_START + 3600L * 40);
+        Wiki.Revision[] serial = wiki.getPageHistory("Noticeboard", start, end, false);
+        Wiki.Revision[] sliced = wiki.getPageHistory("Noticeboard", start, end, false, 5);
+        assertEquals(31, sliced.length);
+        assertLinked(serial, sliced);
+    }
+
+    @Test
+    public void coalescedResultsNotShared() throws Exception
+    {
+        wiki.setCoalescingWindow(60000);
+        Calendar last = wiki.epochToCalendar(HISTORY_START + 3600L * HISTORY);
+        Wiki.Revision[] first = wiki.getPageHistory("Noticeboard", null, last, false);
+        int sent = historyrequests.get();
+        first[0].setRcid(42);
+
+        // answered from the window, but parsed afresh
+        Wiki.Revision[] second = wiki.getPageHistory("Noticeboard", null, last, false);
+        assertEquals(sent, historyrequests.get());
+        assertEquals(sent, wiki.getCoalescedRequests());
+        assertEquals(Arrays.toString(second), Arrays.toString(wiki.getPageHistory("Noticeboard", null, last, false)));
+        assertNotSame(first[0], second[0]);
+        assertEquals(-1, second[0].getRcid());
+
+        // linking the other direction doesn't touch the first caller's revisions
+        Wiki.Revision[] reversed = wiki.getPageHistory("Noticeboard", null, last, true);
+        assertEquals(first[1].getSizeDiff(), second[1].getSizeDiff());
+        assertEquals(HISTORY, reversed.length);
+    }
+}
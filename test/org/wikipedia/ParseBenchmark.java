@@ -0,0 +1,211 @@
+/**
+ *  @(#)ParseBenchmark.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ *  Per-element parsing speed on a 500 item <tt>list=usercontribs</tt> page:
+ *  the old <tt>contains()</tt> + <tt>parseAttribute()</tt> scanning versus
+ *  the single pass {@link XmlAttributes} tokenizer. Not a unit test; run with
+ *  <pre>
+ *  mvn test-compile exec:java -Dexec.mainClass=org.wikipedia.ParseBenchmark -Dexec.classpathScope=test
+ *  </pre>
+ *  or straight from the IDE.
+ *
+ *  @author MER-C
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark
+{
+    private static final int ITEMS = 500;
+
+    private String page;
+    private int[] starts, ends;
+    private Wiki wiki;
+
+    @Setup
+    public void setUp()
+    {
+        // xml form: <item userid="..." user="..." ... size="59460" sizediff="-5" />
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?><api><query-continue><usercontribs ");
+        sb.append("uccontinue=\"20160101000000|123456789\" /></query-continue><query><usercontribs>");
+        starts = new int[ITEMS];
+        ends = new int[ITEMS];
+        for (int i = 0; i < ITEMS; i++)
+        {
+            starts[i] = sb.length();
+            sb.append("<item userid=\"123456\" user=\"Example user\" pageid=\"");
+            sb.append(1000000 + i * 37);
+            sb.append("\" revid=\"");
+            sb.append(700000000 + i);
+            sb.append("\" parentid=\"");
+            sb.append(699999000 + i);
+            sb.append("\" ns=\"0\" title=\"Example article &quot;");
+            sb.append(i);
+            sb.append("&quot; (disambiguation)\" timestamp=\"2016-01-");
+            sb.append(10 + i % 20);
+            sb.append("T12:34:56Z\"");
+            if (i % 3 == 0)
+                sb.append(" minor=\"\"");
+            if (i % 50 == 0)
+                sb.append(" new=\"\"");
+            sb.append(" comment=\"Reverted edits by [[Special:Contributions/Someone|Someone]] (talk) to last version by Other &amp; co\" size=\"");
+            sb.append(10000 + i * 13);
+            sb.append("\" sizediff=\"");
+            sb.append(i % 7 - 3);
+            sb.append("\" ");
+            ends[i] = sb.length();
+            sb.append("/>");
+        }
+        sb.append("</usercontribs></query></api>");
+        page = sb.toString();
+        wiki = new Wiki("en.wikipedia.org");
+    }
+
+    /**
+     *  What <tt>parseRevision()</tt> used to do for each element: a
+     *  substring, then <tt>contains()</tt> and <tt>parseAttribute()</tt> for
+     *  every attribute.
+     */
+    @Benchmark
+    public void legacyScan(Blackhole bh)
+    {
+        for (int i = 0; i < ITEMS; i++)
+        {
+            String xml = page.substring(starts[i], ends[i]);
+            bh.consume(legacyParseAttribute(xml, " revid"));
+            bh.consume(legacyParseAttribute(xml, "timestamp"));
+            bh.consume(legacyParseAttribute(xml, "title"));
+            if (xml.contains("comment=\""))
+                bh.consume(legacyParseAttribute(xml, "comment"));
+            if (xml.contains("user=\""))
+                bh.consume(legacyParseAttribute(xml, "user"));
+            bh.consume(xml.contains("minor=\"\""));
+            bh.consume(xml.contains("bot=\"\""));
+            bh.consume(xml.contains("new=\"\""));
+            if (xml.contains("newlen="))
+                bh.consume(legacyParseAttribute(xml, "newlen"));
+            else if (xml.contains("size=\""))
+                bh.consume(legacyParseAttribute(xml, "size"));
+            if (xml.contains("rcid=\""))
+                bh.consume(legacyParseAttribute(xml, "rcid"));
+            if (xml.contains("rollbacktoken=\""))
+                bh.consume(legacyParseAttribute(xml, "rollbacktoken"));
+            if (xml.contains("parentid"))
+                bh.consume(legacyParseAttribute(xml, "parentid"));
+            if (xml.contains("oldlen=\""))
+                bh.consume(legacyParseAttribute(xml, "oldlen"));
+            else if (xml.contains("sizediff=\""))
+                bh.consume(legacyParseAttribute(xml, "sizediff"));
+            bh.consume(xml.contains("commenthidden=\""));
+            bh.consume(xml.contains("userhidden=\""));
+            bh.consume(xml.contains("sha1hidden=\""));
+            bh.consume(xml.contains("texthidden=\""));
+        }
+    }
+
+    /**
+     *  The same attribute reads through {@link XmlAttributes}.
+     */
+    @Benchmark
+    public void singlePass(Blackhole bh)
+    {
+        for (int i = 0; i < ITEMS; i++)
+        {
+            ResponseItem item = new XmlAttributes(page, starts[i], ends[i]);
+            bh.consume(item.get("revid"));
+            bh.consume(item.get("timestamp"));
+            bh.consume(item.get("title"));
+            bh.consume(item.get("comment"));
+            bh.consume(item.get("user"));
+            bh.consume(item.has("minor"));
+            bh.consume(item.has("bot"));
+            bh.consume(item.has("new"));
+            if (item.has("newlen"))
+                bh.consume(item.get("newlen"));
+            else if (item.has("size"))
+                bh.consume(item.get("size"));
+            bh.consume(item.get("rcid"));
+            bh.consume(item.get("rollbacktoken"));
+            bh.consume(item.get("parentid"));
+            if (item.has("oldlen"))
+                bh.consume(item.get("oldlen"));
+            else if (item.has("sizediff"))
+                bh.consume(item.get("sizediff"));
+            bh.consume(item.has("commenthidden"));
+            bh.consume(item.has("userhidden"));
+            bh.consume(item.has("sha1hidden"));
+            bh.consume(item.has("texthidden"));
+        }
+    }
+
+    /**
+     *  Complete Revision objects, timestamps and all.
+     */
+    @Benchmark
+    public void parseRevisions(Blackhole bh)
+    {
+        for (int i = 0; i < ITEMS; i++)
+            bh.consume(wiki.parseRevision(new XmlAttributes(page, starts[i], ends[i]), ""));
+    }
+
+    /**
+     *  <tt>Wiki.parseAttribute()</tt> as it was before the tokenizer.
+     */
+    private static String legacyParseAttribute(String xml, String attribute)
+    {
+        if (xml.contains(attribute + "=\""))
+        {
+            int a = xml.indexOf(attribute + "=\"") + attribute.length() + 2;
+            int b = xml.indexOf('\"', a);
+            return legacyDecode(xml.substring(a, b));
+        }
+        else
+            return null;
+    }
+
+    private static String legacyDecode(String in)
+    {
+        in = in.replace("&lt;", "<").replace("&gt;", ">");
+        in = in.replace("&quot;", "\"");
+        in = in.replace("&#039;", "'");
+        in = in.replace("&amp;", "&");
+        return in;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include(ParseBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ *  @(#)RetryPolicyTest.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *  Unit tests for {@link RetryPolicy}, on its own and against a local
+ *  stand-in server that fails every request. Runs offline.
+ *  @author MER-C
+ */
+public class RetryPolicyTest
+{
+    private HttpServer server;
+    private Wiki wiki;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    // an API error to answer with, if any
+    private volatile String error = null;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange ->
+        {
+            requests.incrementAndGet();
+            String response = error == null ? "<api />" : "<api><error code=\"" + error + "\" info=\"\" /></api>";
+            if (status == 200 && error == null)
+            {
+                // time out
+                try
+                {
+                    Thread.sleep(1000);
+                }
+                catch (InterruptedException ignored)
+                {
+                }
+            }
+            byte[] body = ("<?xml version=\"1.0\"?>" + response).getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        });
+        server.start();
+        wiki = new Wiki("127.0.0.1:" + server.getAddress().getPort(), "/w", "http://");
+        wiki.setLogLevel(Level.SEVERE);
+        wiki.setTransport(new URLConnectionTransport(1000, 200));
+        wiki.setRetryPolicy(new RetryPolicy(3, 0, 0));
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    private static int attempts(RetryPolicy policy, boolean write, IOException ex)
+    {
+        RetryPolicy.Attempts attempts = policy.start(write);
+        int count = 1;
+        while (attempts.retry(ex) >= 0)
+            count++;
+        return count;
+    }
+
+    @Test
+    public void classification()
+    {
+        RetryPolicy policy = new RetryPolicy(3, 0, 0);
+        // reads
+        assertEquals("read: timeout", 3, attempts(policy, false, new SocketTimeoutException()));
+        assertEquals("read: dropped", 3, attempts(policy, false, new IOException("Premature EOF")));
+        assertEquals("read: 503", 3, attempts(policy, false, new HttpRetryException("", 503)));
+        assertEquals("read: 429", 3, attempts(policy, false, new HttpRetryException("", 429)));
+        assertEquals("read: 403", 1, attempts(policy, false, new HttpRetryException("", 403)));
+        assertEquals("read: 400", 1, attempts(policy, false, new HttpRetryException("", 400)));
+        assertEquals("read: 404", 1, attempts(policy, false, new FileNotFoundException()));
+        assertEquals("read: unknown host", 1, attempts(policy, false, new UnknownHostException()));
+
+        // writes, only if the server certainly didn't act
+        assertEquals("write: refused", 3, attempts(policy, true, new ConnectException()));
+        assertEquals("write: throttled", 3, attempts(policy, true, new HttpRetryException("", 503)));
+        assertEquals("write: 429", 3, attempts(policy, true, new HttpRetryException("", 429)));
+        assertEquals("write: timeout", 1, attempts(policy, true, new SocketTimeoutException()));
+        assertEquals("write: dropped", 1, attempts(policy, true, new IOException("Premature EOF")));
+        assertEquals("write: 502", 1, attempts(policy, true, new HttpRetryException("", 502)));
+
+        policy.setRetryBudget(1);
+        assertEquals("budget", 2, attempts(policy, false, new SocketTimeoutException()));
+        assertEquals("budget spent", 1, attempts(policy, false, new SocketTimeoutException()));
+    }
+
+    @Test
+    public void clientErrors() throws IOException
+    {
+        for (int code : new int[] { 400, 403, 414 })
+        {
+            status = code;
+            requests.set(0);
+            try
+            {
+                wiki.fetch(wiki.query + "titles=Example", "clientErrors");
+                fail("HTTP " + code + " succeeded");
+            }
+            catch (HttpRetryException expected)
+            {
+                assertEquals(code, expected.responseCode());
+            }
+            assertEquals("HTTP " + code + " not retried", 1, requests.get());
+        }
+
+        status = 503;
+        requests.set(0);
+        try
+        {
+            wiki.fetch(wiki.query + "titles=Example", "clientErrors");
+            fail("HTTP 503 succeeded");
+        }
+        catch (HttpRetryException expected)
+        {
+        }
+        assertEquals("HTTP 503 retried", 3, requests.get());
+    }
+
+    @Test
+    public void timeouts() throws IOException
+    {
+        requests.set(0);
+        try
+        {
+            wiki.fetch(wiki.query + "titles=Example", "timeouts");
+            fail("read did not time out");
+        }
+        catch (SocketTimeoutException expected)
+        {
+        }
+        assertEquals("read retried", 3, requests.get());
+
+        requests.set(0);
+        try
+        {
+            wiki.post(wiki.apiUrl + "action=emailuser&format=xml", "target=Example&text=Hello", "timeouts");
+            fail("write did not time out");
+        }
+        catch (SocketTimeoutException expected)
+        {
+        }
+        assertEquals("write sent once", 1, requests.get());
+    }
+
+    @Test
+    public void recoverableApiErrors() throws IOException
+    {
+        for (String code : new String[] { "readonly", "ratelimited" })
+        {
+            error = code;
+            requests.set(0);
+            try
+            {
+                wiki.fetch(wiki.query + "titles=Example", "recoverableApiErrors");
+                fail(code + " succeeded");
+            }
+            catch (HttpRetryException expected)
+            {
+                assertEquals(503, expected.responseCode());
+            }
+            assertEquals("fetch: " + code + " retried", 3, requests.get());
+
+            requests.set(0);
+            try
+            {
+                wiki.fetchItems(wiki.query + "list=recentchanges", "recentchanges", null, item -> item,
+                    new ArrayList<>(), "recoverableApiErrors");
+                fail(code + " succeeded");
+            }
+            catch (HttpRetryException expected)
+            {
+                assertEquals(503, expected.responseCode());
+            }
+            assertEquals("fetchItems: " + code + " retried", 3, requests.get());
+        }
+
+        // other API errors are not worth another go
+        error = "badvalue";
+        requests.set(0);
+        try
+        {
+            wiki.fetch(wiki.query + "titles=Example", "recoverableApiErrors");
+            fail("badvalue succeeded");
+        }
+        catch (UnknownError expected)
+        {
+        }
+        assertEquals(1, requests.get());
+    }
+}
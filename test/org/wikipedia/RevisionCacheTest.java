@@ -0,0 +1,85 @@
+/**
+ *  @(#)RevisionCacheTest.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *  Unit tests for {@link RevisionCache}. Runs offline.
+ *  @author MER-C
+ */
+public class RevisionCacheTest
+{
+    private static final String TEXT = "'''Foo''' is a [[bar]] \u00fc\u20ac.\n== References ==\n{{Reflist}}\n\n[[Category:Baz]]";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void putAndGet() throws IOException
+    {
+        RevisionCache cache = new RevisionCache(folder.getRoot().toPath(), 1 << 20);
+        assertNull("get: not cached", cache.get(1L));
+        assertTrue("put", cache.put(1L, RevisionCache.sha1(TEXT), TEXT));
+        assertEquals("get", TEXT, cache.get(1L));
+        assertEquals("get: matching SHA-1", TEXT, cache.get(1L, RevisionCache.sha1(TEXT)));
+        assertNull("get: different SHA-1", cache.get(1L, RevisionCache.sha1("something else")));
+        assertFalse("put: wrong SHA-1", cache.put(2L, RevisionCache.sha1("something else"), TEXT));
+        assertFalse("put: wrong SHA-1", cache.contains(2L));
+        assertEquals("hits", 2, cache.getHitCount());
+        assertEquals("misses", 2, cache.getMissCount());
+
+        // picked up again after a restart
+        cache = new RevisionCache(folder.getRoot().toPath(), 1 << 20);
+        assertEquals("reopen", TEXT, cache.get(1L));
+        assertEquals("reopen", 1, cache.count());
+    }
+
+    @Test
+    public void evict() throws IOException
+    {
+        RevisionCache cache = new RevisionCache(folder.getRoot().toPath(), 1 << 20);
+        for (long revid = 1; revid <= 100; revid++)
+            cache.put(revid, null, TEXT + revid + String.join("", Collections.nCopies(1000, Long.toString(revid))));
+        cache.get(1L);
+        cache.setMaxSize(cache.size() / 2);
+        assertTrue("evict: size", cache.size() <= cache.getMaxSize());
+        assertTrue("evict: recently used", cache.contains(1L));
+        assertFalse("evict: least recently used", cache.contains(2L));
+        assertTrue("evict: most recently added", cache.contains(100L));
+    }
+
+    @Test
+    public void corrupt() throws IOException
+    {
+        Path root = folder.getRoot().toPath();
+        RevisionCache cache = new RevisionCache(root, 1 << 20);
+        cache.put(258L, null, TEXT);
+        Files.write(root.resolve("02").resolve("258"), new byte[] { 1, 2, 3 });
+        assertNull("corrupt", cache.get(258L));
+        assertFalse("corrupt: removed", cache.contains(258L));
+    }
+}
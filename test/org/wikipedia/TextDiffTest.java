@@ -0,0 +1,101 @@
+/**
+ *  @(#)TextDiffTest.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *  Unit tests for {@link TextDiff}. Runs offline.
+ *  @author MER-C
+ */
+public class TextDiffTest
+{
+    private static List<String> texts(List<TextDiff.Span> spans)
+    {
+        List<String> ret = new ArrayList<>();
+        for (TextDiff.Span span : spans)
+            ret.add(span.getText());
+        return ret;
+    }
+
+    @Test
+    public void lines()
+    {
+        TextDiff diff = TextDiff.compute("a\nb\nc\n", "a\nc\nd\n");
+        assertEquals("lines: removed", Arrays.asList("b\n"), texts(diff.getRemoved()));
+        assertEquals("lines: added", Arrays.asList("d\n"), texts(diff.getAdded()));
+        assertFalse("lines: not inline", diff.getAdded().get(0).isInline());
+
+        assertTrue("lines: identical", TextDiff.compute("a\nb", "a\nb").isEmpty());
+        assertEquals("lines: new page", Arrays.asList("a\nb"), texts(TextDiff.compute("", "a\nb").getAdded()));
+        assertEquals("lines: blanked", Arrays.asList("a\nb"), texts(TextDiff.compute("a\nb", "").getRemoved()));
+    }
+
+    @Test
+    public void words()
+    {
+        TextDiff diff = TextDiff.compute("Intro.\nSee the website.\nEnd.\n",
+            "Intro.\nSee the official website at http://example.com.\nEnd.\n");
+        List<TextDiff.Span> added = diff.getAdded();
+        assertEquals("words: added", Arrays.asList("official ", " at http://example.com"), texts(added));
+        assertTrue("words: inline", added.get(0).isInline());
+        assertTrue("words: nothing removed", diff.getRemoved().isEmpty());
+        assertEquals("words: offsets", "official ", diff.getNewText().substring(added.get(0).getStart(), added.get(0).getEnd()));
+
+        // changes separated only by whitespace are merged
+        diff = TextDiff.compute("x\nfoo bar\ny\n", "x\nbaz qux\ny\n");
+        assertEquals("words: merged", Arrays.asList("baz qux"), texts(diff.getAdded()));
+        assertEquals("words: merged", Arrays.asList("foo bar"), texts(diff.getRemoved()));
+    }
+
+    @Test
+    public void minimal()
+    {
+        // the kept tokens must be a longest common subsequence
+        Random random = new Random(42);
+        for (int t = 0; t < 10000; t++)
+        {
+            int[] a = new int[random.nextInt(12)], b = new int[random.nextInt(12)];
+            for (int i = 0; i < a.length; i++)
+                a[i] = random.nextInt(3);
+            for (int i = 0; i < b.length; i++)
+                b[i] = random.nextInt(3);
+            boolean[] removed = new boolean[a.length], added = new boolean[b.length];
+            TextDiff.diff(a, 0, a.length, b, 0, b.length, removed, added);
+
+            List<Integer> kepta = new ArrayList<>(), keptb = new ArrayList<>();
+            for (int i = 0; i < a.length; i++)
+                if (!removed[i])
+                    kepta.add(a[i]);
+            for (int i = 0; i < b.length; i++)
+                if (!added[i])
+                    keptb.add(b[i]);
+            int[][] lcs = new int[a.length + 1][b.length + 1];
+            for (int i = a.length - 1; i >= 0; i--)
+                for (int j = b.length - 1; j >= 0; j--)
+                    lcs[i][j] = a[i] == b[j] ? lcs[i + 1][j + 1] + 1 : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            assertEquals("minimal: common", kepta, keptb);
+            assertEquals("minimal: longest", lcs[0][0], kepta.size());
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/**
+ *  @(#)WikiConcurrencyTest.java 0.01
+ *  Copyright (C) 2016 MER-C and contributors
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 3
+ *  of the License, or (at your option) any later version. Additionally
+ *  this file is subject to the "Classpath" exception.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software Foundation,
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.wikipedia;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.Level;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *  Hammers a single Wiki from many threads against a local stand-in server
+ *  and checks that no cookies are lost, the caches come out intact and
+ *  batched or coalesced requests don't get in each other's way. Runs
+ *  offline.
+ *  @author MER-C
+ */
+public class WikiConcurrencyTest
+{
+    private static final int THREADS = 32;
+    private static final int REQUESTS_PER_THREAD = 50;
+    // the server hands out a new cookie with each of the first COOKIES responses
+    private static final int COOKIES = 200;
+
+    private HttpServer server;
+    private Wiki wiki;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger siteinforequests = new AtomicInteger();
+    private final Map<String, String> lastcookies = new ConcurrentHashMap<>();
+    private final AtomicInteger toprequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+        wiki = new Wiki("127.0.0.1:" + server.getAddress().getPort(), "/w", "http://");
+        wiki.setLogLevel(Level.WARNING);
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8");
+        String response;
+        if (query.contains("siteinfo"))
+        {
+            siteinforequests.incrementAndGet();
+            // be slow, so that everyone piles in at once
+            try
+            {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+            response = "<api><query><namespaces><ns id=\"-1\" canonical=\"Special\">Special</ns><ns id=\"0\" /><ns id=\"2\" canonical=\"User\">User</ns>"
+                + "<ns id=\"6\" canonical=\"File\">File</ns><ns id=\"14\" canonical=\"Category\">Category</ns>"
+                + "</namespaces></query></api>";
+        }
+        else if (query.contains("paraminfo"))
+            response = "<api><paraminfo><modules><module name=\"query\"><parameters>"
+                + "<param name=\"titles\" type=\"string\" multi=\"\" limit=\"50\" lowlimit=\"50\" highlimit=\"500\" />"
+                + "</parameters></module><module name=\"allpages\"><parameters>"
+                + "<param name=\"limit\" type=\"limit\" max=\"500\" highmax=\"5000\" />"
+                + "</parameters></module></modules></paraminfo></api>";
+        else if (query.contains("meta=tokens") || !query.contains("prop=") && query.contains("titles=Colour"))
+            response = tops(query);
+        else
+        {
+            int n = requests.incrementAndGet();
+            if (n <= COOKIES)
+                exchange.getResponseHeaders().add("Set-Cookie", "c" + n + "=" + n + "; path=/");
+            String title = query.replaceAll(".*titles=([^&]*).*", "$1");
+            String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+            lastcookies.put(title, cookie == null ? "" : cookie);
+            response = "<api><query><pages><page title=\"" + title + "\" missing=\"\" /></pages></query></api>";
+        }
+        byte[] body = ("<?xml version=\"1.0\"?>" + response).getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    /**
+     *  Top revisions of Foo and Color. The server spells Colour as Color,
+     *  which the client can't know.
+     */
+    private String tops(String query)
+    {
+        boolean revisions = query.contains("meta=tokens");
+        if (revisions)
+            toprequests.incrementAndGet();
+        StringBuilder converted = new StringBuilder(), pages = new StringBuilder();
+        for (String title : param(query, "titles").split("\\|"))
+        {
+            if (title.equals("Colour"))
+            {
+                converted.append("<c from=\"Colour\" to=\"Color\" />");
+                title = "Color";
+            }
+            pages.append("<page ns=\"0\" title=\"").append(title).append('"');
+            if (!title.equals("Foo") && !title.equals("Color"))
+                pages.append(" missing=\"\" />");
+            else if (revisions)
+                pages.append("><revisions><rev revid=\"").append(title.length()).append("\" parentid=\"0\" ")
+                    .append("user=\"Example\" timestamp=\"2016-01-01T00:00:00Z\" size=\"10\" comment=\"\" />")
+                    .append("</revisions></page>");
+            else
+                pages.append(" />");
+        }
+        return "<api><query>" + (converted.length() == 0 ? "" : "<converted>" + converted + "</converted>")
+            + "<pages>" + pages + "</pages></query></api>";
+    }
+
+    private static String param(String query, String name)
+    {
+        for (String param : query.split("&"))
+            if (param.startsWith(name + "="))
+                return param.substring(name.length() + 1);
+        return null;
+    }
+
+    /**
+     *  Runs a task on many threads at once and rethrows the first failure.
+     */
+    private void hammer(Callable<Void> task) throws Exception
+    {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++)
+            results.add(threads.submit(() ->
+            {
+                start.await();
+                return task.call();
+            }));
+        start.countDown();
+        try
+        {
+            for (Future<Void> result : results)
+                result.get(60, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void namespaceCache() throws Exception
+    {
+        hammer(() ->
+        {
+            for (int i = 0; i < REQUESTS_PER_THREAD; i++)
+            {
+                assertEquals(Wiki.FILE_NAMESPACE, wiki.namespace("File:Example.png"));
+                assertEquals(Wiki.USER_NAMESPACE, wiki.namespace("User:Example"));
+                assertEquals(Wiki.MAIN_NAMESPACE, wiki.namespace("Example"));
+                assertEquals("Category", wiki.namespaceIdentifier(Wiki.CATEGORY_NAMESPACE));
+            }
+            return null;
+        });
+        assertEquals("namespace cache filled once", 1, siteinforequests.get());
+        // Special, "", User, File, Category: the canonical names are the local ones
+        assertEquals(5, wiki.getNamespaces().size());
+    }
+
+    @Test
+    public void cookies() throws Exception
+    {
+        AtomicInteger next = new AtomicInteger();
+        hammer(() ->
+        {
+            for (int i = 0; i < REQUESTS_PER_THREAD; i++)
+                assertNull(wiki.getPageText("Page " + next.incrementAndGet()));
+            return null;
+        });
+        assertEquals(THREADS * REQUESTS_PER_THREAD, requests.get());
+
+        // every cookie handed out must be sent back
+        wiki.getPageText("Final");
+        Set<String> sent = new HashSet<>();
+        for (String cookie : lastcookies.get("Final").split(";\\s*"))
+            if (!cookie.isEmpty())
+                sent.add(cookie);
+        for (int i = 1; i <= COOKIES; i++)
+            assertTrue("lost cookie c" + i, sent.contains("c" + i + "=" + i));
+    }
+
+    @Test
+    public void batchedTopRevisions() throws Exception
+    {
+        wiki.setBatchingWindow(500);
+        String[] titles = { "foo", "Foo", "Colour", "Missing", "Special:Random", "A [[link]]" };
+        ExecutorService threads = Executors.newFixedThreadPool(titles.length);
+        List<Future<Wiki.Revision>> results = new ArrayList<>();
+        try
+        {
+            for (String title : titles)
+                results.add(threads.submit(() -> wiki.getTopRevision(title)));
+            Wiki.Revision foo = results.get(0).get(60, TimeUnit.SECONDS);
+            Wiki.Revision foo2 = results.get(1).get(60, TimeUnit.SECONDS);
+            assertEquals("Foo", foo.getPage());
+            assertEquals("Foo", foo2.getPage());
+            // same key, but not the same object
+            assertNotSame(foo, foo2);
+            // found under the server's spelling
+            assertEquals("Color", results.get(2).get(60, TimeUnit.SECONDS).getPage());
+            assertNull(results.get(3).get(60, TimeUnit.SECONDS));
+
+            // bad titles fail on their own, without spoiling the batch
+            for (int i = 4; i < titles.length; i++)
+            {
+                try
+                {
+                    results.get(i).get(60, TimeUnit.SECONDS);
+                    fail(titles[i] + " was looked up");
+                }
+                catch (ExecutionException expected)
+                {
+                    assertTrue(expected.getCause() instanceof UnsupportedOperationException
+                        || expected.getCause() instanceof IllegalArgumentException);
+                }
+            }
+        }
+        finally
+        {
+            threads.shutdownNow();
+        }
+        // once for everyone, once more for the second Foo
+        assertEquals(2, toprequests.get());
+    }
+
+    /**
+     *  A transport that answers every request with the same list query
+     *  response and records whether the response was copied while it was
+     *  read. The first request waits for <tt>release</tt>.
+     */
+    private static final class TeeCheckingTransport implements WikiTransport
+    {
+        private final CountDownLatch release;
+        private final AtomicInteger gets = new AtomicInteger();
+        private volatile boolean copied = false;
+
+        private TeeCheckingTransport(CountDownLatch release)
+        {
+            this.release = release;
+        }
+
+        @Override
+        public Response get(String url, Map<String, String> headers) throws IOException
+        {
+            if (gets.incrementAndGet() == 1)
+            {
+                try
+                {
+                    release.await(60, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException ex)
+                {
+                    throw new InterruptedIOException();
+                }
+            }
+            byte[] body = "<?xml version=\"1.0\"?><api><query><revisions><rev revid=\"1\" /><rev revid=\"2\" />"
+                .concat("</revisions></query></api>").getBytes("UTF-8");
+            InputStream in = new FilterInputStream(new ByteArrayInputStream(body))
+            {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    for (StackTraceElement frame : new Throwable().getStackTrace())
+                        if (frame.getClassName().endsWith("$CopyingInputStream"))
+                            copied = true;
+                    return super.read(b, off, len);
+                }
+            };
+            return new Response()
+            {
+                @Override
+                public int getStatus()
+                {
+                    return 200;
+                }
+
+                @Override
+                public String getHeader(String name)
+                {
+                    return null;
+                }
+
+                @Override
+                public List<String> getHeaders(String name)
+                {
+                    return Collections.emptyList();
+                }
+
+                @Override
+                public InputStream getBody()
+                {
+                    return in;
+                }
+
+                @Override
+                public void close()
+                {
+                }
+            };
+        }
+
+        @Override
+        public Response post(String url, Map<String, String> headers, String contenttype, byte[] body) throws IOException
+        {
+            return get(url, headers);
+        }
+    }
+
+    private static List<String> revids(Wiki wiki) throws IOException
+    {
+        List<String> revids = new ArrayList<>();
+        wiki.fetchItems(wiki.query + "list=example", "revisions", null, item -> item.get("revid"), revids, "revids");
+        return revids;
+    }
+
+    @Test
+    public void uncoalescedItemsNotBuffered() throws Exception
+    {
+        // nobody else asks, so the response is parsed straight off the wire
+        TeeCheckingTransport transport = new TeeCheckingTransport(new CountDownLatch(0));
+        wiki.setTransport(transport);
+        assertEquals(Arrays.asList("1", "2"), revids(wiki));
+        assertFalse("response buffered for nobody", transport.copied);
+
+        // someone joins while the first request waits for the server
+        CountDownLatch release = new CountDownLatch(1);
+        transport = new TeeCheckingTransport(release);
+        wiki.setTransport(transport);
+        long coalesced = wiki.getCoalescedRequests();
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try
+        {
+            Future<List<String>> first = threads.submit(() -> revids(wiki));
+            while (transport.gets.get() == 0)
+                Thread.sleep(5);
+            Future<List<String>> second = threads.submit(() -> revids(wiki));
+            while (wiki.getCoalescedRequests() == coalesced)
+                Thread.sleep(5);
+            release.countDown();
+            assertEquals(Arrays.asList("1", "2"), first.get(60, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("1", "2"), second.get(60, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            threads.shutdownNow();
+        }
+        assertTrue("response not kept for the waiting request", transport.copied);
+        assertEquals(1, transport.gets.get());
+    }
+}
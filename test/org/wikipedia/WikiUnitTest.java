@@ -470,6 +470,17 @@ public class WikiUnitTest
             "\n'''&amp;'''\n&&\n&lt;&gt;\n<>\n&quot;");
         assertNull("getPageText: non-existent page", text[2]);
     }
+
+    @Test
+    public void getRevisionTexts() throws Exception
+    {
+        // https://test.wikipedia.org/w/index.php?oldid=230472
+        String[] text = testWiki.getRevisionTexts(new long[] { 230472L, 230472L });
+        // API result does not include the terminating new line
+        assertEquals("getRevisionTexts: decoding", "&#039;&#039;italic&#039;&#039;" +
+            "\n'''&amp;'''\n&&\n&lt;&gt;\n<>\n&quot;", text[0]);
+        assertEquals("getRevisionTexts: duplicates", text[0], text[1]);
+    }
     
     @Test
     public void allUsersInGroup() throws Exception
@@ -511,10 +522,38 @@ public class WikiUnitTest
                 "A91|A92|A93|A94|A95|A96|A97|A98", "UTF-8"),
             URLEncoder.encode("A99", "UTF-8")
         };
-        String[] actual = enWiki.constructTitleString(titles, false);
+        String[] actual = enWiki.constructTitleString(titles);
         assertArrayEquals("constructTitleString", expected, actual);
     }
-    
+
+    @Test
+    public void timestamps() throws Exception
+    {
+        assertEquals("timestampToEpoch", 1451703845L, enWiki.timestampToEpoch("2016-01-02T03:04:05Z"));
+        assertEquals("timestampToEpoch: epoch", 0L, enWiki.timestampToEpoch("1970-01-01T00:00:00Z"));
+        assertEquals("timestampToEpoch: leap day", 951782400L, enWiki.timestampToEpoch("2000-02-29T00:00:00Z"));
+        assertEquals("convertTimestamp", "20160102030405", enWiki.convertTimestamp("2016-01-02T03:04:05Z"));
+
+        Calendar c = enWiki.timestampToCalendar("2016-12-31T23:59:59Z", true);
+        assertEquals("timestampToCalendar: year", 2016, c.get(Calendar.YEAR));
+        assertEquals("timestampToCalendar: month", Calendar.DECEMBER, c.get(Calendar.MONTH));
+        assertEquals("timestampToCalendar: day", 31, c.get(Calendar.DAY_OF_MONTH));
+        assertEquals("timestampToCalendar: second", 59, c.get(Calendar.SECOND));
+        assertEquals("calendarToTimestamp", "20161231235959", enWiki.calendarToTimestamp(c));
+        assertEquals("calendarToEpoch", enWiki.timestampToEpoch("2016-12-31T23:59:59Z"), enWiki.calendarToEpoch(c));
+        assertEquals("epochToCalendar", c, enWiki.epochToCalendar(enWiki.calendarToEpoch(c)));
+        assertEquals("timestampToCalendar: yyyymmddhhmmss", c, enWiki.timestampToCalendar("20161231235959", false));
+
+        // round trip, every day for a few centuries
+        for (long epoch = -4000000000L; epoch < 8000000000L; epoch += 86399L)
+        {
+            String compact = TimestampCodec.formatCompact(epoch);
+            assertEquals("codec: compact round trip", epoch, TimestampCodec.parseCompact(compact));
+            assertEquals("codec: iso round trip", epoch, TimestampCodec.parseIso(TimestampCodec.formatIso(epoch)));
+            assertEquals("codec: iso to compact", compact, TimestampCodec.isoToCompact(TimestampCodec.formatIso(epoch)));
+        }
+    }
+
     // INNER CLASS TESTS
     
     @Test